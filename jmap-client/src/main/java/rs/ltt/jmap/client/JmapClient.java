@@ -17,16 +17,30 @@
 package rs.ltt.jmap.client;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.Closeable;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import okhttp3.HttpUrl;
+import rs.ltt.jmap.client.api.AdmissionController;
 import rs.ltt.jmap.client.api.JmapApiClient;
 import rs.ltt.jmap.client.api.JmapApiClientFactory;
+import rs.ltt.jmap.client.api.RequestTimeoutException;
+import rs.ltt.jmap.client.api.RetryPolicy;
 import rs.ltt.jmap.client.api.SessionStateListener;
 import rs.ltt.jmap.client.blob.*;
 import rs.ltt.jmap.client.event.EventSourcePushService;
@@ -34,14 +48,18 @@ import rs.ltt.jmap.client.event.OnStateChangeListener;
 import rs.ltt.jmap.client.event.PushService;
 import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
 import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.metrics.MetricsListener;
 import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.client.session.SessionCache;
 import rs.ltt.jmap.client.session.SessionClient;
 import rs.ltt.jmap.client.util.Closeables;
+import rs.ltt.jmap.common.Request;
+import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.entity.Downloadable;
 import rs.ltt.jmap.common.entity.Upload;
 import rs.ltt.jmap.common.entity.capability.CoreCapability;
 import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
 
 public class JmapClient implements Closeable {
 
@@ -57,15 +75,22 @@ public class JmapClient implements Closeable {
             };
     private JmapApiClient jmapApiClient;
     private boolean useWebSocket = false;
+    private int maxConcurrentRequests = Integer.MAX_VALUE;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private volatile Duration requestTimeout = null;
+    private final Map<String, AtomicLong> requestTimeouts = new ConcurrentHashMap<>();
+    private final AdmissionController admissionController;
+    private final Transport transport;
+    private volatile DiskBlobCache blobCache = null;
+    private final Set<PushService> pushServices =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
 
     public JmapClient(String username, String password) {
         this(new BasicAuthHttpAuthentication(username, password));
     }
 
     public JmapClient(HttpAuthentication httpAuthentication) {
-        this.authentication = httpAuthentication;
-        this.sessionClient = new SessionClient(httpAuthentication);
-        this.binaryDataClient = new BinaryDataClient(httpAuthentication);
+        this(httpAuthentication, null, Transport.DEFAULT);
     }
 
     public JmapClient(String username, String password, HttpUrl base) {
@@ -73,9 +98,32 @@ public class JmapClient implements Closeable {
     }
 
     public JmapClient(HttpAuthentication httpAuthentication, HttpUrl sessionResource) {
+        this(httpAuthentication, sessionResource, Transport.DEFAULT);
+    }
+
+    /**
+     * @param httpAuthentication The credentials
+     * @param sessionResource The URL of the session resource. null to discover it via the
+     *     .well-known/jmap URL of the domain of the username
+     * @param transport The HTTP client, executor and JSON codec to use
+     */
+    public JmapClient(
+            final HttpAuthentication httpAuthentication,
+            @Nullable final HttpUrl sessionResource,
+            final Transport transport) {
         this.authentication = httpAuthentication;
-        this.sessionClient = new SessionClient(httpAuthentication, sessionResource);
-        this.binaryDataClient = new BinaryDataClient(httpAuthentication);
+        this.transport = Preconditions.checkNotNull(transport, "Transport must not be null");
+        this.sessionClient = new SessionClient(httpAuthentication, sessionResource, transport);
+        this.binaryDataClient = new BinaryDataClient(httpAuthentication, transport);
+        this.admissionController = new AdmissionController(transport);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Transport getTransport() {
+        return this.transport;
     }
 
     public String getUsername() {
@@ -83,10 +131,33 @@ public class JmapClient implements Closeable {
     }
 
     public ListenableFuture<MethodResponses> call(MethodCall methodCall) {
+        return call(methodCall, this.requestTimeout);
+    }
+
+    /**
+     * @param methodCall The method to call
+     * @param timeout The time the server has to respond. null to wait forever.
+     * @return The responses of the method call
+     */
+    public ListenableFuture<MethodResponses> call(
+            final MethodCall methodCall, @Nullable final Duration timeout) {
+        return call(methodCall, timeout, Priority.NORMAL);
+    }
+
+    public ListenableFuture<MethodResponses> call(
+            final MethodCall methodCall, final Priority priority) {
+        return call(methodCall, this.requestTimeout, priority);
+    }
+
+    private ListenableFuture<MethodResponses> call(
+            final MethodCall methodCall,
+            @Nullable final Duration timeout,
+            final Priority priority) {
         // TODO check if JmapApiClient has been closed
         // Preconditions.checkState(!isShutdown(), "Unable to call method. JmapClient has been
         // closed already");
-        final JmapRequest.Builder jmapRequestBuilder = new JmapRequest.Builder();
+        final JmapRequest.Builder jmapRequestBuilder =
+                new JmapRequest.Builder().timeout(timeout).priority(priority);
         final ListenableFuture<MethodResponses> methodResponsesFuture =
                 jmapRequestBuilder.call(methodCall).getMethodResponses();
         this.execute(jmapRequestBuilder.build());
@@ -94,6 +165,7 @@ public class JmapClient implements Closeable {
     }
 
     private void execute(final JmapRequest request) {
+        observe(request);
         final ListenableFuture<Session> sessionFuture = getSession();
         request.addDependentFuture(sessionFuture);
         Futures.addCallback(
@@ -112,16 +184,78 @@ public class JmapClient implements Closeable {
                 MoreExecutors.directExecutor());
     }
 
+    /** Reports completed methods to the MetricsListener and counts timeouts */
+    private void observe(final JmapRequest request) {
+        final MetricsListener metricsListener = this.transport.getMetricsListener();
+        metricsListener.onQueued(request);
+        final long queued = System.nanoTime();
+        for (final Map.Entry<Request.Invocation, SettableFuture<MethodResponses>> entry :
+                request.getInvocationFutureImmutableMap().entrySet()) {
+            final String methodName = JmapRequest.getMethodName(entry.getKey().getMethodCall());
+            Futures.addCallback(
+                    entry.getValue(),
+                    new FutureCallback<MethodResponses>() {
+                        @Override
+                        public void onSuccess(final MethodResponses methodResponses) {
+                            metricsListener.onMethodCompleted(
+                                    methodName, Duration.ofNanos(System.nanoTime() - queued));
+                        }
+
+                        @Override
+                        public void onFailure(@Nonnull final Throwable throwable) {
+                            if (throwable instanceof RequestTimeoutException) {
+                                requestTimeouts
+                                        .computeIfAbsent(methodName, k -> new AtomicLong())
+                                        .incrementAndGet();
+                            }
+                            metricsListener.onMethodFailed(
+                                    methodName,
+                                    Duration.ofNanos(System.nanoTime() - queued),
+                                    throwable);
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+        }
+    }
+
+    /** @return The number of method calls that timed out, keyed by method name */
+    public ImmutableMap<String, Long> getRequestTimeouts() {
+        final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, AtomicLong> entry : this.requestTimeouts.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().get());
+        }
+        return builder.build();
+    }
+
     private void execute(final JmapRequest request, final Session session) {
         try {
             Preconditions.checkState(session != null, "Session was null");
             final JmapApiClient apiClient = getApiClient(session);
+            this.admissionController.setLimit(
+                    JmapApiClientFactory.getMaxConcurrentRequests(
+                            session, this.maxConcurrentRequests));
+            this.admissionController.execute(request, () -> execute(request, apiClient));
+        } catch (final Throwable throwable) {
+            request.setException(throwable);
+        }
+    }
+
+    private static void execute(final JmapRequest request, final JmapApiClient apiClient) {
+        try {
             apiClient.execute(request);
         } catch (final Throwable throwable) {
             request.setException(throwable);
         }
     }
 
+    /**
+     * @return The admission controller that limits the number of concurrent requests. Exposes the
+     *     number of queued requests and the time they spent waiting.
+     */
+    public AdmissionController getAdmissionController() {
+        return this.admissionController;
+    }
+
     private JmapApiClient getApiClient(final Session session) {
         final JmapApiClient current = this.jmapApiClient;
         if (current != null && current.isValidFor(session)) {
@@ -133,7 +267,12 @@ public class JmapClient implements Closeable {
             }
             // TODO remember to stop/close invalid clients
             final JmapApiClientFactory factory =
-                    new JmapApiClientFactory(authentication, sessionStateListener);
+                    new JmapApiClientFactory(
+                            authentication,
+                            sessionStateListener,
+                            maxConcurrentRequests,
+                            retryPolicy,
+                            transport);
             this.jmapApiClient = factory.getJmapApiClient(session, this.useWebSocket);
             return jmapApiClient;
         }
@@ -143,35 +282,101 @@ public class JmapClient implements Closeable {
         return sessionClient.get();
     }
 
+    /**
+     * Does the work that would otherwise delay the first call. Resolves the session (from the
+     * {@link SessionCache} if available), opens a connection to the API (a WebSocket if enabled)
+     * that is kept for subsequent calls and loads the JSON serializers by sending a Core/echo
+     * request.
+     *
+     * @return A future that completes once the client is ready
+     */
+    public ListenableFuture<Void> warmUp() {
+        return Futures.transform(
+                call(new EchoMethodCall(Version.ARTIFACT_ID)),
+                methodResponses -> null,
+                MoreExecutors.directExecutor());
+    }
+
     public ListenableFuture<PushService> monitorEvents() {
         return monitorEvents(null);
     }
 
     public ListenableFuture<PushService> monitorEvents(
             @Nullable final OnStateChangeListener onStateChangeListener) {
+        return monitorEvents(onStateChangeListener, Collections.emptySet());
+    }
+
+    /**
+     * @param onStateChangeListener The listener to register
+     * @param types The types the listener is interested in. An empty collection means all types.
+     * @return The push service the listener has been registered with
+     */
+    public ListenableFuture<PushService> monitorEvents(
+            @Nullable final OnStateChangeListener onStateChangeListener,
+            final Collection<Class<? extends AbstractIdentifiableEntity>> types) {
         return Futures.transform(
                 getSession(),
-                session -> monitorEvents(session, onStateChangeListener),
+                session -> monitorEvents(session, onStateChangeListener, types),
                 MoreExecutors.directExecutor());
     }
 
     private PushService monitorEvents(
-            final Session session, @Nullable final OnStateChangeListener onStateChangeListener) {
+            final Session session,
+            @Nullable final OnStateChangeListener onStateChangeListener,
+            final Collection<Class<? extends AbstractIdentifiableEntity>> types) {
         final JmapApiClient jmapApiClient = getApiClient(session);
         final PushService pushService;
         if (jmapApiClient instanceof PushService) {
             pushService = (PushService) jmapApiClient;
         } else {
-            pushService = new EventSourcePushService(session, authentication);
+            pushService = new EventSourcePushService(session, authentication, transport);
         }
         if (onStateChangeListener != null) {
-            pushService.addOnStateChangeListener(onStateChangeListener);
+            pushService.addOnStateChangeListener(onStateChangeListener, types);
         }
+        this.pushServices.add(pushService);
         return pushService;
     }
 
+    /**
+     * @return true if a push service returned by {@link #monitorEvents()} has at least one
+     *     OnStateChangeListener registered
+     */
+    public boolean hasPushSubscription() {
+        synchronized (this.pushServices) {
+            for (final PushService pushService : this.pushServices) {
+                if (pushService.isPushNotificationsEnabled()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public MultiCall newMultiCall() {
-        return new MultiCall();
+        return new MultiCall(this.requestTimeout, Priority.NORMAL);
+    }
+
+    /** @param timeout The time the server has to respond. null to wait forever. */
+    public MultiCall newMultiCall(@Nullable final Duration timeout) {
+        return new MultiCall(timeout, Priority.NORMAL);
+    }
+
+    public MultiCall newMultiCall(final Priority priority) {
+        return new MultiCall(this.requestTimeout, priority);
+    }
+
+    /**
+     * The default time the server has to respond to a request. Requests that time out fail with
+     * {@link RequestTimeoutException}.
+     *
+     * @param requestTimeout The timeout. null to wait forever.
+     */
+    public void setRequestTimeout(@Nullable final Duration requestTimeout) {
+        Preconditions.checkArgument(
+                requestTimeout == null || !requestTimeout.isNegative(),
+                "Timeout must not be negative");
+        this.requestTimeout = requestTimeout;
     }
 
     public void setSessionCache(SessionCache sessionCache) {
@@ -187,6 +392,48 @@ public class JmapClient implements Closeable {
         this.useWebSocket = useWebSocket;
     }
 
+    /**
+     * Limits the number of requests in flight on a WebSocket connection. The limit announced by the
+     * server (maxConcurrentRequests in the core capability) takes precedence if it is lower.
+     *
+     * @param maxConcurrentRequests The maximum number of requests in flight
+     */
+    public void setMaxConcurrentRequests(final int maxConcurrentRequests) {
+        Preconditions.checkArgument(
+                maxConcurrentRequests > 0, "maxConcurrentRequests must be positive");
+        synchronized (this) {
+            Preconditions.checkState(
+                    this.jmapApiClient == null,
+                    "maxConcurrentRequests needs to be set before making the first API call");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Read-only requests that fail with a transient error are repeated according to this policy.
+     * Defaults to {@link RetryPolicy#DEFAULT}. Use {@link RetryPolicy#NONE} to disable retries.
+     *
+     * @param retryPolicy The policy
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        Preconditions.checkNotNull(retryPolicy, "RetryPolicy must not be null");
+        synchronized (this) {
+            Preconditions.checkState(
+                    this.jmapApiClient == null,
+                    "RetryPolicy needs to be set before making the first API call");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Downloads are served from and written to this cache. See {@link DiskBlobCache}.
+     *
+     * @param blobCache The cache or null to disable caching
+     */
+    public void setBlobCache(@Nullable final DiskBlobCache blobCache) {
+        this.blobCache = blobCache;
+    }
+
     public ListenableFuture<Download> download(
             final String accountId, final Downloadable downloadable) {
         return Futures.transformAsync(
@@ -201,7 +448,15 @@ public class JmapClient implements Closeable {
             final Downloadable downloadable,
             final long rangeStart) {
         final HttpUrl httpUrl = session.getDownloadUrl(accountId, downloadable);
-        return this.binaryDataClient.download(httpUrl, rangeStart);
+        final DiskBlobCache blobCache = this.blobCache;
+        if (blobCache == null) {
+            return this.binaryDataClient.download(httpUrl, rangeStart);
+        }
+        return blobCache.download(
+                accountId,
+                downloadable.getBlobId(),
+                rangeStart,
+                start -> this.binaryDataClient.download(httpUrl, start));
     }
 
     public ListenableFuture<Download> download(
@@ -213,6 +468,43 @@ public class JmapClient implements Closeable {
                 MoreExecutors.directExecutor());
     }
 
+    /**
+     * Downloads a blob into a file using {@link BinaryDataClient#DEFAULT_PARALLELISM} concurrent
+     * range requests. Calling this again with the same destination resumes an interrupted download.
+     *
+     * @return The size of the blob
+     */
+    public ListenableFuture<Long> download(
+            final String accountId,
+            final Downloadable downloadable,
+            final Path destination,
+            final Progress progress) {
+        return download(
+                accountId,
+                downloadable,
+                destination,
+                BinaryDataClient.DEFAULT_PARALLELISM,
+                progress);
+    }
+
+    public ListenableFuture<Long> download(
+            final String accountId,
+            final Downloadable downloadable,
+            final Path destination,
+            final int parallelism,
+            final Progress progress) {
+        Preconditions.checkNotNull(destination, "destination must not be null");
+        return Futures.transformAsync(
+                getSession(),
+                session ->
+                        this.binaryDataClient.download(
+                                session.getDownloadUrl(accountId, downloadable),
+                                destination,
+                                parallelism,
+                                progress),
+                MoreExecutors.directExecutor());
+    }
+
     public ListenableFuture<Upload> upload(
             @Nonnull final String accountId,
             @Nonnull final Uploadable uploadable,
@@ -252,19 +544,28 @@ public class JmapClient implements Closeable {
 
     public class MultiCall {
 
-        private final JmapRequest.Builder jmapRequestBuilder = new JmapRequest.Builder();
+        private final JmapRequest.Builder jmapRequestBuilder;
         private boolean executed = false;
+        private int calls = 0;
 
-        private MultiCall() {}
+        private MultiCall(@Nullable final Duration timeout, final Priority priority) {
+            this.jmapRequestBuilder = new JmapRequest.Builder().timeout(timeout).priority(priority);
+        }
 
         public synchronized JmapRequest.Call call(MethodCall methodCall) {
             Preconditions.checkState(
                     !executed, "Unable to add MethodCall. MultiCall has already been executed");
+            calls++;
             return jmapRequestBuilder.call(methodCall);
         }
 
         public synchronized void execute() {
             Preconditions.checkState(!executed, "You must not execute the same MultiCall twice");
+            if (calls == 0) {
+                // nothing to do; avoid sending an empty request
+                this.executed = true;
+                return;
+            }
 
             // TODO check if jmapApiClient is shutdown or closed or something
 
@@ -274,4 +575,97 @@ public class JmapClient implements Closeable {
             JmapClient.this.execute(jmapRequestBuilder.build());
         }
     }
+
+    public static class Builder {
+        private HttpAuthentication httpAuthentication;
+        private HttpUrl sessionResource;
+        private Transport transport = Transport.DEFAULT;
+        private SessionCache sessionCache;
+        private Boolean useWebSocket;
+        private Integer maxConcurrentRequests;
+        private Duration requestTimeout;
+        private RetryPolicy retryPolicy;
+        private DiskBlobCache blobCache;
+
+        private Builder() {}
+
+        public Builder credentials(final String username, final String password) {
+            return httpAuthentication(new BasicAuthHttpAuthentication(username, password));
+        }
+
+        public Builder httpAuthentication(final HttpAuthentication httpAuthentication) {
+            this.httpAuthentication = httpAuthentication;
+            return this;
+        }
+
+        public Builder sessionResource(final HttpUrl sessionResource) {
+            this.sessionResource = sessionResource;
+            return this;
+        }
+
+        /**
+         * @param transport The HTTP client, executor and JSON codec. Clients that are given the
+         *     same transport share connection pool, dispatcher and scheduler.
+         * @return this builder
+         */
+        public Builder transport(final Transport transport) {
+            this.transport = Preconditions.checkNotNull(transport);
+            return this;
+        }
+
+        public Builder sessionCache(final SessionCache sessionCache) {
+            this.sessionCache = sessionCache;
+            return this;
+        }
+
+        public Builder useWebSocket(final boolean useWebSocket) {
+            this.useWebSocket = useWebSocket;
+            return this;
+        }
+
+        /** See {@link JmapClient#setMaxConcurrentRequests(int)} */
+        public Builder maxConcurrentRequests(final int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /** See {@link JmapClient#setRequestTimeout(Duration)} */
+        public Builder requestTimeout(@Nullable final Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /** See {@link JmapClient#setRetryPolicy(RetryPolicy)} */
+        public Builder retryPolicy(final RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /** See {@link JmapClient#setBlobCache(DiskBlobCache)} */
+        public Builder blobCache(@Nullable final DiskBlobCache blobCache) {
+            this.blobCache = blobCache;
+            return this;
+        }
+
+        public JmapClient build() {
+            Preconditions.checkNotNull(httpAuthentication, "Credentials are required");
+            final JmapClient jmapClient =
+                    new JmapClient(httpAuthentication, sessionResource, transport);
+            if (sessionCache != null) {
+                jmapClient.setSessionCache(sessionCache);
+            }
+            if (useWebSocket != null) {
+                jmapClient.setUseWebSocket(useWebSocket);
+            }
+            if (maxConcurrentRequests != null) {
+                jmapClient.setMaxConcurrentRequests(maxConcurrentRequests);
+            }
+            jmapClient.setRequestTimeout(requestTimeout);
+            if (retryPolicy != null) {
+                jmapClient.setRetryPolicy(retryPolicy);
+            }
+            jmapClient.setBlobCache(blobCache);
+            return jmapClient;
+        }
+    }
 }
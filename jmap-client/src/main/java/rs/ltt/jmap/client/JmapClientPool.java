@@ -0,0 +1,343 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.api.AdmissionController;
+import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.session.InMemorySessionCache;
+import rs.ltt.jmap.client.session.SessionCache;
+
+/**
+ * Manages the JmapClients of many accounts in server side deployments. All clients share one {@link
+ * Transport} (connection pool, dispatcher, scheduler and codec) and one {@link SessionCache} so
+ * that memory and thread count do not grow with the number of accounts. The dispatcher limits the
+ * number of requests per host so that a single slow server can not starve the others.
+ *
+ * <p>Clients are created on first use and closed after they have not been requested for the idle
+ * timeout, have no requests in progress and no push subscription. Callers should not hold on to
+ * clients but call {@link #get(HttpAuthentication, HttpUrl)} whenever they need one. Push
+ * connections are only opened if {@link JmapClient#monitorEvents()} is called on a client. A
+ * WebSocket push connection is closed together with the client; an EventSource push service is
+ * independent of the client and needs to be disabled by the caller once it is no longer needed.
+ *
+ * <p>{@link HttpAuthentication} implementations are compared with equals. A client whose
+ * credentials differ from the requested credentials is replaced.
+ */
+public class JmapClientPool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmapClientPool.class);
+
+    private final Map<Key, Entry> clients = new ConcurrentHashMap<>();
+    private final Transport transport;
+    private final SessionCache sessionCache;
+    private final Duration idleTimeout;
+    private final boolean useWebSocket;
+    private final Integer maxConcurrentRequests;
+    private final ScheduledFuture<?> evictionFuture;
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    private JmapClientPool(final Builder builder) {
+        this.transport = builder.buildTransport();
+        this.sessionCache = builder.sessionCache;
+        this.idleTimeout = builder.idleTimeout;
+        this.useWebSocket = builder.useWebSocket;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        final long interval = Math.max(1000, this.idleTimeout.toMillis() / 2);
+        this.evictionFuture =
+                this.transport
+                        .getScheduledExecutorService()
+                        .scheduleWithFixedDelay(
+                                this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public JmapClient get(final String username, final String password) {
+        return get(new BasicAuthHttpAuthentication(username, password), null);
+    }
+
+    /**
+     * @param httpAuthentication The credentials of the account
+     * @param sessionResource The session resource. null to discover it from the username
+     * @return A client for the account. Either an existing one or a newly created one
+     */
+    public JmapClient get(
+            final HttpAuthentication httpAuthentication, @Nullable final HttpUrl sessionResource) {
+        Preconditions.checkNotNull(httpAuthentication, "HttpAuthentication must not be null");
+        final Key key = new Key(httpAuthentication.getUsername(), sessionResource);
+        final Entry[] replaced = new Entry[1];
+        final Entry entry =
+                this.clients.compute(
+                        key,
+                        (k, existing) -> {
+                            if (existing != null
+                                    && existing.httpAuthentication.equals(httpAuthentication)) {
+                                existing.lastAccess = System.nanoTime();
+                                return existing;
+                            }
+                            replaced[0] = existing;
+                            return new Entry(httpAuthentication, create(k, httpAuthentication));
+                        });
+        if (replaced[0] != null) {
+            LOGGER.info("Replacing client of {} after credentials changed", key.username);
+            replaced[0].jmapClient.close();
+        }
+        return entry.jmapClient;
+    }
+
+    private JmapClient create(final Key key, final HttpAuthentication httpAuthentication) {
+        final JmapClient.Builder builder =
+                JmapClient.builder()
+                        .httpAuthentication(httpAuthentication)
+                        .sessionResource(key.sessionResource)
+                        .sessionCache(this.sessionCache)
+                        .transport(this.transport)
+                        .useWebSocket(this.useWebSocket);
+        if (this.maxConcurrentRequests != null) {
+            builder.maxConcurrentRequests(this.maxConcurrentRequests);
+        }
+        this.created.incrementAndGet();
+        return builder.build();
+    }
+
+    private void evictIdle() {
+        final long now = System.nanoTime();
+        for (final Key key : this.clients.keySet()) {
+            final Entry[] removed = new Entry[1];
+            // re-check under the lock of the mapping so that a concurrent get() either sees the
+            // removal or refreshes lastAccess before the check
+            this.clients.computeIfPresent(
+                    key,
+                    (k, entry) -> {
+                        if (now - entry.lastAccess < this.idleTimeout.toNanos() || entry.isBusy()) {
+                            return entry;
+                        }
+                        removed[0] = entry;
+                        return null;
+                    });
+            if (removed[0] != null) {
+                LOGGER.debug("Evicting idle client of {}", key.username);
+                this.evicted.incrementAndGet();
+                removed[0].jmapClient.close();
+            }
+        }
+    }
+
+    public Transport getTransport() {
+        return this.transport;
+    }
+
+    /** @return The number of clients currently in the pool */
+    public int getSize() {
+        return this.clients.size();
+    }
+
+    /** @return The number of clients that have been created since the pool was created */
+    public long getCreated() {
+        return this.created.get();
+    }
+
+    /** @return The number of clients that have been closed because they were idle */
+    public long getEvicted() {
+        return this.evicted.get();
+    }
+
+    /** @return The number of requests that have been sent but not completed across all clients */
+    public int getRunningRequests() {
+        int running = 0;
+        for (final Entry entry : this.clients.values()) {
+            running += entry.jmapClient.getAdmissionController().getRunning();
+        }
+        return running;
+    }
+
+    /** @return The number of requests waiting for a free slot across all clients */
+    public int getQueuedRequests() {
+        int queued = 0;
+        for (final Entry entry : this.clients.values()) {
+            queued += entry.jmapClient.getAdmissionController().getQueueDepth();
+        }
+        return queued;
+    }
+
+    /** @return The number of method calls that timed out in current clients, keyed by name */
+    public ImmutableMap<String, Long> getRequestTimeouts() {
+        final Map<String, Long> timeouts = new HashMap<>();
+        for (final Entry entry : this.clients.values()) {
+            for (final Map.Entry<String, Long> timeout :
+                    entry.jmapClient.getRequestTimeouts().entrySet()) {
+                timeouts.merge(timeout.getKey(), timeout.getValue(), Long::sum);
+            }
+        }
+        return ImmutableMap.copyOf(timeouts);
+    }
+
+    /** Closes all clients. The shared transport is left untouched. */
+    @Override
+    public void close() {
+        this.evictionFuture.cancel(false);
+        final Iterator<Entry> iterator = this.clients.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            iterator.remove();
+            entry.jmapClient.close();
+        }
+    }
+
+    private static class Key {
+        private final String username;
+        private final HttpUrl sessionResource;
+
+        private Key(final String username, final HttpUrl sessionResource) {
+            this.username = username;
+            this.sessionResource = sessionResource;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return Objects.equal(username, key.username)
+                    && Objects.equal(sessionResource, key.sessionResource);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(username, sessionResource);
+        }
+    }
+
+    private static class Entry {
+        private final HttpAuthentication httpAuthentication;
+        private final JmapClient jmapClient;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Entry(final HttpAuthentication httpAuthentication, final JmapClient jmapClient) {
+            this.httpAuthentication = httpAuthentication;
+            this.jmapClient = jmapClient;
+        }
+
+        private boolean isBusy() {
+            final AdmissionController admissionController =
+                    this.jmapClient.getAdmissionController();
+            return admissionController.getRunning() > 0
+                    || admissionController.getQueueDepth() > 0
+                    || this.jmapClient.hasPushSubscription();
+        }
+    }
+
+    public static class Builder {
+        private Transport transport = null;
+        private SessionCache sessionCache = new InMemorySessionCache();
+        private Duration idleTimeout = Duration.ofMinutes(5);
+        private boolean useWebSocket = false;
+        private Integer maxConcurrentRequests = null;
+        private int maxRequests = 256;
+        private int maxRequestsPerHost = 16;
+
+        private Builder() {}
+
+        /**
+         * @param transport The transport shared by all clients. If set the transport's dispatcher
+         *     is used as is and {@link #maxRequests(int)} and {@link #maxRequestsPerHost(int)} are
+         *     ignored.
+         * @return this builder
+         */
+        public Builder transport(final Transport transport) {
+            this.transport = Preconditions.checkNotNull(transport);
+            return this;
+        }
+
+        public Builder sessionCache(final SessionCache sessionCache) {
+            this.sessionCache = Preconditions.checkNotNull(sessionCache);
+            return this;
+        }
+
+        public Builder idleTimeout(final Duration idleTimeout) {
+            Preconditions.checkArgument(
+                    !idleTimeout.isNegative() && !idleTimeout.isZero(),
+                    "Idle timeout must be positive");
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder useWebSocket(final boolean useWebSocket) {
+            this.useWebSocket = useWebSocket;
+            return this;
+        }
+
+        /** @param maxConcurrentRequests The limit per client. See {@link JmapClient.Builder} */
+        public Builder maxConcurrentRequests(final int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /** @param maxRequests The maximum number of HTTP requests in flight across all hosts */
+        public Builder maxRequests(final int maxRequests) {
+            Preconditions.checkArgument(maxRequests > 0, "maxRequests must be positive");
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /** @param maxRequestsPerHost The maximum number of HTTP requests in flight per host */
+        public Builder maxRequestsPerHost(final int maxRequestsPerHost) {
+            Preconditions.checkArgument(
+                    maxRequestsPerHost > 0, "maxRequestsPerHost must be positive");
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        private Transport buildTransport() {
+            if (this.transport != null) {
+                return this.transport;
+            }
+            final Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(this.maxRequests);
+            dispatcher.setMaxRequestsPerHost(this.maxRequestsPerHost);
+            final OkHttpClient okHttpClient =
+                    new OkHttpClient.Builder().dispatcher(dispatcher).build();
+            return Transport.builder().httpClient(okHttpClient).build();
+        }
+
+        public JmapClientPool build() {
+            return new JmapClientPool(this);
+        }
+    }
+}
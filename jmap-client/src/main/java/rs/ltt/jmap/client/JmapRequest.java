@@ -16,17 +16,22 @@
 
 package rs.ltt.jmap.client;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.method.MethodCall;
+import rs.ltt.jmap.common.util.Mapper;
 
 public class JmapRequest {
 
@@ -34,8 +39,16 @@ public class JmapRequest {
             invocationFutureImmutableMap;
     private final Request request;
     private final ArrayList<Future<?>> dependentFutures = new ArrayList<>();
-
-    private JmapRequest(Map<Request.Invocation, SettableFuture<MethodResponses>> map) {
+    private final Duration timeout;
+    private final Priority priority;
+    private final long created = System.nanoTime();
+
+    private JmapRequest(
+            Map<Request.Invocation, SettableFuture<MethodResponses>> map,
+            @Nullable final Duration timeout,
+            final Priority priority) {
+        this.timeout = timeout;
+        this.priority = priority;
         final Request.Builder requestBuilder = new Request.Builder();
         for (Request.Invocation invocation : map.keySet()) {
             requestBuilder.add(invocation);
@@ -73,11 +86,49 @@ public class JmapRequest {
         return request;
     }
 
+    /**
+     * @return The time the server has to respond, measured from the creation of this request. null
+     *     if the request never times out.
+     */
+    @Nullable
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /** @return The time left until this request times out. Negative if the request is overdue. */
+    public Duration getRemainingTime() {
+        Preconditions.checkState(this.timeout != null, "Request has no timeout");
+        return this.timeout.minusNanos(System.nanoTime() - this.created);
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public boolean isDone() {
+        return invocationFutureImmutableMap.values().stream().allMatch(Future::isDone);
+    }
+
+    public ImmutableList<String> getMethodNames() {
+        final ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (final Request.Invocation invocation : invocationFutureImmutableMap.keySet()) {
+            builder.add(getMethodName(invocation.getMethodCall()));
+        }
+        return builder.build();
+    }
+
+    public static String getMethodName(final MethodCall methodCall) {
+        final String name = Mapper.METHOD_CALLS.inverse().get(methodCall.getClass());
+        return name == null ? methodCall.getClass().getSimpleName() : name;
+    }
+
     public static class Builder {
 
         private final Map<Request.Invocation, SettableFuture<MethodResponses>> map =
                 new LinkedHashMap<>();
         private int nextMethodCallId = 0;
+        private Duration timeout = null;
+        private Priority priority = Priority.NORMAL;
 
         public Call call(final MethodCall methodCall) {
             final Request.Invocation invocation =
@@ -97,8 +148,20 @@ public class JmapRequest {
             return future;
         }
 
+        public Builder timeout(@Nullable final Duration timeout) {
+            Preconditions.checkArgument(
+                    timeout == null || !timeout.isNegative(), "Timeout must not be negative");
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder priority(final Priority priority) {
+            this.priority = Preconditions.checkNotNull(priority, "Priority must not be null");
+            return this;
+        }
+
         public JmapRequest build() {
-            return new JmapRequest(map);
+            return new JmapRequest(map, timeout, priority);
         }
     }
 
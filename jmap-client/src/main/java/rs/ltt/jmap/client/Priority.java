@@ -0,0 +1,30 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client;
+
+/**
+ * Requests that have to wait for a free slot (see {@link JmapClient#setMaxConcurrentRequests(int)})
+ * are sent in order of their priority.
+ */
+public enum Priority {
+    /** Requests a user is actively waiting for */
+    INTERACTIVE,
+    /** The default for requests that have not been assigned a priority */
+    NORMAL,
+    /** Synchronization, prefetching and other work nobody is actively waiting for */
+    BACKGROUND
+}
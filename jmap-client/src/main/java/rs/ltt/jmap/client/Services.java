@@ -40,26 +40,29 @@ public final class Services {
         final OkHttpClient.Builder builder = new OkHttpClient.Builder();
         builder.addInterceptor(new UserAgentInterceptor());
         OK_HTTP_CLIENT = builder.build();
-        if (OK_HTTP_LOGGER.isInfoEnabled()) {
-            final OkHttpClient.Builder loggingBuilder = OK_HTTP_CLIENT.newBuilder();
-            final HttpLoggingInterceptor loggingInterceptor;
-            if (OK_HTTP_LOGGER.isDebugEnabled()) {
-                loggingInterceptor = new HttpLoggingInterceptor(OK_HTTP_LOGGER::debug);
-                loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
-            } else {
-                loggingInterceptor = new HttpLoggingInterceptor(OK_HTTP_LOGGER::info);
-                loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
-            }
-            loggingBuilder.addInterceptor(loggingInterceptor);
-            OK_HTTP_CLIENT_LOGGING = loggingBuilder.build();
-        } else {
-            OK_HTTP_CLIENT_LOGGING = OK_HTTP_CLIENT;
-        }
+        OK_HTTP_CLIENT_LOGGING = withLogging(OK_HTTP_CLIENT);
         final GsonBuilder gsonBuilder = new GsonBuilder();
         JmapAdapters.register(gsonBuilder);
         GSON = gsonBuilder.create();
     }
 
+    static OkHttpClient withLogging(final OkHttpClient okHttpClient) {
+        if (!OK_HTTP_LOGGER.isInfoEnabled()) {
+            return okHttpClient;
+        }
+        final OkHttpClient.Builder loggingBuilder = okHttpClient.newBuilder();
+        final HttpLoggingInterceptor loggingInterceptor;
+        if (OK_HTTP_LOGGER.isDebugEnabled()) {
+            loggingInterceptor = new HttpLoggingInterceptor(OK_HTTP_LOGGER::debug);
+            loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
+        } else {
+            loggingInterceptor = new HttpLoggingInterceptor(OK_HTTP_LOGGER::info);
+            loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
+        }
+        loggingBuilder.addInterceptor(loggingInterceptor);
+        return loggingBuilder.build();
+    }
+
     private Services() {
         throw new IllegalStateException("Do not instantiate this class");
     }
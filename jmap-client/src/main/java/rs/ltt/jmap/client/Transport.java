@@ -0,0 +1,160 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client;
+
+import com.google.common.base.Preconditions;
+import com.google.gson.Gson;
+import java.util.concurrent.ScheduledExecutorService;
+import okhttp3.OkHttpClient;
+import rs.ltt.jmap.client.api.UserAgentInterceptor;
+import rs.ltt.jmap.client.metrics.MetricsListener;
+
+/**
+ * The resources a {@link JmapClient} uses to talk to the server: the OkHttpClient (and with it the
+ * connection pool and dispatcher), the executor that schedules timeouts, retries and reconnects and
+ * the Gson instance that encodes and decodes JMAP objects and the {@link MetricsListener} that
+ * observes requests. {@link #DEFAULT} shares one set of resources for the whole JVM. Applications
+ * that host many accounts can create their own, for example one per tenant, and pass them to {@link
+ * JmapClient.Builder#transport(Transport)}.
+ *
+ * <p>A Transport does not own its resources. Closing a JmapClient does not shut down the executor
+ * or evict the connection pool.
+ */
+public final class Transport {
+
+    public static final Transport DEFAULT =
+            new Transport(
+                    Services.OK_HTTP_CLIENT,
+                    Services.OK_HTTP_CLIENT_LOGGING,
+                    Services.SCHEDULED_EXECUTOR_SERVICE,
+                    Services.GSON,
+                    MetricsListener.NOOP);
+
+    private final OkHttpClient httpClient;
+    private final OkHttpClient loggingHttpClient;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final Gson gson;
+    private final MetricsListener metricsListener;
+
+    private Transport(
+            final OkHttpClient httpClient,
+            final OkHttpClient loggingHttpClient,
+            final ScheduledExecutorService scheduledExecutorService,
+            final Gson gson,
+            final MetricsListener metricsListener) {
+        this.httpClient = httpClient;
+        this.loggingHttpClient = loggingHttpClient;
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.gson = gson;
+        this.metricsListener = metricsListener;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /** @return The HTTP client that logs requests if OkHttp logging is enabled */
+    public OkHttpClient getLoggingHttpClient() {
+        return loggingHttpClient;
+    }
+
+    public ScheduledExecutorService getScheduledExecutorService() {
+        return scheduledExecutorService;
+    }
+
+    public Gson getGson() {
+        return gson;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    public static class Builder {
+        private OkHttpClient httpClient = Services.OK_HTTP_CLIENT;
+        private ScheduledExecutorService scheduledExecutorService =
+                Services.SCHEDULED_EXECUTOR_SERVICE;
+        private Gson gson = Services.GSON;
+        private MetricsListener metricsListener = MetricsListener.NOOP;
+
+        private Builder() {}
+
+        /**
+         * @param httpClient The client to derive the HTTP clients from. The derived clients share
+         *     the connection pool, dispatcher and timeouts of this client.
+         * @return this builder
+         */
+        public Builder httpClient(final OkHttpClient httpClient) {
+            this.httpClient = Preconditions.checkNotNull(httpClient);
+            return this;
+        }
+
+        /**
+         * @param scheduledExecutorService Runs timeouts, retries and reconnects. Tasks are short
+         *     and must not block.
+         * @return this builder
+         */
+        public Builder scheduledExecutorService(
+                final ScheduledExecutorService scheduledExecutorService) {
+            this.scheduledExecutorService = Preconditions.checkNotNull(scheduledExecutorService);
+            return this;
+        }
+
+        /**
+         * @param gson A Gson instance with the type adapters from {@link
+         *     rs.ltt.jmap.gson.JmapAdapters} registered
+         * @return this builder
+         */
+        public Builder gson(final Gson gson) {
+            this.gson = Preconditions.checkNotNull(gson);
+            return this;
+        }
+
+        /**
+         * @param metricsListener Receives the phases of every request made through this transport.
+         *     Called on I/O threads; must not block.
+         * @return this builder
+         */
+        public Builder metricsListener(final MetricsListener metricsListener) {
+            this.metricsListener = Preconditions.checkNotNull(metricsListener);
+            return this;
+        }
+
+        public Transport build() {
+            final OkHttpClient httpClient;
+            if (this.httpClient == Services.OK_HTTP_CLIENT) {
+                httpClient = this.httpClient;
+            } else {
+                httpClient =
+                        this.httpClient
+                                .newBuilder()
+                                .addInterceptor(new UserAgentInterceptor())
+                                .build();
+            }
+            return new Transport(
+                    httpClient,
+                    Services.withLogging(httpClient),
+                    this.scheduledExecutorService,
+                    this.gson,
+                    this.metricsListener);
+        }
+    }
+}
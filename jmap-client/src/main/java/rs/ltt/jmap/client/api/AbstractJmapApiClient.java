@@ -16,12 +16,18 @@
 
 package rs.ltt.jmap.client.api;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapRequest;
 import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.util.ResponseAnalyzer;
 import rs.ltt.jmap.common.ErrorResponse;
 import rs.ltt.jmap.common.GenericResponse;
@@ -35,9 +41,16 @@ public abstract class AbstractJmapApiClient implements JmapApiClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractJmapApiClient.class);
 
     private final SessionStateListener sessionStateListener;
+    protected final Transport transport;
 
     protected AbstractJmapApiClient(final SessionStateListener sessionStateListener) {
+        this(sessionStateListener, Transport.DEFAULT);
+    }
+
+    protected AbstractJmapApiClient(
+            final SessionStateListener sessionStateListener, final Transport transport) {
         this.sessionStateListener = sessionStateListener;
+        this.transport = transport;
     }
 
     protected void processResponse(
@@ -85,6 +98,42 @@ public abstract class AbstractJmapApiClient implements JmapApiClient {
         }
     }
 
+    /**
+     * Fails the request with a {@link RequestTimeoutException} if the server has not responded once
+     * the timeout of the request has elapsed. Does nothing for requests without a timeout.
+     *
+     * @param jmapRequest The request to watch
+     * @param reaper Releases whatever resources the API client holds for the request. It is invoked
+     *     after the request has been failed and must not tear down the connection.
+     */
+    protected void scheduleTimeout(final JmapRequest jmapRequest, final Runnable reaper) {
+        final Duration timeout = jmapRequest.getTimeout();
+        if (timeout == null) {
+            return;
+        }
+        final ScheduledFuture<?> future =
+                transport
+                        .getScheduledExecutorService()
+                        .schedule(
+                                () -> {
+                                    if (jmapRequest.isDone()) {
+                                        return;
+                                    }
+                                    LOGGER.warn(
+                                            "Request {} timed out after {}",
+                                            jmapRequest.getMethodNames(),
+                                            timeout);
+                                    jmapRequest.setException(
+                                            new RequestTimeoutException(
+                                                    timeout, jmapRequest.getMethodNames()));
+                                    reaper.run();
+                                },
+                                Math.max(0, jmapRequest.getRemainingTime().toNanos()),
+                                TimeUnit.NANOSECONDS);
+        Futures.whenAllComplete(jmapRequest.getInvocationFutureImmutableMap().values())
+                .run(() -> future.cancel(false), MoreExecutors.directExecutor());
+    }
+
     private void onSessionStateRetrieved(final String sessionState) {
         LOGGER.debug("Notified of session state='{}'", sessionState);
         if (sessionStateListener != null) {
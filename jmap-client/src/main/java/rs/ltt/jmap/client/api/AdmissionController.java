@@ -0,0 +1,337 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.Priority;
+import rs.ltt.jmap.client.Transport;
+
+/**
+ * Limits the number of requests that are being processed by the server at the same time. Requests
+ * beyond the limit are queued and sent, in order of their {@link Priority}, once earlier requests
+ * have completed. A number of slots is reserved for non background requests so that a large sync
+ * can not delay requests a user is waiting for by more than the duration of a single request.
+ * Queued read-only background requests that are identical to an already queued background request
+ * are not sent a second time but receive the responses of the earlier request.
+ */
+public class AdmissionController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final EnumMap<Priority, Deque<Entry>> queues = new EnumMap<>(Priority.class);
+    private final Map<String, Entry> queuedBackground = new HashMap<>();
+    private int limit = Integer.MAX_VALUE;
+    private int reserve = 1;
+    private int running = 0;
+    private long admitted = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+    private long coalesced = 0;
+
+    private final Transport transport;
+
+    public AdmissionController() {
+        this(Transport.DEFAULT);
+    }
+
+    /** @param transport Schedules the timeouts of queued requests */
+    public AdmissionController(final Transport transport) {
+        this.transport = transport;
+        for (final Priority priority : Priority.values()) {
+            this.queues.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    public void setLimit(final int limit) {
+        Preconditions.checkArgument(limit > 0, "Limit must be positive");
+        final List<Entry> admitted;
+        synchronized (this) {
+            if (this.limit == limit) {
+                return;
+            }
+            LOGGER.debug("Limiting concurrent requests to {}", limit);
+            this.limit = limit;
+            admitted = admitQueued();
+        }
+        dispatch(admitted);
+    }
+
+    public synchronized int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * @param reserve The number of slots background requests are not allowed to use. Background
+     *     requests can always use at least one slot.
+     */
+    public void setInteractiveReserve(final int reserve) {
+        Preconditions.checkArgument(reserve >= 0, "Reserve must not be negative");
+        final List<Entry> admitted;
+        synchronized (this) {
+            this.reserve = reserve;
+            admitted = admitQueued();
+        }
+        dispatch(admitted);
+    }
+
+    public synchronized int getInteractiveReserve() {
+        return this.reserve;
+    }
+
+    /**
+     * Sends the request immediately if there is a free slot. Otherwise queues the request.
+     *
+     * @param jmapRequest The request
+     * @param dispatcher Hands the request to the API client
+     */
+    public void execute(final JmapRequest jmapRequest, final Runnable dispatcher) {
+        final Priority priority = jmapRequest.getPriority();
+        // only requests without side effects can be answered by an identical request
+        final boolean coalescable =
+                priority == Priority.BACKGROUND && RetryPolicy.isReadOnly(jmapRequest);
+        Entry admitted = null;
+        Entry queued = null;
+        synchronized (this) {
+            if (this.running < getLimit(priority)) {
+                admitted = new Entry(jmapRequest, dispatcher, null);
+                admit(admitted);
+            } else if (!coalescable) {
+                LOGGER.debug(
+                        "Queueing {} request. {} requests are running", priority, this.running);
+                queued = new Entry(jmapRequest, dispatcher, null);
+                this.queues.get(priority).add(queued);
+            }
+        }
+        if (admitted == null && queued == null) {
+            // serializing the request is only worth it if it has to wait for a slot
+            final String key = this.transport.getGson().toJson(jmapRequest.getRequest());
+            synchronized (this) {
+                if (this.running < getLimit(priority)) {
+                    // a slot has been freed while the key was computed
+                    admitted = new Entry(jmapRequest, dispatcher, null);
+                    admit(admitted);
+                } else {
+                    final Entry leader = this.queuedBackground.get(key);
+                    if (leader != null) {
+                        LOGGER.debug("Coalescing {}", jmapRequest.getMethodNames());
+                        this.coalesced++;
+                        follow(leader.jmapRequest, jmapRequest);
+                        return;
+                    }
+                    queued = new Entry(jmapRequest, dispatcher, key);
+                    this.queuedBackground.put(key, queued);
+                    this.queues.get(priority).add(queued);
+                }
+            }
+        }
+        final boolean dispatchNow = admitted != null;
+        final Entry entry = dispatchNow ? admitted : queued;
+        Futures.whenAllComplete(jmapRequest.getInvocationFutureImmutableMap().values())
+                .run(() -> onDone(entry), MoreExecutors.directExecutor());
+        if (dispatchNow) {
+            entry.dispatcher.run();
+        } else if (jmapRequest.getTimeout() != null) {
+            // the API client only watches the timeout once the request has been handed over
+            this.transport
+                    .getScheduledExecutorService()
+                    .schedule(
+                            () -> expire(entry),
+                            Math.max(0, jmapRequest.getRemainingTime().toNanos()),
+                            TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void expire(final Entry entry) {
+        synchronized (this) {
+            if (entry.state != State.QUEUED) {
+                return;
+            }
+            dequeue(entry);
+        }
+        final JmapRequest jmapRequest = entry.jmapRequest;
+        LOGGER.warn("Request {} timed out waiting for a free slot", jmapRequest.getMethodNames());
+        jmapRequest.setException(
+                new RequestTimeoutException(
+                        jmapRequest.getTimeout(), jmapRequest.getMethodNames()));
+    }
+
+    private void onDone(final Entry entry) {
+        final List<Entry> admitted;
+        synchronized (this) {
+            if (entry.state == State.QUEUED) {
+                // failed or cancelled while waiting
+                dequeue(entry);
+                return;
+            }
+            if (entry.state != State.RUNNING) {
+                return;
+            }
+            entry.state = State.DONE;
+            this.running--;
+            admitted = admitQueued();
+        }
+        dispatch(admitted);
+    }
+
+    private int getLimit(final Priority priority) {
+        if (priority == Priority.BACKGROUND) {
+            return Math.max(1, this.limit - this.reserve);
+        }
+        return this.limit;
+    }
+
+    private List<Entry> admitQueued() {
+        final List<Entry> admitted = new ArrayList<>();
+        for (final Priority priority : Priority.values()) {
+            final Deque<Entry> queue = this.queues.get(priority);
+            while (this.running < getLimit(priority) && !queue.isEmpty()) {
+                final Entry next = queue.poll();
+                admit(next);
+                admitted.add(next);
+            }
+            if (!queue.isEmpty()) {
+                // lower priorities have to wait until this queue has been drained
+                break;
+            }
+        }
+        return admitted;
+    }
+
+    private void dequeue(final Entry entry) {
+        this.queues.get(entry.jmapRequest.getPriority()).remove(entry);
+        if (entry.key != null) {
+            this.queuedBackground.remove(entry.key, entry);
+        }
+        entry.state = State.DONE;
+    }
+
+    private void admit(final Entry entry) {
+        if (entry.key != null) {
+            this.queuedBackground.remove(entry.key, entry);
+        }
+        entry.state = State.RUNNING;
+        this.running++;
+        final long wait = System.nanoTime() - entry.queued;
+        this.admitted++;
+        this.totalWaitNanos += wait;
+        this.maxWaitNanos = Math.max(this.maxWaitNanos, wait);
+    }
+
+    /**
+     * Completes the futures of the follower with the results of the leader. Cancelling the follower
+     * does not affect the leader.
+     */
+    private static void follow(final JmapRequest leader, final JmapRequest follower) {
+        final List<SettableFuture<MethodResponses>> leaderFutures =
+                ImmutableList.copyOf(leader.getInvocationFutureImmutableMap().values());
+        final List<SettableFuture<MethodResponses>> followerFutures =
+                ImmutableList.copyOf(follower.getInvocationFutureImmutableMap().values());
+        for (int i = 0; i < leaderFutures.size(); ++i) {
+            final SettableFuture<MethodResponses> followerFuture = followerFutures.get(i);
+            final SettableFuture<MethodResponses> leaderFuture = leaderFutures.get(i);
+            Futures.addCallback(
+                    leaderFuture,
+                    new FutureCallback<MethodResponses>() {
+                        @Override
+                        public void onSuccess(final MethodResponses methodResponses) {
+                            followerFuture.set(methodResponses);
+                        }
+
+                        @Override
+                        public void onFailure(@Nonnull final Throwable throwable) {
+                            if (leaderFuture.isCancelled()) {
+                                followerFuture.cancel(false);
+                            } else {
+                                followerFuture.setException(throwable);
+                            }
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+        }
+    }
+
+    private static void dispatch(final List<Entry> entries) {
+        for (final Entry entry : entries) {
+            entry.dispatcher.run();
+        }
+    }
+
+    /** @return The number of requests that have been sent but have not completed yet */
+    public synchronized int getRunning() {
+        return this.running;
+    }
+
+    /** @return The number of requests waiting for a free slot */
+    public synchronized int getQueueDepth() {
+        int depth = 0;
+        for (final Deque<Entry> queue : this.queues.values()) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public synchronized int getQueueDepth(final Priority priority) {
+        return this.queues.get(priority).size();
+    }
+
+    /** @return The average time requests spent waiting for a free slot */
+    public synchronized Duration getAverageWaitTime() {
+        return Duration.ofNanos(this.admitted == 0 ? 0 : this.totalWaitNanos / this.admitted);
+    }
+
+    public synchronized Duration getMaxWaitTime() {
+        return Duration.ofNanos(this.maxWaitNanos);
+    }
+
+    /** @return The number of background requests that have been answered by an identical request */
+    public synchronized long getCoalesced() {
+        return this.coalesced;
+    }
+
+    private enum State {
+        QUEUED,
+        RUNNING,
+        DONE
+    }
+
+    private static class Entry {
+        private final JmapRequest jmapRequest;
+        private final Runnable dispatcher;
+        private final String key;
+        private final long queued = System.nanoTime();
+        private State state = State.QUEUED;
+
+        private Entry(final JmapRequest jmapRequest, final Runnable dispatcher, final String key) {
+            this.jmapRequest = jmapRequest;
+            this.dispatcher = dispatcher;
+            this.key = key;
+        }
+    }
+}
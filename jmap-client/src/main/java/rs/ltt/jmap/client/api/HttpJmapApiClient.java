@@ -16,25 +16,34 @@
 
 package rs.ltt.jmap.client.api;
 
-import static rs.ltt.jmap.client.Services.GSON;
-import static rs.ltt.jmap.client.Services.OK_HTTP_CLIENT_LOGGING;
-
 import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import okhttp3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.http.BasicAuthHttpAuthentication;
 import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.jfr.FlightRecorderEvents;
+import rs.ltt.jmap.client.metrics.MetricsListener;
 import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.client.util.SettableCallFuture;
 import rs.ltt.jmap.common.GenericResponse;
@@ -47,6 +56,9 @@ public class HttpJmapApiClient extends AbstractJmapApiClient {
 
     private final HttpUrl apiUrl;
     private final HttpAuthentication httpAuthentication;
+    private final RetryPolicy retryPolicy;
+    private final MetricsListener metricsListener =
+            FlightRecorderEvents.withRequestEvents(transport.getMetricsListener(), "http");
 
     public HttpJmapApiClient(final HttpUrl apiUrl, String username, String password) {
         this(apiUrl, new BasicAuthHttpAuthentication(username, password), null);
@@ -56,9 +68,27 @@ public class HttpJmapApiClient extends AbstractJmapApiClient {
             final HttpUrl apiUrl,
             final HttpAuthentication httpAuthentication,
             @Nullable final SessionStateListener sessionStateListener) {
-        super(sessionStateListener);
+        this(apiUrl, httpAuthentication, sessionStateListener, RetryPolicy.DEFAULT);
+    }
+
+    public HttpJmapApiClient(
+            final HttpUrl apiUrl,
+            final HttpAuthentication httpAuthentication,
+            @Nullable final SessionStateListener sessionStateListener,
+            final RetryPolicy retryPolicy) {
+        this(apiUrl, httpAuthentication, sessionStateListener, retryPolicy, Transport.DEFAULT);
+    }
+
+    public HttpJmapApiClient(
+            final HttpUrl apiUrl,
+            final HttpAuthentication httpAuthentication,
+            @Nullable final SessionStateListener sessionStateListener,
+            final RetryPolicy retryPolicy,
+            final Transport transport) {
+        super(sessionStateListener, transport);
         this.apiUrl = Preconditions.checkNotNull(apiUrl, "This API URL must not be null");
         this.httpAuthentication = httpAuthentication;
+        this.retryPolicy = Preconditions.checkNotNull(retryPolicy, "RetryPolicy must not be null");
     }
 
     public HttpJmapApiClient(final HttpUrl apiUrl, final HttpAuthentication httpAuthentication) {
@@ -69,21 +99,61 @@ public class HttpJmapApiClient extends AbstractJmapApiClient {
     public void execute(final JmapRequest jmapRequest) {
         final String json;
         try {
-            json = GSON.toJson(jmapRequest.getRequest());
+            json = transport.getGson().toJson(jmapRequest.getRequest());
+            metricsListener.onSerialized(jmapRequest, Utf8.encodedLength(json));
         } catch (final Throwable throwable) {
             jmapRequest.setException(throwable);
             return;
         }
-        final ListenableFuture<InputStream> inputStreamFuture = send(json);
-        jmapRequest.addDependentFuture(inputStreamFuture);
+        // cancelling the request or reaping it after a timeout cancels the current attempt
+        final SettableFuture<Void> attempts = SettableFuture.create();
+        final AtomicReference<ListenableFuture<InputStream>> currentAttempt =
+                new AtomicReference<>();
+        attempts.addListener(
+                () -> {
+                    final ListenableFuture<InputStream> attempt = currentAttempt.get();
+                    if (attempts.isCancelled() && attempt != null) {
+                        // cancelling with interruption cancels the underlying OkHttp call
+                        attempt.cancel(true);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        jmapRequest.addDependentFuture(attempts);
+        scheduleTimeout(jmapRequest, () -> attempts.cancel(true));
+        this.retryPolicy.onRequest();
+        execute(jmapRequest, json, 1, attempts, currentAttempt);
+    }
+
+    private void execute(
+            final JmapRequest jmapRequest,
+            final String json,
+            final int attempt,
+            final SettableFuture<Void> attempts,
+            final AtomicReference<ListenableFuture<InputStream>> currentAttempt) {
+        if (attempts.isDone()) {
+            return;
+        }
+        final ListenableFuture<InputStream> inputStreamFuture = send(jmapRequest, json);
+        currentAttempt.set(inputStreamFuture);
+        if (attempts.isCancelled()) {
+            inputStreamFuture.cancel(true);
+        }
         Futures.addCallback(
                 inputStreamFuture,
                 new FutureCallback<InputStream>() {
                     @Override
                     public void onSuccess(final InputStream inputStream) {
-                        try (final InputStreamReader reader = new InputStreamReader(inputStream)) {
+                        final long start = System.nanoTime();
+                        final CountingInputStream countingInputStream =
+                                new CountingInputStream(inputStream);
+                        try (final InputStreamReader reader =
+                                new InputStreamReader(countingInputStream)) {
                             final GenericResponse genericResponse =
-                                    GSON.fromJson(reader, GenericResponse.class);
+                                    transport.getGson().fromJson(reader, GenericResponse.class);
+                            metricsListener.onParsed(
+                                    jmapRequest,
+                                    countingInputStream.getCount(),
+                                    Duration.ofNanos(System.nanoTime() - start));
                             processResponse(jmapRequest, genericResponse);
                         } catch (final Exception e) {
                             jmapRequest.setException(e);
@@ -92,20 +162,53 @@ public class HttpJmapApiClient extends AbstractJmapApiClient {
 
                     @Override
                     public void onFailure(@Nonnull Throwable throwable) {
-                        jmapRequest.setException(throwable);
+                        final Duration delay = getRetryDelay(jmapRequest, attempt, throwable);
+                        if (delay == null) {
+                            jmapRequest.setException(throwable);
+                            return;
+                        }
+                        LOGGER.info(
+                                "Retrying {} in {}ms after {}",
+                                jmapRequest.getMethodNames(),
+                                delay.toMillis(),
+                                throwable.getMessage());
+                        transport
+                                .getScheduledExecutorService()
+                                .schedule(
+                                        () ->
+                                                execute(
+                                                        jmapRequest,
+                                                        json,
+                                                        attempt + 1,
+                                                        attempts,
+                                                        currentAttempt),
+                                        delay.toMillis(),
+                                        TimeUnit.MILLISECONDS);
                     }
                 },
                 MoreExecutors.directExecutor());
     }
 
-    private ListenableFuture<InputStream> send(final String out) {
+    @Nullable
+    private Duration getRetryDelay(
+            final JmapRequest jmapRequest, final int attempt, final Throwable throwable) {
+        if (jmapRequest.isDone() || !RetryPolicy.isReadOnly(jmapRequest)) {
+            return null;
+        }
+        final Duration remainingTime =
+                jmapRequest.getTimeout() == null ? null : jmapRequest.getRemainingTime();
+        return this.retryPolicy.getRetryDelay(attempt, throwable, remainingTime);
+    }
+
+    private ListenableFuture<InputStream> send(final JmapRequest jmapRequest, final String out) {
         final Request.Builder requestBuilder = new Request.Builder();
         requestBuilder.url(apiUrl);
         this.httpAuthentication.authenticate(requestBuilder);
         requestBuilder.post(RequestBody.create(out, MEDIA_TYPE_JSON));
-        final Call call = OK_HTTP_CLIENT_LOGGING.newCall(requestBuilder.build());
+        final Call call = transport.getLoggingHttpClient().newCall(requestBuilder.build());
         final SettableCallFuture<InputStream> settableInputStreamFuture =
                 SettableCallFuture.create(call);
+        metricsListener.onSent(jmapRequest);
         call.enqueue(
                 new Callback() {
                     @Override
@@ -115,6 +218,7 @@ public class HttpJmapApiClient extends AbstractJmapApiClient {
 
                     @Override
                     public void onResponse(@Nonnull Call call, @Nonnull Response response) {
+                        metricsListener.onFirstByte(jmapRequest);
                         final int code = response.code();
                         if (code == 404) {
                             settableInputStreamFuture.setException(
@@ -128,9 +232,13 @@ public class HttpJmapApiClient extends AbstractJmapApiClient {
                                             String.format("API URL(%s) was unauthorized", apiUrl)));
                             return;
                         }
-
-                        // TODO: code 500+ should probably just throw internal server error
-                        // exception
+                        if (code == 429 || code >= 500) {
+                            response.close();
+                            settableInputStreamFuture.setException(
+                                    new HttpStatusException(
+                                            code, parseRetryAfter(response.header("Retry-After"))));
+                            return;
+                        }
                         final ResponseBody body = response.body();
                         if (body == null) {
                             settableInputStreamFuture.setException(
@@ -143,6 +251,31 @@ public class HttpJmapApiClient extends AbstractJmapApiClient {
         return settableInputStreamFuture;
     }
 
+    /**
+     * @param value The value of a Retry-After header; either a number of seconds or an HTTP date
+     * @return The delay. null if the header is absent or malformed
+     */
+    @Nullable
+    static Duration parseRetryAfter(@Nullable final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (final NumberFormatException e) {
+            // fall through and try to parse as date
+        }
+        try {
+            final ZonedDateTime date =
+                    ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            final Duration delay = Duration.between(ZonedDateTime.now(), date);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (final DateTimeParseException e) {
+            LOGGER.debug("Unable to parse Retry-After header '{}'", value);
+            return null;
+        }
+    }
+
     @Override
     public boolean isValidFor(final Session session) {
         return this.apiUrl.equals(session.getApiUrl());
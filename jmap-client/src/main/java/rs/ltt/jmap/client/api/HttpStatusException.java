@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.api;
+
+import java.time.Duration;
+import javax.annotation.Nullable;
+
+/** The server responded with 429 (Too Many Requests) or a 5xx status code. */
+public class HttpStatusException extends JmapApiException {
+
+    private final int code;
+    private final Duration retryAfter;
+
+    HttpStatusException(final int code, @Nullable final Duration retryAfter) {
+        super(String.format("Server responded with status code %d", code));
+        this.code = code;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /** @return The delay the server asked for in its Retry-After header. null if absent. */
+    @Nullable
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /** @return true if repeating the same request later might succeed */
+    public boolean isTransient() {
+        return code == 429 || code == 502 || code == 503 || code == 504;
+    }
+}
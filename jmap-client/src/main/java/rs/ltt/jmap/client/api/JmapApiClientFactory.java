@@ -16,22 +16,65 @@
 
 package rs.ltt.jmap.client.api;
 
+import com.google.common.primitives.Ints;
 import okhttp3.HttpUrl;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.event.WebSocketPushService;
 import rs.ltt.jmap.client.http.HttpAuthentication;
 import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.client.util.WebSocketUtil;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
 import rs.ltt.jmap.common.entity.capability.WebSocketCapability;
 
 public class JmapApiClientFactory {
 
     private final HttpAuthentication httpAuthentication;
     private final SessionStateListener sessionStateListener;
+    private final int maxConcurrentRequests;
+    private final RetryPolicy retryPolicy;
+    private final Transport transport;
 
     public JmapApiClientFactory(
             HttpAuthentication httpAuthentication, SessionStateListener sessionStateListener) {
+        this(httpAuthentication, sessionStateListener, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxConcurrentRequests The maximum number of requests in flight on a WebSocket. The
+     *     limit announced by the server takes precedence if it is lower.
+     */
+    public JmapApiClientFactory(
+            HttpAuthentication httpAuthentication,
+            SessionStateListener sessionStateListener,
+            int maxConcurrentRequests) {
+        this(httpAuthentication, sessionStateListener, maxConcurrentRequests, RetryPolicy.DEFAULT);
+    }
+
+    /** @param retryPolicy Decides which failed requests are repeated when using HTTP */
+    public JmapApiClientFactory(
+            HttpAuthentication httpAuthentication,
+            SessionStateListener sessionStateListener,
+            int maxConcurrentRequests,
+            RetryPolicy retryPolicy) {
+        this(
+                httpAuthentication,
+                sessionStateListener,
+                maxConcurrentRequests,
+                retryPolicy,
+                Transport.DEFAULT);
+    }
+
+    public JmapApiClientFactory(
+            HttpAuthentication httpAuthentication,
+            SessionStateListener sessionStateListener,
+            int maxConcurrentRequests,
+            RetryPolicy retryPolicy,
+            Transport transport) {
         this.httpAuthentication = httpAuthentication;
         this.sessionStateListener = sessionStateListener;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.retryPolicy = retryPolicy;
+        this.transport = transport;
     }
 
     public JmapApiClient getJmapApiClient(final Session session, final boolean useWebSocket) {
@@ -40,13 +83,41 @@ public class JmapApiClientFactory {
         if (validWebSocketCapability(webSocketCapability) && useWebSocket) {
             final HttpUrl url =
                     WebSocketUtil.normalizeUrl(session.getBase(), webSocketCapability.getUrl());
+            final int maxConcurrentRequests =
+                    getMaxConcurrentRequests(session, this.maxConcurrentRequests);
             if (Boolean.TRUE.equals(webSocketCapability.getSupportsPush())) {
-                return new WebSocketPushService(url, httpAuthentication, sessionStateListener);
+                return new WebSocketPushService(
+                        url,
+                        httpAuthentication,
+                        sessionStateListener,
+                        maxConcurrentRequests,
+                        transport);
             } else {
-                return new WebSocketJmapApiClient(url, httpAuthentication, sessionStateListener);
+                return new WebSocketJmapApiClient(
+                        url,
+                        httpAuthentication,
+                        sessionStateListener,
+                        maxConcurrentRequests,
+                        transport);
             }
         }
-        return new HttpJmapApiClient(session.getApiUrl(), httpAuthentication, sessionStateListener);
+        return new HttpJmapApiClient(
+                session.getApiUrl(),
+                httpAuthentication,
+                sessionStateListener,
+                retryPolicy,
+                transport);
+    }
+
+    /** @return The smaller of the configured limit and the limit announced by the server */
+    public static int getMaxConcurrentRequests(final Session session, final int configured) {
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        final Long announced =
+                coreCapability == null ? null : coreCapability.getMaxConcurrentRequests();
+        if (announced == null || announced <= 0) {
+            return configured;
+        }
+        return Math.min(configured, Ints.saturatedCast(announced));
     }
 
     private static boolean validWebSocketCapability(final WebSocketCapability capability) {
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.api;
+
+import java.time.Duration;
+import java.util.List;
+
+/** The server did not respond to a request within the configured timeout. */
+public class RequestTimeoutException extends JmapApiException {
+
+    private final Duration timeout;
+    private final List<String> methodNames;
+
+    RequestTimeoutException(final Duration timeout, final List<String> methodNames) {
+        super(String.format("No response to %s within %s", methodNames, timeout));
+        this.timeout = timeout;
+        this.methodNames = methodNames;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public List<String> getMethodNames() {
+        return methodNames;
+    }
+}
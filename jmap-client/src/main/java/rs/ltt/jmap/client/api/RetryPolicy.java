@@ -0,0 +1,217 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.api;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.client.JmapRequest;
+
+/**
+ * Decides whether and when a failed request is sent again. Only requests that consist entirely of
+ * read-only methods (*&#47;get, *&#47;changes, *&#47;query and *&#47;queryChanges) are retried and
+ * only if they failed with a transient error: an I/O error or a 429, 502, 503 or 504 status code.
+ * The delay between attempts is taken from the Retry-After header if the server sent one and is
+ * otherwise an exponential backoff with full jitter.
+ *
+ * <p>Retries are paid for from a {@link Budget} that is refilled by a fraction of every request.
+ * The budget is shared by all clients that use the same policy and keeps a struggling server from
+ * receiving a multiple of its normal load.
+ */
+public class RetryPolicy {
+
+    /** Never retries */
+    public static final RetryPolicy NONE = new Builder().maxAttempts(1).build();
+
+    public static final RetryPolicy DEFAULT = new Builder().build();
+
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration maxRetryAfter;
+    private final Budget budget;
+
+    private RetryPolicy(final Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.maxRetryAfter = builder.maxRetryAfter;
+        this.budget = new Budget(builder.budgetRatio, builder.maxBudget);
+    }
+
+    public static boolean isReadOnly(final JmapRequest jmapRequest) {
+        for (final String methodName : jmapRequest.getMethodNames()) {
+            if (!(methodName.endsWith("/get")
+                    || methodName.endsWith("/changes")
+                    || methodName.endsWith("/query")
+                    || methodName.endsWith("/queryChanges"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean isTransient(final Throwable throwable) {
+        if (throwable instanceof HttpStatusException) {
+            return ((HttpStatusException) throwable).isTransient();
+        }
+        return throwable instanceof IOException;
+    }
+
+    /** Has to be called once for every request that is sent for the first time. */
+    public void onRequest() {
+        this.budget.deposit();
+    }
+
+    /**
+     * @param attempt The number of the attempt that failed, starting at 1
+     * @param throwable The cause of the failure
+     * @param remainingTime The time left until the request times out. null if it never does.
+     * @return The time to wait before the next attempt. null if the request should not be retried.
+     */
+    @Nullable
+    public Duration getRetryDelay(
+            final int attempt, final Throwable throwable, @Nullable final Duration remainingTime) {
+        if (attempt >= this.maxAttempts || !isTransient(throwable)) {
+            return null;
+        }
+        final Duration retryAfter =
+                throwable instanceof HttpStatusException
+                        ? ((HttpStatusException) throwable).getRetryAfter()
+                        : null;
+        final Duration delay;
+        if (retryAfter != null) {
+            if (retryAfter.compareTo(this.maxRetryAfter) > 0) {
+                return null;
+            }
+            delay = retryAfter;
+        } else {
+            delay = getBackoff(attempt);
+        }
+        if (remainingTime != null && delay.compareTo(remainingTime) >= 0) {
+            return null;
+        }
+        return this.budget.withdraw() ? delay : null;
+    }
+
+    private Duration getBackoff(final int attempt) {
+        final long initial = this.initialBackoff.toMillis();
+        // the shift is capped to stay clear of an overflow
+        final long cap = Math.min(this.maxBackoff.toMillis(), initial << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    public Budget getBudget() {
+        return this.budget;
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private Duration initialBackoff = Duration.ofMillis(250);
+        private Duration maxBackoff = Duration.ofSeconds(10);
+        private Duration maxRetryAfter = Duration.ofSeconds(30);
+        private double budgetRatio = 0.1;
+        private int maxBudget = 10;
+
+        /** @param maxAttempts The number of attempts including the first one */
+        public Builder maxAttempts(final int maxAttempts) {
+            Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder initialBackoff(final Duration initialBackoff) {
+            Preconditions.checkArgument(
+                    !initialBackoff.isNegative(), "Backoff must not be negative");
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        public Builder maxBackoff(final Duration maxBackoff) {
+            Preconditions.checkArgument(!maxBackoff.isNegative(), "Backoff must not be negative");
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /** @param maxRetryAfter Requests are not retried if the server asks us to wait longer */
+        public Builder maxRetryAfter(final Duration maxRetryAfter) {
+            this.maxRetryAfter = Preconditions.checkNotNull(maxRetryAfter);
+            return this;
+        }
+
+        /**
+         * @param ratio The number of retries every request adds to the budget
+         * @param max The maximum number of retries that can be saved up
+         */
+        public Builder budget(final double ratio, final int max) {
+            Preconditions.checkArgument(ratio >= 0, "Ratio must not be negative");
+            Preconditions.checkArgument(max >= 0, "Max must not be negative");
+            this.budgetRatio = ratio;
+            this.maxBudget = max;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+
+    public static class Budget {
+        private final double ratio;
+        private final int max;
+        private double available;
+        private long retries = 0;
+        private long exhausted = 0;
+
+        private Budget(final double ratio, final int max) {
+            this.ratio = ratio;
+            this.max = max;
+            this.available = max;
+        }
+
+        private synchronized void deposit() {
+            this.available = Math.min(this.max, this.available + this.ratio);
+        }
+
+        private synchronized boolean withdraw() {
+            if (this.available < 1) {
+                this.exhausted++;
+                return false;
+            }
+            this.available--;
+            this.retries++;
+            return true;
+        }
+
+        /** @return The number of retries that can be made right now */
+        public synchronized int getAvailable() {
+            return (int) this.available;
+        }
+
+        /** @return The number of retries that have been made */
+        public synchronized long getRetries() {
+            return this.retries;
+        }
+
+        /** @return The number of retries that have been denied because the budget was exhausted */
+        public synchronized long getExhausted() {
+            return this.exhausted;
+        }
+    }
+}
@@ -17,12 +17,17 @@
 package rs.ltt.jmap.client.api;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import okhttp3.*;
 import org.jetbrains.annotations.NotNull;
@@ -30,15 +35,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapRequest;
 import rs.ltt.jmap.client.Services;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.event.State;
 import rs.ltt.jmap.client.http.Headers;
 import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.jfr.FlightRecorderEvents;
+import rs.ltt.jmap.client.metrics.MetricsListener;
 import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.common.GenericResponse;
 import rs.ltt.jmap.common.websocket.AbstractApiWebSocketMessage;
 import rs.ltt.jmap.common.websocket.RequestWebSocketMessage;
 import rs.ltt.jmap.common.websocket.WebSocketMessage;
 
+/**
+ * Sends JMAP requests over a WebSocket. Requests are pipelined; multiple requests can be in flight
+ * on the same connection. Sending and receiving do not hold a lock. Only changes to the connection
+ * state (connecting, disconnecting) are synchronized.
+ *
+ * <p>The number of requests in flight is limited to {@code maxConcurrentRequests}. Additional
+ * requests are queued and sent once a response for an earlier request has been received.
+ */
 public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Closeable {
 
     protected static final Logger LOGGER = LoggerFactory.getLogger(WebSocketJmapApiClient.class);
@@ -46,59 +62,196 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
     protected final List<Long> connectionDurations = new ArrayList<>();
     private final HttpUrl webSocketUrl;
     private final HttpAuthentication authentication;
-    private final ArrayList<JmapRequest> requestQueue = new ArrayList<>();
-    private final HashMap<String, JmapRequest> inFlightRequests = new HashMap<>();
+    private final Queue<JmapRequest> requestQueue = new ConcurrentLinkedQueue<>();
+    private final Map<String, JmapRequest> inFlightRequests = new ConcurrentHashMap<>();
+    // ids of requests that timed out. Late responses to those are ignored
+    private final Set<String> reapedRequestIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final int maxConcurrentRequests;
+    private final MetricsListener metricsListener =
+            FlightRecorderEvents.withRequestEvents(transport.getMetricsListener(), "websocket");
     protected int attempt = 0;
-    protected State state = State.CLOSED;
+    protected volatile State state = State.CLOSED;
     protected ScheduledFuture<?> reconnectionFuture;
-    private WebSocket currentWebSocket;
-    private long lastFrameReceived = 0;
+    private volatile WebSocket currentWebSocket;
+    private volatile long lastFrameReceived = 0;
+    // only accessed from the thread reading the WebSocket
+    private long lastFrameLength = 0;
+    private Duration lastParseDuration = Duration.ZERO;
 
     public WebSocketJmapApiClient(
             final HttpUrl webSocketUrl,
             final HttpAuthentication httpAuthentication,
             @Nullable final SessionStateListener sessionStateListener) {
-        super(sessionStateListener);
+        this(webSocketUrl, httpAuthentication, sessionStateListener, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxConcurrentRequests The maximum number of requests in flight. Usually the smaller of
+     *     the configured value and {@link
+     *     rs.ltt.jmap.common.entity.capability.CoreCapability#getMaxConcurrentRequests()}
+     */
+    public WebSocketJmapApiClient(
+            final HttpUrl webSocketUrl,
+            final HttpAuthentication httpAuthentication,
+            @Nullable final SessionStateListener sessionStateListener,
+            final int maxConcurrentRequests) {
+        this(
+                webSocketUrl,
+                httpAuthentication,
+                sessionStateListener,
+                maxConcurrentRequests,
+                Transport.DEFAULT);
+    }
+
+    public WebSocketJmapApiClient(
+            final HttpUrl webSocketUrl,
+            final HttpAuthentication httpAuthentication,
+            @Nullable final SessionStateListener sessionStateListener,
+            final int maxConcurrentRequests,
+            final Transport transport) {
+        super(sessionStateListener, transport);
+        Preconditions.checkArgument(
+                maxConcurrentRequests > 0, "maxConcurrentRequests must be positive");
         this.webSocketUrl =
                 Preconditions.checkNotNull(webSocketUrl, "This WebSocket URL must not be null");
         this.authentication = httpAuthentication;
+        this.maxConcurrentRequests = maxConcurrentRequests;
     }
 
     @Override
-    public synchronized void execute(final JmapRequest jmapRequest) {
-        if (readyToSend()) {
+    public void execute(final JmapRequest jmapRequest) {
+        scheduleTimeout(jmapRequest, () -> reap(jmapRequest));
+        this.requestQueue.add(jmapRequest);
+        if (this.state == State.CONNECTED) {
+            sendQueuedRequests();
+            return;
+        }
+        synchronized (this) {
+            if (readyToSend()) {
+                sendQueuedRequests();
+            } else {
+                LOGGER.info(
+                        "Queued up JmapRequest because not ready to send in state {}", this.state);
+            }
+        }
+    }
+
+    /**
+     * Sends queued requests for as long as there are free slots. Every thread that adds a request
+     * or frees a slot calls this method. A slot is always released before the queue is checked
+     * again so a request can not get stuck in the queue while a slot is available.
+     */
+    private void sendQueuedRequests() {
+        while (this.state == State.CONNECTED && !this.requestQueue.isEmpty()) {
+            if (!acquireSlot()) {
+                return;
+            }
+            final JmapRequest jmapRequest = this.requestQueue.poll();
+            if (jmapRequest == null) {
+                this.inFlightCount.decrementAndGet();
+                continue;
+            }
             send(jmapRequest);
-        } else {
-            LOGGER.info("Queued up JmapRequest because not ready to send in state {}", this.state);
-            requestQueue.add(jmapRequest);
         }
     }
 
+    /**
+     * Removes a request that has timed out. A request that is in flight keeps its slot until the
+     * server has sent the late response or the connection is replaced, since the server is still
+     * processing it. The connection stays open.
+     */
+    private void reap(final JmapRequest jmapRequest) {
+        if (this.requestQueue.remove(jmapRequest)) {
+            return;
+        }
+        for (final Map.Entry<String, JmapRequest> entry : this.inFlightRequests.entrySet()) {
+            if (entry.getValue() != jmapRequest) {
+                continue;
+            }
+            final String requestId = entry.getKey();
+            this.reapedRequestIds.add(requestId);
+            if (this.inFlightRequests.remove(requestId) == null) {
+                // the response arrived in the meantime
+                this.reapedRequestIds.remove(requestId);
+            }
+            return;
+        }
+    }
+
+    private boolean acquireSlot() {
+        while (true) {
+            final int current = this.inFlightCount.get();
+            if (current >= this.maxConcurrentRequests) {
+                return false;
+            }
+            if (this.inFlightCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public int getMaxConcurrentRequests() {
+        return this.maxConcurrentRequests;
+    }
+
+    public int getInFlightRequestCount() {
+        return this.inFlightCount.get();
+    }
+
+    public int getQueuedRequestCount() {
+        return this.requestQueue.size();
+    }
+
     @Override
     public boolean isValidFor(final Session session) {
         return true;
     }
 
     private void send(final JmapRequest jmapRequest) {
-        final String requestId = UUID.randomUUID().toString();
+        // request ids only need to be unique among the requests in flight
+        final String requestId = Long.toString(this.nextRequestId.incrementAndGet());
         this.inFlightRequests.put(requestId, jmapRequest);
         final RequestWebSocketMessage message =
                 RequestWebSocketMessage.builder()
                         .id(requestId)
                         .request(jmapRequest.getRequest())
                         .build();
-        if (send(message)) {
+        final boolean sent;
+        try {
+            final String json = transport.getGson().toJson(message);
+            metricsListener.onSerialized(jmapRequest, Utf8.encodedLength(json));
+            sent = send(json);
+        } catch (final IllegalStateException e) {
+            // the connection has been torn down concurrently
+            fail(requestId, e);
             return;
         }
-        jmapRequest.setException(new Exception("Unable to send. WebSocket was closed"));
-        this.inFlightRequests.remove(requestId);
+        if (sent) {
+            metricsListener.onSent(jmapRequest);
+        } else {
+            fail(requestId, new Exception("Unable to send. WebSocket was closed"));
+        }
+    }
+
+    private void fail(final String requestId, final Throwable throwable) {
+        final JmapRequest jmapRequest = this.inFlightRequests.remove(requestId);
+        if (jmapRequest != null) {
+            this.inFlightCount.decrementAndGet();
+            jmapRequest.setException(throwable);
+        }
     }
 
     protected boolean send(final WebSocketMessage message) {
+        return send(transport.getGson().toJson(message));
+    }
+
+    private boolean send(final String json) {
         if (Services.OK_HTTP_LOGGER.isDebugEnabled()) {
-            Services.OK_HTTP_LOGGER.debug("--> {}", Services.GSON.toJson(message));
+            Services.OK_HTTP_LOGGER.debug("--> {}", json);
         }
-        return requireWebSocket().send(Services.GSON.toJson(message));
+        return requireWebSocket().send(json);
     }
 
     private WebSocket requireWebSocket() {
@@ -152,7 +305,8 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
         requestBuilder.header(Headers.SEC_WEB_SOCKET_PROTOCOL, JMAP);
         final Request request = requestBuilder.build();
         final OkHttpClient okHttpClient =
-                Services.OK_HTTP_CLIENT
+                transport
+                        .getHttpClient()
                         .newBuilder()
                         .callTimeout(30, TimeUnit.SECONDS)
                         .pingInterval(getPingInterval())
@@ -171,14 +325,17 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
         this.currentWebSocket = webSocket;
     }
 
-    private synchronized void onMessage(final WebSocket webSocket, final String text) {
+    private void onMessage(final WebSocket webSocket, final String text) {
         this.lastFrameReceived = System.nanoTime();
         if (Services.OK_HTTP_LOGGER.isDebugEnabled()) {
             Services.OK_HTTP_LOGGER.debug("<-- {}", text);
         }
         final WebSocketMessage message;
         try {
-            message = Services.GSON.fromJson(text, WebSocketMessage.class);
+            final long start = System.nanoTime();
+            message = transport.getGson().fromJson(text, WebSocketMessage.class);
+            this.lastFrameLength = Utf8.encodedLength(text);
+            this.lastParseDuration = Duration.ofNanos(System.nanoTime() - start);
         } catch (final Exception e) {
             LOGGER.error("Unable to parse incoming WebSocketMessage", e);
             // If a client receives a message that is not in the form of a JSON Problem Details
@@ -216,6 +373,12 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
             return false;
         }
         final JmapRequest jmapRequest = inFlightRequests.remove(requestId);
+        if (jmapRequest == null && reapedRequestIds.remove(requestId)) {
+            LOGGER.debug("Ignoring late response to request {}", requestId);
+            this.inFlightCount.decrementAndGet();
+            sendQueuedRequests();
+            return false;
+        }
         if (jmapRequest == null) {
             policyViolation(
                     new IllegalStateException(
@@ -223,6 +386,10 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
                                     "Could not find in flight request with id %s", requestId)));
             return false;
         }
+        this.inFlightCount.decrementAndGet();
+        metricsListener.onFirstByte(jmapRequest);
+        metricsListener.onParsed(jmapRequest, this.lastFrameLength, this.lastParseDuration);
+        sendQueuedRequests();
         final Object payload = apiMessage.getPayload();
         if (payload instanceof GenericResponse) {
             processResponse(jmapRequest, (GenericResponse) payload);
@@ -231,7 +398,7 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
         return false;
     }
 
-    private void disconnect(final State state) {
+    private synchronized void disconnect(final State state) {
         final WebSocket currentWebSocket = this.currentWebSocket;
         if (currentWebSocket != null) {
             currentWebSocket.cancel();
@@ -246,16 +413,18 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
     }
 
     private void failPendingRequests(final Throwable throwable) {
-        failPendingRequests(requestQueue.listIterator(), throwable);
-        failPendingRequests(inFlightRequests.values().iterator(), throwable);
-    }
-
-    private static void failPendingRequests(
-            Iterator<JmapRequest> iterator, final Throwable throwable) {
-        while (iterator.hasNext()) {
-            final JmapRequest jmapRequest = iterator.next();
-            jmapRequest.setException(throwable);
-            iterator.remove();
+        JmapRequest queued;
+        while ((queued = requestQueue.poll()) != null) {
+            queued.setException(throwable);
+        }
+        for (final String requestId : inFlightRequests.keySet()) {
+            fail(requestId, throwable);
+        }
+        // there will be no late responses on a new connection
+        for (final String requestId : reapedRequestIds) {
+            if (reapedRequestIds.remove(requestId)) {
+                this.inFlightCount.decrementAndGet();
+            }
         }
     }
 
@@ -263,12 +432,7 @@ public class WebSocketJmapApiClient extends AbstractJmapApiClient implements Clo
         this.attempt = 0;
         transitionTo(State.CONNECTED);
         this.lastFrameReceived = System.nanoTime();
-        final ListIterator<JmapRequest> iterator = requestQueue.listIterator();
-        while (iterator.hasNext()) {
-            final JmapRequest jmapRequest = iterator.next();
-            this.send(jmapRequest);
-            iterator.remove();
-        }
+        sendQueuedRequests();
     }
 
     private synchronized void onFailure(final Throwable throwable, final Response response) {
@@ -16,19 +16,27 @@
 
 package rs.ltt.jmap.client.blob;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 import okhttp3.*;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import rs.ltt.jmap.client.Services;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.http.HttpAuthentication;
 import rs.ltt.jmap.client.util.SettableCallFuture;
 import rs.ltt.jmap.common.ErrorResponse;
@@ -41,13 +49,22 @@ public class BinaryDataClient {
     private static final String HTTP_HEADER_RANGE = "Range";
     private static final String HTTP_HEADER_CONTENT_RANGE = "Content-Range";
     private static final String HTTP_HEADER_CONTENT_LENGTH = "Content-Length";
+
+    public static final int DEFAULT_PARALLELISM = 4;
     private static final Pattern CONTENT_RANGE_PATTERN =
             Pattern.compile("(^[a-zA-Z][\\w]*)\\s+(\\d+)\\s?-\\s?(\\d+)?\\s?/?\\s?(\\d+|\\*)?");
 
     private final HttpAuthentication httpAuthentication;
+    private final Transport transport;
 
     public BinaryDataClient(final HttpAuthentication httpAuthentication) {
+        this(httpAuthentication, Transport.DEFAULT);
+    }
+
+    public BinaryDataClient(
+            final HttpAuthentication httpAuthentication, final Transport transport) {
         this.httpAuthentication = httpAuthentication;
+        this.transport = transport;
     }
 
     public ListenableFuture<Download> download(final HttpUrl httpUrl, final long rangeStart) {
@@ -57,9 +74,18 @@ public class BinaryDataClient {
             requestBuilder.header(HTTP_HEADER_RANGE, String.format("bytes=%d-", rangeStart));
         }
         this.httpAuthentication.authenticate(requestBuilder);
-        final Call call = Services.OK_HTTP_CLIENT.newCall(requestBuilder.build());
+        final Call call = transport.getHttpClient().newCall(requestBuilder.build());
         final SettableCallFuture<Download> settableFuture = SettableCallFuture.create(call);
         LOGGER.info("Downloading blob from {}", httpUrl);
+        final long start = System.nanoTime();
+        settableFuture.addListener(
+                () -> {
+                    final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+                    transport
+                            .getMetricsListener()
+                            .onDownloadStarted(duration, getException(settableFuture));
+                },
+                MoreExecutors.directExecutor());
         call.enqueue(
                 new Callback() {
                     @Override
@@ -109,14 +135,30 @@ public class BinaryDataClient {
             }
             return Futures.immediateFuture(download);
         }
-        final ErrorResponse errorResponse;
-        try (final InputStreamReader reader = new InputStreamReader(body.byteStream())) {
-            errorResponse = Services.GSON.fromJson(reader, ErrorResponse.class);
-        } catch (final Exception e) {
-            return Futures.immediateFailedFuture(e);
-        }
-        return Futures.immediateFailedFuture(
-                new BlobTransferException(response.code(), errorResponse));
+        return Futures.immediateFailedFuture(getException(transport, response));
+    }
+
+    /**
+     * Downloads a blob into a file using multiple concurrent range requests. An interrupted
+     * download can be resumed by calling this method again with the same destination; only the
+     * segments that have not been completed are fetched again.
+     *
+     * @param httpUrl The download URL of the blob
+     * @param destination The file the blob is written to. A checkpoint file with the suffix .ranges
+     *     is kept next to it until the download has completed
+     * @param parallelism The number of concurrent range requests
+     * @param progress Receives the aggregate progress of all segments. May be null
+     * @return The size of the blob
+     */
+    public ListenableFuture<Long> download(
+            final HttpUrl httpUrl,
+            final Path destination,
+            final int parallelism,
+            @Nullable final Progress progress) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        return new RangedDownload(
+                        httpUrl, destination, parallelism, progress, httpAuthentication, transport)
+                .execute();
     }
 
     public ListenableFuture<Upload> upload(
@@ -126,8 +168,20 @@ public class BinaryDataClient {
         requestBuilder.url(httpUrl);
         httpAuthentication.authenticate(requestBuilder);
         requestBuilder.post(requestBody);
-        final Call call = Services.OK_HTTP_CLIENT.newCall(requestBuilder.build());
+        final Call call = transport.getHttpClient().newCall(requestBuilder.build());
         final SettableCallFuture<Upload> settableFuture = SettableCallFuture.create(call);
+        final long start = System.nanoTime();
+        settableFuture.addListener(
+                () -> {
+                    final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+                    transport
+                            .getMetricsListener()
+                            .onUploaded(
+                                    uploadable.getContentLength(),
+                                    duration,
+                                    getException(settableFuture));
+                },
+                MoreExecutors.directExecutor());
         call.enqueue(
                 new Callback() {
                     @Override
@@ -143,6 +197,36 @@ public class BinaryDataClient {
         return settableFuture;
     }
 
+    /**
+     * @return A {@link BlobTransferException} carrying the error response or the exception that
+     *     occurred while parsing it
+     */
+    static Exception getException(final Transport transport, final Response response) {
+        final ResponseBody body = response.body();
+        if (body == null) {
+            return new IllegalStateException("response body was empty");
+        }
+        final ErrorResponse errorResponse;
+        try (final InputStreamReader reader = new InputStreamReader(body.byteStream())) {
+            errorResponse = transport.getGson().fromJson(reader, ErrorResponse.class);
+        } catch (final Exception e) {
+            return e;
+        }
+        return new BlobTransferException(response.code(), errorResponse);
+    }
+
+    @Nullable
+    private static Throwable getException(final Future<?> future) {
+        try {
+            Futures.getDone(future);
+            return null;
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        } catch (final CancellationException e) {
+            return e;
+        }
+    }
+
     private ListenableFuture<Upload> onUploadResponse(@NotNull Response response) {
         final ResponseBody body = response.body();
         if (body == null) {
@@ -152,21 +236,14 @@ public class BinaryDataClient {
         if (response.isSuccessful()) {
             final Upload upload;
             try (final InputStreamReader reader = new InputStreamReader(body.byteStream())) {
-                upload = Services.GSON.fromJson(reader, Upload.class);
+                upload = transport.getGson().fromJson(reader, Upload.class);
                 validate(upload);
             } catch (final Exception e) {
                 return Futures.immediateFailedFuture(e);
             }
             return Futures.immediateFuture(upload);
         }
-        final ErrorResponse errorResponse;
-        try (final InputStreamReader reader = new InputStreamReader(body.byteStream())) {
-            errorResponse = Services.GSON.fromJson(reader, ErrorResponse.class);
-        } catch (final Exception e) {
-            return Futures.immediateFailedFuture(e);
-        }
-        return Futures.immediateFailedFuture(
-                new BlobTransferException(response.code(), errorResponse));
+        return Futures.immediateFailedFuture(getException(transport, response));
     }
 
     private void validate(final Upload upload) {
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.blob;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size bounded cache for downloaded blobs. Blobs are immutable so an entry, keyed by account and
+ * blob id, never has to be revalidated. Hits are served from disk without any network I/O.
+ *
+ * <p>Downloads that go to the network are written to a partial entry while the caller reads them.
+ * The partial entry becomes a complete entry (with an atomic rename) once the download has been
+ * read to the end or once it has reached the size of the blob. Downloads that have been stopped
+ * early leave their partial entry behind; a later download of the same blob reads the cached part
+ * from disk and only requests the remainder from the server. Partial entries are only kept if the
+ * server announced the size of the blob so that the remainder is never empty. Resumed downloads
+ * that start exactly where the partial entry ends continue to populate it.
+ *
+ * <p>Complete entries are never modified which means any number of readers can use them
+ * concurrently. Only one download at a time writes to the partial entry of a blob. Entries are
+ * evicted in least recently used order once the total size exceeds the limit.
+ */
+public class DiskBlobCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskBlobCache.class);
+
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final Path directory;
+    private final long maxSize;
+    // file names in access order. Values are file sizes
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> writing = new HashSet<>();
+    private long size = 0;
+
+    /**
+     * @param directory The directory the cache owns. Existing entries are picked up.
+     * @param maxSize The maximum size of all entries in bytes
+     */
+    public DiskBlobCache(final Path directory, final long maxSize) throws IOException {
+        Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        final List<Path> files = new ArrayList<>();
+        try (final Stream<Path> stream = Files.list(directory)) {
+            stream.filter(Files::isRegularFile).forEach(files::add);
+        }
+        // the modification time of complete entries is updated on access
+        files.sort(Comparator.comparing(DiskBlobCache::getLastModifiedTime));
+        for (final Path file : files) {
+            final long length = Files.size(file);
+            this.entries.put(file.getFileName().toString(), length);
+            this.size += length;
+        }
+        LOGGER.debug("Found {} cached blobs with a total of {} bytes", entries.size(), size);
+    }
+
+    private static FileTime getLastModifiedTime(final Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (final IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * @param rangeStart The offset the caller wants to start reading at
+     * @return The cached blob or null if the blob is not completely cached
+     */
+    @Nullable
+    public Download get(final String accountId, final String blobId, final long rangeStart) {
+        final String name = name(accountId, blobId);
+        final Long length;
+        synchronized (this) {
+            length = this.entries.get(name);
+        }
+        if (length == null || rangeStart >= Math.max(1, length)) {
+            return null;
+        }
+        final Path file = this.directory.resolve(name);
+        final InputStream inputStream;
+        try {
+            inputStream = Files.newInputStream(file);
+            ByteStreams.skipFully(inputStream, rangeStart);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (final IOException e) {
+            // evicted in the meantime
+            LOGGER.debug("Unable to read cached blob {}", blobId, e);
+            return null;
+        }
+        LOGGER.debug("Serving blob {} from cache", blobId);
+        return rangeStart > 0
+                ? new Download(null, true, length - 1, inputStream)
+                : new Download(null, false, length, inputStream);
+    }
+
+    /**
+     * Serves the blob from the cache or downloads it while writing it into the cache.
+     *
+     * @param rangeStart The offset the caller wants to start reading at
+     * @param network Downloads the blob starting at the given offset
+     * @return A download that returns the data starting at rangeStart
+     */
+    public ListenableFuture<Download> download(
+            final String accountId,
+            final String blobId,
+            final long rangeStart,
+            final LongFunction<ListenableFuture<Download>> network) {
+        final Download cached = get(accountId, blobId, rangeStart);
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+        final String name = name(accountId, blobId) + PARTIAL_SUFFIX;
+        final Long partialLength;
+        synchronized (this) {
+            if (this.writing.contains(name)) {
+                // somebody else is populating the entry
+                return network.apply(rangeStart);
+            }
+            this.writing.add(name);
+            partialLength = this.entries.get(name);
+        }
+        // bytes we already have are read from disk
+        final long networkStart =
+                partialLength != null && partialLength > rangeStart ? partialLength : rangeStart;
+        final ListenableFuture<Download> future = network.apply(networkStart);
+        Futures.addCallback(
+                future,
+                new FutureCallback<Download>() {
+                    @Override
+                    public void onSuccess(final Download download) {}
+
+                    @Override
+                    public void onFailure(@Nonnull final Throwable throwable) {
+                        release(name, partialLength);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        return Futures.transform(
+                future,
+                download ->
+                        populate(
+                                name,
+                                partialLength == null ? 0 : partialLength,
+                                rangeStart,
+                                networkStart,
+                                download),
+                MoreExecutors.directExecutor());
+    }
+
+    private Download populate(
+            final String name,
+            final long partialLength,
+            final long rangeStart,
+            final long networkStart,
+            final Download download) {
+        // the server ignored the range request and sends everything
+        final long start = download.isResumed() ? networkStart : 0;
+        if (start > 0 && start != partialLength) {
+            // would leave a gap in the partial entry
+            release(name, partialLength);
+            return download;
+        }
+        final Path partial = this.directory.resolve(name);
+        final FileChannel fileChannel;
+        InputStream prefix = null;
+        try {
+            fileChannel =
+                    FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            fileChannel.truncate(start);
+            fileChannel.position(start);
+            if (start > rangeStart) {
+                prefix = Files.newInputStream(partial);
+                ByteStreams.skipFully(prefix, rangeStart);
+                prefix = ByteStreams.limit(prefix, start - rangeStart);
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to write {} to blob cache", name, e);
+            release(name, null);
+            return download;
+        }
+        // the content range of a resumed download ends at the last byte of the blob
+        final long total =
+                download.isResumed()
+                        ? download.getContentLength() + 1
+                        : download.getContentLength();
+        final InputStream caching =
+                new CachingInputStream(download.getInputStream(), fileChannel, name, total);
+        if (prefix == null) {
+            return new Download(
+                    download.getCall(), download.isResumed(), download.getContentLength(), caching);
+        }
+        // the content range of a request to the end of the blob ends at its last byte
+        final long contentLength =
+                rangeStart > 0 ? download.getContentLength() : download.getContentLength() + 1;
+        return new Download(
+                download.getCall(),
+                rangeStart > 0,
+                contentLength,
+                new SequenceInputStream(prefix, caching));
+    }
+
+    /** @return The total size of all entries in bytes */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    private void commit(final String partialName, final long length) {
+        final String name =
+                partialName.substring(0, partialName.length() - PARTIAL_SUFFIX.length());
+        final Path partial = this.directory.resolve(partialName);
+        final Path file = this.directory.resolve(name);
+        try {
+            try {
+                Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to commit cached blob", e);
+            release(partialName, null);
+            return;
+        }
+        synchronized (this) {
+            remove(partialName);
+            put(name, length);
+            this.writing.remove(partialName);
+            evict();
+        }
+    }
+
+    private void release(final String partialName, @Nullable final Long length) {
+        synchronized (this) {
+            this.writing.remove(partialName);
+            if (length == null || length == 0) {
+                remove(partialName);
+            } else {
+                put(partialName, length);
+            }
+            evict();
+        }
+        if (length == null || length == 0) {
+            delete(this.directory.resolve(partialName));
+        }
+    }
+
+    private void put(final String name, final long length) {
+        final Long previous = this.entries.put(name, length);
+        this.size += length - (previous == null ? 0 : previous);
+    }
+
+    private void remove(final String name) {
+        final Long previous = this.entries.remove(name);
+        if (previous != null) {
+            this.size -= previous;
+        }
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator = this.entries.entrySet().iterator();
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            if (this.writing.contains(entry.getKey())) {
+                continue;
+            }
+            // readers that have already opened the file can continue on POSIX systems
+            delete(this.directory.resolve(entry.getKey()));
+            this.size -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static void delete(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to delete {}", path, e);
+        }
+    }
+
+    private static String name(final String accountId, final String blobId) {
+        return Hashing.sha256()
+                .newHasher()
+                .putString(accountId, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(blobId, StandardCharsets.UTF_8)
+                .hash()
+                .toString();
+    }
+
+    /**
+     * Copies everything that is being read into the partial entry. Failing to write to the cache
+     * stops caching but does not affect the reader.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final FileChannel fileChannel;
+        private final String name;
+        // the size of the blob or 0 if unknown
+        private final long total;
+        private boolean caching = true;
+        private boolean closed = false;
+
+        private CachingInputStream(
+                final InputStream inputStream,
+                final FileChannel fileChannel,
+                final String name,
+                final long total) {
+            super(inputStream);
+            this.fileChannel = fileChannel;
+            this.name = name;
+            this.total = total;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            final int read = read(buffer, 0, 1);
+            return read == -1 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length)
+                throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                finish(true);
+            } else if (caching) {
+                try {
+                    final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, read);
+                    while (byteBuffer.hasRemaining()) {
+                        this.fileChannel.write(byteBuffer);
+                    }
+                } catch (final IOException e) {
+                    LOGGER.warn("Unable to write to blob cache", e);
+                    this.caching = false;
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // skipped bytes would leave a gap in the cache entry
+            return ByteStreams.exhaust(ByteStreams.limit(this, n));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish(false);
+            }
+        }
+
+        private synchronized void finish(final boolean complete) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            Long length = null;
+            try {
+                if (caching) {
+                    this.fileChannel.force(false);
+                    length = this.fileChannel.size();
+                }
+                this.fileChannel.close();
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to write to blob cache", e);
+                length = null;
+            }
+            if (length != null && (complete || length == this.total)) {
+                // a reader that stops right at the end has read everything
+                commit(name, length);
+            } else if (length != null && length < this.total) {
+                // keep what we have so a later download can continue
+                release(name, length);
+            } else {
+                // without knowing the size a later download might ask for a range past the end
+                release(name, null);
+            }
+        }
+    }
+}
@@ -16,7 +16,9 @@
 
 package rs.ltt.jmap.client.blob;
 
+import com.google.common.io.Closeables;
 import java.io.InputStream;
+import javax.annotation.Nullable;
 import okhttp3.Call;
 
 public final class Download {
@@ -43,6 +45,8 @@ public final class Download {
         return contentLength == 0;
     }
 
+    /** @return The HTTP call or null if the download is served from the {@link DiskBlobCache} */
+    @Nullable
     public Call getCall() {
         return call;
     }
@@ -60,6 +64,10 @@ public final class Download {
     }
 
     public void cancel() {
-        this.call.cancel();
+        if (this.call != null) {
+            this.call.cancel();
+        } else {
+            Closeables.closeQuietly(this.inputStream);
+        }
     }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.blob;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link Uploadable} that is backed by a file. Uploads read from the {@link FileChannel} with
+ * large positional reads instead of going through the {@link java.io.InputStream}. Positional reads
+ * do not depend on the position of the channel which means the request body can be written more
+ * than once (for example when OkHttp retries a request).
+ */
+public interface FileChannelUploadable extends Uploadable {
+
+    FileChannel getFileChannel() throws IOException;
+}
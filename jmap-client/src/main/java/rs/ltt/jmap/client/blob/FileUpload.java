@@ -20,19 +20,26 @@ import com.google.common.net.MediaType;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
-public class FileUpload implements Uploadable, Closeable {
+public class FileUpload implements FileChannelUploadable, Closeable {
 
+    private final FileChannel fileChannel;
     private final InputStream inputStream;
     private final long contentLength;
     private final MediaType mediaType;
+    private final String name;
 
     private FileUpload(final Path path) throws IOException {
-        this.inputStream = Files.newInputStream(path);
-        this.contentLength = Files.size(path);
+        this.fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        this.inputStream = Channels.newInputStream(this.fileChannel);
+        this.contentLength = this.fileChannel.size();
         this.mediaType = MediaType.parse(Files.probeContentType(path));
+        this.name = path.getFileName().toString();
     }
 
     public static FileUpload of(final Path path) throws IOException {
@@ -48,6 +55,11 @@ public class FileUpload implements Uploadable, Closeable {
         return inputStream;
     }
 
+    @Override
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
     @Override
     public MediaType getMediaType() {
         return mediaType;
@@ -58,8 +70,13 @@ public class FileUpload implements Uploadable, Closeable {
         return contentLength;
     }
 
+    @Override
+    public String getName() {
+        return name;
+    }
+
     @Override
     public void close() throws IOException {
-        this.inputStream.close();
+        this.fileChannel.close();
     }
 }
@@ -21,19 +21,22 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import org.jetbrains.annotations.NotNull;
 
-public class LegacyFileUpload implements Uploadable, Closeable {
+public class LegacyFileUpload implements FileChannelUploadable, Closeable {
 
     private final FileInputStream inputStream;
     private final long contentLength;
     private final MediaType mediaType;
+    private final String name;
 
     private LegacyFileUpload(final File file, final MediaType mediaType)
             throws FileNotFoundException {
         this.inputStream = new FileInputStream(file);
         this.contentLength = file.length();
         this.mediaType = mediaType;
+        this.name = file.getName();
     }
 
     public static LegacyFileUpload of(final File file, final MediaType mediaType)
@@ -56,6 +59,11 @@ public class LegacyFileUpload implements Uploadable, Closeable {
         return inputStream;
     }
 
+    @Override
+    public FileChannel getFileChannel() {
+        return getInputStream().getChannel();
+    }
+
     @Override
     public MediaType getMediaType() {
         return this.mediaType;
@@ -66,6 +74,11 @@ public class LegacyFileUpload implements Uploadable, Closeable {
         return this.contentLength;
     }
 
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
     @Override
     public void close() throws IOException {
         this.inputStream.close();
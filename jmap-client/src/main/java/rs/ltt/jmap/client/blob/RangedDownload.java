@@ -0,0 +1,432 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.blob;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import okhttp3.*;
+import okio.BufferedSource;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.Transport;
+import rs.ltt.jmap.client.http.HttpAuthentication;
+
+/**
+ * Downloads a blob into a file using multiple concurrent range requests. The blob is split into
+ * segments that are written at their offset into a {@link FileChannel}. Completed segments are
+ * recorded in a checkpoint file next to the destination; downloading into the same destination
+ * again only fetches the segments that are still missing. The checkpoint is removed once the
+ * download has completed. Servers that do not support range requests are handled with a single
+ * regular request.
+ */
+final class RangedDownload {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RangedDownload.class);
+
+    private static final String HTTP_HEADER_RANGE = "Range";
+    private static final String HTTP_HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String CHECKPOINT_SUFFIX = ".ranges";
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+    private static final int SEGMENTS_PER_CONNECTION = 4;
+    private static final int BLOCK_SIZE = 8192;
+
+    private final HttpUrl httpUrl;
+    private final Path destination;
+    private final Path checkpoint;
+    private final int parallelism;
+    private final Progress progress;
+    private final HttpAuthentication httpAuthentication;
+    private final Transport transport;
+
+    private final SettableFuture<Long> future = SettableFuture.create();
+    private final Set<Call> calls = new HashSet<>();
+    private final Set<Integer> completedSegments = new HashSet<>();
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicInteger reported = new AtomicInteger(-1);
+    private FileChannel fileChannel;
+    private long contentLength;
+    private int remaining;
+
+    RangedDownload(
+            final HttpUrl httpUrl,
+            final Path destination,
+            final int parallelism,
+            final Progress progress,
+            final HttpAuthentication httpAuthentication,
+            final Transport transport) {
+        this.httpUrl = httpUrl;
+        this.destination = destination;
+        this.checkpoint = destination.resolveSibling(destination.getFileName() + CHECKPOINT_SUFFIX);
+        this.parallelism = parallelism;
+        this.progress = progress;
+        this.httpAuthentication = httpAuthentication;
+        this.transport = transport;
+    }
+
+    ListenableFuture<Long> execute() {
+        this.future.addListener(this::onDone, MoreExecutors.directExecutor());
+        try {
+            this.fileChannel =
+                    FileChannel.open(
+                            destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (final IOException e) {
+            this.future.setException(e);
+            return this.future;
+        }
+        LOGGER.info("Downloading blob from {} into {}", httpUrl, destination);
+        // the first byte tells us whether the server supports ranges and how large the blob is
+        enqueue(
+                "bytes=0-0",
+                new Callback() {
+                    @Override
+                    public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                        future.setException(e);
+                    }
+
+                    @Override
+                    public void onResponse(@NotNull Call call, @NotNull Response response) {
+                        try (final Response r = response) {
+                            onProbeResponse(r);
+                        } catch (final Exception e) {
+                            future.setException(e);
+                        }
+                    }
+                });
+        return this.future;
+    }
+
+    private void onProbeResponse(final Response response) throws Exception {
+        if (!response.isSuccessful()) {
+            throw BinaryDataClient.getException(transport, response);
+        }
+        final BinaryDataClient.ContentRange contentRange =
+                BinaryDataClient.ContentRange.of(response.header(HTTP_HEADER_CONTENT_RANGE));
+        final ResponseBody body = response.body();
+        if (body == null) {
+            throw new IllegalStateException("response body was empty");
+        }
+        if (response.code() != 206) {
+            LOGGER.debug("Server does not support ranges. Falling back to sequential download");
+            writeSequentially(body);
+            return;
+        }
+        if (contentRange == null || contentRange.getContentLength() <= 0) {
+            LOGGER.debug("Server did not report blob size. Falling back to sequential download");
+            enqueue(
+                    null,
+                    new Callback() {
+                        @Override
+                        public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                            future.setException(e);
+                        }
+
+                        @Override
+                        public void onResponse(@NotNull Call call, @NotNull Response response) {
+                            try (final Response r = response) {
+                                if (!r.isSuccessful()) {
+                                    throw BinaryDataClient.getException(transport, r);
+                                }
+                                writeSequentially(r.body());
+                            } catch (final Exception e) {
+                                future.setException(e);
+                            }
+                        }
+                    });
+            return;
+        }
+        this.contentLength = contentRange.getContentLength();
+        final long segmentSize = loadCheckpoint();
+        final int segments;
+        synchronized (this) {
+            for (long start = 0; start < contentLength; start += segmentSize) {
+                final int index = Ints.checkedCast(start / segmentSize);
+                final long end = Math.min(contentLength, start + segmentSize) - 1;
+                if (this.completedSegments.contains(index)) {
+                    this.done.addAndGet(end - start + 1);
+                } else {
+                    this.pending.add(new Segment(index, start, end));
+                }
+            }
+            this.remaining = this.pending.size();
+            segments = this.remaining;
+        }
+        LOGGER.debug(
+                "Fetching {} segments of {} bytes with {} connections",
+                segments,
+                segmentSize,
+                parallelism);
+        reportProgress(0);
+        if (segments == 0) {
+            complete();
+            return;
+        }
+        for (int i = 0; i < parallelism; ++i) {
+            next();
+        }
+    }
+
+    /**
+     * Reads the segments that have been completed by a previous attempt and marks them as done.
+     *
+     * @return The segment size
+     */
+    private long loadCheckpoint() throws IOException {
+        if (Files.exists(this.checkpoint)) {
+            final List<String> lines = Files.readAllLines(this.checkpoint, StandardCharsets.UTF_8);
+            final List<String> header =
+                    lines.isEmpty()
+                            ? Collections.emptyList()
+                            : Splitter.on(' ').splitToList(lines.get(0));
+            final Long length = header.size() == 2 ? Longs.tryParse(header.get(0)) : null;
+            final Long segmentSize = header.size() == 2 ? Longs.tryParse(header.get(1)) : null;
+            if (length != null && length == contentLength && segmentSize != null) {
+                for (final String line : Iterables.skip(lines, 1)) {
+                    final Integer index = Ints.tryParse(line);
+                    if (index != null) {
+                        this.completedSegments.add(index);
+                    }
+                }
+                LOGGER.info(
+                        "Resuming download. {} segments have already been completed",
+                        completedSegments.size());
+                return segmentSize;
+            }
+        }
+        final long segmentSize =
+                Math.max(
+                        MIN_SEGMENT_SIZE,
+                        divideRoundingUp(
+                                contentLength, (long) parallelism * SEGMENTS_PER_CONNECTION));
+        Files.write(
+                this.checkpoint,
+                Collections.singletonList(String.format("%d %d", contentLength, segmentSize)),
+                StandardCharsets.UTF_8);
+        return segmentSize;
+    }
+
+    private void next() {
+        final Segment segment;
+        synchronized (this) {
+            segment = this.pending.poll();
+        }
+        if (segment == null || future.isDone()) {
+            return;
+        }
+        enqueue(
+                String.format("bytes=%d-%d", segment.start, segment.end),
+                new Callback() {
+                    @Override
+                    public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                        future.setException(e);
+                    }
+
+                    @Override
+                    public void onResponse(@NotNull Call call, @NotNull Response response) {
+                        try (final Response r = response) {
+                            onSegmentResponse(segment, r);
+                        } catch (final Exception e) {
+                            future.setException(e);
+                            return;
+                        }
+                        next();
+                    }
+                });
+    }
+
+    private void onSegmentResponse(final Segment segment, final Response response)
+            throws Exception {
+        if (!response.isSuccessful()) {
+            throw BinaryDataClient.getException(transport, response);
+        }
+        final BinaryDataClient.ContentRange contentRange =
+                BinaryDataClient.ContentRange.of(response.header(HTTP_HEADER_CONTENT_RANGE));
+        if (response.code() != 206
+                || contentRange == null
+                || contentRange.getStart() != segment.start) {
+            throw new IllegalStateException(
+                    String.format(
+                            "Server did not respond with requested range %d-%d",
+                            segment.start, segment.end));
+        }
+        final ResponseBody body = response.body();
+        if (body == null) {
+            throw new IllegalStateException("response body was empty");
+        }
+        final long length = segment.end - segment.start + 1;
+        final long written = write(body.source(), segment.start, length);
+        if (written != length) {
+            throw new IOException(
+                    String.format(
+                            "Segment %d ended after %d of %d bytes",
+                            segment.index, written, length));
+        }
+        final boolean last;
+        synchronized (this) {
+            // the checkpoint must never claim data that has not been persisted yet
+            this.fileChannel.force(false);
+            Files.write(
+                    this.checkpoint,
+                    Collections.singletonList(Integer.toString(segment.index)),
+                    StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND);
+            last = --this.remaining == 0;
+        }
+        if (last) {
+            complete();
+        }
+    }
+
+    private void writeSequentially(final ResponseBody body) throws IOException {
+        if (body == null) {
+            throw new IllegalStateException("response body was empty");
+        }
+        Files.deleteIfExists(this.checkpoint);
+        this.fileChannel.truncate(0);
+        this.contentLength = Math.max(0, body.contentLength());
+        final long length = write(body.source(), 0, Long.MAX_VALUE);
+        this.fileChannel.force(false);
+        this.future.set(length);
+    }
+
+    private void complete() throws IOException {
+        this.fileChannel.truncate(contentLength);
+        this.fileChannel.force(false);
+        Files.deleteIfExists(this.checkpoint);
+        LOGGER.info("Finished downloading {} bytes into {}", contentLength, destination);
+        this.future.set(contentLength);
+    }
+
+    private long write(final BufferedSource source, final long position, final long length)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long written = 0;
+        while (written < length && !future.isDone()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BLOCK_SIZE, length - written));
+            if (source.read(buffer) == -1) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += this.fileChannel.write(buffer, position + written);
+            }
+            reportProgress(buffer.limit());
+        }
+        return written;
+    }
+
+    private void reportProgress(final long bytes) {
+        final long total = this.done.addAndGet(bytes);
+        if (progress == null || contentLength <= 0) {
+            return;
+        }
+        final int percent = Progress.progress(total, contentLength);
+        final int previous = this.reported.getAndAccumulate(percent, Math::max);
+        if (percent > previous) {
+            progress.onProgress(percent);
+        }
+    }
+
+    private void enqueue(@Nullable final String range, final Callback callback) {
+        final Request.Builder requestBuilder = new Request.Builder();
+        requestBuilder.url(httpUrl);
+        if (range != null) {
+            requestBuilder.header(HTTP_HEADER_RANGE, range);
+        }
+        this.httpAuthentication.authenticate(requestBuilder);
+        final Call call = transport.getHttpClient().newCall(requestBuilder.build());
+        synchronized (this.calls) {
+            if (future.isDone()) {
+                return;
+            }
+            this.calls.add(call);
+        }
+        call.enqueue(
+                new Callback() {
+                    @Override
+                    public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                        remove(call);
+                        callback.onFailure(call, e);
+                    }
+
+                    @Override
+                    public void onResponse(@NotNull Call call, @NotNull Response response)
+                            throws IOException {
+                        remove(call);
+                        callback.onResponse(call, response);
+                    }
+                });
+    }
+
+    private void remove(final Call call) {
+        synchronized (this.calls) {
+            this.calls.remove(call);
+        }
+    }
+
+    private void onDone() {
+        final List<Call> running;
+        synchronized (this.calls) {
+            running = new ArrayList<>(this.calls);
+            this.calls.clear();
+        }
+        for (final Call call : running) {
+            call.cancel();
+        }
+        try {
+            if (this.fileChannel != null) {
+                this.fileChannel.close();
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to close {}", destination, e);
+        }
+    }
+
+    private static long divideRoundingUp(final long dividend, final long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private static final class Segment {
+        private final int index;
+        private final long start;
+        private final long end;
+
+        private Segment(final int index, final long start, final long end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
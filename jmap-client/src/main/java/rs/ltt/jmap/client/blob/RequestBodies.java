@@ -16,7 +16,10 @@
 
 package rs.ltt.jmap.client.blob;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okio.BufferedSink;
@@ -28,32 +31,26 @@ import org.jetbrains.annotations.Nullable;
 public class RequestBodies {
 
     private static final int BLOCK_SIZE = 8196;
+    private static final int CHANNEL_BLOCK_SIZE = 256 * 1024;
 
     public static RequestBody of(final Uploadable uploadable, final Progress progress) {
-        return new RequestBody() {
-
-            @Override
-            public long contentLength() {
-                return uploadable.getContentLength();
-            }
-
-            @Nullable
-            @Override
-            public MediaType contentType() {
-                return convert(uploadable.getMediaType());
-            }
-
+        if (uploadable instanceof FileChannelUploadable) {
+            return of((FileChannelUploadable) uploadable, progress);
+        }
+        return new UploadableRequestBody(uploadable) {
             @Override
             public void writeTo(@NotNull BufferedSink bufferedSink) throws IOException {
+                final ThrottledProgress throttledProgress =
+                        new ThrottledProgress(progress, uploadable.getContentLength());
                 long done = 0;
                 try (final Source source = Okio.source(uploadable.getInputStream())) {
                     long read;
                     while ((read = source.read(bufferedSink.getBuffer(), BLOCK_SIZE)) != -1) {
                         done += read;
-                        if (progress != null) {
+                        bufferedSink.emitCompleteSegments();
+                        if (throttledProgress.isDue(done)) {
                             bufferedSink.flush();
-                            progress.onProgress(
-                                    Progress.progress(done, uploadable.getContentLength()));
+                            throttledProgress.report(done);
                         }
                     }
                 }
@@ -62,6 +59,59 @@ public class RequestBodies {
         };
     }
 
+    private static RequestBody of(final FileChannelUploadable uploadable, final Progress progress) {
+        return new UploadableRequestBody(uploadable) {
+            @Override
+            public void writeTo(@NotNull BufferedSink bufferedSink) throws IOException {
+                final FileChannel fileChannel = uploadable.getFileChannel();
+                final long contentLength = uploadable.getContentLength();
+                final ThrottledProgress throttledProgress =
+                        new ThrottledProgress(progress, contentLength);
+                final ByteBuffer buffer = ByteBuffer.allocate(CHANNEL_BLOCK_SIZE);
+                long position = 0;
+                while (position < contentLength) {
+                    buffer.clear();
+                    final int read = fileChannel.read(buffer, position);
+                    if (read == -1) {
+                        throw new EOFException(
+                                String.format(
+                                        "File ended after %d of %d bytes",
+                                        position, contentLength));
+                    }
+                    buffer.flip();
+                    // the sink hands complete segments to the network as soon as they fill up
+                    bufferedSink.write(buffer);
+                    position += read;
+                    if (throttledProgress.isDue(position)) {
+                        bufferedSink.flush();
+                        throttledProgress.report(position);
+                    }
+                }
+                bufferedSink.flush();
+            }
+        };
+    }
+
+    private abstract static class UploadableRequestBody extends RequestBody {
+
+        private final Uploadable uploadable;
+
+        private UploadableRequestBody(final Uploadable uploadable) {
+            this.uploadable = uploadable;
+        }
+
+        @Override
+        public long contentLength() {
+            return uploadable.getContentLength();
+        }
+
+        @Nullable
+        @Override
+        public MediaType contentType() {
+            return convert(uploadable.getMediaType());
+        }
+    }
+
     private static MediaType convert(com.google.common.net.MediaType mediaType) {
         return MediaType.get(String.format("%s/%s", mediaType.type(), mediaType.subtype()));
     }
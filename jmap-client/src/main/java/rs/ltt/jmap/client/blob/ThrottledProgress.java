@@ -0,0 +1,52 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.blob;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of progress callbacks. A callback is due once the interval has passed or the
+ * transfer has completed and only if the percentage has changed since the last callback.
+ */
+final class ThrottledProgress {
+
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Progress progress;
+    private final long total;
+    private long lastReport = System.nanoTime();
+    private int lastProgress = -1;
+
+    ThrottledProgress(final Progress progress, final long total) {
+        this.progress = progress;
+        this.total = total;
+    }
+
+    boolean isDue(final long done) {
+        if (progress == null) {
+            return false;
+        }
+        final boolean intervalPassed = System.nanoTime() - lastReport >= INTERVAL_NANOS;
+        return (intervalPassed || done >= total) && Progress.progress(done, total) != lastProgress;
+    }
+
+    void report(final long done) {
+        this.lastReport = System.nanoTime();
+        this.lastProgress = Progress.progress(done, total);
+        this.progress.onProgress(this.lastProgress);
+    }
+}
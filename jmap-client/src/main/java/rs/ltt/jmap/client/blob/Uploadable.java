@@ -25,4 +25,9 @@ public interface Uploadable {
     MediaType getMediaType();
 
     long getContentLength();
+
+    /** @return The file name that is used when the upload is attached to an email. May be null */
+    default String getName() {
+        return null;
+    }
 }
@@ -16,14 +16,12 @@
 
 package rs.ltt.jmap.client.event;
 
-import static rs.ltt.jmap.client.Services.GSON;
-import static rs.ltt.jmap.client.Services.OK_HTTP_CLIENT;
-
 import com.google.common.base.Strings;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import okhttp3.HttpUrl;
@@ -36,10 +34,12 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import rs.ltt.jmap.client.Services;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.http.Headers;
 import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.jfr.FlightRecorderEvents;
 import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.entity.StateChange;
 
 public class EventSourcePushService implements PushService, OnStateChangeListenerManager.Callback {
@@ -48,6 +48,7 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
 
     private final Session session;
     private final HttpAuthentication authentication;
+    private final Transport transport;
     private final OnStateChangeListenerManager onStateChangeListenerManager =
             new OnStateChangeListenerManager(this);
     private final List<OnConnectionStateChangeListener> onConnectionStateListeners =
@@ -63,8 +64,16 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
     // TODO do we want to pass JmapClient instead to always have access to the session. or an
     // SessionRetriever interface
     public EventSourcePushService(final Session session, final HttpAuthentication authentication) {
+        this(session, authentication, Transport.DEFAULT);
+    }
+
+    public EventSourcePushService(
+            final Session session,
+            final HttpAuthentication authentication,
+            final Transport transport) {
         this.session = session;
         this.authentication = authentication;
+        this.transport = transport;
     }
 
     private void disconnect(final State state) {
@@ -94,9 +103,11 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
         final int attempt = this.attempt;
         final Duration reconnectIn = reconnectionStrategy.getNextReconnectionAttempt(attempt);
         LOGGER.info("schedule reconnect in {} for {} time ", reconnectIn, attempt + 1);
+        FlightRecorderEvents.pushReconnect("eventsource", attempt + 1, reconnectIn);
         this.reconnectionFuture =
-                Services.SCHEDULED_EXECUTOR_SERVICE.schedule(
-                        this::connect, reconnectIn.toMillis(), TimeUnit.MILLISECONDS);
+                transport
+                        .getScheduledExecutorService()
+                        .schedule(this::connect, reconnectIn.toMillis(), TimeUnit.MILLISECONDS);
     }
 
     private void cancelReconnectionFuture() {
@@ -119,7 +130,9 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
         try {
             eventSourceUrl =
                     session.getEventSourceUrl(
-                            Collections.emptyList(), CloseAfter.NO, pingInterval.getSeconds());
+                            onStateChangeListenerManager.getTypes(),
+                            CloseAfter.NO,
+                            pingInterval.getSeconds());
         } catch (final Exception e) {
             LOGGER.warn("Unable to connect to EventSource URL");
             disconnect(State.FAILED);
@@ -131,7 +144,8 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
     private void connectEventSource(final HttpUrl eventSourceUrl) {
         final EventSource.Factory factory =
                 EventSources.createFactory(
-                        OK_HTTP_CLIENT
+                        transport
+                                .getHttpClient()
                                 .newBuilder()
                                 .readTimeout(pingInterval.plus(PING_INTERVAL_TOLERANCE))
                                 .retryOnConnectionFailure(true)
@@ -166,7 +180,7 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
     }
 
     private void onStateEvent(final String id, final String state) {
-        final StateChange stateChange = GSON.fromJson(state, StateChange.class);
+        final StateChange stateChange = transport.getGson().fromJson(state, StateChange.class);
         this.onStateChangeListenerManager.onStateChange(stateChange);
     }
 
@@ -179,6 +193,13 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
         this.onStateChangeListenerManager.addOnStateChangeListener(onStateChangeListener);
     }
 
+    @Override
+    public void addOnStateChangeListener(
+            final OnStateChangeListener onStateChangeListener,
+            final Collection<Class<? extends AbstractIdentifiableEntity>> types) {
+        this.onStateChangeListenerManager.addOnStateChangeListener(onStateChangeListener, types);
+    }
+
     @Override
     public void removeOnStateChangeListener(OnStateChangeListener onStateChangeListener) {
         this.onStateChangeListenerManager.removeOnStateChangeListener(onStateChangeListener);
@@ -200,6 +221,21 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
         }
     }
 
+    @Override
+    public void setOnStateChangeExecutor(@Nullable final Executor executor) {
+        this.onStateChangeListenerManager.setExecutor(executor);
+    }
+
+    @Override
+    public boolean isPushNotificationsEnabled() {
+        return this.onStateChangeListenerManager.isPushNotificationsEnabled();
+    }
+
+    @Override
+    public OnStateChangeListenerManager.Metrics getOnStateChangeMetrics() {
+        return this.onStateChangeListenerManager.getMetrics();
+    }
+
     @Override
     public State getConnectionState() {
         return this.state;
@@ -216,6 +252,17 @@ public class EventSourcePushService implements PushService, OnStateChangeListene
         connect();
     }
 
+    @Override
+    public void onTypesChanged() {
+        // the types are part of the EventSource URL; a narrowed (or widened) subscription requires
+        // a new connection
+        if (this.state == State.CONNECTED || this.state == State.CONNECTING) {
+            LOGGER.info("Reconnecting EventSource to subscribe to changed types");
+            disconnect(State.CLOSED);
+            connect();
+        }
+    }
+
     private static final class Type {
         public static final String STATE = "state";
         public static final String PING = "ping";
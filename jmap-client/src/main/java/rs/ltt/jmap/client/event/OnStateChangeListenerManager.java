@@ -16,49 +16,121 @@
 
 package rs.ltt.jmap.client.event;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.entity.StateChange;
+import rs.ltt.jmap.common.websocket.StateChangeWebSocketMessage;
 
+/**
+ * Keeps track of the registered {@link OnStateChangeListener}s. Listeners are stored in a
+ * copy-on-write list so dispatching never blocks adding or removing listeners.
+ *
+ * <p>By default listeners are invoked on the thread that received the StateChange (usually the
+ * EventSource or WebSocket reader thread). When an executor has been set listeners are invoked on
+ * that executor instead. StateChanges that arrive while a listener is still busy (or waiting for
+ * the executor) are merged into a single StateChange that only contains the most recent states.
+ */
 public class OnStateChangeListenerManager {
 
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(OnStateChangeListenerManager.class);
+
     private final Callback callback;
 
-    private final List<OnStateChangeListener> onStateChangeListeners = new ArrayList<>();
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    private final DispatchMetrics dispatchMetrics = new DispatchMetrics();
+
+    private volatile Executor executor = null;
 
     public OnStateChangeListenerManager(final Callback callback) {
         this.callback = callback;
     }
 
+    /**
+     * @param executor The executor listeners are invoked on. null invokes listeners directly on the
+     *     thread that received the StateChange.
+     */
+    public void setExecutor(@Nullable final Executor executor) {
+        this.executor = executor;
+    }
+
     public void addOnStateChangeListener(final OnStateChangeListener onStateChangeListener) {
+        addOnStateChangeListener(onStateChangeListener, Collections.emptySet());
+    }
+
+    /**
+     * @param onStateChangeListener The listener
+     * @param types The entity types the listener is interested in. An empty collection means all
+     *     types.
+     */
+    public void addOnStateChangeListener(
+            final OnStateChangeListener onStateChangeListener,
+            final Collection<Class<? extends AbstractIdentifiableEntity>> types) {
         final boolean empty;
-        synchronized (this.onStateChangeListeners) {
-            empty = this.onStateChangeListeners.isEmpty();
-            this.onStateChangeListeners.add(onStateChangeListener);
+        final boolean typesChanged;
+        // the lock only serializes modifications. Dispatch iterates over a snapshot
+        synchronized (this.registrations) {
+            empty = this.registrations.isEmpty();
+            final Set<Class<? extends AbstractIdentifiableEntity>> before = getTypes();
+            final Registration existing = find(onStateChangeListener);
+            if (existing != null) {
+                existing.removed = true;
+                this.registrations.remove(existing);
+            }
+            this.registrations.add(
+                    new Registration(onStateChangeListener, ImmutableSet.copyOf(types)));
+            typesChanged = !before.equals(getTypes());
         }
         if (empty) {
             callback.enable();
+        } else if (typesChanged) {
+            callback.onTypesChanged();
         }
     }
 
     public void removeOnStateChangeListener(OnStateChangeListener onStateChangeListener) {
         final boolean removed;
         final boolean empty;
-        synchronized (this.onStateChangeListeners) {
-            removed = this.onStateChangeListeners.remove(onStateChangeListener);
-            empty = this.onStateChangeListeners.isEmpty();
+        final boolean typesChanged;
+        synchronized (this.registrations) {
+            final Set<Class<? extends AbstractIdentifiableEntity>> before = getTypes();
+            final Registration registration = find(onStateChangeListener);
+            if (registration != null) {
+                registration.removed = true;
+                removed = this.registrations.remove(registration);
+            } else {
+                removed = false;
+            }
+            empty = this.registrations.isEmpty();
+            typesChanged = !before.equals(getTypes());
         }
         if (removed && empty) {
             callback.disable();
+        } else if (typesChanged) {
+            callback.onTypesChanged();
         }
     }
 
     public void removeAllListeners() {
         final boolean nonEmpty;
-        synchronized (this.onStateChangeListeners) {
-            nonEmpty = !this.onStateChangeListeners.isEmpty();
-            this.onStateChangeListeners.clear();
+        synchronized (this.registrations) {
+            nonEmpty = !this.registrations.isEmpty();
+            for (final Registration registration : this.registrations) {
+                registration.removed = true;
+            }
+            this.registrations.clear();
         }
         if (nonEmpty) {
             callback.disable();
@@ -66,25 +138,301 @@ public class OnStateChangeListenerManager {
     }
 
     public boolean isPushNotificationsEnabled() {
-        synchronized (this.onStateChangeListeners) {
-            return !this.onStateChangeListeners.isEmpty();
+        return !this.registrations.isEmpty();
+    }
+
+    /**
+     * The union of the types all registered listeners are interested in. This is meant to be sent
+     * to the server when subscribing to push notifications.
+     *
+     * @return The types to subscribe to. An empty set means all types.
+     */
+    public Set<Class<? extends AbstractIdentifiableEntity>> getTypes() {
+        final ImmutableSet.Builder<Class<? extends AbstractIdentifiableEntity>> builder =
+                ImmutableSet.builder();
+        for (final Registration registration : this.registrations) {
+            if (registration.types.isEmpty()) {
+                return Collections.emptySet();
+            }
+            builder.addAll(registration.types);
         }
+        return builder.build();
     }
 
+    public Metrics getMetrics() {
+        return this.dispatchMetrics.snapshot();
+    }
+
+    /**
+     * Dispatches a StateChange to all interested listeners.
+     *
+     * @return When dispatching directly true if at least one listener returned true. When
+     *     dispatching on an executor true if at least one listener was interested in the
+     *     StateChange.
+     */
     public boolean onStateChange(StateChange stateChange) {
-        final AtomicBoolean result = new AtomicBoolean(false);
-        synchronized (this.onStateChangeListeners) {
-            this.onStateChangeListeners.forEach(
-                    listener -> {
-                        result.compareAndSet(false, listener.onStateChange(stateChange));
-                    });
+        final long received = System.nanoTime();
+        final Executor executor = this.executor;
+        boolean result = false;
+        for (final Registration registration : this.registrations) {
+            final StateChange filtered = filter(stateChange, registration.types);
+            if (filtered == null) {
+                continue;
+            }
+            if (executor == null) {
+                this.dispatchMetrics.record(System.nanoTime() - received, 1);
+                if (registration.listener.onStateChange(filtered)) {
+                    result = true;
+                }
+            } else {
+                registration.offer(filtered, received, executor);
+                result = true;
+            }
         }
-        return result.get();
+        return result;
+    }
+
+    private Registration find(final OnStateChangeListener onStateChangeListener) {
+        for (final Registration registration : this.registrations) {
+            if (registration.listener.equals(onStateChangeListener)) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reduces a StateChange to the given types.
+     *
+     * @return The reduced StateChange or null if none of the types have changed
+     */
+    private static StateChange filter(
+            final StateChange stateChange,
+            final Set<Class<? extends AbstractIdentifiableEntity>> types) {
+        final Map<String, Map<Class<? extends AbstractIdentifiableEntity>, String>> changed =
+                stateChange.getChanged();
+        if (types.isEmpty() || changed == null) {
+            return stateChange;
+        }
+        final ImmutableMap.Builder<String, Map<Class<? extends AbstractIdentifiableEntity>, String>>
+                filteredBuilder = ImmutableMap.builder();
+        boolean matched = false;
+        for (final Map.Entry<String, Map<Class<? extends AbstractIdentifiableEntity>, String>>
+                account : changed.entrySet()) {
+            final Map<Class<? extends AbstractIdentifiableEntity>, String> states =
+                    account.getValue();
+            if (states == null) {
+                continue;
+            }
+            final ImmutableMap.Builder<Class<? extends AbstractIdentifiableEntity>, String>
+                    statesBuilder = ImmutableMap.builder();
+            boolean accountMatched = false;
+            for (final Map.Entry<Class<? extends AbstractIdentifiableEntity>, String> state :
+                    states.entrySet()) {
+                if (types.contains(state.getKey())) {
+                    statesBuilder.put(state);
+                    accountMatched = true;
+                }
+            }
+            if (accountMatched) {
+                filteredBuilder.put(account.getKey(), statesBuilder.build());
+                matched = true;
+            }
+        }
+        if (!matched) {
+            return null;
+        }
+        return withChanged(stateChange, filteredBuilder.build());
+    }
+
+    /** Merges two StateChanges. States in the second StateChange take precedence. */
+    private static StateChange merge(final StateChange first, final StateChange second) {
+        final Map<String, Map<Class<? extends AbstractIdentifiableEntity>, String>> merged =
+                new LinkedHashMap<>();
+        for (final StateChange stateChange : Arrays.asList(first, second)) {
+            final Map<String, Map<Class<? extends AbstractIdentifiableEntity>, String>> changed =
+                    stateChange.getChanged();
+            if (changed == null) {
+                continue;
+            }
+            for (final Map.Entry<String, Map<Class<? extends AbstractIdentifiableEntity>, String>>
+                    account : changed.entrySet()) {
+                if (account.getValue() == null) {
+                    continue;
+                }
+                merged.computeIfAbsent(account.getKey(), k -> new LinkedHashMap<>())
+                        .putAll(account.getValue());
+            }
+        }
+        return withChanged(second, merged);
+    }
+
+    private static StateChange withChanged(
+            final StateChange template,
+            final Map<String, Map<Class<? extends AbstractIdentifiableEntity>, String>> changed) {
+        if (template instanceof StateChangeWebSocketMessage) {
+            return new StateChangeWebSocketMessage(
+                    changed, ((StateChangeWebSocketMessage) template).getPushState());
+        }
+        return new StateChange(changed);
     }
 
     public interface Callback {
         void disable();
 
         void enable();
+
+        /**
+         * Called when the union of types the listeners are interested in changed while push
+         * notifications are enabled. Implementations should renew their subscription.
+         */
+        default void onTypesChanged() {}
+    }
+
+    public static final class Metrics {
+
+        public static final Metrics EMPTY = new Metrics(0, 0, Duration.ZERO, Duration.ZERO);
+
+        private final long dispatched;
+        private final long coalesced;
+        private final Duration averageLag;
+        private final Duration maxLag;
+
+        private Metrics(
+                final long dispatched,
+                final long coalesced,
+                final Duration averageLag,
+                final Duration maxLag) {
+            this.dispatched = dispatched;
+            this.coalesced = coalesced;
+            this.averageLag = averageLag;
+            this.maxLag = maxLag;
+        }
+
+        /** @return The number of times a listener has been invoked */
+        public long getDispatched() {
+            return dispatched;
+        }
+
+        /**
+         * @return The number of StateChanges that have been merged into a pending StateChange
+         *     instead of causing an additional invocation
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        /** @return The average time between receiving a StateChange and invoking the listener */
+        public Duration getAverageLag() {
+            return averageLag;
+        }
+
+        public Duration getMaxLag() {
+            return maxLag;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("dispatched", dispatched)
+                    .add("coalesced", coalesced)
+                    .add("averageLag", averageLag)
+                    .add("maxLag", maxLag)
+                    .toString();
+        }
+    }
+
+    private static final class DispatchMetrics {
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong totalLag = new AtomicLong();
+        private final AtomicLong maxLag = new AtomicLong();
+
+        private void record(final long lag, final int stateChanges) {
+            dispatched.incrementAndGet();
+            coalesced.addAndGet(stateChanges - 1);
+            totalLag.addAndGet(lag);
+            maxLag.accumulateAndGet(lag, Math::max);
+        }
+
+        private Metrics snapshot() {
+            final long dispatched = this.dispatched.get();
+            return new Metrics(
+                    dispatched,
+                    this.coalesced.get(),
+                    Duration.ofNanos(dispatched == 0 ? 0 : totalLag.get() / dispatched),
+                    Duration.ofNanos(maxLag.get()));
+        }
+    }
+
+    private final class Registration {
+        private final OnStateChangeListener listener;
+        private final Set<Class<? extends AbstractIdentifiableEntity>> types;
+        private volatile boolean removed = false;
+        private StateChange pending;
+        private long pendingSince;
+        private int pendingCount;
+        private boolean running = false;
+
+        private Registration(
+                final OnStateChangeListener listener,
+                final Set<Class<? extends AbstractIdentifiableEntity>> types) {
+            this.listener = listener;
+            this.types = types;
+        }
+
+        private void offer(
+                final StateChange stateChange, final long received, final Executor executor) {
+            final boolean submit;
+            synchronized (this) {
+                if (this.pending == null) {
+                    this.pending = stateChange;
+                    this.pendingSince = received;
+                    this.pendingCount = 1;
+                } else {
+                    this.pending = merge(this.pending, stateChange);
+                    this.pendingCount++;
+                }
+                submit = !this.running;
+                this.running = true;
+            }
+            if (submit) {
+                try {
+                    executor.execute(this::drain);
+                } catch (final RejectedExecutionException e) {
+                    LOGGER.warn("Unable to dispatch StateChange", e);
+                    synchronized (this) {
+                        this.pending = null;
+                        this.running = false;
+                    }
+                }
+            }
+        }
+
+        /** Invokes the listener until there are no more pending StateChanges. */
+        private void drain() {
+            while (true) {
+                final StateChange stateChange;
+                final long since;
+                final int count;
+                synchronized (this) {
+                    if (this.pending == null || this.removed) {
+                        this.pending = null;
+                        this.running = false;
+                        return;
+                    }
+                    stateChange = this.pending;
+                    since = this.pendingSince;
+                    count = this.pendingCount;
+                    this.pending = null;
+                }
+                dispatchMetrics.record(System.nanoTime() - since, count);
+                try {
+                    listener.onStateChange(stateChange);
+                } catch (final RuntimeException e) {
+                    LOGGER.warn("OnStateChangeListener threw an exception", e);
+                }
+            }
+        }
     }
 }
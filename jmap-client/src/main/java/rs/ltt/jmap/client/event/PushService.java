@@ -17,6 +17,10 @@
 package rs.ltt.jmap.client.event;
 
 import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 
 public interface PushService {
 
@@ -24,6 +28,22 @@ public interface PushService {
 
     void addOnStateChangeListener(OnStateChangeListener onStateChangeListener);
 
+    /**
+     * Registers a listener that is only interested in changes to some types. The push service
+     * subscribes to the union of all types the registered listeners are interested in and only
+     * notifies listeners about the types they asked for.
+     *
+     * <p>The default implementation ignores the types and registers the listener for all types.
+     *
+     * @param onStateChangeListener The listener
+     * @param types The types to listen for. An empty collection means all types.
+     */
+    default void addOnStateChangeListener(
+            OnStateChangeListener onStateChangeListener,
+            Collection<Class<? extends AbstractIdentifiableEntity>> types) {
+        addOnStateChangeListener(onStateChangeListener);
+    }
+
     void removeOnStateChangeListener(OnStateChangeListener onStateChangeListener);
 
     void addOnConnectionStateListener(OnConnectionStateChangeListener onConnectionStateListener);
@@ -33,4 +53,26 @@ public interface PushService {
     State getConnectionState();
 
     void setPingInterval(Duration pingInterval);
+
+    /**
+     * Invoke OnStateChangeListeners on the given executor instead of the thread that reads from the
+     * network. StateChanges that arrive while a listener is busy are coalesced.
+     *
+     * <p>The default implementation ignores the executor and keeps invoking listeners directly.
+     *
+     * @param executor The executor. null invokes listeners directly.
+     */
+    default void setOnStateChangeExecutor(@Nullable Executor executor) {}
+
+    /**
+     * @return true if at least one OnStateChangeListener is registered. The default implementation
+     *     always returns false.
+     */
+    default boolean isPushNotificationsEnabled() {
+        return false;
+    }
+
+    default OnStateChangeListenerManager.Metrics getOnStateChangeMetrics() {
+        return OnStateChangeListenerManager.Metrics.EMPTY;
+    }
 }
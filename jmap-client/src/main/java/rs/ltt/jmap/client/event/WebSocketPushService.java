@@ -20,16 +20,22 @@ import com.google.common.base.Preconditions;
 import com.google.common.math.Quantiles;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import okhttp3.HttpUrl;
 import org.jetbrains.annotations.Nullable;
-import rs.ltt.jmap.client.Services;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.api.SessionStateListener;
 import rs.ltt.jmap.client.api.WebSocketJmapApiClient;
 import rs.ltt.jmap.client.http.HttpAuthentication;
+import rs.ltt.jmap.client.jfr.FlightRecorderEvents;
 import rs.ltt.jmap.client.util.Durations;
+import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
 import rs.ltt.jmap.common.websocket.PushDisableWebSocketMessage;
 import rs.ltt.jmap.common.websocket.PushEnableWebSocketMessage;
 import rs.ltt.jmap.common.websocket.StateChangeWebSocketMessage;
@@ -54,11 +60,40 @@ public class WebSocketPushService extends WebSocketJmapApiClient
         super(webSocketUrl, httpAuthentication, sessionStateListener);
     }
 
+    public WebSocketPushService(
+            HttpUrl webSocketUrl,
+            HttpAuthentication httpAuthentication,
+            @Nullable SessionStateListener sessionStateListener,
+            int maxConcurrentRequests) {
+        super(webSocketUrl, httpAuthentication, sessionStateListener, maxConcurrentRequests);
+    }
+
+    public WebSocketPushService(
+            HttpUrl webSocketUrl,
+            HttpAuthentication httpAuthentication,
+            @Nullable SessionStateListener sessionStateListener,
+            int maxConcurrentRequests,
+            Transport transport) {
+        super(
+                webSocketUrl,
+                httpAuthentication,
+                sessionStateListener,
+                maxConcurrentRequests,
+                transport);
+    }
+
     @Override
     public void addOnStateChangeListener(final OnStateChangeListener onStateChangeListener) {
         this.onStateChangeListenerManager.addOnStateChangeListener(onStateChangeListener);
     }
 
+    @Override
+    public void addOnStateChangeListener(
+            final OnStateChangeListener onStateChangeListener,
+            final Collection<Class<? extends AbstractIdentifiableEntity>> types) {
+        this.onStateChangeListenerManager.addOnStateChangeListener(onStateChangeListener, types);
+    }
+
     @Override
     public void removeOnStateChangeListener(OnStateChangeListener onStateChangeListener) {
         this.onStateChangeListenerManager.removeOnStateChangeListener(onStateChangeListener);
@@ -80,6 +115,21 @@ public class WebSocketPushService extends WebSocketJmapApiClient
         }
     }
 
+    @Override
+    public void setOnStateChangeExecutor(@Nullable final Executor executor) {
+        this.onStateChangeListenerManager.setExecutor(executor);
+    }
+
+    @Override
+    public boolean isPushNotificationsEnabled() {
+        return this.onStateChangeListenerManager.isPushNotificationsEnabled();
+    }
+
+    @Override
+    public OnStateChangeListenerManager.Metrics getOnStateChangeMetrics() {
+        return this.onStateChangeListenerManager.getMetrics();
+    }
+
     @Override
     public State getConnectionState() {
         return this.state;
@@ -105,11 +155,25 @@ public class WebSocketPushService extends WebSocketJmapApiClient
         }
     }
 
+    @Override
+    public synchronized void onTypesChanged() {
+        // a WebSocketPushEnable message replaces the previous one
+        if (readyToSend()) {
+            enablePushNotifications();
+        }
+    }
+
     private void enablePushNotifications() {
-        LOGGER.info("Enable push notifications");
-        final PushEnableWebSocketMessage message =
-                PushEnableWebSocketMessage.builder().pushState(pushState).build();
-        send(message);
+        final Set<Class<? extends AbstractIdentifiableEntity>> types =
+                this.onStateChangeListenerManager.getTypes();
+        LOGGER.info("Enable push notifications for {}", types.isEmpty() ? "all types" : types);
+        final PushEnableWebSocketMessage.PushEnableWebSocketMessageBuilder builder =
+                PushEnableWebSocketMessage.builder().pushState(pushState);
+        if (!types.isEmpty()) {
+            builder.dataTypes(
+                    types.stream().map(Class::getSimpleName).collect(Collectors.toList()));
+        }
+        send(builder.build());
     }
 
     @Override
@@ -203,9 +267,14 @@ public class WebSocketPushService extends WebSocketJmapApiClient
         final int attempt = this.attempt;
         final Duration reconnectIn = reconnectionStrategy.getNextReconnectionAttempt(attempt);
         LOGGER.info("schedule reconnect in {} for {} time", reconnectIn, attempt + 1);
+        FlightRecorderEvents.pushReconnect("websocket", attempt + 1, reconnectIn);
         this.reconnectionFuture =
-                Services.SCHEDULED_EXECUTOR_SERVICE.schedule(
-                        this::connectWebSocket, reconnectIn.toMillis(), TimeUnit.MILLISECONDS);
+                transport
+                        .getScheduledExecutorService()
+                        .schedule(
+                                this::connectWebSocket,
+                                reconnectIn.toMillis(),
+                                TimeUnit.MILLISECONDS);
         if (currentFuture != null) {
             currentFuture.cancel(true);
         }
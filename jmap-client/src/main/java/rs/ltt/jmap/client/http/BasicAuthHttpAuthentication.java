@@ -16,6 +16,7 @@
 
 package rs.ltt.jmap.client.http;
 
+import com.google.common.base.Objects;
 import okhttp3.Credentials;
 import okhttp3.Request;
 
@@ -38,4 +39,17 @@ public class BasicAuthHttpAuthentication implements HttpAuthentication {
     public String getUsername() {
         return username;
     }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final BasicAuthHttpAuthentication that = (BasicAuthHttpAuthentication) o;
+        return Objects.equal(username, that.username) && Objects.equal(password, that.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(username, password);
+    }
 }
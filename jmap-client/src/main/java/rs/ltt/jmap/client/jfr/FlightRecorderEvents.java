@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.jfr;
+
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.metrics.MetricsListener;
+
+/**
+ * Emits JDK Flight Recorder events. The events are disabled unless a recording enables them, for
+ * example with {@code -XX:StartFlightRecording} and a settings file that enables {@code
+ * rs.ltt.jmap.*}. Disabled events cost a single allocation that is usually eliminated by the JIT.
+ *
+ * <p>Android and Java 8 runtimes without JFR never load the event classes. All methods are safe to
+ * call there. The jar ships consumer ProGuard rules that keep R8 from failing on the missing {@code
+ * jdk.jfr} classes.
+ */
+public final class FlightRecorderEvents {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlightRecorderEvents.class);
+
+    /** true if the runtime provides {@code jdk.jfr} */
+    public static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents() {}
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (final ClassNotFoundException | LinkageError e) {
+            LOGGER.debug("JDK Flight Recorder is not available");
+            return false;
+        }
+    }
+
+    /**
+     * @param metricsListener The listener to forward all events to
+     * @param transport The name of the transport the requests are sent over
+     * @return A listener that additionally emits a JmapRequestEvent per request
+     */
+    public static MetricsListener withRequestEvents(
+            final MetricsListener metricsListener, final String transport) {
+        if (AVAILABLE) {
+            return new RequestEventListener(metricsListener, transport);
+        }
+        return metricsListener;
+    }
+
+    public static void pushReconnect(
+            final String transport, final int attempt, final Duration delay) {
+        if (AVAILABLE) {
+            PushReconnectEvent.emit(transport, attempt, delay);
+        }
+    }
+}
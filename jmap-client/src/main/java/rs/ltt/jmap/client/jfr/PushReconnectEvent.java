@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.jfr;
+
+import java.time.Duration;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("rs.ltt.jmap.PushReconnect")
+@Label("JMAP Push Reconnect")
+@Category({"JMAP", "Client"})
+@Description("A push connection has been lost and a reconnect has been scheduled")
+@StackTrace(false)
+class PushReconnectEvent extends jdk.jfr.Event {
+
+    @Label("Transport")
+    String transport;
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Delay")
+    @Timespan(Timespan.MILLISECONDS)
+    long delay;
+
+    static void emit(final String transport, final int attempt, final Duration delay) {
+        final PushReconnectEvent event = new PushReconnectEvent();
+        if (event.isEnabled()) {
+            event.transport = transport;
+            event.attempt = attempt;
+            event.delay = delay.toMillis();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.jfr;
+
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.client.JmapRequest;
+import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.metrics.MetricsListener;
+
+/**
+ * Forwards to another MetricsListener and records a {@link JmapRequestEvent} from the moment a
+ * request has been serialized until all of its method calls have completed.
+ */
+class RequestEventListener implements MetricsListener {
+
+    private final MetricsListener delegate;
+    private final String transport;
+    private final Map<JmapRequest, JmapRequestEvent> events =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    RequestEventListener(final MetricsListener delegate, final String transport) {
+        this.delegate = delegate;
+        this.transport = transport;
+    }
+
+    @Override
+    public void onQueued(final JmapRequest jmapRequest) {
+        delegate.onQueued(jmapRequest);
+    }
+
+    @Override
+    public void onSerialized(final JmapRequest jmapRequest, final long bytes) {
+        delegate.onSerialized(jmapRequest, bytes);
+        final JmapRequestEvent event = new JmapRequestEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.begin();
+        event.transport = this.transport;
+        event.methodNames = Joiner.on(", ").join(jmapRequest.getMethodNames());
+        event.requestSize = bytes;
+        this.events.put(jmapRequest, event);
+        Futures.whenAllComplete(jmapRequest.getInvocationFutureImmutableMap().values())
+                .run(() -> commit(jmapRequest), MoreExecutors.directExecutor());
+    }
+
+    private void commit(final JmapRequest jmapRequest) {
+        final JmapRequestEvent event = this.events.remove(jmapRequest);
+        if (event == null) {
+            return;
+        }
+        event.end();
+        final Throwable failure = getFailure(jmapRequest);
+        event.failure = failure == null ? null : failure.toString();
+        event.commit();
+    }
+
+    @Nullable
+    private static Throwable getFailure(final JmapRequest jmapRequest) {
+        for (final SettableFuture<MethodResponses> future :
+                jmapRequest.getInvocationFutureImmutableMap().values()) {
+            try {
+                Futures.getDone(future);
+            } catch (final ExecutionException e) {
+                return e.getCause();
+            } catch (final RuntimeException e) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onSent(final JmapRequest jmapRequest) {
+        delegate.onSent(jmapRequest);
+    }
+
+    @Override
+    public void onFirstByte(final JmapRequest jmapRequest) {
+        delegate.onFirstByte(jmapRequest);
+    }
+
+    @Override
+    public void onParsed(final JmapRequest jmapRequest, final long bytes, final Duration duration) {
+        delegate.onParsed(jmapRequest, bytes, duration);
+        final JmapRequestEvent event = this.events.get(jmapRequest);
+        if (event != null) {
+            event.responseSize = bytes;
+        }
+    }
+
+    @Override
+    public void onMethodCompleted(final String methodName, final Duration duration) {
+        delegate.onMethodCompleted(methodName, duration);
+    }
+
+    @Override
+    public void onMethodFailed(
+            final String methodName, final Duration duration, final Throwable throwable) {
+        delegate.onMethodFailed(methodName, duration, throwable);
+    }
+
+    @Override
+    public void onSessionFetched(final Duration duration, @Nullable final Throwable throwable) {
+        delegate.onSessionFetched(duration, throwable);
+    }
+
+    @Override
+    public void onDownloadStarted(final Duration duration, @Nullable final Throwable throwable) {
+        delegate.onDownloadStarted(duration, throwable);
+    }
+
+    @Override
+    public void onUploaded(
+            final long bytes, final Duration duration, @Nullable final Throwable throwable) {
+        delegate.onUploaded(bytes, duration, throwable);
+    }
+}
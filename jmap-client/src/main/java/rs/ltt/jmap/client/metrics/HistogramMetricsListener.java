@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.metrics;
+
+import com.google.common.collect.ImmutableSortedMap;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.client.JmapRequest;
+
+/**
+ * Records request phases into {@link Histogram}s. Durations are recorded in microseconds, sizes in
+ * bytes. Histograms are named:
+ *
+ * <ul>
+ *   <li>request.wait - from queueing a request until it has been sent
+ *   <li>request.server - from sending a request until the first byte of the response
+ *   <li>request.parse - the time it took to parse the response
+ *   <li>request.bytes.out and request.bytes.in - the size of request and response
+ *   <li>method.{name} and method.{name}.failed - from queueing until the response of a method
+ *   <li>session.fetch, download.ttfb, upload and upload.bytes
+ * </ul>
+ */
+public class HistogramMetricsListener implements MetricsListener {
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<JmapRequest, Long> queued = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<JmapRequest, Long> sent = Collections.synchronizedMap(new WeakHashMap<>());
+
+    @Override
+    public void onQueued(final JmapRequest jmapRequest) {
+        this.queued.put(jmapRequest, System.nanoTime());
+    }
+
+    @Override
+    public void onSerialized(final JmapRequest jmapRequest, final long bytes) {
+        record("request.bytes.out", bytes);
+    }
+
+    @Override
+    public void onSent(final JmapRequest jmapRequest) {
+        final long now = System.nanoTime();
+        this.sent.put(jmapRequest, now);
+        final Long queued = this.queued.remove(jmapRequest);
+        if (queued != null) {
+            record("request.wait", (now - queued) / 1000);
+        }
+    }
+
+    @Override
+    public void onFirstByte(final JmapRequest jmapRequest) {
+        final Long sent = this.sent.remove(jmapRequest);
+        if (sent != null) {
+            record("request.server", (System.nanoTime() - sent) / 1000);
+        }
+    }
+
+    @Override
+    public void onParsed(final JmapRequest jmapRequest, final long bytes, final Duration duration) {
+        record("request.bytes.in", bytes);
+        record("request.parse", duration);
+    }
+
+    @Override
+    public void onMethodCompleted(final String methodName, final Duration duration) {
+        record("method." + methodName, duration);
+    }
+
+    @Override
+    public void onMethodFailed(
+            final String methodName, final Duration duration, final Throwable throwable) {
+        record("method." + methodName + ".failed", duration);
+    }
+
+    @Override
+    public void onSessionFetched(final Duration duration, @Nullable final Throwable throwable) {
+        if (throwable == null) {
+            record("session.fetch", duration);
+        }
+    }
+
+    @Override
+    public void onDownloadStarted(final Duration duration, @Nullable final Throwable throwable) {
+        if (throwable == null) {
+            record("download.ttfb", duration);
+        }
+    }
+
+    @Override
+    public void onUploaded(
+            final long bytes, final Duration duration, @Nullable final Throwable throwable) {
+        if (throwable == null) {
+            record("upload", duration);
+            record("upload.bytes", bytes);
+        }
+    }
+
+    private void record(final String name, final Duration duration) {
+        record(name, duration.toNanos() / 1000);
+    }
+
+    private void record(final String name, final long value) {
+        this.histograms.computeIfAbsent(name, k -> new Histogram()).record(value);
+    }
+
+    @Nullable
+    public Histogram getHistogram(final String name) {
+        return this.histograms.get(name);
+    }
+
+    public ImmutableSortedMap<String, Histogram> getHistograms() {
+        return ImmutableSortedMap.copyOf(this.histograms);
+    }
+
+    /** @return One line per histogram. Suitable for logging. */
+    public String dump() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Map.Entry<String, Histogram> entry : getHistograms().entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
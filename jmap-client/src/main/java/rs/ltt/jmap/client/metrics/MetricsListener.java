@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.metrics;
+
+import java.time.Duration;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.client.JmapRequest;
+
+/**
+ * Receives events from the phases of a request. Implementations are called on I/O threads and must
+ * not block. Register with {@link rs.ltt.jmap.client.Transport.Builder#metricsListener(
+ * MetricsListener)}.
+ *
+ * <p>A request goes through the phases in this order: queued, serialized, sent, first byte and
+ * parsed. Afterwards every method call of the request is reported as completed or failed. Requests
+ * that fail early skip the remaining phases.
+ */
+public interface MetricsListener {
+
+    MetricsListener NOOP = new MetricsListener() {};
+
+    /** The request has been handed to the JmapClient and waits for the session or a free slot */
+    default void onQueued(final JmapRequest jmapRequest) {}
+
+    default void onSerialized(final JmapRequest jmapRequest, final long bytes) {}
+
+    default void onSent(final JmapRequest jmapRequest) {}
+
+    /** The headers of the HTTP response or the response frame on a WebSocket have arrived */
+    default void onFirstByte(final JmapRequest jmapRequest) {}
+
+    default void onParsed(
+            final JmapRequest jmapRequest, final long bytes, final Duration duration) {}
+
+    /** @param duration The time from queueing the request until the response of the method */
+    default void onMethodCompleted(final String methodName, final Duration duration) {}
+
+    default void onMethodFailed(
+            final String methodName, final Duration duration, final Throwable throwable) {}
+
+    /** @param throwable The cause if fetching the session failed. null on success */
+    default void onSessionFetched(final Duration duration, @Nullable final Throwable throwable) {}
+
+    /** @param duration The time until the response headers of the download have arrived */
+    default void onDownloadStarted(final Duration duration, @Nullable final Throwable throwable) {}
+
+    default void onUploaded(
+            final long bytes, final Duration duration, @Nullable final Throwable throwable) {}
+}
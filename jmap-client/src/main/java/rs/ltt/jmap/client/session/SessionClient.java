@@ -16,9 +16,7 @@
 
 package rs.ltt.jmap.client.session;
 
-import static rs.ltt.jmap.client.Services.GSON;
-import static rs.ltt.jmap.client.Services.OK_HTTP_CLIENT_LOGGING;
-
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -26,10 +24,13 @@ import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.time.Duration;
+import javax.annotation.Nullable;
 import okhttp3.*;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.Transport;
 import rs.ltt.jmap.client.api.EndpointNotFoundException;
 import rs.ltt.jmap.client.api.InvalidSessionResourceException;
 import rs.ltt.jmap.client.api.UnauthorizedException;
@@ -44,19 +45,27 @@ public class SessionClient {
 
     private final HttpUrl sessionResource;
     private final HttpAuthentication httpAuthentication;
+    private final Transport transport;
     private SessionCache sessionCache;
     private Session currentSession = null;
     private ListenableFuture<Session> currentSessionFuture = Futures.immediateCancelledFuture();
     private boolean sessionResourceChanged = false;
 
     public SessionClient(final HttpAuthentication authentication) {
-        this.sessionResource = null;
-        this.httpAuthentication = authentication;
+        this(authentication, null, Transport.DEFAULT);
     }
 
     public SessionClient(final HttpAuthentication authentication, final HttpUrl sessionResource) {
+        this(authentication, sessionResource, Transport.DEFAULT);
+    }
+
+    public SessionClient(
+            final HttpAuthentication authentication,
+            @Nullable final HttpUrl sessionResource,
+            final Transport transport) {
         this.sessionResource = sessionResource;
         this.httpAuthentication = authentication;
+        this.transport = transport;
     }
 
     public synchronized ListenableFuture<Session> get() {
@@ -113,8 +122,29 @@ public class SessionClient {
         final Request.Builder requestBuilder = new Request.Builder();
         requestBuilder.url(sessionResource);
         httpAuthentication.authenticate(requestBuilder);
-        final Call call = OK_HTTP_CLIENT_LOGGING.newCall(requestBuilder.build());
+        final Call call = transport.getLoggingHttpClient().newCall(requestBuilder.build());
         final SettableCallFuture<Session> settableFuture = SettableCallFuture.create(call);
+        final long start = System.nanoTime();
+        Futures.addCallback(
+                settableFuture,
+                new FutureCallback<Session>() {
+                    @Override
+                    public void onSuccess(final Session session) {
+                        transport
+                                .getMetricsListener()
+                                .onSessionFetched(
+                                        Duration.ofNanos(System.nanoTime() - start), null);
+                    }
+
+                    @Override
+                    public void onFailure(@NotNull final Throwable throwable) {
+                        transport
+                                .getMetricsListener()
+                                .onSessionFetched(
+                                        Duration.ofNanos(System.nanoTime() - start), throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
         call.enqueue(
                 new Callback() {
                     @Override
@@ -145,7 +175,7 @@ public class SessionClient {
             try (final InputStreamReader reader = new InputStreamReader(body.byteStream())) {
                 final SessionResource sessionResource;
                 try {
-                    sessionResource = GSON.fromJson(reader, SessionResource.class);
+                    sessionResource = transport.getGson().fromJson(reader, SessionResource.class);
                 } catch (JsonIOException | JsonSyntaxException e) {
                     throw new InvalidSessionResourceException(e);
                 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.CoreMatchers;
+import org.hamcrest.MatcherAssert;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.client.api.AdmissionController;
+import rs.ltt.jmap.client.api.RequestTimeoutException;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.GetMailboxMethodCall;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void interactiveBeforeBackground() {
+        final AdmissionController admissionController = new AdmissionController();
+        admissionController.setLimit(1);
+        final List<String> dispatched = new ArrayList<>();
+
+        final JmapRequest first = request("first", Priority.BACKGROUND, null);
+        final JmapRequest background = request("background", Priority.BACKGROUND, null);
+        final JmapRequest interactive = request("interactive", Priority.INTERACTIVE, null);
+        admissionController.execute(first, () -> dispatched.add("first"));
+        admissionController.execute(background, () -> dispatched.add("background"));
+        admissionController.execute(interactive, () -> dispatched.add("interactive"));
+
+        Assertions.assertEquals(Arrays.asList("first"), dispatched);
+        Assertions.assertEquals(2, admissionController.getQueueDepth());
+        Assertions.assertEquals(1, admissionController.getQueueDepth(Priority.BACKGROUND));
+
+        complete(first);
+        Assertions.assertEquals(Arrays.asList("first", "interactive"), dispatched);
+
+        complete(interactive);
+        Assertions.assertEquals(Arrays.asList("first", "interactive", "background"), dispatched);
+        Assertions.assertEquals(0, admissionController.getQueueDepth());
+        Assertions.assertEquals(1, admissionController.getRunning());
+
+        complete(background);
+        Assertions.assertEquals(0, admissionController.getRunning());
+    }
+
+    @Test
+    public void raisingLimitDispatchesQueued() {
+        final AdmissionController admissionController = new AdmissionController();
+        admissionController.setLimit(1);
+        final List<String> dispatched = new ArrayList<>();
+        admissionController.execute(
+                request("a", Priority.INTERACTIVE, null), () -> dispatched.add("a"));
+        admissionController.execute(
+                request("b", Priority.INTERACTIVE, null), () -> dispatched.add("b"));
+        Assertions.assertEquals(1, dispatched.size());
+
+        admissionController.setLimit(2);
+        Assertions.assertEquals(Arrays.asList("a", "b"), dispatched);
+    }
+
+    @Test
+    public void reserveForInteractive() {
+        final AdmissionController admissionController = new AdmissionController();
+        admissionController.setLimit(2);
+        final List<String> dispatched = new ArrayList<>();
+        admissionController.execute(
+                request("a", Priority.BACKGROUND, null), () -> dispatched.add("a"));
+        admissionController.execute(
+                request("b", Priority.BACKGROUND, null), () -> dispatched.add("b"));
+        Assertions.assertEquals(Arrays.asList("a"), dispatched);
+
+        admissionController.execute(request("c", Priority.NORMAL, null), () -> dispatched.add("c"));
+        Assertions.assertEquals(Arrays.asList("a", "c"), dispatched);
+
+        admissionController.setInteractiveReserve(0);
+        Assertions.assertEquals(Arrays.asList("a", "c"), dispatched);
+        Assertions.assertEquals(1, admissionController.getQueueDepth(Priority.BACKGROUND));
+    }
+
+    @Test
+    public void coalesceBackground() throws ExecutionException, InterruptedException {
+        final AdmissionController admissionController = new AdmissionController();
+        admissionController.setLimit(1);
+        final List<String> dispatched = new ArrayList<>();
+        final JmapRequest first = request("first", Priority.BACKGROUND, null);
+        final JmapRequest leader = getMailboxes();
+        final JmapRequest follower = getMailboxes();
+        final JmapRequest cancelled = getMailboxes();
+        admissionController.execute(first, () -> dispatched.add("first"));
+        admissionController.execute(leader, () -> dispatched.add("leader"));
+        admissionController.execute(follower, () -> dispatched.add("follower"));
+        admissionController.execute(cancelled, () -> dispatched.add("cancelled"));
+        Assertions.assertEquals(1, admissionController.getQueueDepth());
+        Assertions.assertEquals(2, admissionController.getCoalesced());
+
+        cancelled.getInvocationFutureImmutableMap().values().forEach(f -> f.cancel(true));
+        complete(first);
+        Assertions.assertEquals(Arrays.asList("first", "leader"), dispatched);
+
+        final MethodResponses methodResponses = new MethodResponses(null);
+        leader.getInvocationFutureImmutableMap().values().forEach(f -> f.set(methodResponses));
+        Assertions.assertSame(
+                methodResponses,
+                follower.getInvocationFutureImmutableMap().values().iterator().next().get());
+        Assertions.assertEquals(0, admissionController.getRunning());
+    }
+
+    @Test
+    public void doNotCoalesceModifications() {
+        final AdmissionController admissionController = new AdmissionController();
+        admissionController.setLimit(1);
+        final List<String> dispatched = new ArrayList<>();
+        final JmapRequest first = request("first", Priority.BACKGROUND, null);
+        admissionController.execute(first, () -> dispatched.add("first"));
+        admissionController.execute(
+                request("echo", Priority.BACKGROUND, null), () -> dispatched.add("a"));
+        admissionController.execute(
+                request("echo", Priority.BACKGROUND, null), () -> dispatched.add("b"));
+        Assertions.assertEquals(2, admissionController.getQueueDepth());
+        Assertions.assertEquals(0, admissionController.getCoalesced());
+    }
+
+    @Test
+    public void timeoutWhileQueued() throws InterruptedException {
+        final AdmissionController admissionController = new AdmissionController();
+        admissionController.setLimit(1);
+        admissionController.execute(request("a", Priority.INTERACTIVE, null), () -> {});
+        final JmapRequest queued = request("b", Priority.INTERACTIVE, Duration.ofMillis(200));
+        final ListenableFuture<MethodResponses> future =
+                queued.getInvocationFutureImmutableMap().values().iterator().next();
+        admissionController.execute(queued, () -> Assertions.fail("Request was dispatched"));
+
+        final ExecutionException exception =
+                Assertions.assertThrows(
+                        ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(
+                exception.getCause(), CoreMatchers.instanceOf(RequestTimeoutException.class));
+        Assertions.assertEquals(0, admissionController.getQueueDepth());
+    }
+
+    private static JmapRequest request(
+            final String name, final Priority priority, final Duration timeout) {
+        final JmapRequest.Builder builder =
+                new JmapRequest.Builder().priority(priority).timeout(timeout);
+        builder.call(new EchoMethodCall(name));
+        return builder.build();
+    }
+
+    private static JmapRequest getMailboxes() {
+        final JmapRequest.Builder builder = new JmapRequest.Builder().priority(Priority.BACKGROUND);
+        builder.call(GetMailboxMethodCall.builder().accountId("account").build());
+        return builder.build();
+    }
+
+    private static void complete(final JmapRequest jmapRequest) {
+        jmapRequest.getInvocationFutureImmutableMap().values().forEach(f -> f.set(null));
+    }
+}
@@ -22,10 +22,22 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
 import org.hamcrest.MatcherAssert;
+import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -89,4 +101,138 @@ public class BinaryDataClientTest {
                                         .get());
         MatcherAssert.assertThat(ee.getCause(), instanceOf(BlobTransferException.class));
     }
+
+    @Test
+    public void fileChannelUpload() throws Exception {
+        final byte[] blob = randomBlob(3 * 1024 * 1024 + 5);
+        final Path file = tempDir.resolve("upload.bin");
+        Files.write(file, blob);
+
+        final MockWebServer server = new MockWebServer();
+        server.enqueue(
+                new MockResponse()
+                        .setBody(
+                                String.format(
+                                        "{\"accountId\":\"a\",\"blobId\":\"b\","
+                                            + "\"type\":\"application/octet-stream\",\"size\":%d}",
+                                        blob.length)));
+        server.start();
+        final BinaryDataClient binaryDataClient =
+                new BinaryDataClient(new BasicAuthHttpAuthentication("foo", "bar"));
+        final List<Integer> progress = new CopyOnWriteArrayList<>();
+
+        try (final FileUpload fileUpload = FileUpload.of(file)) {
+            binaryDataClient
+                    .upload(server.url("/upload"), fileUpload, progress::add)
+                    .get(10, TimeUnit.SECONDS);
+        }
+
+        final RecordedRequest request = server.takeRequest();
+        Assertions.assertArrayEquals(blob, request.getBody().readByteArray());
+        Assertions.assertEquals(100, progress.get(progress.size() - 1));
+        // progress is reported once per percentage at most
+        Assertions.assertEquals(progress.size(), new HashSet<>(progress).size());
+        server.shutdown();
+    }
+
+    @Test
+    public void parallelRangedDownload() throws Exception {
+        final byte[] blob = randomBlob(1024 * 1024 + 17);
+        final RangeDispatcher dispatcher = new RangeDispatcher(blob);
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        final BinaryDataClient binaryDataClient =
+                new BinaryDataClient(new BasicAuthHttpAuthentication("foo", "bar"));
+        final Path destination = tempDir.resolve("blob.bin");
+        final List<Integer> progress = new CopyOnWriteArrayList<>();
+
+        final long size =
+                binaryDataClient
+                        .download(server.url("/download"), destination, 4, progress::add)
+                        .get(10, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(blob.length, size);
+        Assertions.assertArrayEquals(blob, Files.readAllBytes(destination));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("blob.bin.ranges")));
+        Assertions.assertEquals(100, progress.get(progress.size() - 1));
+        // one probe and five segments of 256 KiB
+        Assertions.assertEquals(6, dispatcher.requests.get());
+        server.shutdown();
+    }
+
+    @Test
+    public void resumeRangedDownload() throws Exception {
+        final byte[] blob = randomBlob(1024 * 1024);
+        final RangeDispatcher dispatcher = new RangeDispatcher(blob);
+        dispatcher.failAt = 512 * 1024;
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        final BinaryDataClient binaryDataClient =
+                new BinaryDataClient(new BasicAuthHttpAuthentication("foo", "bar"));
+        final Path destination = tempDir.resolve("blob.bin");
+
+        // a single connection fetches the segments in order and stops at the failing one
+        final ExecutionException ee =
+                Assertions.assertThrows(
+                        ExecutionException.class,
+                        () ->
+                                binaryDataClient
+                                        .download(server.url("/download"), destination, 1, null)
+                                        .get(10, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(ee.getCause(), instanceOf(BlobTransferException.class));
+        Assertions.assertTrue(Files.exists(tempDir.resolve("blob.bin.ranges")));
+
+        dispatcher.failAt = -1;
+        dispatcher.requests.set(0);
+        binaryDataClient
+                .download(server.url("/download"), destination, 1, null)
+                .get(10, TimeUnit.SECONDS);
+        Assertions.assertArrayEquals(blob, Files.readAllBytes(destination));
+        // the probe and the remaining two segments
+        Assertions.assertEquals(3, dispatcher.requests.get());
+        server.shutdown();
+    }
+
+    private static byte[] randomBlob(final int length) {
+        final byte[] blob = new byte[length];
+        new Random(length).nextBytes(blob);
+        return blob;
+    }
+
+    private static class RangeDispatcher extends Dispatcher {
+
+        private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+        private final byte[] blob;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile long failAt = -1;
+
+        private RangeDispatcher(final byte[] blob) {
+            this.blob = blob;
+        }
+
+        @NotNull
+        @Override
+        public MockResponse dispatch(@NotNull final RecordedRequest request) {
+            requests.incrementAndGet();
+            final String range = request.getHeader("Range");
+            final Matcher matcher = range == null ? null : RANGE_PATTERN.matcher(range);
+            if (matcher == null || !matcher.matches()) {
+                return new MockResponse().setBody(new Buffer().write(blob));
+            }
+            final int start = Integer.parseInt(matcher.group(1));
+            final int end = Math.min(blob.length - 1, Integer.parseInt(matcher.group(2)));
+            if (start == failAt) {
+                return new MockResponse().setResponseCode(500).setBody("{}");
+            }
+            return new MockResponse()
+                    .setResponseCode(206)
+                    .setHeader(
+                            "Content-Range",
+                            String.format("bytes %d-%d/%d", start, end, blob.length))
+                    .setBody(new Buffer().write(blob, start, end - start + 1));
+        }
+    }
 }
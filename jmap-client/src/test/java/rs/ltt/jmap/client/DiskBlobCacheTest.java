@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongFunction;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rs.ltt.jmap.client.blob.DiskBlobCache;
+import rs.ltt.jmap.client.blob.Download;
+
+public class DiskBlobCacheTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    public void hitIsServedFromDisk() throws Exception {
+        final DiskBlobCache blobCache = new DiskBlobCache(tempDir, 1024 * 1024);
+        final FakeNetwork network = new FakeNetwork(blob(4096));
+
+        Assertions.assertArrayEquals(network.blob, read(blobCache, network, 0, -1));
+        Assertions.assertArrayEquals(network.blob, read(blobCache, network, 0, -1));
+        Assertions.assertArrayEquals(
+                Arrays.copyOfRange(network.blob, 1000, 4096), read(blobCache, network, 1000, -1));
+
+        Assertions.assertEquals(Arrays.asList(0L), network.requests);
+        Assertions.assertEquals(4096, blobCache.getSize());
+    }
+
+    @Test
+    public void partialEntryIsContinued() throws Exception {
+        final DiskBlobCache blobCache = new DiskBlobCache(tempDir, 1024 * 1024);
+        final FakeNetwork network = new FakeNetwork(blob(4096));
+
+        // the reader stops after 1000 bytes
+        read(blobCache, network, 0, 1000);
+        Assertions.assertArrayEquals(network.blob, read(blobCache, network, 0, -1));
+        Assertions.assertArrayEquals(network.blob, read(blobCache, network, 0, -1));
+
+        Assertions.assertEquals(Arrays.asList(0L, 1000L), network.requests);
+    }
+
+    @Test
+    public void entryIsCommittedWithoutEndOfStream() throws Exception {
+        final DiskBlobCache blobCache = new DiskBlobCache(tempDir, 1024 * 1024);
+        final FakeNetwork network = new FakeNetwork(blob(4096));
+
+        // the reader stops after the last byte without reading the end of the stream
+        read(blobCache, network, 0, 4096);
+        Assertions.assertArrayEquals(network.blob, read(blobCache, network, 0, -1));
+
+        Assertions.assertEquals(Arrays.asList(0L), network.requests);
+        Assertions.assertEquals(4096, blobCache.getSize());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        final DiskBlobCache blobCache = new DiskBlobCache(tempDir, 2500);
+        final FakeNetwork a = new FakeNetwork(blob(1000));
+        final FakeNetwork b = new FakeNetwork(blob(1000));
+        final FakeNetwork c = new FakeNetwork(blob(1000));
+
+        read(blobCache, a, 0, -1);
+        read(blobCache, b, 0, -1);
+        read(blobCache, a, 0, -1);
+        read(blobCache, c, 0, -1);
+        Assertions.assertEquals(2000, blobCache.getSize());
+
+        read(blobCache, a, 0, -1);
+        read(blobCache, b, 0, -1);
+        Assertions.assertEquals(1, a.requests.size());
+        Assertions.assertEquals(2, b.requests.size());
+    }
+
+    private static byte[] read(
+            final DiskBlobCache blobCache,
+            final FakeNetwork network,
+            final long rangeStart,
+            final int limit)
+            throws ExecutionException, InterruptedException, IOException {
+        final Download download =
+                blobCache.download("account", network.blobId, rangeStart, network).get();
+        try (final InputStream inputStream = download.getInputStream()) {
+            if (limit < 0) {
+                return ByteStreams.toByteArray(inputStream);
+            }
+            return ByteStreams.toByteArray(ByteStreams.limit(inputStream, limit));
+        }
+    }
+
+    private static byte[] blob(final int length) {
+        final byte[] blob = new byte[length];
+        new Random().nextBytes(blob);
+        return blob;
+    }
+
+    private static class FakeNetwork implements LongFunction<ListenableFuture<Download>> {
+
+        private final byte[] blob;
+        private final String blobId = Integer.toHexString(System.identityHashCode(this));
+        private final List<Long> requests = new ArrayList<>();
+
+        private FakeNetwork(final byte[] blob) {
+            this.blob = blob;
+        }
+
+        @Override
+        public ListenableFuture<Download> apply(final long start) {
+            requests.add(start);
+            final InputStream inputStream =
+                    new ByteArrayInputStream(blob, (int) start, blob.length - (int) start);
+            if (start > 0) {
+                return Futures.immediateFuture(
+                        new Download(null, true, blob.length - 1, inputStream));
+            }
+            return Futures.immediateFuture(new Download(null, false, blob.length, inputStream));
+        }
+    }
+}
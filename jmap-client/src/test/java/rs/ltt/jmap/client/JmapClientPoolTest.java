@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JmapClientPoolTest {
+
+    @Test
+    public void reuseAndReplace() {
+        try (final JmapClientPool pool = JmapClientPool.builder().build()) {
+            final JmapClient first = pool.get("alice@example.com", "secret");
+            Assertions.assertSame(first, pool.get("alice@example.com", "secret"));
+            Assertions.assertNotSame(first, pool.get("bob@example.com", "secret"));
+            Assertions.assertSame(pool.getTransport(), first.getTransport());
+
+            final JmapClient replacement = pool.get("alice@example.com", "changed");
+            Assertions.assertNotSame(first, replacement);
+            Assertions.assertEquals(2, pool.getSize());
+            Assertions.assertEquals(3, pool.getCreated());
+        }
+    }
+
+    @Test
+    public void evictIdle() throws InterruptedException {
+        try (final JmapClientPool pool =
+                JmapClientPool.builder().idleTimeout(Duration.ofMillis(100)).build()) {
+            pool.get("alice@example.com", "secret");
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getSize() > 0) {
+                Assertions.assertTrue(
+                        System.currentTimeMillis() < deadline, "Client has not been evicted");
+                Thread.sleep(50);
+            }
+            Assertions.assertEquals(1, pool.getEvicted());
+        }
+    }
+}
@@ -16,11 +16,20 @@
 
 package rs.ltt.jmap.client;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import rs.ltt.jmap.client.event.OnStateChangeListener;
 import rs.ltt.jmap.client.event.OnStateChangeListenerManager;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.EmailSubmission;
+import rs.ltt.jmap.common.entity.Mailbox;
 import rs.ltt.jmap.common.entity.StateChange;
 
 public class OnStateChangeListenerManagerTest {
@@ -182,4 +191,175 @@ public class OnStateChangeListenerManagerTest {
         Assertions.assertFalse(
                 onStateChangeListenerManager.onStateChange(StateChange.builder().build()));
     }
+
+    @Test
+    public void filterByType() {
+        final OnStateChangeListenerManager onStateChangeListenerManager =
+                new OnStateChangeListenerManager(
+                        new OnStateChangeListenerManager.Callback() {
+                            @Override
+                            public void disable() {
+                                // ignored
+                            }
+
+                            @Override
+                            public void enable() {
+                                // ignored
+                            }
+                        });
+        final List<StateChange> emailChanges = new ArrayList<>();
+        final List<StateChange> allChanges = new ArrayList<>();
+        onStateChangeListenerManager.addOnStateChangeListener(
+                emailChanges::add, Collections.singleton(Email.class));
+        onStateChangeListenerManager.addOnStateChangeListener(allChanges::add);
+
+        Assertions.assertTrue(
+                onStateChangeListenerManager.onStateChange(
+                        StateChange.builder()
+                                .changed(
+                                        "account",
+                                        ImmutableMap.of(
+                                                Email.class, "e1", EmailSubmission.class, "s1"))
+                                .build()));
+        Assertions.assertTrue(
+                onStateChangeListenerManager.onStateChange(
+                        StateChange.builder()
+                                .changed("account", ImmutableMap.of(Mailbox.class, "m1"))
+                                .build()));
+
+        Assertions.assertEquals(1, emailChanges.size());
+        Assertions.assertEquals(
+                ImmutableMap.of("account", ImmutableMap.of(Email.class, "e1")),
+                emailChanges.get(0).getChanged());
+        Assertions.assertEquals(2, allChanges.size());
+    }
+
+    @Test
+    public void unionOfTypes() {
+        final AtomicInteger typesChangedCount = new AtomicInteger();
+        final OnStateChangeListenerManager onStateChangeListenerManager =
+                new OnStateChangeListenerManager(
+                        new OnStateChangeListenerManager.Callback() {
+                            @Override
+                            public void disable() {
+                                // ignored
+                            }
+
+                            @Override
+                            public void enable() {
+                                // ignored
+                            }
+
+                            @Override
+                            public void onTypesChanged() {
+                                typesChangedCount.incrementAndGet();
+                            }
+                        });
+        final OnStateChangeListener a = stateChange -> false;
+        final OnStateChangeListener b = stateChange -> false;
+        final OnStateChangeListener c = stateChange -> false;
+        onStateChangeListenerManager.addOnStateChangeListener(
+                a, Collections.singleton(Email.class));
+        Assertions.assertEquals(0, typesChangedCount.get());
+        Assertions.assertEquals(
+                ImmutableSet.of(Email.class), onStateChangeListenerManager.getTypes());
+
+        onStateChangeListenerManager.addOnStateChangeListener(
+                b, ImmutableSet.of(Email.class, Mailbox.class));
+        Assertions.assertEquals(1, typesChangedCount.get());
+        Assertions.assertEquals(
+                ImmutableSet.of(Email.class, Mailbox.class),
+                onStateChangeListenerManager.getTypes());
+
+        onStateChangeListenerManager.addOnStateChangeListener(c);
+        Assertions.assertEquals(2, typesChangedCount.get());
+        Assertions.assertTrue(onStateChangeListenerManager.getTypes().isEmpty());
+
+        onStateChangeListenerManager.removeOnStateChangeListener(c);
+        onStateChangeListenerManager.removeOnStateChangeListener(b);
+        Assertions.assertEquals(4, typesChangedCount.get());
+        Assertions.assertEquals(
+                ImmutableSet.of(Email.class), onStateChangeListenerManager.getTypes());
+    }
+
+    @Test
+    public void coalesceOnExecutor() {
+        final OnStateChangeListenerManager onStateChangeListenerManager =
+                new OnStateChangeListenerManager(
+                        new OnStateChangeListenerManager.Callback() {
+                            @Override
+                            public void disable() {
+                                // ignored
+                            }
+
+                            @Override
+                            public void enable() {
+                                // ignored
+                            }
+                        });
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        onStateChangeListenerManager.setExecutor(tasks::add);
+        final List<StateChange> stateChanges = new ArrayList<>();
+        onStateChangeListenerManager.addOnStateChangeListener(stateChanges::add);
+
+        for (int i = 1; i <= 3; ++i) {
+            Assertions.assertTrue(
+                    onStateChangeListenerManager.onStateChange(
+                            StateChange.builder()
+                                    .changed(
+                                            "account",
+                                            i == 2
+                                                    ? ImmutableMap.of(Mailbox.class, "m" + i)
+                                                    : ImmutableMap.of(Email.class, "e" + i))
+                                    .build()));
+        }
+        Assertions.assertTrue(stateChanges.isEmpty());
+        Assertions.assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+
+        Assertions.assertEquals(1, stateChanges.size());
+        Assertions.assertEquals(
+                ImmutableMap.of("account", ImmutableMap.of(Email.class, "e3", Mailbox.class, "m2")),
+                stateChanges.get(0).getChanged());
+        final OnStateChangeListenerManager.Metrics metrics =
+                onStateChangeListenerManager.getMetrics();
+        Assertions.assertEquals(1, metrics.getDispatched());
+        Assertions.assertEquals(2, metrics.getCoalesced());
+    }
+
+    @Test
+    public void removeWhileDispatching() {
+        final AtomicInteger disableCount = new AtomicInteger();
+        final OnStateChangeListenerManager onStateChangeListenerManager =
+                new OnStateChangeListenerManager(
+                        new OnStateChangeListenerManager.Callback() {
+                            @Override
+                            public void disable() {
+                                disableCount.incrementAndGet();
+                            }
+
+                            @Override
+                            public void enable() {
+                                // ignored
+                            }
+                        });
+        final AtomicInteger invocations = new AtomicInteger();
+        final OnStateChangeListener a =
+                new OnStateChangeListener() {
+                    @Override
+                    public boolean onStateChange(final StateChange stateChange) {
+                        invocations.incrementAndGet();
+                        onStateChangeListenerManager.removeOnStateChangeListener(this);
+                        return true;
+                    }
+                };
+        onStateChangeListenerManager.addOnStateChangeListener(a);
+        Assertions.assertTrue(
+                onStateChangeListenerManager.onStateChange(StateChange.builder().build()));
+        Assertions.assertFalse(
+                onStateChangeListenerManager.onStateChange(StateChange.builder().build()));
+        Assertions.assertEquals(1, invocations.get());
+        Assertions.assertEquals(1, disableCount.get());
+    }
 }
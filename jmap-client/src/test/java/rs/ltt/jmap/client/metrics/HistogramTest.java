@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.client.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverValues() {
+        for (final long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 123456789L}) {
+            final long upper = Histogram.highestEquivalentValue(Histogram.index(value));
+            Assertions.assertTrue(upper >= value, "Bucket of " + value + " ends at " + upper);
+            Assertions.assertTrue(upper - value <= value / 32, "Bucket of " + value + " too wide");
+        }
+        Assertions.assertEquals(
+                Histogram.index(Long.MAX_VALUE),
+                Histogram.index(Histogram.highestEquivalentValue(Histogram.index(Long.MAX_VALUE))));
+    }
+
+    @Test
+    public void percentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i);
+        }
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(500.5, histogram.getMean(), 0.001);
+        Assertions.assertEquals(1000, histogram.getMax());
+        Assertions.assertEquals(500, histogram.getPercentile(50), 500 / 32.0);
+        Assertions.assertEquals(990, histogram.getPercentile(99), 990 / 32.0);
+        Assertions.assertEquals(1000, histogram.getPercentile(100));
+    }
+}
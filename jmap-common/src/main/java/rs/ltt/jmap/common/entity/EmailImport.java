@@ -19,9 +19,11 @@ package rs.ltt.jmap.common.entity;
 import java.time.Instant;
 import java.util.Map;
 import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
 
 @Builder
+@Getter
 public class EmailImport {
 
     @NonNull private String blobId;
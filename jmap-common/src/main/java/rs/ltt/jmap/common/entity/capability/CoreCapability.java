@@ -32,6 +32,7 @@ public class CoreCapability implements Capability {
 
     private Long maxSizeUpload;
     private Long maxConcurrentUpload;
+    private Long maxConcurrentRequests;
     private Long maxCallsInRequest;
     private Long maxObjectsInGet;
     private Long maxObjectsInSet;
@@ -45,6 +46,10 @@ public class CoreCapability implements Capability {
         return Property.expected(maxConcurrentUpload);
     }
 
+    public long maxConcurrentRequests() {
+        return Property.expected(maxConcurrentRequests);
+    }
+
     public long maxCallsInRequest() {
         return Property.expected(maxCallsInRequest);
     }
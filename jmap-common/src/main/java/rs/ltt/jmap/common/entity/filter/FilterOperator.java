@@ -52,6 +52,14 @@ public class FilterOperator<T extends AbstractIdentifiableEntity> implements Fil
         return new FilterOperator<>(filters, Operator.NOT);
     }
 
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public Filter<T>[] getConditions() {
+        return conditions;
+    }
+
     @Override
     public String toQueryString() {
         return QueryStringUtils.toQueryString(L1_DIVIDER, L2_DIVIDER, conditions, operator);
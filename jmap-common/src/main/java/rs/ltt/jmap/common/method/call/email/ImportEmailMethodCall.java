@@ -18,6 +18,7 @@ package rs.ltt.jmap.common.method.call.email;
 
 import java.util.Map;
 import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.Singular;
 import rs.ltt.jmap.annotation.JmapMethod;
@@ -26,6 +27,7 @@ import rs.ltt.jmap.common.method.MethodCall;
 
 @JmapMethod("Email/import")
 @Builder
+@Getter
 public class ImportEmailMethodCall implements MethodCall {
 
     @NonNull private String accountId;
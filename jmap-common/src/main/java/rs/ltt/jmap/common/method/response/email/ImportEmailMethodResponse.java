@@ -18,7 +18,9 @@ package rs.ltt.jmap.common.method.response.email;
 
 import com.google.common.base.MoreObjects;
 import java.util.Map;
+import lombok.Builder;
 import lombok.Getter;
+import lombok.Singular;
 import rs.ltt.jmap.annotation.JmapMethod;
 import rs.ltt.jmap.common.entity.Email;
 import rs.ltt.jmap.common.entity.SetError;
@@ -26,12 +28,17 @@ import rs.ltt.jmap.common.method.MethodResponse;
 
 @JmapMethod("Email/import")
 @Getter
+@Builder
 public class ImportEmailMethodResponse implements MethodResponse {
 
     private String accountId;
     private String oldState;
     private String newState;
+
+    @Singular("created")
     private Map<String, Email> created;
+
+    @Singular("notCreated")
     private Map<String, SetError> notCreated;
 
     @Override
@@ -17,6 +17,7 @@
 package rs.ltt.jmap.common.util;
 
 import com.google.common.collect.ImmutableMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class Patches {
@@ -35,6 +36,45 @@ public class Patches {
         return new Builder();
     }
 
+    /**
+     * Combines two patch objects into one that has the same effect as applying the first and then
+     * the second patch. Setting a property (for example 'keywords') supersedes all previous
+     * modifications of its children ('keywords/$seen'). Modifying a child of a property that has
+     * previously been set modifies the value of that property instead.
+     *
+     * @param first The patch that is applied first
+     * @param second The patch that is applied second
+     * @return The combined patch
+     */
+    public static Map<String, Object> merge(
+            final Map<String, Object> first, final Map<String, Object> second) {
+        final Map<String, Object> merged = new LinkedHashMap<>(first);
+        for (final Map.Entry<String, Object> entry : second.entrySet()) {
+            final String path = entry.getKey();
+            final Object value = entry.getValue();
+            final int separator = path.indexOf('/');
+            if (separator < 0) {
+                merged.keySet().removeIf(p -> p.startsWith(path + "/"));
+                merged.put(path, value);
+                continue;
+            }
+            final Object parent = merged.get(path.substring(0, separator));
+            if (parent instanceof Map) {
+                final Map<Object, Object> map = new LinkedHashMap<>((Map<?, ?>) parent);
+                final String child = path.substring(separator + 1);
+                if (value instanceof Null) {
+                    map.remove(child);
+                } else {
+                    map.put(child, value);
+                }
+                merged.put(path.substring(0, separator), map);
+            } else {
+                merged.put(path, value);
+            }
+        }
+        return merged;
+    }
+
     public static final class Null {
         private Null() {}
     }
@@ -16,10 +16,11 @@
 
 package rs.ltt.jmap.common.websocket;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import lombok.Builder;
 import lombok.Getter;
-import lombok.Singular;
 import rs.ltt.jmap.annotation.Type;
 
 @Builder
@@ -27,7 +28,39 @@ import rs.ltt.jmap.annotation.Type;
 @Type("WebSocketPushEnable")
 public class PushEnableWebSocketMessage implements WebSocketMessage {
 
-    @Singular private List<String> dataTypes;
+    /** The types to push changes for. null means all types. */
+    private List<String> dataTypes;
 
     private String pushState;
+
+    /**
+     * Replaces the builder methods {@code @Singular} used to generate. Unlike those the list stays
+     * null (all types) if no data type has been added.
+     */
+    public static class PushEnableWebSocketMessageBuilder {
+
+        private List<String> dataTypes;
+
+        public PushEnableWebSocketMessageBuilder dataType(final String dataType) {
+            if (this.dataTypes == null) {
+                this.dataTypes = new ArrayList<>();
+            }
+            this.dataTypes.add(dataType);
+            return this;
+        }
+
+        public PushEnableWebSocketMessageBuilder dataTypes(
+                final Collection<? extends String> dataTypes) {
+            if (this.dataTypes == null) {
+                this.dataTypes = new ArrayList<>();
+            }
+            this.dataTypes.addAll(dataTypes);
+            return this;
+        }
+
+        public PushEnableWebSocketMessageBuilder clearDataTypes() {
+            this.dataTypes = null;
+            return this;
+        }
+    }
 }
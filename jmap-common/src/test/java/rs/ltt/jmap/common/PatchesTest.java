@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.common;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.common.util.Patches;
+
+public class PatchesTest {
+
+    @Test
+    public void mergeChildPaths() {
+        final Map<String, Object> merged =
+                Patches.merge(
+                        Patches.set("keywords/$seen", true),
+                        Patches.builder()
+                                .set("keywords/$flagged", true)
+                                .remove("keywords/$seen")
+                                .build());
+        Assertions.assertEquals(2, merged.size());
+        Assertions.assertEquals(true, merged.get("keywords/$flagged"));
+        Assertions.assertTrue(merged.get("keywords/$seen") instanceof Patches.Null);
+    }
+
+    @Test
+    public void propertySupersedesChildPaths() {
+        final Map<String, Object> merged =
+                Patches.merge(
+                        Patches.builder()
+                                .set("mailboxIds/inbox", true)
+                                .set("keywords/$seen", true)
+                                .build(),
+                        Patches.set("mailboxIds", ImmutableMap.of("archive", true)));
+        Assertions.assertEquals(
+                ImmutableMap.of(
+                        "keywords/$seen", true, "mailboxIds", ImmutableMap.of("archive", true)),
+                merged);
+    }
+
+    @Test
+    public void childPathModifiesProperty() {
+        final Map<String, Object> merged =
+                Patches.merge(
+                        Patches.set("mailboxIds", ImmutableMap.of("archive", true)),
+                        Patches.builder()
+                                .remove("mailboxIds/archive")
+                                .set("mailboxIds/trash", true)
+                                .build());
+        Assertions.assertEquals(
+                ImmutableMap.of("mailboxIds", ImmutableMap.of("trash", true)), merged);
+    }
+}
@@ -22,15 +22,17 @@ import com.google.common.base.Strings;
 import com.google.common.collect.*;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import javax.annotation.Nonnull;
 import okhttp3.Credentials;
@@ -76,7 +78,8 @@ public abstract class JmapDispatcher extends Dispatcher {
 
     public final EmailAddress account;
     protected final List<WebSocket> pushEnabledWebSockets = new ArrayList<>();
-    protected final Map<String, byte[]> inMemoryAttachments = new HashMap<>();
+    // uploads are dispatched concurrently
+    protected final Map<String, byte[]> inMemoryAttachments = new ConcurrentHashMap<>();
     private int sessionState = 0;
     private FailureTrigger failureTrigger = FailureTrigger.NONE;
     private final WebSocketListener webSocketListener =
@@ -116,6 +119,9 @@ public abstract class JmapDispatcher extends Dispatcher {
                         webSocket.send("[]");
                         return;
                     }
+                    if (failureTrigger == FailureTrigger.DELAY) {
+                        Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+                    }
                     final WebSocketMessage webSocketMessage =
                             GSON.fromJson(text, WebSocketMessage.class);
                     if (webSocketMessage instanceof RequestWebSocketMessage) {
@@ -154,6 +160,9 @@ public abstract class JmapDispatcher extends Dispatcher {
             };
     private boolean advertiseWebSocket = true;
     private long maxObjectsInGet = 4096;
+    private long maxObjectsInSet = 4096;
+    private Long maxConcurrentRequests = null;
+    private Long maxConcurrentUpload = null;
 
     public JmapDispatcher(final int accountIndex) {
         this.account = NameGenerator.getEmailAddress((accountIndex + 1) * 2048 + accountIndex);
@@ -167,6 +176,22 @@ public abstract class JmapDispatcher extends Dispatcher {
         this.maxObjectsInGet = maxObjectsInGet;
     }
 
+    public void setMaxObjectsInSet(final long maxObjectsInSet) {
+        this.maxObjectsInSet = maxObjectsInSet;
+    }
+
+    public void setMaxConcurrentRequests(final Long maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentUpload(final Long maxConcurrentUpload) {
+        this.maxConcurrentUpload = maxConcurrentUpload;
+    }
+
+    protected long getMaxObjectsInSet() {
+        return maxObjectsInSet;
+    }
+
     public void setFailureTrigger(final FailureTrigger failureTrigger) {
         this.failureTrigger = failureTrigger;
     }
@@ -287,6 +312,9 @@ public abstract class JmapDispatcher extends Dispatcher {
                 CoreCapability.builder()
                         .maxSizeUpload(100 * 1024 * 1024L) // 100MiB
                         .maxObjectsInGet(maxObjectsInGet)
+                        .maxObjectsInSet(maxObjectsInSet)
+                        .maxConcurrentRequests(maxConcurrentRequests)
+                        .maxConcurrentUpload(maxConcurrentUpload)
                         .build());
         if (this.advertiseWebSocket) {
             capabilityBuilder.put(
@@ -355,7 +383,9 @@ public abstract class JmapDispatcher extends Dispatcher {
         return new MockResponse().setResponseCode(200).setBody(GSON.toJson(response));
     }
 
-    protected GenericResponse dispatch(final Request request) {
+    // MockWebServer dispatches requests from multiple connections concurrently. Like a real
+    // server we process one request at a time to keep the state consistent
+    protected synchronized GenericResponse dispatch(final Request request) {
         final Request.Invocation[] methodCalls = request.getMethodCalls();
         final String[] using = request.getUsing();
         if (using == null || methodCalls == null) {
@@ -417,6 +447,7 @@ public abstract class JmapDispatcher extends Dispatcher {
         NONE,
         CLOSE,
         IGNORE,
-        INVALID
+        INVALID,
+        DELAY
     }
 }
@@ -41,6 +41,8 @@ import rs.ltt.jmap.common.entity.*;
 import rs.ltt.jmap.common.entity.Thread;
 import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
 import rs.ltt.jmap.common.entity.filter.Filter;
+import rs.ltt.jmap.common.entity.filter.FilterOperator;
+import rs.ltt.jmap.common.entity.filter.Operator;
 import rs.ltt.jmap.common.method.MethodResponse;
 import rs.ltt.jmap.common.method.call.core.GetPushSubscriptionMethodCall;
 import rs.ltt.jmap.common.method.call.core.SetPushSubscriptionMethodCall;
@@ -449,6 +451,16 @@ public class MockMailServer extends StubMailServer {
                 emailStream =
                         emailStream.filter(email -> email.getMailboxIds().containsKey(inMailbox));
             }
+            final String hasKeyword = emailFilterCondition.getHasKeyword();
+            if (hasKeyword != null) {
+                emailStream =
+                        emailStream.filter(email -> email.getKeywords().containsKey(hasKeyword));
+            }
+            final String notKeyword = emailFilterCondition.getNotKeyword();
+            if (notKeyword != null) {
+                emailStream =
+                        emailStream.filter(email -> !email.getKeywords().containsKey(notKeyword));
+            }
             final String[] header = emailFilterCondition.getHeader();
             if (header != null
                     && header.length == 2
@@ -457,6 +469,12 @@ public class MockMailServer extends StubMailServer {
                         emailStream.filter(
                                 email -> header[1].equals(email.getAutocryptSetupMessage()));
             }
+        } else if (filter instanceof FilterOperator
+                && ((FilterOperator<Email>) filter).getOperator() == Operator.AND) {
+            final FilterOperator<Email> filterOperator = (FilterOperator<Email>) filter;
+            for (final Filter<Email> condition : filterOperator.getConditions()) {
+                emailStream = applyFilter(condition, emailStream);
+            }
         }
         return emailStream;
     }
@@ -480,6 +498,9 @@ public class MockMailServer extends StubMailServer {
                 return new MethodResponse[] {new StateMismatchMethodErrorResponse()};
             }
         }
+        if (update != null && update.size() > getMaxObjectsInSet()) {
+            return new MethodResponse[] {new RequestTooLargeMethodErrorResponse()};
+        }
         if (update != null) {
             final List<Email> modifiedEmails = new ArrayList<>();
             for (final Map.Entry<String, Map<String, Object>> entry : update.entrySet()) {
@@ -498,8 +519,7 @@ public class MockMailServer extends StubMailServer {
             }
             incrementState();
             final String newState = getState();
-            updates.put(
-                    oldState, Update.updated(modifiedEmails, this.mailboxes.keySet(), newState));
+            pushUpdate(oldState, Update.updated(modifiedEmails, this.mailboxes.keySet(), newState));
         }
         if (create != null && create.size() > 0) {
             processCreateEmail(create, responseBuilder, previousResponses);
@@ -554,6 +574,109 @@ public class MockMailServer extends StubMailServer {
         }
     }
 
+    @Override
+    protected MethodResponse[] execute(
+            ImportEmailMethodCall methodCall,
+            ListMultimap<String, Response.Invocation> previousResponses) {
+        final Map<String, EmailImport> emailImports = methodCall.getEmails();
+        final String ifInState = methodCall.getIfInState();
+        final String oldState = getState();
+        if (ifInState != null && !ifInState.equals(oldState)) {
+            return new MethodResponse[] {new StateMismatchMethodErrorResponse()};
+        }
+        if (emailImports.size() > getMaxObjectsInSet()) {
+            return new MethodResponse[] {new RequestTooLargeMethodErrorResponse()};
+        }
+        final ImportEmailMethodResponse.ImportEmailMethodResponseBuilder responseBuilder =
+                ImportEmailMethodResponse.builder().accountId(getAccountId()).oldState(oldState);
+        final List<Email> created = new ArrayList<>();
+        for (final Map.Entry<String, EmailImport> entry : emailImports.entrySet()) {
+            final String createId = entry.getKey();
+            final EmailImport emailImport = entry.getValue();
+            final byte[] blob = this.inMemoryAttachments.get(emailImport.getBlobId());
+            if (blob == null) {
+                responseBuilder.notCreated(
+                        createId,
+                        new SetError(
+                                SetErrorType.BLOB_NOT_FOUND,
+                                String.format("Blob %s does not exist", emailImport.getBlobId())));
+                continue;
+            }
+            final Email.EmailBuilder emailBuilder =
+                    Email.builder()
+                            .id(UUID.randomUUID().toString())
+                            .threadId(UUID.randomUUID().toString())
+                            .blobId(emailImport.getBlobId())
+                            .size((long) blob.length)
+                            .subject(getSubject(blob))
+                            .receivedAt(
+                                    emailImport.getReceivedAt() == null
+                                            ? Instant.now()
+                                            : emailImport.getReceivedAt());
+            final String invalidMailboxId =
+                    addMailboxIds(emailBuilder, emailImport.getMailboxIds(), previousResponses);
+            if (invalidMailboxId != null) {
+                responseBuilder.notCreated(
+                        createId,
+                        new SetError(
+                                SetErrorType.INVALID_PROPERTIES,
+                                String.format("Mailbox %s does not exist", invalidMailboxId)));
+                continue;
+            }
+            if (emailImport.getKeywords() != null) {
+                emailBuilder.keywords(emailImport.getKeywords());
+            }
+            final Email email = emailBuilder.build();
+            this.emails.put(email.getId(), email);
+            created.add(email);
+            responseBuilder.created(createId, email);
+        }
+        if (created.isEmpty()) {
+            return new MethodResponse[] {responseBuilder.newState(oldState).build()};
+        }
+        // a single state change for the entire import
+        incrementState();
+        final String newState = getState();
+        pushUpdate(oldState, Update.created(created, newState));
+        return new MethodResponse[] {responseBuilder.newState(newState).build()};
+    }
+
+    private String addMailboxIds(
+            final Email.EmailBuilder emailBuilder,
+            final Map<String, Boolean> mailboxIds,
+            final ListMultimap<String, Response.Invocation> previousResponses) {
+        for (final Map.Entry<String, Boolean> mailboxEntry : mailboxIds.entrySet()) {
+            final String mailboxId =
+                    CreationIdResolver.resolveIfNecessary(mailboxEntry.getKey(), previousResponses);
+            if (!this.mailboxes.containsKey(mailboxId)) {
+                return mailboxId;
+            }
+            emailBuilder.mailboxId(mailboxId, mailboxEntry.getValue());
+        }
+        return null;
+    }
+
+    /** Reads the (unfolded) subject header of a raw message. Encoded words are not decoded. */
+    private static String getSubject(final byte[] blob) {
+        final List<String> lines =
+                Splitter.onPattern("\\r?\\n")
+                        .splitToList(new String(blob, StandardCharsets.ISO_8859_1));
+        String subject = null;
+        for (final String line : lines) {
+            if (line.isEmpty()) {
+                break;
+            }
+            if (subject != null && (line.startsWith(" ") || line.startsWith("\t"))) {
+                subject = subject + line;
+            } else if (subject != null) {
+                break;
+            } else if (line.regionMatches(true, 0, "Subject:", 0, 8)) {
+                subject = line.substring(8);
+            }
+        }
+        return subject == null ? null : subject.trim();
+    }
+
     private static EmailBodyPart injectId(final Attachment attachment) {
         return EmailBodyPart.builder()
                 .blobId(UUID.randomUUID().toString())
@@ -849,6 +972,8 @@ public class MockMailServer extends StubMailServer {
             final Map<String, Object> patches,
             ListMultimap<String, Response.Invocation> previousResponses) {
         final Email.EmailBuilder emailBuilder = emails.get(id).toBuilder();
+        final List<String> removedKeywords = new ArrayList<>();
+        final List<String> removedMailboxIds = new ArrayList<>();
         for (final Map.Entry<String, Object> patch : patches.entrySet()) {
             final String fullPath = patch.getKey();
             final Object modification = patch.getValue();
@@ -859,6 +984,8 @@ public class MockMailServer extends StubMailServer {
                     final String keyword = pathParts.get(1);
                     final Boolean value = (Boolean) modification;
                     emailBuilder.keyword(keyword, value);
+                } else if (pathParts.size() == 2 && modification == null) {
+                    removedKeywords.add(pathParts.get(1));
                 } else {
                     throw new IllegalArgumentException(
                             "Keyword modification was not split into two parts");
@@ -868,6 +995,8 @@ public class MockMailServer extends StubMailServer {
                     final String mailboxId = pathParts.get(1);
                     final Boolean value = (Boolean) modification;
                     emailBuilder.mailboxId(mailboxId, value);
+                } else if (pathParts.size() == 2 && modification == null) {
+                    removedMailboxIds.add(pathParts.get(1));
                 } else if (modification instanceof Map) {
                     final Map<String, Boolean> mailboxMap = (Map<String, Boolean>) modification;
                     emailBuilder.clearMailboxIds();
@@ -884,7 +1013,23 @@ public class MockMailServer extends StubMailServer {
                 throw new IllegalArgumentException("Unable to patch " + fullPath);
             }
         }
-        return emailBuilder.build();
+        final Email email = emailBuilder.build();
+        if (removedKeywords.isEmpty() && removedMailboxIds.isEmpty()) {
+            return email;
+        }
+        final Email.EmailBuilder removalBuilder =
+                email.toBuilder().clearKeywords().clearMailboxIds();
+        for (final Map.Entry<String, Boolean> keyword : email.getKeywords().entrySet()) {
+            if (!removedKeywords.contains(keyword.getKey())) {
+                removalBuilder.keyword(keyword.getKey(), keyword.getValue());
+            }
+        }
+        for (final Map.Entry<String, Boolean> mailboxId : email.getMailboxIds().entrySet()) {
+            if (!removedMailboxIds.contains(mailboxId.getKey())) {
+                removalBuilder.mailboxId(mailboxId.getKey(), mailboxId.getValue());
+            }
+        }
+        return removalBuilder.build();
     }
 
     protected static class MailboxInfo implements IdentifiableMailboxWithRole {
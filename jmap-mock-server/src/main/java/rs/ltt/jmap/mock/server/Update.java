@@ -91,6 +91,29 @@ public class Update {
         return new Update(builder.build(), newVersion);
     }
 
+    public static Update created(final Collection<Email> emails, final String newVersion) {
+        final ImmutableMap.Builder<Class<? extends AbstractIdentifiableEntity>, Changes> builder =
+                new ImmutableMap.Builder<>();
+        builder.put(
+                Email.class,
+                new Changes(
+                        new String[0], emails.stream().map(Email::getId).toArray(String[]::new)));
+        builder.put(
+                Thread.class,
+                new Changes(
+                        new String[0],
+                        emails.stream().map(Email::getThreadId).toArray(String[]::new)));
+        builder.put(
+                Mailbox.class,
+                new Changes(
+                        emails.stream()
+                                .flatMap(email -> email.getMailboxIds().keySet().stream())
+                                .distinct()
+                                .toArray(String[]::new),
+                        new String[0]));
+        return new Update(builder.build(), newVersion);
+    }
+
     public static Update updated(
             final Collection<Email> emails, final Collection<String> mailboxes, String newVersion) {
         final ImmutableMap.Builder<Class<? extends AbstractIdentifiableEntity>, Changes> builder =
@@ -22,28 +22,43 @@ import com.google.common.collect.ImmutableClassToInstanceMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import okhttp3.HttpUrl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.Transport;
+import rs.ltt.jmap.client.blob.DiskBlobCache;
 import rs.ltt.jmap.client.blob.Download;
 import rs.ltt.jmap.client.blob.Progress;
 import rs.ltt.jmap.client.blob.Uploadable;
+import rs.ltt.jmap.client.event.PushService;
 import rs.ltt.jmap.client.session.InMemorySessionCache;
 import rs.ltt.jmap.client.session.SessionCache;
 import rs.ltt.jmap.common.entity.*;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
 import rs.ltt.jmap.mua.cache.Cache;
 import rs.ltt.jmap.mua.cache.InMemoryCache;
+import rs.ltt.jmap.mua.cache.MutationJournal;
+import rs.ltt.jmap.mua.cache.UploadCache;
+import rs.ltt.jmap.mua.imports.ImportCheckpoint;
+import rs.ltt.jmap.mua.imports.ImportMapping;
+import rs.ltt.jmap.mua.imports.ImportResult;
+import rs.ltt.jmap.mua.imports.MessageSource;
 import rs.ltt.jmap.mua.service.*;
 
 public class Mua extends MuaSession {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Mua.class);
 
+    private static final Duration DEFAULT_MUTATION_FLUSH_DELAY = Duration.ofMillis(500);
+    private static final Duration DEFAULT_SYNC_DEBOUNCE = Duration.ofMillis(500);
+
     private Mua(
             JmapClient jmapClient,
             Cache cache,
@@ -64,6 +79,44 @@ public class Mua extends MuaSession {
         return getService(RefreshService.class).refresh();
     }
 
+    /**
+     * Resolves the session and opens a connection to the server ahead of the first request. See
+     * {@link JmapClient#warmUp()}.
+     */
+    public ListenableFuture<Void> warmUp() {
+        return jmapClient.warmUp();
+    }
+
+    /**
+     * Subscribes to push notifications and keeps the cache up to date automatically. Bursts of
+     * changes are collected for the duration configured with {@link Builder#syncDebounce(Duration)}
+     * and only the types that actually changed are refreshed. This replaces wiring {@link
+     * JmapClient#monitorEvents()} to {@link #refresh()} manually.
+     *
+     * @return The PushService that has been subscribed to
+     */
+    public ListenableFuture<PushService> startSync() {
+        return getService(SyncService.class).start();
+    }
+
+    public void stopSync() {
+        getService(SyncService.class).stop();
+    }
+
+    /**
+     * Marks a query as currently displayed. Active queries are refreshed by the push driven sync
+     * when emails, threads or mailboxes change.
+     *
+     * @param query The query that is currently displayed
+     */
+    public void addActiveQuery(@Nonnull final EmailQuery query) {
+        getService(SyncService.class).addActiveQuery(query);
+    }
+
+    public void removeActiveQuery(@Nonnull final EmailQuery query) {
+        getService(SyncService.class).removeActiveQuery(query);
+    }
+
     public ListenableFuture<Status> refreshIdentities() {
         return getService(IdentityService.class).refreshIdentities();
     }
@@ -94,6 +147,19 @@ public class Mua extends MuaSession {
         return getService(QueryService.class).query(query, calculateTotal, afterEmailId);
     }
 
+    /**
+     * Informs the Mua about the position the user is currently looking at. If the position is close
+     * to the end of the cached query the next page will be loaded in the background. This requires
+     * a {@link PrefetchPolicy} to be configured.
+     *
+     * @param query The query that is currently displayed
+     * @param position The position of the item that is currently displayed
+     * @return A future with the status of the prefetch. UNCHANGED if no page was fetched.
+     */
+    public ListenableFuture<Status> prefetch(@Nonnull final EmailQuery query, final long position) {
+        return getService(QueryService.class).prefetch(query, position);
+    }
+
     /**
      * Stores an email as a draft. This method will take care of adding the draft and seen keyword
      * and moving the email to the draft mailbox.
@@ -182,6 +248,22 @@ public class Mua extends MuaSession {
         return getService(EmailService.class).setKeyword(emails, keyword);
     }
 
+    /**
+     * Sets a keyword on a potentially large number of emails. The emails will be split into
+     * multiple requests that do not exceed the maxObjectsInSet announced by the server.
+     *
+     * @param emails The emails to set the keyword on
+     * @param keyword The keyword
+     * @param progress Called after each processed chunk
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> setKeyword(
+            final Collection<? extends IdentifiableEmailWithKeywords> emails,
+            final String keyword,
+            final BulkProgress progress) {
+        return getService(EmailService.class).setKeyword(emails, keyword, progress);
+    }
+
     public ListenableFuture<Boolean> discardDraft(
             final @Nonnull IdentifiableEmailWithKeywords email) {
         return getService(EmailService.class).discardDraft(email);
@@ -193,6 +275,17 @@ public class Mua extends MuaSession {
         return getService(EmailService.class).removeKeyword(emails, keyword);
     }
 
+    /**
+     * Removes a keyword from a potentially large number of emails. See {@link
+     * #setKeyword(Collection, String, BulkProgress)}.
+     */
+    public ListenableFuture<Boolean> removeKeyword(
+            final Collection<? extends IdentifiableEmailWithKeywords> emails,
+            final String keyword,
+            final BulkProgress progress) {
+        return getService(EmailService.class).removeKeyword(emails, keyword, progress);
+    }
+
     /**
      * Copies the individual emails in this collection (usually applied to an entire thread) to the
      * mailbox with the role IMPORTANT. If a mailbox with that role doesn’t exist it will be
@@ -230,6 +323,18 @@ public class Mua extends MuaSession {
         return getService(EmailService.class).modifyLabels(emails, additions, removals);
     }
 
+    /**
+     * Modifies the labels of a potentially large number of emails. See {@link
+     * #setKeyword(Collection, String, BulkProgress)}.
+     */
+    public ListenableFuture<Boolean> modifyLabels(
+            final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
+            final Collection<? extends IdentifiableMailboxWithRoleAndName> additions,
+            final Collection<? extends IdentifiableMailboxWithRoleAndName> removals,
+            final BulkProgress progress) {
+        return getService(EmailService.class).modifyLabels(emails, additions, removals, progress);
+    }
+
     /**
      * Removes the emails in this collection from both the Trash and Archive mailbox (if they are in
      * either of those) and puts all emails into the Inbox instead.
@@ -242,6 +347,16 @@ public class Mua extends MuaSession {
         return getService(EmailService.class).moveToInbox(emails);
     }
 
+    /**
+     * Moves a potentially large number of emails to the inbox. See {@link #setKeyword(Collection,
+     * String, BulkProgress)}.
+     */
+    public ListenableFuture<Boolean> moveToInbox(
+            final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
+            final BulkProgress progress) {
+        return getService(EmailService.class).moveToInbox(emails, progress);
+    }
+
     /**
      * Moves the individual emails in this collection (usually applied to an entire thread) from the
      * inbox to the archive. Any email that is not in the inbox will be skipped.
@@ -254,6 +369,16 @@ public class Mua extends MuaSession {
         return getService(EmailService.class).archive(emails);
     }
 
+    /**
+     * Archives a potentially large number of emails. See {@link #setKeyword(Collection, String,
+     * BulkProgress)}.
+     */
+    public ListenableFuture<Boolean> archive(
+            final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
+            final BulkProgress progress) {
+        return getService(EmailService.class).archive(emails, progress);
+    }
+
     /**
      * Removes the individual emails in this collection (usually applied to an entire thread) from a
      * given mailbox. If a certain email was not in this mailbox it will be skipped. If removing an
@@ -327,6 +452,60 @@ public class Mua extends MuaSession {
         return getService(EmailService.class).emptyTrash(trash);
     }
 
+    /**
+     * Marks all emails in a mailbox as read. The emails will be selected on the server; the client
+     * does not need to have them in its cache.
+     *
+     * @param mailbox The mailbox in which all emails should be marked as read
+     * @param progress Called after each processed page. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> markAllAsRead(
+            @Nonnull final IdentifiableMailboxWithRole mailbox, final BulkProgress progress) {
+        return getService(EmailService.class).markAllAsRead(mailbox, progress);
+    }
+
+    /**
+     * Moves all emails matching a query from the inbox to the archive. The emails will be selected
+     * on the server; the client does not need to have them in its cache.
+     *
+     * @param query The query selecting the emails. Threads will not be collapsed
+     * @param progress Called after each processed page. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> archive(
+            @Nonnull final EmailQuery query, final BulkProgress progress) {
+        return getService(EmailService.class).archive(query, progress);
+    }
+
+    /**
+     * Moves all emails from one mailbox (label) to another. The emails will be selected on the
+     * server; the client does not need to have them in its cache.
+     *
+     * @param from The mailbox all emails will be removed from
+     * @param to The mailbox all emails will be added to
+     * @param progress Called after each processed page. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> moveAll(
+            @Nonnull final IdentifiableMailboxWithRole from,
+            @Nonnull final IdentifiableMailboxWithRole to,
+            final BulkProgress progress) {
+        return getService(EmailService.class).moveAll(from, to, progress);
+    }
+
+    /**
+     * Sends all modifications recorded in the mutation journal to the server in a single request.
+     * Flushes are scheduled automatically after modifications; Applications might want to call this
+     * additionally when network connectivity has been restored. This requires a {@link
+     * MutationJournal} to be configured.
+     *
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> flushMutations() {
+        return getService(EmailService.class).flushMutations();
+    }
+
     public ListenableFuture<Boolean> setRole(
             final IdentifiableMailboxWithRole mailbox, final Role role) {
         return getService(MailboxService.class).setRole(mailbox, role);
@@ -356,10 +535,54 @@ public class Mua extends MuaSession {
         return getService(BinaryService.class).download(downloadable, rangeStart);
     }
 
+    /**
+     * Downloads binary data into a file using multiple concurrent range requests. Calling this
+     * again with the same destination after a failure only fetches the missing parts.
+     *
+     * @param downloadable An EmailBodyPart or another class that implements Downloadable
+     * @param destination The file the binary data is written to
+     * @param progress Receives the progress of the download. May be null
+     * @return The size of the downloaded data
+     */
+    public ListenableFuture<Long> download(
+            final Downloadable downloadable, final Path destination, final Progress progress) {
+        return getService(BinaryService.class).download(downloadable, destination, progress);
+    }
+
     public ListenableFuture<Upload> upload(final Uploadable uploadable, final Progress progress) {
         return getService(BinaryService.class).upload(uploadable, progress);
     }
 
+    /**
+     * Uploads the attachments of an email, as many at a time as the server allows
+     * (maxConcurrentUpload). Size limits are checked before anything is sent; the first failure
+     * cancels all other uploads.
+     *
+     * @param uploadables The attachments
+     * @param progress Receives the combined progress of all uploads. May be null
+     * @return Body parts that can be used as attachments of a draft
+     */
+    public ListenableFuture<List<EmailBodyPart>> uploadAttachments(
+            final Collection<? extends Uploadable> uploadables, final Progress progress) {
+        return getService(BinaryService.class).uploadAttachments(uploadables, progress);
+    }
+
+    /**
+     * Imports messages from a local mail store (for example an mbox file or a maildir), as many
+     * uploads at a time as the server allows (maxConcurrentUpload).
+     *
+     * @param source The local mail store. Must not be closed before the returned future completes
+     * @param mapping Decides which mailboxes and keywords messages are imported with
+     * @param checkpoint Allows resuming an interrupted import. May be null
+     * @return The result of the import
+     */
+    public ListenableFuture<ImportResult> importEmails(
+            final MessageSource source,
+            final ImportMapping mapping,
+            @Nullable final ImportCheckpoint checkpoint) {
+        return getService(ImportService.class).importEmails(source, mapping, checkpoint);
+    }
+
     public ListenableFuture<Void> verifyAttachmentsDoNotExceedLimit(
             final Collection<? extends Attachment> attachments) {
         return getService(BinaryService.class).verifyAttachmentsDoNotExceedLimit(attachments);
@@ -375,7 +598,15 @@ public class Mua extends MuaSession {
         private SessionCache sessionCache = new InMemorySessionCache();
         private Cache cache = new InMemoryCache();
         private Long queryPageSize = null;
+        private AdaptiveQueryPageSize adaptiveQueryPageSize = null;
+        private PrefetchPolicy prefetchPolicy = null;
+        private MutationJournal mutationJournal = null;
+        private Duration mutationFlushDelay = DEFAULT_MUTATION_FLUSH_DELAY;
+        private Duration syncDebounce = DEFAULT_SYNC_DEBOUNCE;
         private Boolean useWebSocket;
+        private Transport transport = Transport.DEFAULT;
+        private UploadCache uploadCache = null;
+        private DiskBlobCache blobCache = null;
 
         private Builder() {}
 
@@ -408,6 +639,16 @@ public class Mua extends MuaSession {
             return this;
         }
 
+        /**
+         * @param transport The HTTP client, executor and JSON codec. See {@link
+         *     JmapClient.Builder#transport(Transport)}.
+         * @return this builder
+         */
+        public Builder transport(final Transport transport) {
+            this.transport = Preconditions.checkNotNull(transport);
+            return this;
+        }
+
         public Builder queryPageSize(int queryPageSize) {
             return queryPageSize((long) queryPageSize);
         }
@@ -417,6 +658,87 @@ public class Mua extends MuaSession {
             return this;
         }
 
+        /**
+         * Let the page size of queries adapt to the measured round trip time. When set this takes
+         * precedence over a fixed {@link #queryPageSize(Long)}.
+         *
+         * @param adaptiveQueryPageSize The controller that calculates the page size
+         * @return this builder
+         */
+        public Builder adaptiveQueryPageSize(final AdaptiveQueryPageSize adaptiveQueryPageSize) {
+            this.adaptiveQueryPageSize = adaptiveQueryPageSize;
+            return this;
+        }
+
+        /**
+         * Load the next page of a query in the background when getting close to its end and fetch
+         * the bodies of the top items after an initial query. See {@link Mua#prefetch(EmailQuery,
+         * long)}.
+         *
+         * @param prefetchPolicy The policy that decides when and how much to prefetch
+         * @return this builder
+         */
+        public Builder prefetchPolicy(final PrefetchPolicy prefetchPolicy) {
+            this.prefetchPolicy = prefetchPolicy;
+            return this;
+        }
+
+        /**
+         * Record email modifications (keywords and mailboxes) in a journal and apply them to the
+         * cache immediately instead of waiting for the server. Modifications are sent to the server
+         * in batches. See {@link Mua#flushMutations()}.
+         *
+         * @param mutationJournal The (ideally persistent) journal
+         * @return this builder
+         */
+        public Builder mutationJournal(final MutationJournal mutationJournal) {
+            this.mutationJournal = mutationJournal;
+            return this;
+        }
+
+        /**
+         * @param mutationFlushDelay The time to wait for further modifications before flushing the
+         *     mutation journal. Null disables automatic flushes.
+         * @return this builder
+         */
+        public Builder mutationFlushDelay(final Duration mutationFlushDelay) {
+            this.mutationFlushDelay = mutationFlushDelay;
+            return this;
+        }
+
+        /**
+         * @param syncDebounce The time the push driven sync collects state changes before
+         *     refreshing. See {@link Mua#startSync()}.
+         * @return this builder
+         */
+        public Builder syncDebounce(@Nonnull final Duration syncDebounce) {
+            this.syncDebounce = Preconditions.checkNotNull(syncDebounce);
+            return this;
+        }
+
+        /**
+         * Skip uploads of content that has already been uploaded to the account. See {@link
+         * UploadCache}.
+         *
+         * @param uploadCache The cache that maps content hashes to uploads
+         * @return this builder
+         */
+        public Builder uploadCache(final UploadCache uploadCache) {
+            this.uploadCache = uploadCache;
+            return this;
+        }
+
+        /**
+         * Serve repeated downloads of the same blob from disk. See {@link DiskBlobCache}.
+         *
+         * @param blobCache The cache downloads are written to
+         * @return this builder
+         */
+        public Builder blobCache(final DiskBlobCache blobCache) {
+            this.blobCache = blobCache;
+            return this;
+        }
+
         public Builder sessionCache(SessionCache sessionCache) {
             this.sessionCache = sessionCache;
             return this;
@@ -436,15 +758,26 @@ public class Mua extends MuaSession {
         public Mua build() {
             Preconditions.checkNotNull(accountId, "accountId is required");
 
-            final JmapClient jmapClient =
-                    new JmapClient(this.username, this.password, this.sessionResource);
-            jmapClient.setSessionCache(this.sessionCache);
+            final JmapClient.Builder jmapClientBuilder =
+                    JmapClient.builder()
+                            .credentials(this.username, this.password)
+                            .sessionResource(this.sessionResource)
+                            .sessionCache(this.sessionCache)
+                            .blobCache(this.blobCache)
+                            .transport(this.transport);
             if (this.useWebSocket != null) {
-                jmapClient.setUseWebSocket(this.useWebSocket);
+                jmapClientBuilder.useWebSocket(this.useWebSocket);
             }
+            final JmapClient jmapClient = jmapClientBuilder.build();
             ClassToInstanceMap<PluginService.Plugin> plugins = pluginBuilder.build();
             final Mua mua = new Mua(jmapClient, cache, accountId, plugins);
             mua.setQueryPageSize(this.queryPageSize);
+            mua.setAdaptiveQueryPageSize(this.adaptiveQueryPageSize);
+            mua.setPrefetchPolicy(this.prefetchPolicy);
+            mua.setMutationJournal(this.mutationJournal);
+            mua.setMutationFlushDelay(this.mutationFlushDelay);
+            mua.setSyncDebounce(this.syncDebounce);
+            mua.setUploadCache(this.uploadCache);
             return mua;
         }
     }
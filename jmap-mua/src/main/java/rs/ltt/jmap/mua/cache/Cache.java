@@ -17,6 +17,8 @@
 package rs.ltt.jmap.mua.cache;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import rs.ltt.jmap.common.entity.*;
@@ -73,6 +75,27 @@ public interface Cache {
     void updateEmails(Update<Email> emailUpdate, String[] updatedProperties)
             throws CacheWriteException, CacheConflictException;
 
+    /**
+     * @return true if the cache implements {@link #patchEmails(Map)}. Without patch support
+     *     modifications are sent to the server right away even if a {@link MutationJournal} has
+     *     been set.
+     */
+    default boolean supportsPatches() {
+        return false;
+    }
+
+    /**
+     * Optimistically applies patches to cached emails before the server has acknowledged them. Only
+     * patches to 'keywords' and 'mailboxIds' (and their children) need to be supported. This must
+     * not change the email state. Emails that are not in the cache are ignored. Only called if
+     * {@link #supportsPatches()} returns true.
+     *
+     * @param patches A map of email ids to patch objects
+     */
+    default void patchEmails(Map<String, Map<String, Object>> patches) throws CacheWriteException {
+        throw new UnsupportedOperationException("Cache does not support patches");
+    }
+
     void invalidateEmailThreadsAndQueries();
 
     void invalidateMailboxes();
@@ -102,4 +125,26 @@ public interface Cache {
     void invalidateQueryResult(String queryString);
 
     Missing getMissing(String query) throws CacheReadException;
+
+    /**
+     * Used to warm up the first threads of a query. Implementations that don't keep track of body
+     * values return an empty collection which disables the warm up.
+     *
+     * @param threadIds The threads to look at
+     * @return The ids of those emails in the given threads whose body values are not cached
+     */
+    default Collection<String> getEmailIdsWithoutBodyValues(Collection<String> threadIds)
+            throws CacheReadException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Implementations that can cheaply count their items should override this. Called rarely, for
+     * example when metrics are being collected.
+     *
+     * @return The number of cached items and their approximate size per entity type
+     */
+    default CacheStatistics getStatistics() {
+        return CacheStatistics.EMPTY;
+    }
 }
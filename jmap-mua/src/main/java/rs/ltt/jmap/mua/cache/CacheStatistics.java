@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The number of items and their approximate size per entity type held by a {@link Cache}. The size
+ * is an estimate of the memory or disk usage; for example the length of the JSON representation.
+ */
+public class CacheStatistics {
+
+    public static final CacheStatistics EMPTY = builder().build();
+
+    private final ImmutableMap<String, Entry> entries;
+
+    private CacheStatistics(final ImmutableMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** @return The statistics keyed by entity type. For example 'Email' or 'Thread' */
+    public ImmutableMap<String, Entry> getEntries() {
+        return entries;
+    }
+
+    public long getItems(final String type) {
+        final Entry entry = entries.get(type);
+        return entry == null ? 0 : entry.items;
+    }
+
+    public long getBytes(final String type) {
+        final Entry entry = entries.get(type);
+        return entry == null ? 0 : entry.bytes;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this).add("entries", entries).toString();
+    }
+
+    public static class Entry {
+        public final long items;
+        public final long bytes;
+
+        private Entry(final long items, final long bytes) {
+            this.items = items;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("items", items)
+                    .add("bytes", bytes)
+                    .toString();
+        }
+    }
+
+    public static class Builder {
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+        private Builder() {}
+
+        public Builder add(final String type, final long items, final long bytes) {
+            final Entry existing = entries.get(type);
+            if (existing == null) {
+                entries.put(type, new Entry(items, bytes));
+            } else {
+                entries.put(type, new Entry(existing.items + items, existing.bytes + bytes));
+            }
+            return this;
+        }
+
+        public CacheStatistics build() {
+            return new CacheStatistics(ImmutableMap.copyOf(entries));
+        }
+    }
+}
@@ -322,6 +322,69 @@ public class InMemoryCache implements Cache {
         }
     }
 
+    @Override
+    public boolean supportsPatches() {
+        return true;
+    }
+
+    @Override
+    public void patchEmails(final Map<String, Map<String, Object>> patches)
+            throws CacheWriteException {
+        synchronized (this.emails) {
+            for (final Map.Entry<String, Map<String, Object>> entry : patches.entrySet()) {
+                final Email email = this.emails.get(entry.getKey());
+                if (email == null) {
+                    continue;
+                }
+                final Map<String, Boolean> keywords = new HashMap<>();
+                final Map<String, Boolean> mailboxIds = new HashMap<>();
+                if (email.getKeywords() != null) {
+                    keywords.putAll(email.getKeywords());
+                }
+                if (email.getMailboxIds() != null) {
+                    mailboxIds.putAll(email.getMailboxIds());
+                }
+                for (final Map.Entry<String, Object> patch : entry.getValue().entrySet()) {
+                    final String path = patch.getKey();
+                    if (path.startsWith("keywords")) {
+                        patch(keywords, path, patch.getValue());
+                    } else if (path.startsWith("mailboxIds")) {
+                        patch(mailboxIds, path, patch.getValue());
+                    } else {
+                        throw new CacheWriteException(
+                                String.format(
+                                        "Unable to patch Email(%s). Unsupported path %s",
+                                        email.getId(), path));
+                    }
+                }
+                this.emails.put(
+                        email.getId(),
+                        email.toBuilder()
+                                .clearKeywords()
+                                .keywords(keywords)
+                                .clearMailboxIds()
+                                .mailboxIds(mailboxIds)
+                                .build());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void patch(
+            final Map<String, Boolean> target, final String path, final Object value) {
+        final int separator = path.indexOf('/');
+        if (separator < 0) {
+            target.clear();
+            if (value instanceof Map) {
+                target.putAll((Map<String, Boolean>) value);
+            }
+        } else if (value instanceof Boolean) {
+            target.put(path.substring(separator + 1), (Boolean) value);
+        } else {
+            target.remove(path.substring(separator + 1));
+        }
+    }
+
     @Override
     public void setIdentities(final TypedState<Identity> typedState, final Identity[] identities) {
         synchronized (this.identities) {
@@ -531,6 +594,47 @@ public class InMemoryCache implements Cache {
         }
     }
 
+    @Override
+    public Collection<String> getEmailIdsWithoutBodyValues(final Collection<String> threadIds) {
+        final List<String> emailIds = new ArrayList<>();
+        synchronized (this.threads) {
+            for (final String threadId : threadIds) {
+                final Thread thread = this.threads.get(threadId);
+                if (thread != null && thread.getEmailIds() != null) {
+                    emailIds.addAll(thread.getEmailIds());
+                }
+            }
+        }
+        synchronized (this.emails) {
+            emailIds.removeIf(
+                    id -> {
+                        final Email email = this.emails.get(id);
+                        return email != null && hasBodyValues(email);
+                    });
+        }
+        return emailIds;
+    }
+
+    private static boolean hasBodyValues(final Email email) {
+        final Map<String, EmailBodyValue> bodyValues = email.getBodyValues();
+        return hasBodyValues(email.getTextBody(), bodyValues)
+                && hasBodyValues(email.getHtmlBody(), bodyValues);
+    }
+
+    private static boolean hasBodyValues(
+            final List<EmailBodyPart> parts, final Map<String, EmailBodyValue> bodyValues) {
+        if (parts == null) {
+            return true;
+        }
+        for (final EmailBodyPart part : parts) {
+            if (part.getPartId() != null
+                    && (bodyValues == null || !bodyValues.containsKey(part.getPartId()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static <T extends AbstractIdentifiableEntity> void copyProperty(
             T target, T source, String property, Class<T> clazz)
             throws NoSuchFieldException, IllegalAccessException {
@@ -539,6 +643,33 @@ public class InMemoryCache implements Cache {
         field.set(target, field.get(source));
     }
 
+    /**
+     * Reports the number of items only. Estimating the size would mean walking (or serializing)
+     * every cached entity on each call.
+     */
+    @Override
+    public CacheStatistics getStatistics() {
+        final CacheStatistics.Builder builder = CacheStatistics.builder();
+        synchronized (this.mailboxes) {
+            builder.add("Mailbox", this.mailboxes.size(), 0);
+        }
+        synchronized (this.threads) {
+            builder.add("Thread", this.threads.size(), 0);
+        }
+        synchronized (this.emails) {
+            builder.add("Email", this.emails.size(), 0);
+        }
+        synchronized (this.identities) {
+            builder.add("Identity", this.identities.size(), 0);
+        }
+        synchronized (this.queryResults) {
+            for (final InMemoryQueryResult queryResult : this.queryResults.values()) {
+                builder.add("QueryResult", queryResult.items.size(), 0);
+            }
+        }
+        return builder.build();
+    }
+
     protected static class InMemoryQueryResult {
 
         private String queryState;
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.cache;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import rs.ltt.jmap.common.util.Patches;
+
+public class InMemoryMutationJournal implements MutationJournal {
+
+    protected final LinkedHashMap<String, Map<String, Object>> pending = new LinkedHashMap<>();
+
+    @Override
+    public void append(final Map<String, Map<String, Object>> patches) {
+        synchronized (this.pending) {
+            for (final Map.Entry<String, Map<String, Object>> entry : patches.entrySet()) {
+                final Map<String, Object> existing = this.pending.get(entry.getKey());
+                this.pending.put(
+                        entry.getKey(),
+                        Patches.merge(
+                                existing == null ? Collections.emptyMap() : existing,
+                                entry.getValue()));
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Map<String, Object>> getPending() {
+        synchronized (this.pending) {
+            return ImmutableMap.copyOf(this.pending);
+        }
+    }
+
+    @Override
+    public void acknowledge(final Map<String, Map<String, Object>> patches) {
+        synchronized (this.pending) {
+            for (final Map.Entry<String, Map<String, Object>> entry : patches.entrySet()) {
+                final Map<String, Object> existing = this.pending.get(entry.getKey());
+                if (existing == null) {
+                    continue;
+                }
+                final Map<String, Object> remaining = new LinkedHashMap<>(existing);
+                for (final Map.Entry<String, Object> patch : entry.getValue().entrySet()) {
+                    if (Objects.equals(remaining.get(patch.getKey()), patch.getValue())) {
+                        remaining.remove(patch.getKey());
+                    }
+                }
+                if (remaining.isEmpty()) {
+                    this.pending.remove(entry.getKey());
+                } else {
+                    this.pending.put(entry.getKey(), remaining);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.common.entity.Upload;
+
+public class InMemoryUploadCache implements UploadCache {
+
+    public static final Duration DEFAULT_EXPIRY = Duration.ofHours(1);
+
+    private final com.google.common.cache.Cache<Map.Entry<String, String>, Upload> uploads;
+
+    public InMemoryUploadCache() {
+        this(DEFAULT_EXPIRY);
+    }
+
+    /** @param expiry The time after which a cached upload is no longer used */
+    public InMemoryUploadCache(final Duration expiry) {
+        Preconditions.checkArgument(!expiry.isNegative(), "Expiry must not be negative");
+        this.uploads = CacheBuilder.newBuilder().expireAfterWrite(expiry).build();
+    }
+
+    @Nullable
+    @Override
+    public Upload get(final String accountId, final String hash) {
+        return this.uploads.getIfPresent(key(accountId, hash));
+    }
+
+    @Override
+    public void put(final String accountId, final String hash, final Upload upload) {
+        this.uploads.put(key(accountId, hash), upload);
+    }
+
+    @Override
+    public void invalidate(final String accountId, final Collection<String> blobIds) {
+        this.uploads
+                .asMap()
+                .entrySet()
+                .removeIf(
+                        entry ->
+                                entry.getKey().getKey().equals(accountId)
+                                        && blobIds.contains(entry.getValue().getBlobId()));
+    }
+
+    private static Map.Entry<String, String> key(final String accountId, final String hash) {
+        return new AbstractMap.SimpleImmutableEntry<>(accountId, hash);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.cache;
+
+import java.util.Map;
+import javax.annotation.Nonnull;
+import rs.ltt.jmap.mua.cache.exception.CacheReadException;
+import rs.ltt.jmap.mua.cache.exception.CacheWriteException;
+
+/**
+ * Stores email modifications (keywords and mailboxIds) that have been applied to the cache but not
+ * yet to the server. Implementations should persist the journal (for example in the same database
+ * as the {@link Cache}) so that modifications made while offline survive a restart.
+ *
+ * <p>Successive patches to the same email are merged with {@link
+ * rs.ltt.jmap.common.util.Patches#merge(Map, Map)}. This way the journal never contains more than
+ * one patch per email and can be replayed with a single Email/set call.
+ */
+public interface MutationJournal {
+
+    /**
+     * Merges the patches into the journal.
+     *
+     * @param patches A map of email ids to patch objects
+     */
+    void append(Map<String, Map<String, Object>> patches) throws CacheWriteException;
+
+    /** @return A snapshot of all pending patches keyed by email id */
+    @Nonnull
+    Map<String, Map<String, Object>> getPending() throws CacheReadException;
+
+    /**
+     * Removes patches that have been applied by the server. Paths that have been modified again
+     * after the snapshot was taken (meaning they hold a different value now) must be retained.
+     *
+     * @param patches The snapshot (or parts of it) that has been processed by the server
+     */
+    void acknowledge(Map<String, Map<String, Object>> patches) throws CacheWriteException;
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.cache;
+
+import java.util.Collection;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.common.entity.Upload;
+
+/**
+ * Remembers the results of uploads by the SHA-256 hash of their content. Uploading content that has
+ * already been uploaded to the same account returns the cached {@link Upload} without contacting
+ * the server. Servers may delete blobs that are not referenced by any object after (at least) an
+ * hour; implementations should expire entries accordingly.
+ */
+public interface UploadCache {
+
+    /**
+     * @param accountId The account the content has been uploaded to
+     * @param hash The hex encoded SHA-256 hash of the content
+     * @return The cached upload or null
+     */
+    @Nullable
+    Upload get(String accountId, String hash);
+
+    void put(String accountId, String hash, Upload upload);
+
+    /**
+     * Removes blobs the server no longer knows about. The next upload of the same content goes to
+     * the server again.
+     */
+    void invalidate(String accountId, Collection<String> blobIds);
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stores the keys of imported messages in a file with one key per line. Keys are appended (and
+ * forced to disk) after every batch. A partially written last line, for example after a crash, is
+ * ignored.
+ */
+public class FileImportCheckpoint implements ImportCheckpoint, Closeable {
+
+    private final Set<String> imported;
+    private final FileChannel fileChannel;
+
+    private FileImportCheckpoint(final Set<String> imported, final FileChannel fileChannel) {
+        this.imported = imported;
+        this.fileChannel = fileChannel;
+    }
+
+    public static FileImportCheckpoint open(final Path path) throws IOException {
+        final Set<String> imported = new HashSet<>();
+        int length = 0;
+        if (Files.exists(path)) {
+            final byte[] content = Files.readAllBytes(path);
+            for (int i = 0; i < content.length; ++i) {
+                if (content[i] == '\n') {
+                    imported.add(new String(content, length, i - length, StandardCharsets.UTF_8));
+                    length = i + 1;
+                }
+            }
+        }
+        final FileChannel fileChannel =
+                FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // drop a partially written line
+        fileChannel.truncate(length);
+        fileChannel.position(length);
+        return new FileImportCheckpoint(imported, fileChannel);
+    }
+
+    @Override
+    public synchronized boolean isImported(final String key) {
+        return this.imported.contains(key);
+    }
+
+    @Override
+    public synchronized void onImported(final Collection<String> keys) throws IOException {
+        final StringBuilder lines = new StringBuilder();
+        for (final String key : keys) {
+            lines.append(key).append('\n');
+        }
+        final ByteBuffer buffer =
+                ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            this.fileChannel.write(buffer);
+        }
+        this.fileChannel.force(false);
+        this.imported.addAll(keys);
+    }
+
+    public synchronized int size() {
+        return this.imported.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.fileChannel.close();
+    }
+}
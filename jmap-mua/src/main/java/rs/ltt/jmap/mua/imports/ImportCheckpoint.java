@@ -0,0 +1,36 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Remembers which messages have been imported so that an interrupted import can be resumed without
+ * creating duplicates.
+ */
+public interface ImportCheckpoint {
+
+    boolean isImported(String key);
+
+    /**
+     * Called after the server has created the emails. Might be called from multiple threads.
+     *
+     * @param keys The keys of the imported messages
+     */
+    void onImported(Collection<String> keys) throws IOException;
+}
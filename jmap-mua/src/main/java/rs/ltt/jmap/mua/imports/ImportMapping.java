@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/** Decides which mailboxes, and with which keywords, a local message is imported into. */
+public interface ImportMapping {
+
+    /**
+     * @return The ids of the mailboxes the message is imported into. Messages without a mailbox are
+     *     skipped
+     */
+    Map<String, Boolean> getMailboxIds(LocalMessage message);
+
+    default Map<String, Boolean> getKeywords(final LocalMessage message) {
+        return Maps.toMap(message.getKeywords(), keyword -> true);
+    }
+
+    /** Imports all messages into the same mailbox. */
+    static ImportMapping into(final String mailboxId) {
+        final Map<String, Boolean> mailboxIds = ImmutableMap.of(mailboxId, true);
+        return message -> mailboxIds;
+    }
+
+    /**
+     * Imports messages into the mailbox their folder has been mapped to.
+     *
+     * @param folders Maps folder names to mailbox ids
+     * @param fallback The mailbox for messages in folders without mapping. null to skip them
+     */
+    static ImportMapping byFolder(
+            final Map<String, String> folders, @Nullable final String fallback) {
+        final Map<String, String> copy = ImmutableMap.copyOf(folders);
+        return message -> {
+            final String mailboxId = copy.getOrDefault(message.getFolder(), fallback);
+            return mailboxId == null ? ImmutableMap.of() : ImmutableMap.of(mailboxId, true);
+        };
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import rs.ltt.jmap.common.entity.SetError;
+
+/** The outcome of an import. */
+public class ImportResult {
+
+    private final long imported;
+    private final long skipped;
+    private final Map<String, SetError> failed;
+
+    /**
+     * @param imported The number of messages that have been imported
+     * @param skipped The number of messages that have been skipped because they had been imported
+     *     before or because they were not mapped to any mailbox
+     * @param failed The messages (by key) the server refused to import
+     */
+    public ImportResult(
+            final long imported, final long skipped, final Map<String, SetError> failed) {
+        this.imported = imported;
+        this.skipped = skipped;
+        this.failed = ImmutableMap.copyOf(failed);
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public Map<String, SetError> getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("imported", imported)
+                .add("skipped", skipped)
+                .add("failed", failed.size())
+                .toString();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSet;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.client.blob.Uploadable;
+
+/** A message that has been read from a local mail store and is about to be imported. */
+public class LocalMessage {
+
+    private final String key;
+    private final String folder;
+    private final Uploadable content;
+    private final Set<String> keywords;
+    private final Instant receivedAt;
+
+    /**
+     * @param key Identifies the message within its source. Must be stable across runs because it is
+     *     used to checkpoint the import
+     * @param folder The name of the folder the message has been stored in
+     * @param content The raw (RFC 5322) message
+     * @param keywords The keywords (for example {@code $seen}) derived from the local flags
+     * @param receivedAt The time the message has been received. May be null
+     */
+    public LocalMessage(
+            final String key,
+            final String folder,
+            final Uploadable content,
+            final Collection<String> keywords,
+            @Nullable final Instant receivedAt) {
+        this.key = key;
+        this.folder = folder;
+        this.content = content;
+        this.keywords = ImmutableSet.copyOf(keywords);
+        this.receivedAt = receivedAt;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public Uploadable getContent() {
+        return content;
+    }
+
+    public Set<String> getKeywords() {
+        return keywords;
+    }
+
+    @Nullable
+    public Instant getReceivedAt() {
+        return receivedAt;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("key", key)
+                .add("folder", folder)
+                .add("keywords", keywords)
+                .add("receivedAt", receivedAt)
+                .toString();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.common.entity.Keyword;
+
+/**
+ * Reads the messages of a maildir including its Maildir++ sub folders. Messages in the root of the
+ * maildir belong to the folder {@link #INBOX}. Sub folders are named after their directory without
+ * the leading dot (for example {@code Archive.2020}). Keywords are derived from the info part of
+ * the file name. The key of a message is the folder name followed by the unique part of the file
+ * name; it does not change when the flags of a message change.
+ */
+public class MaildirSource implements MessageSource {
+
+    public static final String INBOX = "INBOX";
+
+    private static final String INFO_SEPARATOR = ":2,";
+
+    private final Iterator<Path> folders;
+    private String folder;
+    private Iterator<Path> files;
+
+    private MaildirSource(final List<Path> folders) {
+        this.folders = folders.iterator();
+    }
+
+    public static MaildirSource of(final Path maildir) throws IOException {
+        final ImmutableList.Builder<Path> folders = ImmutableList.builder();
+        if (isFolder(maildir)) {
+            folders.add(maildir);
+        }
+        try (final Stream<Path> children = Files.list(maildir)) {
+            folders.addAll(
+                    children.filter(
+                                    path ->
+                                            path.getFileName().toString().startsWith(".")
+                                                    && isFolder(path))
+                            .sorted()
+                            .collect(Collectors.toList()));
+        }
+        return new MaildirSource(folders.build());
+    }
+
+    private static boolean isFolder(final Path path) {
+        return Files.isDirectory(path.resolve("cur")) || Files.isDirectory(path.resolve("new"));
+    }
+
+    @Override
+    @Nullable
+    public LocalMessage next() throws IOException {
+        while (files == null || !files.hasNext()) {
+            if (!folders.hasNext()) {
+                return null;
+            }
+            final Path path = folders.next();
+            final String name = path.getFileName().toString();
+            this.folder = name.startsWith(".") ? name.substring(1) : INBOX;
+            final List<Path> messages = new ArrayList<>();
+            addMessages(path.resolve("cur"), messages);
+            addMessages(path.resolve("new"), messages);
+            this.files = messages.iterator();
+        }
+        final Path file = files.next();
+        final String fileName = file.getFileName().toString();
+        final int infoIndex = fileName.indexOf(INFO_SEPARATOR);
+        final String uniqueName = infoIndex < 0 ? fileName : fileName.substring(0, infoIndex);
+        final String flags =
+                infoIndex < 0 ? "" : fileName.substring(infoIndex + INFO_SEPARATOR.length());
+        return new LocalMessage(
+                folder + "/" + uniqueName,
+                folder,
+                new MessageFileUpload(file),
+                getKeywords(flags),
+                getReceivedAt(uniqueName, file));
+    }
+
+    private static void addMessages(final Path directory, final List<Path> messages)
+            throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (final Stream<Path> files = Files.list(directory)) {
+            messages.addAll(
+                    files.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+        }
+    }
+
+    private static Set<String> getKeywords(final String flags) {
+        final Set<String> keywords = new HashSet<>();
+        for (final char flag : flags.toCharArray()) {
+            switch (flag) {
+                case 'D':
+                    keywords.add(Keyword.DRAFT);
+                    break;
+                case 'F':
+                    keywords.add(Keyword.FLAGGED);
+                    break;
+                case 'R':
+                    keywords.add(Keyword.ANSWERED);
+                    break;
+                case 'S':
+                    keywords.add(Keyword.SEEN);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return keywords;
+    }
+
+    /** The unique name of a message usually starts with the time of delivery. */
+    private static Instant getReceivedAt(final String uniqueName, final Path file)
+            throws IOException {
+        final int dot = uniqueName.indexOf('.');
+        if (dot > 0) {
+            try {
+                return Instant.ofEpochSecond(Long.parseLong(uniqueName.substring(0, dot)));
+            } catch (final NumberFormatException e) {
+                // fall through to the modification time
+            }
+        }
+        return Files.getLastModifiedTime(file).toInstant();
+    }
+
+    @Override
+    public void close() {}
+}
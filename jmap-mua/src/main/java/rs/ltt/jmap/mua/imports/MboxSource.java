@@ -0,0 +1,268 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.MoreFiles;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.common.entity.Keyword;
+
+/**
+ * Reads the messages of an mbox file. Messages are separated by {@code From } lines. Quoted {@code
+ * >From } lines in the body are unquoted (mboxrd). Keywords are derived from the {@code Status} and
+ * {@code X-Status} headers. The key of a message is the folder name followed by the offset of its
+ * {@code From } line within the file.
+ */
+public class MboxSource implements MessageSource {
+
+    private static final byte[] FROM = "From ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final DateTimeFormatter ASCTIME =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy", Locale.US);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    private final String folder;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition = 0;
+    private int bufferLimit = 0;
+    private long position = 0;
+    private byte[] fromLine;
+    private long fromLineOffset;
+    private boolean started = false;
+
+    public MboxSource(final InputStream inputStream, final String folder) {
+        this.inputStream = inputStream;
+        this.folder = folder;
+    }
+
+    /** The folder is named after the file (without its extension). */
+    public static MboxSource of(final Path path) throws IOException {
+        return new MboxSource(Files.newInputStream(path), MoreFiles.getNameWithoutExtension(path));
+    }
+
+    @Override
+    @Nullable
+    public LocalMessage next() throws IOException {
+        if (!started) {
+            started = true;
+            skipToFirstMessage();
+        }
+        if (fromLine == null) {
+            return null;
+        }
+        final byte[] from = this.fromLine;
+        final long offset = this.fromLineOffset;
+        this.fromLine = null;
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        final Set<String> keywords = new HashSet<>();
+        boolean inHeaders = true;
+        int lastLineLength = 0;
+        long lineOffset = this.position;
+        byte[] line;
+        while ((line = readLine()) != null) {
+            if (isFromLine(line)) {
+                this.fromLine = line;
+                this.fromLineOffset = lineOffset;
+                break;
+            }
+            lineOffset = this.position;
+            if (inHeaders) {
+                if (isBlank(line)) {
+                    inHeaders = false;
+                } else {
+                    addKeywords(line, keywords);
+                }
+            }
+            final int quotes = countQuotes(line);
+            if (quotes > 0 && startsWith(line, quotes, FROM)) {
+                message.write(line, 1, line.length - 1);
+                lastLineLength = line.length - 1;
+            } else {
+                message.write(line, 0, line.length);
+                lastLineLength = line.length;
+            }
+        }
+        final byte[] bytes = message.toByteArray();
+        // the empty line in front of the next From line belongs to the mbox format
+        final int length =
+                lastLineLength > 0
+                                && lastLineLength <= 2
+                                && isBlank(bytes, bytes.length - lastLineLength)
+                        ? bytes.length - lastLineLength
+                        : bytes.length;
+        return new LocalMessage(
+                folder + "/" + offset,
+                folder,
+                new MessageUpload(length == bytes.length ? bytes : Arrays.copyOf(bytes, length)),
+                keywords,
+                getReceivedAt(from));
+    }
+
+    private void skipToFirstMessage() throws IOException {
+        long lineOffset = this.position;
+        byte[] line;
+        while ((line = readLine()) != null) {
+            if (isFromLine(line)) {
+                this.fromLine = line;
+                this.fromLineOffset = lineOffset;
+                return;
+            }
+            lineOffset = this.position;
+        }
+    }
+
+    /** @return The next line including its line terminator or null at the end of the file */
+    @Nullable
+    private byte[] readLine() throws IOException {
+        ByteArrayOutputStream line = null;
+        while (true) {
+            if (bufferPosition >= bufferLimit) {
+                final int read = inputStream.read(buffer);
+                if (read < 0) {
+                    return line == null ? null : line.toByteArray();
+                }
+                bufferPosition = 0;
+                bufferLimit = read;
+            }
+            int end = bufferPosition;
+            while (end < bufferLimit && buffer[end] != '\n') {
+                end++;
+            }
+            final boolean complete = end < bufferLimit;
+            final int length = (complete ? end + 1 : end) - bufferPosition;
+            this.position += length;
+            if (complete && line == null) {
+                final byte[] bytes =
+                        Arrays.copyOfRange(buffer, bufferPosition, bufferPosition + length);
+                bufferPosition += length;
+                return bytes;
+            }
+            if (line == null) {
+                line = new ByteArrayOutputStream();
+            }
+            line.write(buffer, bufferPosition, length);
+            bufferPosition += length;
+            if (complete) {
+                return line.toByteArray();
+            }
+        }
+    }
+
+    private static boolean isFromLine(final byte[] line) {
+        return startsWith(line, 0, FROM);
+    }
+
+    private static boolean startsWith(final byte[] line, final int offset, final byte[] prefix) {
+        if (line.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (line[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countQuotes(final byte[] line) {
+        int quotes = 0;
+        while (quotes < line.length && line[quotes] == '>') {
+            quotes++;
+        }
+        return quotes;
+    }
+
+    private static boolean isBlank(final byte[] line) {
+        return isBlank(line, 0);
+    }
+
+    private static boolean isBlank(final byte[] bytes, final int offset) {
+        for (int i = offset; i < bytes.length; ++i) {
+            if (bytes[i] != '\r' && bytes[i] != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addKeywords(final byte[] line, final Set<String> keywords) {
+        final String header = new String(line, StandardCharsets.US_ASCII).trim();
+        final List<String> parts = Splitter.on(':').limit(2).trimResults().splitToList(header);
+        if (parts.size() != 2) {
+            return;
+        }
+        final String name = parts.get(0);
+        final String value = parts.get(1);
+        if ("Status".equalsIgnoreCase(name)) {
+            if (value.indexOf('R') >= 0) {
+                keywords.add(Keyword.SEEN);
+            }
+        } else if ("X-Status".equalsIgnoreCase(name)) {
+            if (value.indexOf('A') >= 0) {
+                keywords.add(Keyword.ANSWERED);
+            }
+            if (value.indexOf('F') >= 0) {
+                keywords.add(Keyword.FLAGGED);
+            }
+            if (value.indexOf('T') >= 0) {
+                keywords.add(Keyword.DRAFT);
+            }
+        }
+    }
+
+    /** Parses the asctime date at the end of a {@code From sender date} line. */
+    @Nullable
+    private static Instant getReceivedAt(final byte[] fromLine) {
+        final List<String> parts =
+                Splitter.on(' ')
+                        .omitEmptyStrings()
+                        .trimResults()
+                        .splitToList(new String(fromLine, StandardCharsets.US_ASCII));
+        if (parts.size() < 7) {
+            return null;
+        }
+        final String date = String.join(" ", parts.subList(2, 7));
+        try {
+            return LocalDateTime.parse(date, ASCTIME).toInstant(ZoneOffset.UTC);
+        } catch (final DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inputStream.close();
+    }
+}
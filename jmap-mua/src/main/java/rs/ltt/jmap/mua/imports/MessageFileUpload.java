@@ -0,0 +1,66 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import com.google.common.net.MediaType;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import rs.ltt.jmap.client.blob.FileChannelUploadable;
+
+/** A message that is stored in a file of its own. */
+class MessageFileUpload implements FileChannelUploadable, Closeable {
+
+    private final FileChannel fileChannel;
+    private final InputStream inputStream;
+    private final long contentLength;
+
+    MessageFileUpload(final Path path) throws IOException {
+        this.fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        this.inputStream = Channels.newInputStream(this.fileChannel);
+        this.contentLength = this.fileChannel.size();
+    }
+
+    @Override
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        return MessageUpload.MESSAGE_RFC822;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.fileChannel.close();
+    }
+}
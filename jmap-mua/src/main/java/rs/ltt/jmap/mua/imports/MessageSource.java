@@ -0,0 +1,33 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * A local mail store (for example an mbox file or a maildir) messages are imported from. Messages
+ * are read one after another by a single thread. The source must not be closed before the import
+ * has completed.
+ */
+public interface MessageSource extends Closeable {
+
+    /** @return The next message or null if there are no more messages */
+    @Nullable
+    LocalMessage next() throws IOException;
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.imports;
+
+import com.google.common.net.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import rs.ltt.jmap.client.blob.Uploadable;
+
+/** A message that has been read into memory. */
+class MessageUpload implements Uploadable {
+
+    static final MediaType MESSAGE_RFC822 = MediaType.create("message", "rfc822");
+
+    private final byte[] message;
+
+    MessageUpload(final byte[] message) {
+        this.message = message;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(message);
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        return MESSAGE_RFC822;
+    }
+
+    @Override
+    public long getContentLength() {
+        return message.length;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("rs.ltt.jmap.CacheWrite")
+@Label("JMAP Cache Write")
+@Category({"JMAP", "MUA"})
+@Description("A write to the Cache of the MUA")
+class CacheWriteEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Entity Type")
+    String entityType;
+
+    @Label("Items")
+    int items;
+
+    @Label("Failure")
+    String failure;
+
+    static CacheWriteEvent begin(final String operation, final String entityType, final int items) {
+        final CacheWriteEvent event = new CacheWriteEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            event.operation = operation;
+            event.entityType = entityType;
+            event.items = items;
+        }
+        return event;
+    }
+}
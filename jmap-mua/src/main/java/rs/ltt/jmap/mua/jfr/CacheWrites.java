@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.jfr;
+
+import javax.annotation.Nullable;
+import rs.ltt.jmap.client.jfr.FlightRecorderEvents;
+import rs.ltt.jmap.mua.cache.Update;
+
+/**
+ * Records writes to the Cache as JDK Flight Recorder events. If the runtime does not provide JFR
+ * the write is simply executed.
+ */
+public final class CacheWrites {
+
+    private CacheWrites() {}
+
+    public static <E extends Exception> void record(
+            final String operation, final String entityType, final int items, final Write<E> write)
+            throws E {
+        if (FlightRecorderEvents.AVAILABLE) {
+            Recorder.record(operation, entityType, items, write);
+        } else {
+            write.run();
+        }
+    }
+
+    public static int count(final Update<?> update) {
+        return length(update.getCreated())
+                + length(update.getUpdated())
+                + length(update.getDestroyed());
+    }
+
+    public static int length(@Nullable final Object[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    public interface Write<E extends Exception> {
+        void run() throws E;
+    }
+
+    // only loaded if the runtime provides JFR
+    private static final class Recorder {
+
+        private static <E extends Exception> void record(
+                final String operation,
+                final String entityType,
+                final int items,
+                final Write<E> write)
+                throws E {
+            final CacheWriteEvent event = CacheWriteEvent.begin(operation, entityType, items);
+            try {
+                write.run();
+            } catch (final Exception e) {
+                event.failure = e.toString();
+                event.commit();
+                throw e;
+            }
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.jfr;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.client.jfr.FlightRecorderEvents;
+import rs.ltt.jmap.mua.Status;
+
+/**
+ * Records a query or refresh as a JDK Flight Recorder event. Services report every request they
+ * send as part of the cycle with {@link #onRoundTrip()}. If the runtime does not provide JFR or the
+ * event is not enabled {@link #begin(String, String)} returns {@link #NOOP}.
+ */
+public abstract class SyncCycle {
+
+    public static final SyncCycle NOOP =
+            new SyncCycle() {
+                @Override
+                public void setKind(final String kind) {}
+
+                @Override
+                public void onRoundTrip() {}
+
+                @Override
+                public ListenableFuture<Status> end(final ListenableFuture<Status> status) {
+                    return status;
+                }
+            };
+
+    public static SyncCycle begin(final String service, @Nullable final String kind) {
+        if (FlightRecorderEvents.AVAILABLE) {
+            return Recorded.start(service, kind);
+        }
+        return NOOP;
+    }
+
+    /** @param kind Describes the cycle more closely once that is known; for example 'initial' */
+    public abstract void setKind(String kind);
+
+    public abstract void onRoundTrip();
+
+    /**
+     * @param status The result of the cycle
+     * @return the same future. The event is committed once the future completes
+     */
+    public abstract ListenableFuture<Status> end(ListenableFuture<Status> status);
+
+    private static class Recorded extends SyncCycle {
+
+        private final SyncCycleEvent event;
+        private final AtomicInteger roundTrips = new AtomicInteger();
+
+        private Recorded(final SyncCycleEvent event) {
+            this.event = event;
+        }
+
+        private static SyncCycle start(final String service, @Nullable final String kind) {
+            final SyncCycleEvent event = new SyncCycleEvent();
+            if (!event.isEnabled()) {
+                return NOOP;
+            }
+            event.begin();
+            event.service = service;
+            event.kind = kind;
+            return new Recorded(event);
+        }
+
+        @Override
+        public void setKind(final String kind) {
+            this.event.kind = kind;
+        }
+
+        @Override
+        public void onRoundTrip() {
+            this.roundTrips.incrementAndGet();
+        }
+
+        @Override
+        public ListenableFuture<Status> end(final ListenableFuture<Status> status) {
+            Futures.addCallback(
+                    status,
+                    new FutureCallback<Status>() {
+                        @Override
+                        public void onSuccess(@Nullable final Status status) {
+                            commit(String.valueOf(status), null);
+                        }
+
+                        @Override
+                        public void onFailure(@Nonnull final Throwable throwable) {
+                            commit(null, throwable);
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+            return status;
+        }
+
+        private void commit(@Nullable final String status, @Nullable final Throwable throwable) {
+            this.event.end();
+            this.event.roundTrips = this.roundTrips.get();
+            this.event.status = status;
+            this.event.failure = throwable == null ? null : throwable.toString();
+            this.event.commit();
+        }
+    }
+}
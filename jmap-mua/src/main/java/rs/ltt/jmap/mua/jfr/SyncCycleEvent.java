@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("rs.ltt.jmap.SyncCycle")
+@Label("JMAP Sync Cycle")
+@Category({"JMAP", "MUA"})
+@Description("A query or refresh from the first request until the cache has been updated")
+@StackTrace(false)
+class SyncCycleEvent extends jdk.jfr.Event {
+
+    @Label("Service")
+    String service;
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Round Trips")
+    int roundTrips;
+
+    @Label("Status")
+    String status;
+
+    @Label("Failure")
+    String failure;
+}
@@ -16,8 +16,14 @@
 
 package rs.ltt.jmap.mua.service;
 
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.*;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
@@ -25,21 +31,34 @@ import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapClient;
 import rs.ltt.jmap.client.MethodResponses;
 import rs.ltt.jmap.client.api.MethodErrorResponseException;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.entity.AbstractIdentifiableEntity;
+import rs.ltt.jmap.common.entity.Email;
 import rs.ltt.jmap.common.entity.TypedState;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
 import rs.ltt.jmap.common.method.error.CannotCalculateChangesMethodErrorResponse;
 import rs.ltt.jmap.common.method.response.standard.ChangesMethodResponse;
 import rs.ltt.jmap.common.util.Mapper;
 import rs.ltt.jmap.mua.Status;
 import rs.ltt.jmap.mua.cache.Cache;
+import rs.ltt.jmap.mua.cache.MutationJournal;
 import rs.ltt.jmap.mua.cache.ObjectsState;
+import rs.ltt.jmap.mua.cache.UploadCache;
+import rs.ltt.jmap.mua.cache.exception.CacheReadException;
+import rs.ltt.jmap.mua.cache.exception.CacheWriteException;
+import rs.ltt.jmap.mua.jfr.CacheWrites;
 import rs.ltt.jmap.mua.util.UpdateUtil;
 
 public abstract class AbstractMuaService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractMuaService.class);
+
+    // the minimum RFC 8620 suggests for maxConcurrentUpload
+    private static final int DEFAULT_MAX_CONCURRENT_UPLOAD = 4;
     protected final JmapClient jmapClient;
     protected final Cache cache;
     protected final String accountId;
+    protected final MuaMetrics metrics;
     protected final ListeningExecutorService ioExecutorService;
     private final MuaSession muaSession;
 
@@ -48,6 +67,7 @@ public abstract class AbstractMuaService {
         this.jmapClient = muaSession.getJmapClient();
         this.cache = muaSession.getCache();
         this.accountId = muaSession.getAccountId();
+        this.metrics = muaSession.getMetrics();
         this.ioExecutorService = muaSession.getIoExecutorService();
     }
 
@@ -55,8 +75,90 @@ public abstract class AbstractMuaService {
         return muaSession.getService(clazz);
     }
 
-    protected Long getQueryPageSize() {
-        return muaSession.getQueryPageSize();
+    /**
+     * @param parallelism The number of uploads the caller would like to run at the same time
+     * @return The requested parallelism capped by the number of concurrent uploads the server
+     *     allows. 4 is assumed if the server does not announce a limit
+     */
+    protected static int getUploadParallelism(final Session session, final int parallelism) {
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        final Long maxConcurrentUpload =
+                coreCapability == null ? null : coreCapability.getMaxConcurrentUpload();
+        final long limit =
+                maxConcurrentUpload == null || maxConcurrentUpload <= 0
+                        ? DEFAULT_MAX_CONCURRENT_UPLOAD
+                        : maxConcurrentUpload;
+        return (int) Math.min(parallelism, limit);
+    }
+
+    protected Long getQueryPageSize(final Session session) {
+        final AdaptiveQueryPageSize adaptiveQueryPageSize = getAdaptiveQueryPageSize();
+        if (adaptiveQueryPageSize == null) {
+            return muaSession.getQueryPageSize();
+        }
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        return adaptiveQueryPageSize.getPageSize(
+                coreCapability == null ? null : coreCapability.getMaxObjectsInGet());
+    }
+
+    protected AdaptiveQueryPageSize getAdaptiveQueryPageSize() {
+        return muaSession.getAdaptiveQueryPageSize();
+    }
+
+    protected PrefetchPolicy getPrefetchPolicy() {
+        return muaSession.getPrefetchPolicy();
+    }
+
+    protected MutationJournal getMutationJournal() {
+        return muaSession.getMutationJournal();
+    }
+
+    protected Duration getMutationFlushDelay() {
+        return muaSession.getMutationFlushDelay();
+    }
+
+    protected Duration getSyncDebounce() {
+        return muaSession.getSyncDebounce();
+    }
+
+    protected UploadCache getUploadCache() {
+        return muaSession.getUploadCache();
+    }
+
+    /**
+     * Reapplies modifications that have not yet been acknowledged by the server on top of emails
+     * that have just been written to the cache. Otherwise fresh server data would temporarily undo
+     * optimistic changes.
+     */
+    protected void reapplyPendingMutations(final Email[] emails) {
+        final MutationJournal mutationJournal = getMutationJournal();
+        if (mutationJournal == null
+                || !cache.supportsPatches()
+                || emails == null
+                || emails.length == 0) {
+            return;
+        }
+        final Set<String> emailIds =
+                Arrays.stream(emails).map(Email::getId).collect(Collectors.toSet());
+        try {
+            final Map<String, Map<String, Object>> pending =
+                    Maps.filterKeys(mutationJournal.getPending(), emailIds::contains);
+            if (pending.size() > 0) {
+                recordCacheWrite(
+                        "patchEmails", "Email", pending.size(), () -> cache.patchEmails(pending));
+            }
+        } catch (final CacheReadException | CacheWriteException e) {
+            LOGGER.warn("Unable to reapply pending mutations", e);
+        }
+    }
+
+    protected static <E extends Exception> void recordCacheWrite(
+            final String operation,
+            final String entityType,
+            final int items,
+            final CacheWrites.Write<E> write)
+            throws E {
+        CacheWrites.record(operation, entityType, items, write);
     }
 
     protected ListenableFuture<ObjectsState> getObjectsState() {
@@ -64,7 +166,9 @@ public abstract class AbstractMuaService {
     }
 
     protected void registerCacheInvalidationCallback(
-            UpdateUtil.MethodResponsesFuture methodResponsesFuture, Runnable runnable) {
+            final Class<? extends AbstractIdentifiableEntity> type,
+            UpdateUtil.MethodResponsesFuture methodResponsesFuture,
+            Runnable runnable) {
         methodResponsesFuture.addChangesCallback(
                 new FutureCallback<MethodResponses>() {
                     @Override
@@ -89,6 +193,7 @@ public abstract class AbstractMuaService {
                     public void onFailure(@Nonnull Throwable throwable) {
                         if (MethodErrorResponseException.matches(
                                 throwable, CannotCalculateChangesMethodErrorResponse.class)) {
+                            metrics.onCannotCalculateChanges(type.getSimpleName());
                             runnable.run();
                         }
                     }
@@ -96,6 +201,17 @@ public abstract class AbstractMuaService {
                 ioExecutorService);
     }
 
+    /** @return the status. Successful completion counts as the cache being up to date. */
+    protected ListenableFuture<Status> recordRefresh(final ListenableFuture<Status> status) {
+        return Futures.transform(
+                status,
+                s -> {
+                    metrics.onRefreshed();
+                    return s;
+                },
+                MoreExecutors.directExecutor());
+    }
+
     protected static ListenableFuture<Status> transform(List<ListenableFuture<Status>> list) {
         return Futures.transform(
                 Futures.allAsList(list),
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.service;
+
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates the page size (limit) used in Email/query calls based on the round trip time of
+ * previous pages. Pages grow on fast links and shrink on slow links with the goal of having each
+ * page arrive within the configured target latency.
+ *
+ * <p>The controller keeps an exponentially weighted moving average of the time it took per received
+ * item. The next page size is the number of items that would fit into the target latency but will
+ * at most double or halve the current page size to avoid oscillation. The page size is always kept
+ * within the configured minimum and maximum as well as the maxObjectsInGet advertised by the
+ * server.
+ */
+public class AdaptiveQueryPageSize {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveQueryPageSize.class);
+
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private final long minimum;
+    private final long maximum;
+    private final long targetLatencyNanos;
+
+    private long pageSize;
+    private double nanosPerItem = Double.NaN;
+
+    private AdaptiveQueryPageSize(final Builder builder) {
+        this.minimum = builder.minimum;
+        this.maximum = builder.maximum;
+        this.targetLatencyNanos = builder.targetLatency.toNanos();
+        this.pageSize = builder.initial;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param maxObjectsInGet The maxObjectsInGet as advertised by the server. Can be null if the
+     *     server did not announce a limit
+     * @return The page size to be used for the next Email/query call
+     */
+    public synchronized long getPageSize(@Nullable final Long maxObjectsInGet) {
+        if (maxObjectsInGet != null && maxObjectsInGet > 0) {
+            return Math.min(pageSize, maxObjectsInGet);
+        }
+        return pageSize;
+    }
+
+    /**
+     * Records the round trip of an Email/query call.
+     *
+     * @param received The number of ids the server responded with
+     * @param duration The time between executing the request and receiving the response
+     */
+    public synchronized void onPageReceived(final long received, final Duration duration) {
+        if (received <= 0 || duration.isNegative()) {
+            return;
+        }
+        final double sample = (double) duration.toNanos() / received;
+        if (Double.isNaN(nanosPerItem)) {
+            this.nanosPerItem = sample;
+        } else {
+            this.nanosPerItem = SMOOTHING_FACTOR * sample + (1 - SMOOTHING_FACTOR) * nanosPerItem;
+        }
+        final long desired = Math.round(targetLatencyNanos / Math.max(nanosPerItem, 1));
+        final long bounded = Math.max(pageSize / 2, Math.min(pageSize * 2, desired));
+        final long next = Math.max(minimum, Math.min(maximum, bounded));
+        if (next != pageSize) {
+            LOGGER.debug(
+                    "Adjusting query page size from {} to {} ({} received in {})",
+                    pageSize,
+                    next,
+                    received,
+                    duration);
+        }
+        this.pageSize = next;
+    }
+
+    public static class Builder {
+        private long initial = 20;
+        private long minimum = 10;
+        private long maximum = 500;
+        private Duration targetLatency = Duration.ofMillis(500);
+
+        private Builder() {}
+
+        public Builder initial(final long initial) {
+            this.initial = initial;
+            return this;
+        }
+
+        public Builder minimum(final long minimum) {
+            this.minimum = minimum;
+            return this;
+        }
+
+        public Builder maximum(final long maximum) {
+            this.maximum = maximum;
+            return this;
+        }
+
+        public Builder targetLatency(final Duration targetLatency) {
+            this.targetLatency = targetLatency;
+            return this;
+        }
+
+        public AdaptiveQueryPageSize build() {
+            Preconditions.checkArgument(minimum > 0, "minimum must be greater than 0");
+            Preconditions.checkArgument(
+                    maximum >= minimum, "maximum must not be smaller than minimum");
+            Preconditions.checkArgument(
+                    initial >= minimum && initial <= maximum,
+                    "initial must be between minimum and maximum");
+            Preconditions.checkNotNull(targetLatency, "targetLatency must not be null");
+            Preconditions.checkArgument(
+                    !targetLatency.isNegative() && !targetLatency.isZero(),
+                    "targetLatency must be positive");
+            return new AdaptiveQueryPageSize(this);
+        }
+    }
+}
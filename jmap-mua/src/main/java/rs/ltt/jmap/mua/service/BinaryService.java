@@ -17,20 +17,50 @@
 package rs.ltt.jmap.mua.service;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.blob.Download;
+import rs.ltt.jmap.client.blob.FileChannelUploadable;
+import rs.ltt.jmap.client.blob.MaxUploadSizeExceededException;
 import rs.ltt.jmap.client.blob.Progress;
 import rs.ltt.jmap.client.blob.Uploadable;
+import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.common.entity.Attachment;
 import rs.ltt.jmap.common.entity.Downloadable;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.EmailBodyPart;
 import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+import rs.ltt.jmap.mua.cache.UploadCache;
 import rs.ltt.jmap.mua.util.AttachmentUtil;
 
 public class BinaryService extends AbstractMuaService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryService.class);
+
+    private static final int HASH_BLOCK_SIZE = 64 * 1024;
+
     public BinaryService(MuaSession muaSession) {
         super(muaSession);
     }
@@ -45,8 +75,177 @@ public class BinaryService extends AbstractMuaService {
         return jmapClient.download(accountId, downloadable, rangeStart);
     }
 
+    public ListenableFuture<Long> download(
+            final Downloadable downloadable, final Path destination, final Progress progress) {
+        return jmapClient.download(accountId, downloadable, destination, progress);
+    }
+
     public ListenableFuture<Upload> upload(final Uploadable uploadable, final Progress progress) {
-        return jmapClient.upload(accountId, uploadable, progress);
+        final UploadCache uploadCache = getUploadCache();
+        if (uploadCache == null) {
+            return jmapClient.upload(accountId, uploadable, progress);
+        }
+        if (uploadable instanceof FileChannelUploadable) {
+            // files are hashed before the upload which allows skipping the upload entirely
+            return Futures.transformAsync(
+                    ioExecutorService.submit(() -> hash((FileChannelUploadable) uploadable)),
+                    hash -> upload(uploadCache, hash, uploadable, progress),
+                    MoreExecutors.directExecutor());
+        }
+        // streams can only be hashed while uploading; the result serves later uploads
+        final HashingUploadable hashingUploadable = new HashingUploadable(uploadable);
+        return Futures.transform(
+                jmapClient.upload(accountId, hashingUploadable, progress),
+                upload -> {
+                    uploadCache.put(accountId, hashingUploadable.hash(), upload);
+                    return upload;
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Upload> upload(
+            final UploadCache uploadCache,
+            final String hash,
+            final Uploadable uploadable,
+            final Progress progress) {
+        final Upload cached = uploadCache.get(accountId, hash);
+        if (cached != null) {
+            LOGGER.debug("Skipping upload. Content has already been uploaded as {}", cached);
+            metrics.onUploadCacheHit();
+            if (progress != null) {
+                progress.onProgress(100);
+            }
+            return Futures.immediateFuture(cached);
+        }
+        return Futures.transform(
+                jmapClient.upload(accountId, uploadable, progress),
+                upload -> {
+                    uploadCache.put(accountId, hash, upload);
+                    return upload;
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Uploads the attachments of an email, as many at a time as the server allows.
+     *
+     * @see #uploadAttachments(Collection, int, Progress)
+     */
+    public ListenableFuture<List<EmailBodyPart>> uploadAttachments(
+            final Collection<? extends Uploadable> uploadables, @Nullable final Progress progress) {
+        return uploadAttachments(uploadables, Integer.MAX_VALUE, progress);
+    }
+
+    /**
+     * Uploads the attachments of an email. Size limits of the server (per upload and combined per
+     * email) are checked before anything is sent. The first failed upload cancels all others.
+     *
+     * @param uploadables The attachments
+     * @param parallelism The number of uploads that run at the same time. Capped by the
+     *     maxConcurrentUpload limit of the server
+     * @param progress Receives the combined progress of all uploads. May be null
+     * @return Body parts (in the order of the uploadables) that can be used as attachments of a
+     *     draft
+     */
+    public ListenableFuture<List<EmailBodyPart>> uploadAttachments(
+            final Collection<? extends Uploadable> uploadables,
+            final int parallelism,
+            @Nullable final Progress progress) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        final List<Uploadable> list = ImmutableList.copyOf(uploadables);
+        return Futures.transformAsync(
+                jmapClient.getSession(),
+                session -> {
+                    verifyUploads(Preconditions.checkNotNull(session), list);
+                    return new AttachmentUploads(
+                                    list, getUploadParallelism(session, parallelism), progress)
+                            .start();
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private void verifyUploads(final Session session, final List<Uploadable> uploadables) {
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        final Long maxUploadSize =
+                coreCapability == null ? null : coreCapability.getMaxSizeUpload();
+        final ImmutableList.Builder<EmailBodyPart> attachments = ImmutableList.builder();
+        for (final Uploadable uploadable : uploadables) {
+            if (maxUploadSize != null && uploadable.getContentLength() > maxUploadSize) {
+                throw new MaxUploadSizeExceededException(
+                        uploadable.getContentLength(), maxUploadSize);
+            }
+            attachments.add(EmailBodyPart.builder().size(uploadable.getContentLength()).build());
+        }
+        AttachmentUtil.verifyAttachmentsDoNotExceedLimit(session, accountId, attachments.build());
+    }
+
+    private static EmailBodyPart toEmailBodyPart(final Uploadable uploadable, final Upload upload) {
+        final MediaType mediaType = uploadable.getMediaType();
+        // the upload cache is keyed by content only. A cached upload of the same bytes might have
+        // been made with a different media type
+        return EmailBodyPart.builder()
+                .blobId(upload.getBlobId())
+                .type(
+                        mediaType != null
+                                ? mediaType.withoutParameters().toString()
+                                : upload.getType())
+                .charset(
+                        mediaType != null && mediaType.charset().isPresent()
+                                ? mediaType.charset().get().name()
+                                : null)
+                .size(upload.getSize())
+                .name(uploadable.getName())
+                .disposition("attachment")
+                .build();
+    }
+
+    private static String hash(final FileChannelUploadable uploadable) throws IOException {
+        final FileChannel fileChannel = uploadable.getFileChannel();
+        final Hasher hasher = Hashing.sha256().newHasher();
+        final ByteBuffer buffer = ByteBuffer.allocate(HASH_BLOCK_SIZE);
+        long position = 0;
+        int read;
+        while ((read = fileChannel.read(buffer, position)) != -1) {
+            buffer.flip();
+            hasher.putBytes(buffer);
+            buffer.clear();
+            position += read;
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Removes the blobs referenced by the email from the upload cache. Called when the server
+     * rejected the email because it no longer has (some of) those blobs.
+     */
+    void invalidateUploads(final Email email) {
+        final UploadCache uploadCache = getUploadCache();
+        if (uploadCache == null) {
+            return;
+        }
+        final ImmutableSet.Builder<String> blobIds = ImmutableSet.builder();
+        collectBlobIds(email.getAttachments(), blobIds);
+        collectBlobIds(email.getTextBody(), blobIds);
+        collectBlobIds(email.getHtmlBody(), blobIds);
+        if (email.getBodyStructure() != null) {
+            collectBlobIds(ImmutableSet.of(email.getBodyStructure()), blobIds);
+        }
+        final ImmutableSet<String> invalid = blobIds.build();
+        LOGGER.info("Invalidating cached uploads {}", invalid);
+        uploadCache.invalidate(accountId, invalid);
+    }
+
+    private static void collectBlobIds(
+            final Collection<EmailBodyPart> parts, final ImmutableSet.Builder<String> blobIds) {
+        if (parts == null) {
+            return;
+        }
+        for (final EmailBodyPart part : parts) {
+            if (part.getBlobId() != null) {
+                blobIds.add(part.getBlobId());
+            }
+            collectBlobIds(part.getSubParts(), blobIds);
+        }
     }
 
     public ListenableFuture<Void> verifyAttachmentsDoNotExceedLimit(
@@ -60,4 +259,175 @@ public class BinaryService extends AbstractMuaService {
                 },
                 MoreExecutors.directExecutor());
     }
+
+    /** Runs a limited number of uploads at a time and combines their progress. */
+    private class AttachmentUploads {
+
+        private final List<Uploadable> uploadables;
+        private final int parallelism;
+        private final Progress progress;
+        private final SettableFuture<List<EmailBodyPart>> future = SettableFuture.create();
+        private final List<ListenableFuture<Upload>> started = new ArrayList<>();
+        private final EmailBodyPart[] parts;
+        private final long[] weights;
+        private final long[] done;
+        private final long total;
+        private int next = 0;
+        private int completed = 0;
+        private int reported = -1;
+
+        private AttachmentUploads(
+                final List<Uploadable> uploadables,
+                final int parallelism,
+                final Progress progress) {
+            this.uploadables = uploadables;
+            this.parallelism = parallelism;
+            this.progress = progress;
+            this.parts = new EmailBodyPart[uploadables.size()];
+            this.done = new long[uploadables.size()];
+            this.weights = new long[uploadables.size()];
+            long total = 0;
+            for (int i = 0; i < weights.length; ++i) {
+                // uploads of unknown size count as one byte
+                this.weights[i] = Math.max(1, uploadables.get(i).getContentLength());
+                total += this.weights[i];
+            }
+            this.total = total;
+        }
+
+        private ListenableFuture<List<EmailBodyPart>> start() {
+            if (uploadables.isEmpty()) {
+                return Futures.immediateFuture(ImmutableList.of());
+            }
+            this.future.addListener(
+                    () -> {
+                        if (future.isCancelled()) {
+                            cancelStarted();
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+            for (int i = 0; i < parallelism; ++i) {
+                startNext();
+            }
+            return this.future;
+        }
+
+        private void startNext() {
+            final int index;
+            synchronized (this) {
+                if (this.next >= uploadables.size() || future.isDone()) {
+                    return;
+                }
+                index = this.next++;
+            }
+            final Uploadable uploadable = uploadables.get(index);
+            final ListenableFuture<Upload> upload = upload(uploadable, p -> onProgress(index, p));
+            synchronized (this) {
+                this.started.add(upload);
+            }
+            Futures.addCallback(
+                    upload,
+                    new FutureCallback<Upload>() {
+                        @Override
+                        public void onSuccess(final Upload upload) {
+                            onUploaded(index, uploadable, upload);
+                        }
+
+                        @Override
+                        public void onFailure(@Nonnull final Throwable throwable) {
+                            if (future.setException(throwable)) {
+                                LOGGER.info("Cancelling remaining uploads", throwable);
+                                cancelStarted();
+                            }
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+        }
+
+        private void onProgress(final int index, final int percent) {
+            synchronized (this) {
+                this.done[index] = this.weights[index] * percent / 100;
+            }
+            reportProgress();
+        }
+
+        private void onUploaded(final int index, final Uploadable uploadable, final Upload upload) {
+            final boolean last;
+            synchronized (this) {
+                this.parts[index] = toEmailBodyPart(uploadable, upload);
+                this.done[index] = this.weights[index];
+                last = ++this.completed == uploadables.size();
+            }
+            reportProgress();
+            if (last) {
+                this.future.set(ImmutableList.copyOf(this.parts));
+            } else {
+                startNext();
+            }
+        }
+
+        private synchronized void reportProgress() {
+            if (progress == null) {
+                return;
+            }
+            long done = 0;
+            for (final long d : this.done) {
+                done += d;
+            }
+            final int percent = Progress.progress(done, total);
+            // reporting while holding the lock keeps the callbacks in order
+            if (percent > this.reported) {
+                this.reported = percent;
+                progress.onProgress(percent);
+            }
+        }
+
+        private void cancelStarted() {
+            final List<ListenableFuture<Upload>> started;
+            synchronized (this) {
+                started = ImmutableList.copyOf(this.started);
+            }
+            for (final ListenableFuture<Upload> upload : started) {
+                upload.cancel(true);
+            }
+        }
+    }
+
+    private static class HashingUploadable implements Uploadable {
+
+        private final Uploadable uploadable;
+        private HashingInputStream inputStream;
+
+        private HashingUploadable(final Uploadable uploadable) {
+            this.uploadable = uploadable;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() {
+            if (this.inputStream == null) {
+                this.inputStream =
+                        new HashingInputStream(Hashing.sha256(), uploadable.getInputStream());
+            }
+            return this.inputStream;
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return uploadable.getMediaType();
+        }
+
+        @Override
+        public long getContentLength() {
+            return uploadable.getContentLength();
+        }
+
+        @Override
+        public String getName() {
+            return uploadable.getName();
+        }
+
+        private synchronized String hash() {
+            return this.inputStream.hash().toString();
+        }
+    }
 }
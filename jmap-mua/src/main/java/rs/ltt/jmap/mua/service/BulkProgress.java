@@ -0,0 +1,30 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.service;
+
+/** Reports the progress of a bulk operation that has been split into multiple chunks. */
+public interface BulkProgress {
+
+    /**
+     * Called after each chunk has been processed successfully. Might be called from multiple
+     * threads but never concurrently.
+     *
+     * @param processed The number of items that have been processed so far
+     * @param total The total number of items in this bulk operation
+     */
+    void onProgress(int processed, int total);
+}
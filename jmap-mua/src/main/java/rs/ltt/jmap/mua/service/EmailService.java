@@ -19,12 +19,21 @@ package rs.ltt.jmap.mua.service;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
@@ -32,21 +41,31 @@ import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapClient;
 import rs.ltt.jmap.client.JmapRequest;
 import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.api.MethodErrorResponseException;
+import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.entity.*;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
 import rs.ltt.jmap.common.entity.filter.EmailFilterCondition;
+import rs.ltt.jmap.common.entity.filter.Filter;
+import rs.ltt.jmap.common.entity.filter.FilterOperator;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
 import rs.ltt.jmap.common.method.call.email.QueryEmailMethodCall;
 import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
 import rs.ltt.jmap.common.method.call.submission.SetEmailSubmissionMethodCall;
+import rs.ltt.jmap.common.method.error.StateMismatchMethodErrorResponse;
 import rs.ltt.jmap.common.method.response.email.ChangesEmailMethodResponse;
 import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse;
 import rs.ltt.jmap.common.method.response.email.SetEmailMethodResponse;
 import rs.ltt.jmap.common.method.response.mailbox.SetMailboxMethodResponse;
 import rs.ltt.jmap.common.method.response.submission.SetEmailSubmissionMethodResponse;
 import rs.ltt.jmap.common.util.Patches;
 import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.cache.MutationJournal;
 import rs.ltt.jmap.mua.cache.ObjectsState;
 import rs.ltt.jmap.mua.cache.Update;
+import rs.ltt.jmap.mua.jfr.CacheWrites;
 import rs.ltt.jmap.mua.service.exception.SetEmailException;
 import rs.ltt.jmap.mua.service.exception.SetEmailSubmissionException;
 import rs.ltt.jmap.mua.service.exception.SetMailboxException;
@@ -60,6 +79,15 @@ public class EmailService extends AbstractMuaService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EmailService.class);
 
+    private static final int DEFAULT_BULK_CHUNK_SIZE = 500;
+    private static final int BULK_PARALLELISM = 4;
+    private static final int BULK_MAX_ATTEMPTS = 3;
+    private static final int MUTATION_FLUSH_MAX_ATTEMPTS = 3;
+
+    private final Object mutationFlushLock = new Object();
+    private ScheduledFuture<?> scheduledMutationFlush;
+    private ListenableFuture<Boolean> currentMutationFlush;
+
     public EmailService(MuaSession muaSession) {
         super(muaSession);
     }
@@ -144,6 +172,10 @@ public class EmailService extends AbstractMuaService {
                     }
                     final SetEmailMethodResponse setEmailMethodResponse =
                             methodResponses.getMain(SetEmailMethodResponse.class);
+                    if (isBlobNotFound(setEmailMethodResponse)) {
+                        // the next upload of the same content must not use the cached blob
+                        getService(BinaryService.class).invalidateUploads(email);
+                    }
                     SetEmailException.throwIfFailed(setEmailMethodResponse);
                     final Map<String, Email> created = setEmailMethodResponse.getCreated();
                     final Email email1 =
@@ -158,6 +190,13 @@ public class EmailService extends AbstractMuaService {
                 MoreExecutors.directExecutor());
     }
 
+    private static boolean isBlobNotFound(final SetEmailMethodResponse response) {
+        final Map<String, SetError> notCreated = response.getNotCreated();
+        return notCreated != null
+                && notCreated.values().stream()
+                        .anyMatch(e -> e.getType() == SetErrorType.BLOB_NOT_FOUND);
+    }
+
     private <O> ListenableFuture<O> ensureNoPreexistingMailbox(
             final IdentifiableMailboxWithRole mailbox, final Role role, AsyncCallable<O> callable)
             throws Exception {
@@ -389,6 +428,30 @@ public class EmailService extends AbstractMuaService {
                 MoreExecutors.directExecutor());
     }
 
+    /**
+     * Bulk variant of {@link #setKeyword(Collection, String)} that splits the emails into chunks no
+     * larger than maxObjectsInSet.
+     *
+     * @param emails The emails to set the keyword on
+     * @param keyword The keyword
+     * @param progress Receives the number of processed emails after each chunk. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> setKeyword(
+            final Collection<? extends IdentifiableEmailWithKeywords> emails,
+            final String keyword,
+            @Nullable final BulkProgress progress) {
+        return applyInChunks(
+                emails,
+                chunk -> setKeyword(chunk, keyword),
+                chunk ->
+                        Futures.transformAsync(
+                                getUnguardedObjectsState(),
+                                objectsState -> setKeyword(chunk, keyword, objectsState),
+                                MoreExecutors.directExecutor()),
+                progress);
+    }
+
     private ListenableFuture<Boolean> setKeyword(
             final Collection<? extends IdentifiableEmailWithKeywords> emails,
             final String keyword,
@@ -406,6 +469,212 @@ public class EmailService extends AbstractMuaService {
         return applyEmailPatches(patches, objectsState);
     }
 
+    /**
+     * Splits a collection of emails into chunks no larger than the maxObjectsInSet announced by the
+     * server. The first chunk is processed on its own with the regular (ifInState guarded)
+     * operation because it might create mailboxes (for example the archive) that subsequent chunks
+     * need to find in the cache. The remaining chunks are processed with a bounded parallelism by
+     * an operation that does not guard the Email/set call with an ifInState. Otherwise concurrent
+     * chunks would invalidate each other’s state. The cache is refreshed once at the end. Chunks
+     * that fail with a stateMismatch (for example when creating a mailbox) are retried after
+     * refreshing the cache.
+     */
+    private <T> ListenableFuture<Boolean> applyInChunks(
+            final Collection<? extends T> items,
+            final Function<List<T>, ListenableFuture<Boolean>> operation,
+            final Function<List<T>, ListenableFuture<Boolean>> unguardedOperation,
+            @Nullable final BulkProgress progress) {
+        return Futures.transformAsync(
+                jmapClient.getSession(),
+                session -> {
+                    final int chunkSize =
+                            getBulkChunkSize(
+                                    Preconditions.checkNotNull(
+                                            session, "Session must not be null"));
+                    final List<T> list = ImmutableList.copyOf(items);
+                    return applyInChunks(
+                            Lists.partition(list, chunkSize),
+                            list.size(),
+                            operation,
+                            unguardedOperation,
+                            progress);
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private static int getBulkChunkSize(final Session session) {
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        final Long maxObjectsInSet =
+                coreCapability == null ? null : coreCapability.getMaxObjectsInSet();
+        return maxObjectsInSet == null || maxObjectsInSet <= 0
+                ? DEFAULT_BULK_CHUNK_SIZE
+                : (int) Math.min(maxObjectsInSet, Integer.MAX_VALUE);
+    }
+
+    private <T> ListenableFuture<Boolean> applyInChunks(
+            final List<List<T>> chunks,
+            final int total,
+            final Function<List<T>, ListenableFuture<Boolean>> operation,
+            final Function<List<T>, ListenableFuture<Boolean>> unguardedOperation,
+            @Nullable final BulkProgress progress) {
+        if (chunks.isEmpty()) {
+            return Futures.immediateFuture(false);
+        }
+        LOGGER.info("Processing {} items in {} chunks", total, chunks.size());
+        final AtomicInteger processed = new AtomicInteger(0);
+        final ListenableFuture<Boolean> first =
+                applyChunk(chunks.get(0), operation, processed, total, progress);
+        if (chunks.size() == 1) {
+            return first;
+        }
+        final Iterator<List<T>> remaining = chunks.subList(1, chunks.size()).iterator();
+        final ListenableFuture<Boolean> future =
+                Futures.transformAsync(
+                        first,
+                        firstUpdated ->
+                                Futures.transformAsync(
+                                        refreshQuietly(),
+                                        status -> {
+                                            final int workers =
+                                                    Math.min(BULK_PARALLELISM, chunks.size() - 1);
+                                            final List<ListenableFuture<Boolean>> futures =
+                                                    new ArrayList<>();
+                                            for (int i = 0; i < workers; ++i) {
+                                                futures.add(
+                                                        applyNextChunk(
+                                                                remaining,
+                                                                chunk ->
+                                                                        applyChunk(
+                                                                                chunk,
+                                                                                unguardedOperation,
+                                                                                processed,
+                                                                                total,
+                                                                                progress),
+                                                                false));
+                                            }
+                                            return Futures.transform(
+                                                    Futures.allAsList(futures),
+                                                    results ->
+                                                            Boolean.TRUE.equals(firstUpdated)
+                                                                    || results.contains(true),
+                                                    MoreExecutors.directExecutor());
+                                        },
+                                        MoreExecutors.directExecutor()),
+                        MoreExecutors.directExecutor());
+        // unguarded chunks do not piggyback email updates
+        return Futures.transformAsync(
+                future,
+                updated ->
+                        Futures.transform(
+                                refreshQuietly(),
+                                status -> updated,
+                                MoreExecutors.directExecutor()),
+                MoreExecutors.directExecutor());
+    }
+
+    private static <T> ListenableFuture<Boolean> applyNextChunk(
+            final Iterator<List<T>> chunks,
+            final Function<List<T>, ListenableFuture<Boolean>> operation,
+            final boolean updated) {
+        final List<T> chunk;
+        synchronized (chunks) {
+            if (!chunks.hasNext()) {
+                return Futures.immediateFuture(updated);
+            }
+            chunk = chunks.next();
+        }
+        return Futures.transformAsync(
+                operation.apply(chunk),
+                chunkUpdated ->
+                        applyNextChunk(
+                                chunks, operation, updated || Boolean.TRUE.equals(chunkUpdated)),
+                MoreExecutors.directExecutor());
+    }
+
+    private <T> ListenableFuture<Boolean> applyChunk(
+            final List<T> chunk,
+            final Function<List<T>, ListenableFuture<Boolean>> operation,
+            final AtomicInteger processed,
+            final int total,
+            @Nullable final BulkProgress progress) {
+        return Futures.transform(
+                applyChunk(chunk, operation, 1),
+                updated -> {
+                    final int done = processed.addAndGet(chunk.size());
+                    if (progress != null) {
+                        synchronized (progress) {
+                            progress.onProgress(done, total);
+                        }
+                    }
+                    return updated;
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private <T> ListenableFuture<Boolean> applyChunk(
+            final List<T> chunk,
+            final Function<List<T>, ListenableFuture<Boolean>> operation,
+            final int attempt) {
+        return Futures.catchingAsync(
+                operation.apply(chunk),
+                MethodErrorResponseException.class,
+                exception -> {
+                    if (attempt < BULK_MAX_ATTEMPTS
+                            && MethodErrorResponseException.matches(
+                                    exception, StateMismatchMethodErrorResponse.class)) {
+                        LOGGER.info(
+                                "Retrying chunk of {} items after state mismatch. Attempt #{}",
+                                chunk.size(),
+                                attempt);
+                        return Futures.transformAsync(
+                                refreshQuietly(),
+                                status -> applyChunk(chunk, operation, attempt + 1),
+                                MoreExecutors.directExecutor());
+                    }
+                    return Futures.immediateFailedFuture(exception);
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @return The current ObjectsState without an email state. Passing this to methods that apply
+     *     email patches will omit the ifInState and the piggybacked email update. Those patches
+     *     also bypass the mutation journal; bulk chunks go straight to the network.
+     */
+    private ListenableFuture<ObjectsState> getUnguardedObjectsState() {
+        return Futures.transform(
+                getObjectsState(),
+                objectsState ->
+                        new ObjectsState(objectsState.mailboxState, objectsState.threadState, null),
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Boolean> withSpecialMailboxes(
+            final SpecialMailboxesOperation operation) {
+        return Futures.transformAsync(
+                getService(MailboxService.class).getMailboxes(),
+                mailboxes ->
+                        Futures.transformAsync(
+                                getUnguardedObjectsState(),
+                                objectsState ->
+                                        operation.apply(
+                                                Preconditions.checkNotNull(mailboxes),
+                                                objectsState),
+                                MoreExecutors.directExecutor()),
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Status> refreshQuietly() {
+        return Futures.catching(
+                getService(RefreshService.class).refresh(),
+                Exception.class,
+                e -> {
+                    LOGGER.info("Unable to refresh cache in between chunks", e);
+                    return Status.UNCHANGED;
+                },
+                MoreExecutors.directExecutor());
+    }
+
     private ListenableFuture<Boolean> applyEmailPatches(
             final Map<String, Map<String, Object>> patches, final ObjectsState objectsState) {
         if (patches.size() == 0) {
@@ -442,6 +711,13 @@ public class EmailService extends AbstractMuaService {
             final JmapClient.MultiCall multiCall) {
         if (ifInState) {
             Preconditions.checkNotNull(objectsState);
+            final MutationJournal mutationJournal = getMutationJournal();
+            // an unguarded ObjectsState (no email state) marks a bulk chunk
+            if (mutationJournal != null
+                    && cache.supportsPatches()
+                    && objectsState.emailState != null) {
+                return journalEmailPatches(mutationJournal, patches);
+            }
         }
         final ListenableFuture<MethodResponses> future =
                 multiCall
@@ -467,13 +743,239 @@ public class EmailService extends AbstractMuaService {
                 ioExecutorService);
     }
 
+    /**
+     * Records the patches in the mutation journal and applies them to the cache right away. The
+     * server will be updated on the next flush; which is scheduled automatically unless the flush
+     * delay has been set to null.
+     */
+    private ListenableFuture<Boolean> journalEmailPatches(
+            final MutationJournal mutationJournal, final Map<String, Map<String, Object>> patches) {
+        return ioExecutorService.submit(
+                () -> {
+                    mutationJournal.append(patches);
+                    recordCacheWrite(
+                            "patchEmails",
+                            "Email",
+                            patches.size(),
+                            () -> cache.patchEmails(patches));
+                    scheduleMutationFlush();
+                    return patches.size() > 0;
+                });
+    }
+
+    private void scheduleMutationFlush() {
+        final Duration delay = getMutationFlushDelay();
+        if (delay == null) {
+            return;
+        }
+        synchronized (this.mutationFlushLock) {
+            final ScheduledFuture<?> current = this.scheduledMutationFlush;
+            if (current != null && !current.isDone()) {
+                // a flush is already scheduled and will pick up this mutation as well
+                return;
+            }
+            this.scheduledMutationFlush =
+                    jmapClient
+                            .getTransport()
+                            .getScheduledExecutorService()
+                            .schedule(
+                                    this::flushMutationsQuietly,
+                                    delay.toMillis(),
+                                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void cancelScheduledMutationFlush() {
+        synchronized (this.mutationFlushLock) {
+            final ScheduledFuture<?> current = this.scheduledMutationFlush;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+    }
+
+    private void flushMutationsQuietly() {
+        Futures.addCallback(
+                flushMutations(),
+                new FutureCallback<Boolean>() {
+                    @Override
+                    public void onSuccess(final Boolean flushed) {}
+
+                    @Override
+                    public void onFailure(@Nonnull final Throwable throwable) {
+                        LOGGER.info("Unable to flush mutation journal", throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Sends all modifications that have been recorded in the mutation journal to the server in
+     * Email/set calls of no more than maxObjectsInSet emails each. The chunks are sent one after
+     * another. Each call is guarded with ifInState and followed by an Email/changes call. If the
+     * server reports a stateMismatch the cache will have been updated by that Email/changes call
+     * (with the pending modifications reapplied on top) and the flush is retried. Modifications are
+     * path based (for example 'keywords/$seen') so retrying means local modifications win over
+     * concurrent server side modifications of the same path while modifications of other paths are
+     * preserved. If the flush fails due to a network error the journal remains untouched. Any other
+     * method error drops the modifications of the chunk (a retry would fail in the same way) and
+     * invalidates the cache.
+     *
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> flushMutations() {
+        final MutationJournal mutationJournal = getMutationJournal();
+        if (mutationJournal == null) {
+            return Futures.immediateFuture(false);
+        }
+        synchronized (this.mutationFlushLock) {
+            final ListenableFuture<Boolean> current = this.currentMutationFlush;
+            final ListenableFuture<Boolean> flush;
+            if (current == null || current.isDone()) {
+                flush = flushMutations(mutationJournal, 1);
+            } else {
+                // the running flush might have taken its snapshot before the latest mutations
+                flush =
+                        Futures.transformAsync(
+                                Futures.catching(
+                                        current,
+                                        Exception.class,
+                                        e -> false,
+                                        MoreExecutors.directExecutor()),
+                                flushed -> flushMutations(mutationJournal, 1),
+                                MoreExecutors.directExecutor());
+            }
+            this.currentMutationFlush = flush;
+            return flush;
+        }
+    }
+
+    private ListenableFuture<Boolean> flushMutations(
+            final MutationJournal mutationJournal, final int attempt) {
+        return Futures.transformAsync(
+                ioExecutorService.submit(
+                        () -> new Pending(mutationJournal.getPending(), cache.getObjectsState())),
+                pending -> {
+                    if (pending.patches.isEmpty()) {
+                        return Futures.immediateFuture(false);
+                    }
+                    return Futures.transformAsync(
+                            jmapClient.getSession(),
+                            session ->
+                                    flushMutations(
+                                            mutationJournal,
+                                            pending,
+                                            getBulkChunkSize(
+                                                    Preconditions.checkNotNull(
+                                                            session, "Session must not be null")),
+                                            attempt),
+                            MoreExecutors.directExecutor());
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Boolean> flushMutations(
+            final MutationJournal mutationJournal,
+            final Pending pending,
+            final int chunkSize,
+            final int attempt) {
+        final Pending chunk = pending.limit(chunkSize);
+        final ListenableFuture<Boolean> flushed =
+                Futures.catchingAsync(
+                        flushMutations(mutationJournal, chunk),
+                        MethodErrorResponseException.class,
+                        exception -> {
+                            if (MethodErrorResponseException.matches(
+                                    exception, StateMismatchMethodErrorResponse.class)) {
+                                if (attempt < MUTATION_FLUSH_MAX_ATTEMPTS) {
+                                    LOGGER.info(
+                                            "Retrying flush of mutation journal after state"
+                                                    + " mismatch. Attempt #{}",
+                                            attempt);
+                                    return flushMutations(mutationJournal, attempt + 1);
+                                }
+                                return Futures.immediateFailedFuture(exception);
+                            }
+                            // anything but a stateMismatch would fail on every retry
+                            LOGGER.warn(
+                                    "Server rejected {} pending mutations",
+                                    chunk.patches.size(),
+                                    exception);
+                            mutationJournal.acknowledge(chunk.patches);
+                            cache.invalidateEmailThreadsAndQueries();
+                            return Futures.immediateFailedFuture(exception);
+                        },
+                        ioExecutorService);
+        if (chunk.patches.size() == pending.patches.size()) {
+            return flushed;
+        }
+        // the next chunk is taken from a fresh snapshot that reflects the updated email state
+        return Futures.transformAsync(
+                flushed,
+                modified ->
+                        Futures.transform(
+                                flushMutations(mutationJournal, 1),
+                                more -> Boolean.TRUE.equals(modified) || Boolean.TRUE.equals(more),
+                                MoreExecutors.directExecutor()),
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Boolean> flushMutations(
+            final MutationJournal mutationJournal, final Pending pending) {
+        final String emailState = pending.objectsState.emailState;
+        LOGGER.info(
+                "Flushing {} pending mutations (ifInState={})", pending.patches.size(), emailState);
+        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        final ListenableFuture<MethodResponses> setFuture =
+                multiCall
+                        .call(
+                                SetEmailMethodCall.builder()
+                                        .accountId(accountId)
+                                        .ifInState(emailState)
+                                        .update(pending.patches)
+                                        .build())
+                        .getMethodResponses();
+        final ListenableFuture<Status> updateFuture =
+                emailState == null ? null : updateEmails(emailState, multiCall);
+        multiCall.execute();
+        final ListenableFuture<Boolean> flushFuture =
+                Futures.transformAsync(
+                        setFuture,
+                        methodResponses -> {
+                            final SetEmailMethodResponse response =
+                                    methodResponses.getMain(SetEmailMethodResponse.class);
+                            final Map<String, SetError> notUpdated = response.getNotUpdated();
+                            mutationJournal.acknowledge(pending.patches);
+                            if (notUpdated != null && notUpdated.size() > 0) {
+                                // the server will not accept these modifications on a retry
+                                // either. Drop them and make sure the optimistic changes don’t
+                                // linger in the cache
+                                LOGGER.warn("Server rejected pending mutations {}", notUpdated);
+                                if (notUpdated.values().stream()
+                                        .anyMatch(e -> e.getType() != SetErrorType.NOT_FOUND)) {
+                                    cache.invalidateEmailThreadsAndQueries();
+                                }
+                            }
+                            return Futures.immediateFuture(response.getUpdatedCreatedCount() > 0);
+                        },
+                        ioExecutorService);
+        if (updateFuture == null) {
+            return flushFuture;
+        }
+        // wait for the cache to have processed the piggybacked Email/changes (especially after a
+        // stateMismatch) before reporting back or retrying
+        return Futures.whenAllComplete(flushFuture, updateFuture)
+                .callAsync(() -> flushFuture, MoreExecutors.directExecutor());
+    }
+
     protected ListenableFuture<Status> updateEmails(
             final String state, final JmapClient.MultiCall multiCall) {
         Preconditions.checkNotNull(state, "state can not be null when updating emails");
         LOGGER.info("Refreshing emails since state {}", state);
         final UpdateUtil.MethodResponsesFuture methodResponsesFuture =
                 UpdateUtil.emails(multiCall, accountId, state);
-        registerCacheInvalidationCallback(methodResponsesFuture, this::invalidateCache);
+        registerCacheInvalidationCallback(
+                Email.class, methodResponsesFuture, this::invalidateCache);
         return methodResponsesFuture.addCallback(
                 () -> {
                     final ChangesEmailMethodResponse changesResponse =
@@ -487,7 +989,16 @@ public class EmailService extends AbstractMuaService {
                     getService(PluginService.class)
                             .executeEmailCacheStagePlugins(update.getCreated());
                     if (update.hasChanges()) {
-                        cache.updateEmails(update, Email.Properties.MUTABLE);
+                        recordCacheWrite(
+                                "updateEmails",
+                                "Email",
+                                CacheWrites.count(update),
+                                () -> cache.updateEmails(update, Email.Properties.MUTABLE));
+                        reapplyPendingMutations(
+                                Stream.concat(
+                                                Arrays.stream(update.getCreated()),
+                                                Arrays.stream(update.getUpdated()))
+                                        .toArray(Email[]::new));
                     }
                     return Futures.immediateFuture(Status.of(update));
                 },
@@ -557,6 +1068,30 @@ public class EmailService extends AbstractMuaService {
                 MoreExecutors.directExecutor());
     }
 
+    /**
+     * Bulk variant of {@link #removeKeyword(Collection, String)} that splits the emails into chunks
+     * no larger than maxObjectsInSet.
+     *
+     * @param emails The emails to remove the keyword from
+     * @param keyword The keyword
+     * @param progress Receives the number of processed emails after each chunk. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> removeKeyword(
+            final Collection<? extends IdentifiableEmailWithKeywords> emails,
+            final String keyword,
+            @Nullable final BulkProgress progress) {
+        return applyInChunks(
+                emails,
+                chunk -> removeKeyword(chunk, keyword),
+                chunk ->
+                        Futures.transformAsync(
+                                getUnguardedObjectsState(),
+                                objectsState -> removeKeyword(chunk, keyword, objectsState),
+                                MoreExecutors.directExecutor()),
+                progress);
+    }
+
     private ListenableFuture<Boolean> removeKeyword(
             final Collection<? extends IdentifiableEmailWithKeywords> emails,
             final String keyword,
@@ -718,6 +1253,31 @@ public class EmailService extends AbstractMuaService {
                 MoreExecutors.directExecutor());
     }
 
+    /**
+     * Bulk variant of {@link #modifyLabels(Collection, Collection, Collection)}. Mailboxes that
+     * need to be created will be created with the first chunk.
+     */
+    public ListenableFuture<Boolean> modifyLabels(
+            final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
+            final Collection<? extends IdentifiableMailboxWithRoleAndName> additions,
+            final Collection<? extends IdentifiableMailboxWithRoleAndName> removals,
+            @Nullable final BulkProgress progress) {
+        return applyInChunks(
+                emails,
+                chunk -> modifyLabels(chunk, additions, removals),
+                chunk ->
+                        withSpecialMailboxes(
+                                (mailboxes, objectsState) ->
+                                        modifyLabels(
+                                                chunk,
+                                                additions,
+                                                removals,
+                                                MailboxUtil.find(mailboxes, Role.ARCHIVE),
+                                                MailboxUtil.find(mailboxes, Role.TRASH),
+                                                objectsState)),
+                progress);
+    }
+
     private ListenableFuture<Boolean> modifyLabels(
             final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
             final Collection<? extends IdentifiableMailboxWithRoleAndName> additions,
@@ -838,6 +1398,28 @@ public class EmailService extends AbstractMuaService {
                 MoreExecutors.directExecutor());
     }
 
+    /**
+     * Bulk variant of {@link #moveToInbox(Collection)}. If the inbox does not exist yet it will be
+     * created with the first chunk.
+     */
+    public ListenableFuture<Boolean> moveToInbox(
+            final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
+            @Nullable final BulkProgress progress) {
+        return applyInChunks(
+                emails,
+                this::moveToInbox,
+                chunk ->
+                        withSpecialMailboxes(
+                                (mailboxes, objectsState) ->
+                                        moveToInbox(
+                                                chunk,
+                                                MailboxUtil.find(mailboxes, Role.ARCHIVE),
+                                                MailboxUtil.find(mailboxes, Role.TRASH),
+                                                MailboxUtil.find(mailboxes, Role.INBOX),
+                                                objectsState)),
+                progress);
+    }
+
     private ListenableFuture<Boolean> moveToInbox(
             final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
             final IdentifiableMailboxWithRole archive,
@@ -936,6 +1518,29 @@ public class EmailService extends AbstractMuaService {
                 MoreExecutors.directExecutor());
     }
 
+    /**
+     * Bulk variant of {@link #archive(Collection)}. If the archive does not exist yet it will be
+     * created with the first chunk.
+     */
+    public ListenableFuture<Boolean> archive(
+            final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
+            @Nullable final BulkProgress progress) {
+        return applyInChunks(
+                emails,
+                this::archive,
+                chunk ->
+                        withSpecialMailboxes(
+                                (mailboxes, objectsState) ->
+                                        archive(
+                                                chunk,
+                                                Preconditions.checkNotNull(
+                                                        MailboxUtil.find(mailboxes, Role.INBOX),
+                                                        "Inbox mailbox not found"),
+                                                MailboxUtil.find(mailboxes, Role.ARCHIVE),
+                                                objectsState)),
+                progress);
+    }
+
     private ListenableFuture<Boolean> archive(
             final Collection<? extends IdentifiableEmailWithMailboxIds> emails,
             @Nonnull final IdentifiableMailboxWithRole inbox,
@@ -1230,4 +1835,308 @@ public class EmailService extends AbstractMuaService {
                 },
                 MoreExecutors.directExecutor());
     }
+
+    /**
+     * Marks all emails in a mailbox as read without downloading them first. The ids are retrieved
+     * page by page with Email/query and each page is patched in the same request that queries the
+     * next page.
+     *
+     * @param mailbox The mailbox in which all emails should be marked as read
+     * @param progress Receives the number of processed emails after each page. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> markAllAsRead(
+            @Nonnull final IdentifiableMailboxWithRole mailbox,
+            @Nullable final BulkProgress progress) {
+        Preconditions.checkNotNull(mailbox, "Mailbox can not be null");
+        final EmailFilterCondition filter =
+                EmailFilterCondition.builder()
+                        .inMailbox(mailbox.getId())
+                        .notKeyword(Keyword.SEEN)
+                        .build();
+        return applyToQuery(
+                EmailQuery.of(filter, false),
+                Patches.set("keywords/" + Keyword.SEEN, true),
+                progress);
+    }
+
+    /**
+     * Moves all emails matching the query from the inbox to the archive without downloading them
+     * first. Emails that are not in the inbox are skipped. If an archive does not exist it will be
+     * created.
+     *
+     * @param query The query that selects the emails. Threads will not be collapsed
+     * @param progress Receives the number of processed emails after each page. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> archive(
+            @Nonnull final EmailQuery query, @Nullable final BulkProgress progress) {
+        Preconditions.checkNotNull(query, "Query can not be null");
+        return Futures.transformAsync(
+                getService(MailboxService.class).getMailboxes(),
+                mailboxes -> {
+                    Preconditions.checkNotNull(
+                            mailboxes,
+                            "SpecialMailboxes collection must not be null but can be empty");
+                    final IdentifiableMailboxWithRole inbox =
+                            MailboxUtil.find(mailboxes, Role.INBOX);
+                    Preconditions.checkState(
+                            inbox != null,
+                            "Inbox mailbox not found. Archiving (removing from inbox) does not make"
+                                    + " sense if there is no inbox");
+                    final IdentifiableMailboxWithRole archive =
+                            MailboxUtil.find(mailboxes, Role.ARCHIVE);
+                    return ensureNoPreexistingMailbox(
+                            archive,
+                            Role.ARCHIVE,
+                            () ->
+                                    Futures.transformAsync(
+                                            getOrCreateMailboxId(archive, Role.ARCHIVE),
+                                            archiveId -> {
+                                                final EmailFilterCondition inInbox =
+                                                        EmailFilterCondition.builder()
+                                                                .inMailbox(inbox.getId())
+                                                                .build();
+                                                final Filter<Email> filter =
+                                                        query.filter == null
+                                                                ? inInbox
+                                                                : FilterOperator.and(
+                                                                        query.filter, inInbox);
+                                                return applyToQuery(
+                                                        EmailQuery.of(filter, query.sort, false),
+                                                        Patches.builder()
+                                                                .remove(
+                                                                        "mailboxIds/"
+                                                                                + inbox.getId())
+                                                                .set(
+                                                                        "mailboxIds/" + archiveId,
+                                                                        true)
+                                                                .build(),
+                                                        progress);
+                                            },
+                                            MoreExecutors.directExecutor()));
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Moves all emails from one mailbox (label) to another without downloading them first.
+     *
+     * @param from The mailbox to remove all emails from
+     * @param to The mailbox the emails will be added to
+     * @param progress Receives the number of processed emails after each page. Can be null
+     * @return true if at least one email has been modified
+     */
+    public ListenableFuture<Boolean> moveAll(
+            @Nonnull final IdentifiableMailboxWithRole from,
+            @Nonnull final IdentifiableMailboxWithRole to,
+            @Nullable final BulkProgress progress) {
+        Preconditions.checkNotNull(from, "Source mailbox can not be null");
+        Preconditions.checkNotNull(to, "Destination mailbox can not be null");
+        Preconditions.checkArgument(
+                !from.getId().equals(to.getId()),
+                "Source and destination mailbox can not be the same");
+        return applyToQuery(
+                EmailQuery.of(
+                        EmailFilterCondition.builder().inMailbox(from.getId()).build(), false),
+                Patches.builder()
+                        .remove("mailboxIds/" + from.getId())
+                        .set("mailboxIds/" + to.getId(), true)
+                        .build(),
+                progress);
+    }
+
+    private ListenableFuture<String> getOrCreateMailboxId(
+            @Nullable final IdentifiableMailboxWithRole mailbox, final Role role) {
+        if (mailbox != null) {
+            return Futures.immediateFuture(mailbox.getId());
+        }
+        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        final ListenableFuture<MethodResponses> future =
+                getService(MailboxService.class).createMailbox(role, null, multiCall);
+        multiCall.execute();
+        return Futures.transformAsync(
+                future,
+                methodResponses -> {
+                    final SetMailboxMethodResponse response =
+                            methodResponses.getMain(SetMailboxMethodResponse.class);
+                    SetMailboxException.throwIfFailed(response);
+                    final Mailbox created =
+                            response.getCreated() == null
+                                    ? null
+                                    : response.getCreated().get(CreateUtil.createId(role));
+                    return Futures.immediateFuture(
+                            Preconditions.checkNotNull(
+                                            created, "Server did not report created mailbox")
+                                    .getId());
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Applies the same patch to every email matching a query. The patch must cause the email to no
+     * longer match the query (for example remove it from the mailbox the query filters for).
+     * Because patched emails disappear from the result every page is requested from position 0.
+     * This is equivalent to paging with an anchor but does not break when the anchor itself has
+     * been removed from the result. Each request contains the Email/set for the current page
+     * followed by the Email/query for the next page; resulting in one round trip per page.
+     */
+    private ListenableFuture<Boolean> applyToQuery(
+            final EmailQuery query,
+            final Map<String, Object> patch,
+            @Nullable final BulkProgress progress) {
+        return Futures.transformAsync(
+                jmapClient.getSession(),
+                session -> {
+                    final CoreCapability coreCapability =
+                            Preconditions.checkNotNull(session, "Session must not be null")
+                                    .getCapability(CoreCapability.class);
+                    final long pageSize = getBulkPageSize(coreCapability);
+                    LOGGER.info("Applying {} to all emails matching {}", patch, query);
+                    final ListenableFuture<MethodResponses> queryFuture =
+                            jmapClient.call(
+                                    QueryEmailMethodCall.builder()
+                                            .accountId(accountId)
+                                            .query(query)
+                                            .calculateTotal(true)
+                                            .limit(pageSize)
+                                            .build());
+                    return Futures.transformAsync(
+                            queryFuture,
+                            methodResponses -> {
+                                final QueryEmailMethodResponse queryResponse =
+                                        methodResponses.getMain(QueryEmailMethodResponse.class);
+                                final Long total = queryResponse.getTotal();
+                                final int expected =
+                                        total == null
+                                                ? Integer.MAX_VALUE
+                                                : (int) Math.min(total, Integer.MAX_VALUE);
+                                // every page reduces the result; allow for a few emails that
+                                // arrive in the meantime
+                                final long maxPages =
+                                        total == null ? Long.MAX_VALUE : total / pageSize + 2;
+                                return applyToQuery(
+                                        query,
+                                        patch,
+                                        pageSize,
+                                        queryResponse.getIds(),
+                                        0,
+                                        expected,
+                                        maxPages,
+                                        progress);
+                            },
+                            MoreExecutors.directExecutor());
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Boolean> applyToQuery(
+            final EmailQuery query,
+            final Map<String, Object> patch,
+            final long pageSize,
+            final String[] ids,
+            final int processed,
+            final int total,
+            final long remainingPages,
+            @Nullable final BulkProgress progress) {
+        if (ids == null || ids.length == 0) {
+            return Futures.transform(
+                    refreshQuietly(), status -> processed > 0, MoreExecutors.directExecutor());
+        }
+        if (remainingPages <= 0) {
+            return Futures.immediateFailedFuture(
+                    new IllegalStateException(
+                            "Query keeps returning results. Patch does not remove emails from"
+                                    + " query"));
+        }
+        final ImmutableMap.Builder<String, Map<String, Object>> patchesBuilder =
+                ImmutableMap.builder();
+        for (final String id : ids) {
+            patchesBuilder.put(id, patch);
+        }
+        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        final ListenableFuture<MethodResponses> setFuture =
+                multiCall
+                        .call(
+                                SetEmailMethodCall.builder()
+                                        .accountId(accountId)
+                                        .update(patchesBuilder.build())
+                                        .build())
+                        .getMethodResponses();
+        final ListenableFuture<MethodResponses> queryFuture =
+                multiCall
+                        .call(
+                                QueryEmailMethodCall.builder()
+                                        .accountId(accountId)
+                                        .query(query)
+                                        .limit(pageSize)
+                                        .build())
+                        .getMethodResponses();
+        multiCall.execute();
+        return Futures.transformAsync(
+                setFuture,
+                methodResponses -> {
+                    final SetEmailMethodResponse setEmailMethodResponse =
+                            methodResponses.getMain(SetEmailMethodResponse.class);
+                    SetEmailException.throwIfFailed(setEmailMethodResponse);
+                    final int done = processed + ids.length;
+                    if (progress != null) {
+                        progress.onProgress(done, Math.max(done, total));
+                    }
+                    final QueryEmailMethodResponse queryResponse =
+                            queryFuture.get().getMain(QueryEmailMethodResponse.class);
+                    return applyToQuery(
+                            query,
+                            patch,
+                            pageSize,
+                            queryResponse.getIds(),
+                            done,
+                            total,
+                            remainingPages - 1,
+                            progress);
+                },
+                ioExecutorService);
+    }
+
+    private static long getBulkPageSize(@Nullable final CoreCapability coreCapability) {
+        long pageSize = DEFAULT_BULK_CHUNK_SIZE;
+        if (coreCapability == null) {
+            return pageSize;
+        }
+        final Long maxObjectsInSet = coreCapability.getMaxObjectsInSet();
+        if (maxObjectsInSet != null && maxObjectsInSet > 0) {
+            pageSize = maxObjectsInSet;
+        }
+        final Long maxObjectsInGet = coreCapability.getMaxObjectsInGet();
+        if (maxObjectsInGet != null && maxObjectsInGet > 0) {
+            pageSize = Math.min(pageSize, maxObjectsInGet);
+        }
+        return pageSize;
+    }
+
+    private static class Pending {
+        private final Map<String, Map<String, Object>> patches;
+        private final ObjectsState objectsState;
+
+        private Pending(
+                final Map<String, Map<String, Object>> patches, final ObjectsState objectsState) {
+            this.patches = patches;
+            this.objectsState = objectsState;
+        }
+
+        private Pending limit(final int size) {
+            if (patches.size() <= size) {
+                return this;
+            }
+            return new Pending(
+                    ImmutableMap.copyOf(Iterables.limit(patches.entrySet(), size)), objectsState);
+        }
+    }
+
+    private interface SpecialMailboxesOperation {
+        ListenableFuture<Boolean> apply(
+                Collection<? extends IdentifiableMailboxWithRole> mailboxes,
+                ObjectsState objectsState)
+                throws Exception;
+    }
 }
@@ -30,6 +30,7 @@ import rs.ltt.jmap.common.method.response.identity.ChangesIdentityMethodResponse
 import rs.ltt.jmap.common.method.response.identity.GetIdentityMethodResponse;
 import rs.ltt.jmap.mua.Status;
 import rs.ltt.jmap.mua.cache.Update;
+import rs.ltt.jmap.mua.jfr.CacheWrites;
 import rs.ltt.jmap.mua.util.UpdateUtil;
 
 public class IdentityService extends AbstractMuaService {
@@ -73,7 +74,11 @@ public class IdentityService extends AbstractMuaService {
                     final GetIdentityMethodResponse response =
                             methodResponses.getMain(GetIdentityMethodResponse.class);
                     final Identity[] identities = response.getList();
-                    cache.setIdentities(response.getTypedState(), identities);
+                    recordCacheWrite(
+                            "setIdentities",
+                            "Identity",
+                            identities.length,
+                            () -> cache.setIdentities(response.getTypedState(), identities));
                     return Futures.immediateFuture(Status.of(identities.length > 0));
                 },
                 ioExecutorService);
@@ -91,7 +96,8 @@ public class IdentityService extends AbstractMuaService {
         Preconditions.checkNotNull(state, "State can not be null when updating identities");
         final UpdateUtil.MethodResponsesFuture methodResponsesFuture =
                 UpdateUtil.identities(multiCall, accountId, state);
-        registerCacheInvalidationCallback(methodResponsesFuture, this::invalidateCache);
+        registerCacheInvalidationCallback(
+                Identity.class, methodResponsesFuture, this::invalidateCache);
         return methodResponsesFuture.addCallback(
                 () -> {
                     ChangesIdentityMethodResponse changesResponse =
@@ -103,7 +109,11 @@ public class IdentityService extends AbstractMuaService {
                     final Update<Identity> update =
                             Update.of(changesResponse, createdResponse, updatedResponse);
                     if (update.hasChanges()) {
-                        cache.updateIdentities(update);
+                        recordCacheWrite(
+                                "updateIdentities",
+                                "Identity",
+                                CacheWrites.count(update),
+                                () -> cache.updateIdentities(update));
                     }
                     return Futures.immediateFuture(Status.of(update));
                 },
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.Priority;
+import rs.ltt.jmap.client.session.Session;
+import rs.ltt.jmap.common.entity.EmailImport;
+import rs.ltt.jmap.common.entity.SetError;
+import rs.ltt.jmap.common.entity.SetErrorType;
+import rs.ltt.jmap.common.entity.Upload;
+import rs.ltt.jmap.common.entity.capability.CoreCapability;
+import rs.ltt.jmap.common.method.call.email.ImportEmailMethodCall;
+import rs.ltt.jmap.common.method.response.email.ImportEmailMethodResponse;
+import rs.ltt.jmap.mua.cache.UploadCache;
+import rs.ltt.jmap.mua.imports.ImportCheckpoint;
+import rs.ltt.jmap.mua.imports.ImportMapping;
+import rs.ltt.jmap.mua.imports.ImportResult;
+import rs.ltt.jmap.mua.imports.LocalMessage;
+import rs.ltt.jmap.mua.imports.MessageSource;
+
+/**
+ * Imports messages from a local mail store. Messages are read from the source one after another,
+ * uploaded with a bounded parallelism and imported with Email/import in batches no larger than
+ * maxObjectsInSet. Reading stops while all upload slots are taken or while enough uploaded messages
+ * are waiting for their import. Memory usage therefore does not depend on the size of the source.
+ */
+public class ImportService extends AbstractMuaService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportService.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final int MAX_CONCURRENT_IMPORTS = 2;
+
+    public ImportService(final MuaSession muaSession) {
+        super(muaSession);
+    }
+
+    /**
+     * @param source The local mail store. Must not be closed before the returned future completes
+     * @param mapping Decides which mailboxes and keywords messages are imported with
+     * @param checkpoint Skips messages that have been imported by an earlier run and records newly
+     *     imported messages. May be null
+     * @param parallelism The number of uploads that run at the same time. Capped by the
+     *     maxConcurrentUpload limit of the server
+     * @return The result of the import. Messages the server refused to import are reported in the
+     *     result. Failed uploads or Email/import calls fail the entire import; the checkpoint
+     *     allows resuming it
+     */
+    public ListenableFuture<ImportResult> importEmails(
+            final MessageSource source,
+            final ImportMapping mapping,
+            @Nullable final ImportCheckpoint checkpoint,
+            final int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive");
+        return Futures.transformAsync(
+                jmapClient.getSession(),
+                session ->
+                        new EmailImports(
+                                        source,
+                                        mapping,
+                                        checkpoint,
+                                        getUploadParallelism(
+                                                Preconditions.checkNotNull(
+                                                        session, "Session must not be null"),
+                                                parallelism),
+                                        getBatchSize(
+                                                Preconditions.checkNotNull(
+                                                        session, "Session must not be null")))
+                                .start(),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Imports messages from a local mail store, as many uploads at a time as the server allows.
+     *
+     * @see #importEmails(MessageSource, ImportMapping, ImportCheckpoint, int)
+     */
+    public ListenableFuture<ImportResult> importEmails(
+            final MessageSource source,
+            final ImportMapping mapping,
+            @Nullable final ImportCheckpoint checkpoint) {
+        return importEmails(source, mapping, checkpoint, Integer.MAX_VALUE);
+    }
+
+    private static int getBatchSize(final Session session) {
+        final CoreCapability coreCapability = session.getCapability(CoreCapability.class);
+        final Long maxObjectsInSet =
+                coreCapability == null ? null : coreCapability.getMaxObjectsInSet();
+        return maxObjectsInSet == null || maxObjectsInSet <= 0
+                ? DEFAULT_BATCH_SIZE
+                : (int) Math.min(maxObjectsInSet, DEFAULT_BATCH_SIZE);
+    }
+
+    private static void closeQuietly(final LocalMessage message) {
+        if (message.getContent() instanceof Closeable) {
+            try {
+                ((Closeable) message.getContent()).close();
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to close {}", message, e);
+            }
+        }
+    }
+
+    private class EmailImports {
+
+        private final MessageSource source;
+        private final ImportMapping mapping;
+        private final ImportCheckpoint checkpoint;
+        private final int parallelism;
+        private final int batchSize;
+        private final SettableFuture<ImportResult> future = SettableFuture.create();
+        private final Set<ListenableFuture<?>> running = new HashSet<>();
+        private final List<PendingImport> uploaded = new ArrayList<>();
+        private final Map<String, SetError> failed = new HashMap<>();
+        private final long startTime = System.nanoTime();
+        private int uploading = 0;
+        private int importing = 0;
+        private long imported = 0;
+        private long skipped = 0;
+        private boolean reading = false;
+        private boolean exhausted = false;
+
+        private EmailImports(
+                final MessageSource source,
+                final ImportMapping mapping,
+                final ImportCheckpoint checkpoint,
+                final int parallelism,
+                final int batchSize) {
+            this.source = source;
+            this.mapping = mapping;
+            this.checkpoint = checkpoint;
+            this.parallelism = parallelism;
+            this.batchSize = batchSize;
+        }
+
+        private ListenableFuture<ImportResult> start() {
+            LOGGER.info(
+                    "Importing emails in batches of {} with {} parallel uploads",
+                    batchSize,
+                    parallelism);
+            future.addListener(
+                    () -> {
+                        if (future.isCancelled()) {
+                            cancelRunning();
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+            read();
+            return future;
+        }
+
+        private boolean canRead() {
+            return !future.isDone()
+                    && !exhausted
+                    && uploading < parallelism
+                    && uploaded.size() < batchSize * MAX_CONCURRENT_IMPORTS;
+        }
+
+        private void read() {
+            synchronized (this) {
+                if (reading || !canRead()) {
+                    return;
+                }
+                reading = true;
+            }
+            ioExecutorService.execute(this::readMessages);
+        }
+
+        /** Runs until all upload slots are taken or the source has been exhausted. */
+        private void readMessages() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        if (!canRead()) {
+                            reading = false;
+                            return;
+                        }
+                    }
+                    final LocalMessage message = source.next();
+                    if (message == null) {
+                        synchronized (this) {
+                            exhausted = true;
+                            reading = false;
+                        }
+                        importBatches();
+                        return;
+                    }
+                    final Map<String, Boolean> mailboxIds = mapping.getMailboxIds(message);
+                    if ((checkpoint != null && checkpoint.isImported(message.getKey()))
+                            || mailboxIds == null
+                            || mailboxIds.isEmpty()) {
+                        closeQuietly(message);
+                        synchronized (this) {
+                            skipped++;
+                        }
+                        continue;
+                    }
+                    upload(message, mailboxIds, mapping.getKeywords(message));
+                }
+            } catch (final Exception e) {
+                synchronized (this) {
+                    reading = false;
+                }
+                fail(e);
+            }
+        }
+
+        private void upload(
+                final LocalMessage message,
+                final Map<String, Boolean> mailboxIds,
+                final Map<String, Boolean> keywords) {
+            synchronized (this) {
+                uploading++;
+            }
+            final ListenableFuture<Upload> upload =
+                    getService(BinaryService.class).upload(message.getContent(), null);
+            track(upload);
+            Futures.addCallback(
+                    upload,
+                    new FutureCallback<Upload>() {
+                        @Override
+                        public void onSuccess(final Upload upload) {
+                            closeQuietly(message);
+                            onUploaded(
+                                    new PendingImport(
+                                            message.getKey(),
+                                            EmailImport.builder()
+                                                    .blobId(upload.getBlobId())
+                                                    .mailboxIds(mailboxIds)
+                                                    .keywords(keywords)
+                                                    .receivedAt(message.getReceivedAt())
+                                                    .build()));
+                        }
+
+                        @Override
+                        public void onFailure(@Nonnull final Throwable throwable) {
+                            closeQuietly(message);
+                            fail(throwable);
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+            untrackWhenDone(upload);
+        }
+
+        private void onUploaded(final PendingImport pendingImport) {
+            synchronized (this) {
+                uploading--;
+                uploaded.add(pendingImport);
+            }
+            importBatches();
+            read();
+        }
+
+        private void importBatches() {
+            final List<List<PendingImport>> batches = new ArrayList<>();
+            final boolean complete;
+            synchronized (this) {
+                while (!future.isDone()
+                        && importing < MAX_CONCURRENT_IMPORTS
+                        && (uploaded.size() >= batchSize
+                                || (exhausted && uploading == 0 && !uploaded.isEmpty()))) {
+                    final List<PendingImport> next =
+                            uploaded.subList(0, Math.min(batchSize, uploaded.size()));
+                    batches.add(ImmutableList.copyOf(next));
+                    next.clear();
+                    importing++;
+                }
+                complete = exhausted && uploading == 0 && importing == 0 && uploaded.isEmpty();
+            }
+            for (final List<PendingImport> batch : batches) {
+                importBatch(batch);
+            }
+            if (complete) {
+                final ImportResult result;
+                synchronized (this) {
+                    result = new ImportResult(imported, skipped, failed);
+                }
+                final long millis = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+                LOGGER.info(
+                        "Import finished with {} in {}ms ({} emails/s)",
+                        result,
+                        millis,
+                        result.getImported() * 1000 / millis);
+                future.set(result);
+            }
+        }
+
+        private void importBatch(final List<PendingImport> batch) {
+            final ImportEmailMethodCall.ImportEmailMethodCallBuilder builder =
+                    ImportEmailMethodCall.builder().accountId(accountId);
+            for (int i = 0; i < batch.size(); ++i) {
+                builder.email(String.valueOf(i), batch.get(i).emailImport);
+            }
+            final ListenableFuture<Void> batchFuture =
+                    Futures.transform(
+                            jmapClient.call(builder.build(), Priority.BACKGROUND),
+                            methodResponses ->
+                                    onImported(
+                                            batch,
+                                            methodResponses.getMain(
+                                                    ImportEmailMethodResponse.class)),
+                            ioExecutorService);
+            track(batchFuture);
+            Futures.addCallback(
+                    batchFuture,
+                    new FutureCallback<Void>() {
+                        @Override
+                        public void onSuccess(final Void result) {
+                            synchronized (EmailImports.this) {
+                                importing--;
+                            }
+                            importBatches();
+                            read();
+                        }
+
+                        @Override
+                        public void onFailure(@Nonnull final Throwable throwable) {
+                            fail(throwable);
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+            untrackWhenDone(batchFuture);
+        }
+
+        private Void onImported(
+                final List<PendingImport> batch, final ImportEmailMethodResponse response) {
+            final Map<String, ?> created = response.getCreated();
+            final Map<String, SetError> notCreated = response.getNotCreated();
+            final List<String> keys = new ArrayList<>();
+            final Map<String, SetError> errors = new HashMap<>();
+            final List<String> missingBlobs = new ArrayList<>();
+            for (int i = 0; i < batch.size(); ++i) {
+                final String id = String.valueOf(i);
+                final PendingImport pendingImport = batch.get(i);
+                if (created != null && created.containsKey(id)) {
+                    keys.add(pendingImport.key);
+                    continue;
+                }
+                final SetError error = notCreated == null ? null : notCreated.get(id);
+                if (error == null) {
+                    // keeps the totals consistent; a rerun will try the message again
+                    errors.put(
+                            pendingImport.key,
+                            new SetError(null, "Missing from the Email/import response"));
+                    continue;
+                }
+                errors.put(pendingImport.key, error);
+                if (error.getType() == SetErrorType.BLOB_NOT_FOUND) {
+                    missingBlobs.add(pendingImport.emailImport.getBlobId());
+                }
+            }
+            final UploadCache uploadCache = getUploadCache();
+            if (uploadCache != null && missingBlobs.size() > 0) {
+                // a rerun must upload the content again
+                uploadCache.invalidate(accountId, missingBlobs);
+            }
+            if (checkpoint != null && keys.size() > 0) {
+                try {
+                    checkpoint.onImported(keys);
+                } catch (final IOException e) {
+                    throw new IllegalStateException("Unable to write checkpoint", e);
+                }
+            }
+            if (errors.size() > 0) {
+                LOGGER.warn("Server refused to import {} emails", errors.size());
+            }
+            synchronized (this) {
+                imported += keys.size();
+                failed.putAll(errors);
+            }
+            return null;
+        }
+
+        private void fail(final Throwable throwable) {
+            if (future.setException(throwable)) {
+                LOGGER.warn("Import failed", throwable);
+                cancelRunning();
+            }
+        }
+
+        private void track(final ListenableFuture<?> future) {
+            synchronized (this) {
+                running.add(future);
+            }
+            if (this.future.isDone()) {
+                future.cancel(true);
+            }
+        }
+
+        private void untrackWhenDone(final ListenableFuture<?> future) {
+            future.addListener(
+                    () -> {
+                        synchronized (this) {
+                            running.remove(future);
+                        }
+                    },
+                    MoreExecutors.directExecutor());
+        }
+
+        private void cancelRunning() {
+            final List<ListenableFuture<?>> futures;
+            synchronized (this) {
+                futures = ImmutableList.copyOf(running);
+                running.clear();
+            }
+            for (final ListenableFuture<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static class PendingImport {
+        private final String key;
+        private final EmailImport emailImport;
+
+        private PendingImport(final String key, final EmailImport emailImport) {
+            this.key = key;
+            this.emailImport = emailImport;
+        }
+    }
+}
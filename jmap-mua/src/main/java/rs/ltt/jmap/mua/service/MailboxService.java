@@ -43,6 +43,7 @@ import rs.ltt.jmap.common.util.Patches;
 import rs.ltt.jmap.mua.Status;
 import rs.ltt.jmap.mua.cache.ObjectsState;
 import rs.ltt.jmap.mua.cache.Update;
+import rs.ltt.jmap.mua.jfr.CacheWrites;
 import rs.ltt.jmap.mua.service.exception.PreexistingMailboxException;
 import rs.ltt.jmap.mua.service.exception.SetMailboxException;
 import rs.ltt.jmap.mua.util.CreateUtil;
@@ -92,7 +93,11 @@ public class MailboxService extends AbstractMuaService {
                     GetMailboxMethodResponse response =
                             methodResponses.getMain(GetMailboxMethodResponse.class);
                     Mailbox[] mailboxes = response.getList();
-                    cache.setMailboxes(response.getTypedState(), mailboxes);
+                    recordCacheWrite(
+                            "setMailboxes",
+                            "Mailbox",
+                            mailboxes.length,
+                            () -> cache.setMailboxes(response.getTypedState(), mailboxes));
                     return Futures.immediateFuture(Status.of(mailboxes.length > 0));
                 },
                 ioExecutorService);
@@ -111,7 +116,8 @@ public class MailboxService extends AbstractMuaService {
         LOGGER.info("Refreshing mailboxes since state {}", state);
         final UpdateUtil.MethodResponsesFuture methodResponsesFuture =
                 UpdateUtil.mailboxes(multiCall, accountId, state);
-        registerCacheInvalidationCallback(methodResponsesFuture, this::invalidateCache);
+        registerCacheInvalidationCallback(
+                Mailbox.class, methodResponsesFuture, this::invalidateCache);
         return methodResponsesFuture.addCallback(
                 () -> {
                     final ChangesMailboxMethodResponse changesResponse =
@@ -123,7 +129,13 @@ public class MailboxService extends AbstractMuaService {
                     final Update<Mailbox> update =
                             Update.of(changesResponse, createdResponse, updatedResponse);
                     if (update.hasChanges()) {
-                        cache.updateMailboxes(update, changesResponse.getUpdatedProperties());
+                        recordCacheWrite(
+                                "updateMailboxes",
+                                "Mailbox",
+                                CacheWrites.count(update),
+                                () ->
+                                        cache.updateMailboxes(
+                                                update, changesResponse.getUpdatedProperties()));
                     }
                     return Futures.immediateFuture(Status.of(update));
                 },
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.service;
+
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import rs.ltt.jmap.mua.cache.Cache;
+import rs.ltt.jmap.mua.cache.CacheStatistics;
+
+/**
+ * Counters that show how well the MUA keeps its cache up to date. A high number of initial queries
+ * compared to query cache hits or frequent invalidations after cannotCalculateChanges mean that the
+ * MUA keeps falling back to full reloads.
+ */
+public class MuaMetrics {
+
+    private final Cache cache;
+    private final AtomicLong initialQueries = new AtomicLong();
+    private final AtomicLong queryCacheHits = new AtomicLong();
+    private final Map<String, AtomicLong> cannotCalculateChanges = new ConcurrentHashMap<>();
+    private final AtomicLong missingThreadFetches = new AtomicLong();
+    private final AtomicLong missingThreads = new AtomicLong();
+    private final AtomicLong lastRefresh = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong uploadCacheHits = new AtomicLong();
+
+    MuaMetrics(final Cache cache) {
+        this.cache = cache;
+    }
+
+    void onInitialQuery() {
+        this.initialQueries.incrementAndGet();
+    }
+
+    void onQueryCacheHit() {
+        this.queryCacheHits.incrementAndGet();
+    }
+
+    void onCannotCalculateChanges(final String type) {
+        this.cannotCalculateChanges.computeIfAbsent(type, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    void onMissingThreadsFetched(final int threads) {
+        this.missingThreadFetches.incrementAndGet();
+        this.missingThreads.addAndGet(threads);
+    }
+
+    void onRefreshed() {
+        this.lastRefresh.set(System.nanoTime());
+    }
+
+    void onUploadCacheHit() {
+        this.uploadCacheHits.incrementAndGet();
+    }
+
+    /** @return The number of queries that had to be loaded from scratch */
+    public long getInitialQueries() {
+        return this.initialQueries.get();
+    }
+
+    /** @return The number of queries that were cached and have been brought up to date */
+    public long getQueryCacheHits() {
+        return this.queryCacheHits.get();
+    }
+
+    /** @return The number of cache invalidations after cannotCalculateChanges, keyed by type */
+    public ImmutableMap<String, Long> getCannotCalculateChanges() {
+        final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, AtomicLong> entry : this.cannotCalculateChanges.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().get());
+        }
+        return builder.build();
+    }
+
+    /** @return The number of requests that fetched threads missing from a cached query */
+    public long getMissingThreadFetches() {
+        return this.missingThreadFetches.get();
+    }
+
+    public long getMissingThreads() {
+        return this.missingThreads.get();
+    }
+
+    /**
+     * @return The time since the cache has last been brought up to date by a refresh, a query
+     *     refresh or a push driven sync. null if that never happened.
+     */
+    @Nullable
+    public Duration getTimeSinceLastRefresh() {
+        final long lastRefresh = this.lastRefresh.get();
+        if (lastRefresh == Long.MIN_VALUE) {
+            return null;
+        }
+        return Duration.ofNanos(System.nanoTime() - lastRefresh);
+    }
+
+    /** @return The number of uploads that have been skipped because of the UploadCache */
+    public long getUploadCacheHits() {
+        return this.uploadCacheHits.get();
+    }
+
+    /** @return The statistics reported by the Cache. Might be expensive to calculate. */
+    public CacheStatistics getCacheStatistics() {
+        return this.cache.getStatistics();
+    }
+}
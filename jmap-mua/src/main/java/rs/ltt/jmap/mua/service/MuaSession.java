@@ -16,24 +16,35 @@
 
 package rs.ltt.jmap.mua.service;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ClassToInstanceMap;
 import com.google.common.collect.ImmutableClassToInstanceMap;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.Closeable;
+import java.time.Duration;
 import java.util.concurrent.Executors;
 import rs.ltt.jmap.client.JmapClient;
 import rs.ltt.jmap.mua.cache.Cache;
+import rs.ltt.jmap.mua.cache.MutationJournal;
+import rs.ltt.jmap.mua.cache.UploadCache;
 
 public abstract class MuaSession implements Closeable {
 
     protected final JmapClient jmapClient;
     private final Cache cache;
+    private final MuaMetrics metrics;
     private final String accountId;
     private final ListeningExecutorService ioExecutorService =
             MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
     private final ImmutableClassToInstanceMap<AbstractMuaService> services;
     private Long queryPageSize = null;
+    private AdaptiveQueryPageSize adaptiveQueryPageSize = null;
+    private PrefetchPolicy prefetchPolicy = null;
+    private MutationJournal mutationJournal = null;
+    private Duration mutationFlushDelay = null;
+    private Duration syncDebounce = Duration.ZERO;
+    private UploadCache uploadCache = null;
 
     public MuaSession(
             final JmapClient jmapClient,
@@ -42,16 +53,19 @@ public abstract class MuaSession implements Closeable {
             final ClassToInstanceMap<PluginService.Plugin> plugins) {
         this.jmapClient = jmapClient;
         this.cache = cache;
+        this.metrics = new MuaMetrics(this.cache);
         this.accountId = accountId;
         this.services =
                 ImmutableClassToInstanceMap.<AbstractMuaService>builder()
                         .put(BinaryService.class, new BinaryService(this))
                         .put(EmailService.class, new EmailService(this))
                         .put(IdentityService.class, new IdentityService(this))
+                        .put(ImportService.class, new ImportService(this))
                         .put(MailboxService.class, new MailboxService(this))
                         .put(PluginService.class, new PluginService(this, plugins))
                         .put(QueryService.class, new QueryService(this))
                         .put(RefreshService.class, new RefreshService(this))
+                        .put(SyncService.class, new SyncService(this))
                         .put(ThreadService.class, new ThreadService(this))
                         .build();
     }
@@ -62,6 +76,9 @@ public abstract class MuaSession implements Closeable {
 
     @Override
     public void close() {
+        getService(QueryService.class).cancelPrefetches();
+        getService(EmailService.class).cancelScheduledMutationFlush();
+        getService(SyncService.class).stop();
         ioExecutorService.shutdown();
         jmapClient.close();
     }
@@ -74,6 +91,10 @@ public abstract class MuaSession implements Closeable {
         return cache;
     }
 
+    public MuaMetrics getMetrics() {
+        return metrics;
+    }
+
     public String getAccountId() {
         return accountId;
     }
@@ -89,4 +110,52 @@ public abstract class MuaSession implements Closeable {
     public void setQueryPageSize(Long queryPageSize) {
         this.queryPageSize = queryPageSize;
     }
+
+    public AdaptiveQueryPageSize getAdaptiveQueryPageSize() {
+        return adaptiveQueryPageSize;
+    }
+
+    public void setAdaptiveQueryPageSize(final AdaptiveQueryPageSize adaptiveQueryPageSize) {
+        this.adaptiveQueryPageSize = adaptiveQueryPageSize;
+    }
+
+    public PrefetchPolicy getPrefetchPolicy() {
+        return prefetchPolicy;
+    }
+
+    public void setPrefetchPolicy(final PrefetchPolicy prefetchPolicy) {
+        this.prefetchPolicy = prefetchPolicy;
+    }
+
+    public MutationJournal getMutationJournal() {
+        return mutationJournal;
+    }
+
+    public void setMutationJournal(final MutationJournal mutationJournal) {
+        this.mutationJournal = mutationJournal;
+    }
+
+    public Duration getMutationFlushDelay() {
+        return mutationFlushDelay;
+    }
+
+    public void setMutationFlushDelay(final Duration mutationFlushDelay) {
+        this.mutationFlushDelay = mutationFlushDelay;
+    }
+
+    public Duration getSyncDebounce() {
+        return syncDebounce;
+    }
+
+    public void setSyncDebounce(final Duration syncDebounce) {
+        this.syncDebounce = Preconditions.checkNotNull(syncDebounce, "Debounce can not be null");
+    }
+
+    public UploadCache getUploadCache() {
+        return uploadCache;
+    }
+
+    public void setUploadCache(final UploadCache uploadCache) {
+        this.uploadCache = uploadCache;
+    }
 }
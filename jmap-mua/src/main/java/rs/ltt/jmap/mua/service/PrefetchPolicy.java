@@ -0,0 +1,109 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.service;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Configures when {@link QueryService} fetches the next page of a query in the background and how
+ * many of the top items in a freshly loaded query get their email bodies fetched ahead of time.
+ */
+public class PrefetchPolicy {
+
+    private final long distance;
+    private final int maxConcurrentPrefetches;
+    private final long maxItems;
+    private final int warmUpItems;
+
+    private PrefetchPolicy(final Builder builder) {
+        this.distance = builder.distance;
+        this.maxConcurrentPrefetches = builder.maxConcurrentPrefetches;
+        this.maxItems = builder.maxItems;
+        this.warmUpItems = builder.warmUpItems;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The number of items between the currently displayed position and the end of the
+     *     cached query at which the next page will be prefetched
+     */
+    public long getDistance() {
+        return distance;
+    }
+
+    /** @return The number of prefetches (pages and warm ups) that may run at the same time */
+    public int getMaxConcurrentPrefetches() {
+        return maxConcurrentPrefetches;
+    }
+
+    /**
+     * @return The number of items in a cached query after which prefetching stops. Further pages
+     *     will only be loaded when explicitly requested.
+     */
+    public long getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * @return The number of items at the top of a query for which all body values will be fetched
+     *     after an initial query. 0 disables the warm up.
+     */
+    public int getWarmUpItems() {
+        return warmUpItems;
+    }
+
+    public static class Builder {
+        private long distance = 10;
+        private int maxConcurrentPrefetches = 1;
+        private long maxItems = 1000;
+        private int warmUpItems = 0;
+
+        private Builder() {}
+
+        public Builder distance(final long distance) {
+            this.distance = distance;
+            return this;
+        }
+
+        public Builder maxConcurrentPrefetches(final int maxConcurrentPrefetches) {
+            this.maxConcurrentPrefetches = maxConcurrentPrefetches;
+            return this;
+        }
+
+        public Builder maxItems(final long maxItems) {
+            this.maxItems = maxItems;
+            return this;
+        }
+
+        public Builder warmUpItems(final int warmUpItems) {
+            this.warmUpItems = warmUpItems;
+            return this;
+        }
+
+        public PrefetchPolicy build() {
+            Preconditions.checkArgument(distance >= 0, "distance must not be negative");
+            Preconditions.checkArgument(
+                    maxConcurrentPrefetches > 0, "maxConcurrentPrefetches must be greater than 0");
+            Preconditions.checkArgument(maxItems > 0, "maxItems must be greater than 0");
+            Preconditions.checkArgument(warmUpItems >= 0, "warmUpItems must not be negative");
+            return new PrefetchPolicy(this);
+        }
+    }
+}
@@ -21,10 +21,17 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
@@ -32,11 +39,14 @@ import org.slf4j.LoggerFactory;
 import rs.ltt.jmap.client.JmapClient;
 import rs.ltt.jmap.client.JmapRequest;
 import rs.ltt.jmap.client.MethodResponses;
+import rs.ltt.jmap.client.Priority;
 import rs.ltt.jmap.client.api.MethodErrorResponseException;
 import rs.ltt.jmap.client.session.Session;
 import rs.ltt.jmap.common.Request;
 import rs.ltt.jmap.common.entity.AddedItem;
 import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Thread;
+import rs.ltt.jmap.common.entity.TypedState;
 import rs.ltt.jmap.common.entity.capability.CoreCapability;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
 import rs.ltt.jmap.common.method.MethodErrorResponse;
@@ -48,15 +58,19 @@ import rs.ltt.jmap.common.method.error.AnchorNotFoundMethodErrorResponse;
 import rs.ltt.jmap.common.method.error.CannotCalculateChangesMethodErrorResponse;
 import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
 import rs.ltt.jmap.common.method.response.email.QueryChangesEmailMethodResponse;
+import rs.ltt.jmap.common.method.response.email.QueryEmailMethodResponse;
 import rs.ltt.jmap.common.method.response.thread.GetThreadMethodResponse;
 import rs.ltt.jmap.mua.Status;
 import rs.ltt.jmap.mua.cache.Missing;
+import rs.ltt.jmap.mua.cache.ObjectsState;
 import rs.ltt.jmap.mua.cache.QueryStateWrapper;
 import rs.ltt.jmap.mua.cache.QueryUpdate;
 import rs.ltt.jmap.mua.cache.exception.CacheReadException;
 import rs.ltt.jmap.mua.cache.exception.CacheWriteException;
 import rs.ltt.jmap.mua.cache.exception.CorruptCacheException;
 import rs.ltt.jmap.mua.cache.exception.InconsistentQueryStateException;
+import rs.ltt.jmap.mua.jfr.CacheWrites;
+import rs.ltt.jmap.mua.jfr.SyncCycle;
 import rs.ltt.jmap.mua.util.QueryResult;
 import rs.ltt.jmap.mua.util.QueryResultItem;
 
@@ -64,6 +78,8 @@ public class QueryService extends AbstractMuaService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryService.class);
 
+    private final Map<String, ListenableFuture<Status>> prefetches = new HashMap<>();
+
     public QueryService(MuaSession muaSession) {
         super(muaSession);
     }
@@ -93,49 +109,325 @@ public class QueryService extends AbstractMuaService {
 
     public ListenableFuture<Status> query(
             @Nonnull final EmailQuery query, final Boolean calculateTotal) {
+        final SyncCycle cycle = SyncCycle.begin("query", null);
         final ListenableFuture<QueryStateWrapper> queryStateFuture =
                 ioExecutorService.submit(() -> cache.getQueryState(query.asHash()));
 
-        return Futures.transformAsync(
-                queryStateFuture,
-                queryStateWrapper -> {
-                    Preconditions.checkNotNull(
-                            queryStateWrapper, "QueryStateWrapper can not be null");
-                    if (!queryStateWrapper.canCalculateChanges || queryStateWrapper.upTo == null) {
-                        return initialQuery(query, calculateTotal, queryStateWrapper);
-                    } else {
-                        Preconditions.checkNotNull(
-                                queryStateWrapper.objectsState,
-                                "ObjectsState can not be null if queryState was not");
-                        Preconditions.checkNotNull(
-                                queryStateWrapper.objectsState.emailState,
-                                "emailState can not be null if queryState was not");
-                        Preconditions.checkNotNull(
-                                queryStateWrapper.objectsState.threadState,
-                                "threadState can not be null if queryState was not");
-                        return refreshQuery(query, calculateTotal, queryStateWrapper);
-                    }
-                },
-                MoreExecutors.directExecutor());
+        return cycle.end(
+                Futures.transformAsync(
+                        queryStateFuture,
+                        queryStateWrapper -> {
+                            Preconditions.checkNotNull(
+                                    queryStateWrapper, "QueryStateWrapper can not be null");
+                            if (!queryStateWrapper.canCalculateChanges
+                                    || queryStateWrapper.upTo == null) {
+                                cycle.setKind("initial");
+                                metrics.onInitialQuery();
+                                return initialQuery(
+                                        query, calculateTotal, queryStateWrapper, cycle);
+                            } else {
+                                Preconditions.checkNotNull(
+                                        queryStateWrapper.objectsState,
+                                        "ObjectsState can not be null if queryState was not");
+                                Preconditions.checkNotNull(
+                                        queryStateWrapper.objectsState.emailState,
+                                        "emailState can not be null if queryState was not");
+                                Preconditions.checkNotNull(
+                                        queryStateWrapper.objectsState.threadState,
+                                        "threadState can not be null if queryState was not");
+                                cycle.setKind("refresh");
+                                metrics.onQueryCacheHit();
+                                return recordRefresh(
+                                        refreshQuery(
+                                                query, calculateTotal, queryStateWrapper, cycle));
+                            }
+                        },
+                        MoreExecutors.directExecutor()));
     }
 
     public ListenableFuture<Status> query(
             @Nonnull final EmailQuery query,
             final Boolean calculateTotal,
             final String afterEmailId) {
+        final ListenableFuture<Status> pendingPrefetch = getPendingPrefetch(query.asHash());
+        if (pendingPrefetch != null) {
+            LOGGER.debug("Waiting for pending prefetch of {}", query);
+            return Futures.transformAsync(
+                    Futures.catching(
+                            pendingPrefetch,
+                            Exception.class,
+                            e -> Status.UNCHANGED,
+                            MoreExecutors.directExecutor()),
+                    status -> queryAfterPrefetch(query, calculateTotal, afterEmailId),
+                    MoreExecutors.directExecutor());
+        }
+        final SyncCycle cycle = SyncCycle.begin("query", "page");
+        final ListenableFuture<QueryStateWrapper> queryStateFuture =
+                ioExecutorService.submit(() -> cache.getQueryState(query.asHash()));
+        return cycle.end(
+                Futures.transformAsync(
+                        jmapClient.getSession(),
+                        session ->
+                                Futures.transformAsync(
+                                        queryStateFuture,
+                                        queryStateWrapper ->
+                                                query(
+                                                        query,
+                                                        calculateTotal,
+                                                        afterEmailId,
+                                                        queryStateWrapper,
+                                                        Preconditions.checkNotNull(
+                                                                session,
+                                                                "Session object must not be null"),
+                                                        Priority.NORMAL,
+                                                        cycle),
+                                        MoreExecutors.directExecutor()),
+                        MoreExecutors.directExecutor()));
+    }
+
+    private ListenableFuture<Status> queryAfterPrefetch(
+            @Nonnull final EmailQuery query,
+            final Boolean calculateTotal,
+            final String afterEmailId) {
         final ListenableFuture<QueryStateWrapper> queryStateFuture =
                 ioExecutorService.submit(() -> cache.getQueryState(query.asHash()));
         return Futures.transformAsync(
                 queryStateFuture,
-                queryStateWrapper -> query(query, calculateTotal, afterEmailId, queryStateWrapper),
+                queryStateWrapper -> {
+                    final QueryStateWrapper.UpTo upTo =
+                            Preconditions.checkNotNull(queryStateWrapper).upTo;
+                    if (upTo != null && !upTo.id.equals(afterEmailId)) {
+                        LOGGER.debug("Prefetch has already loaded the page after {}", afterEmailId);
+                        return Futures.immediateFuture(Status.UPDATED);
+                    }
+                    return query(query, calculateTotal, afterEmailId);
+                },
                 MoreExecutors.directExecutor());
     }
 
+    /**
+     * Loads the next page of a query in the background if the given position is within the distance
+     * configured in the {@link PrefetchPolicy}. Prefetches are deduplicated per query and limited
+     * by the number of concurrent prefetches as well as the maximum number of items in a cached
+     * query.
+     *
+     * @param query The query that is currently displayed
+     * @param position The position of the currently displayed item
+     * @return A future that can be cancelled. UNCHANGED if no page was fetched.
+     */
+    public ListenableFuture<Status> prefetch(@Nonnull final EmailQuery query, final long position) {
+        Preconditions.checkNotNull(query, "Query can not be null");
+        final PrefetchPolicy prefetchPolicy = getPrefetchPolicy();
+        if (prefetchPolicy == null) {
+            return Futures.immediateFuture(Status.UNCHANGED);
+        }
+        final String queryHash = query.asHash();
+        return registerPrefetch(
+                queryHash,
+                prefetchPolicy,
+                () ->
+                        Futures.transformAsync(
+                                ioExecutorService.submit(() -> cache.getQueryState(queryHash)),
+                                queryStateWrapper -> {
+                                    if (!shouldPrefetch(
+                                            queryStateWrapper, position, prefetchPolicy)) {
+                                        return Futures.immediateFuture(Status.UNCHANGED);
+                                    }
+                                    LOGGER.info(
+                                            "Prefetching next page of {} at position {}",
+                                            query,
+                                            position);
+                                    final SyncCycle cycle = SyncCycle.begin("query", "prefetch");
+                                    return cycle.end(
+                                            Futures.transformAsync(
+                                                    jmapClient.getSession(),
+                                                    session ->
+                                                            query(
+                                                                    query,
+                                                                    null,
+                                                                    queryStateWrapper.upTo.id,
+                                                                    queryStateWrapper,
+                                                                    Preconditions.checkNotNull(
+                                                                            session,
+                                                                            "Session object must"
+                                                                                + " not be null"),
+                                                                    Priority.BACKGROUND,
+                                                                    cycle),
+                                                    MoreExecutors.directExecutor()));
+                                },
+                                MoreExecutors.directExecutor()));
+    }
+
+    private static boolean shouldPrefetch(
+            @Nullable final QueryStateWrapper queryStateWrapper,
+            final long position,
+            final PrefetchPolicy prefetchPolicy) {
+        if (queryStateWrapper == null || queryStateWrapper.upTo == null) {
+            return false;
+        }
+        if (queryStateWrapper.canCalculateChanges && queryStateWrapper.queryState == null) {
+            return false;
+        }
+        final long upToPosition = queryStateWrapper.upTo.position;
+        if (upToPosition + 1 >= prefetchPolicy.getMaxItems()) {
+            LOGGER.debug("Not prefetching. Query already holds {} items", upToPosition + 1);
+            return false;
+        }
+        return upToPosition - position <= prefetchPolicy.getDistance();
+    }
+
+    /** Cancels all pending prefetches and warm ups. */
+    public void cancelPrefetches() {
+        final List<ListenableFuture<Status>> pending;
+        synchronized (this.prefetches) {
+            pending = new ArrayList<>(this.prefetches.values());
+            this.prefetches.clear();
+        }
+        for (final ListenableFuture<Status> future : pending) {
+            future.cancel(false);
+        }
+    }
+
+    @Nullable
+    private ListenableFuture<Status> getPendingPrefetch(final String key) {
+        synchronized (this.prefetches) {
+            final ListenableFuture<Status> pending = this.prefetches.get(key);
+            return pending == null || pending.isDone() ? null : pending;
+        }
+    }
+
+    private ListenableFuture<Status> registerPrefetch(
+            final String key,
+            final PrefetchPolicy prefetchPolicy,
+            final Supplier<ListenableFuture<Status>> supplier) {
+        final SettableFuture<Status> settableFuture = SettableFuture.create();
+        synchronized (this.prefetches) {
+            // futures are removed by a listener which might not have run yet
+            this.prefetches.values().removeIf(ListenableFuture::isDone);
+            final ListenableFuture<Status> pending = this.prefetches.get(key);
+            if (pending != null) {
+                return pending;
+            }
+            if (this.prefetches.size() >= prefetchPolicy.getMaxConcurrentPrefetches()) {
+                LOGGER.debug("Not prefetching {}. Too many prefetches in progress", key);
+                return Futures.immediateFuture(Status.UNCHANGED);
+            }
+            this.prefetches.put(key, settableFuture);
+        }
+        settableFuture.addListener(
+                () -> {
+                    synchronized (this.prefetches) {
+                        this.prefetches.remove(key, settableFuture);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        try {
+            settableFuture.setFuture(supplier.get());
+        } catch (final RuntimeException e) {
+            settableFuture.setException(e);
+        }
+        return settableFuture;
+    }
+
+    private void warmUp(final EmailQuery query, final QueryResult queryResult) {
+        final PrefetchPolicy prefetchPolicy = getPrefetchPolicy();
+        if (prefetchPolicy == null || prefetchPolicy.getWarmUpItems() == 0) {
+            return;
+        }
+        final LinkedHashSet<String> threadIds = new LinkedHashSet<>();
+        for (final QueryResultItem item : queryResult.items) {
+            if (threadIds.size() >= prefetchPolicy.getWarmUpItems()) {
+                break;
+            }
+            threadIds.add(item.getThreadId());
+        }
+        if (threadIds.isEmpty()) {
+            return;
+        }
+        LOGGER.info("Warming up {} threads of {}", threadIds.size(), query);
+        final ListenableFuture<Status> future =
+                registerPrefetch(
+                        String.format("warm-up:%s", query.asHash()),
+                        prefetchPolicy,
+                        () ->
+                                Futures.transformAsync(
+                                        ioExecutorService.submit(
+                                                () ->
+                                                        cache.getEmailIdsWithoutBodyValues(
+                                                                threadIds)),
+                                        this::fetchBodyValues,
+                                        MoreExecutors.directExecutor()));
+        Futures.addCallback(
+                future,
+                new FutureCallback<Status>() {
+                    @Override
+                    public void onSuccess(@Nullable Status status) {}
+
+                    @Override
+                    public void onFailure(@Nonnull Throwable throwable) {
+                        LOGGER.info("Unable to warm up threads of {}", query, throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Fetches all body values of emails that are already in the cache. Emails that have been
+     * modified in the meantime are left to the regular update.
+     */
+    private ListenableFuture<Status> fetchBodyValues(final Collection<String> emailIds) {
+        if (emailIds.isEmpty()) {
+            return Futures.immediateFuture(Status.UNCHANGED);
+        }
+        LOGGER.info("fetching body values of {} emails", emailIds.size());
+        final ListenableFuture<MethodResponses> getEmailResponsesFuture =
+                jmapClient.call(
+                        GetEmailMethodCall.builder()
+                                .accountId(accountId)
+                                .ids(emailIds.toArray(new String[0]))
+                                .fetchTextBodyValues(true)
+                                .fetchAllBodyValues(true)
+                                .properties(Email.Properties.LTTRS_DEFAULT)
+                                .build(),
+                        Priority.BACKGROUND);
+        return Futures.transformAsync(
+                getEmailResponsesFuture,
+                methodResponses -> {
+                    final GetEmailMethodResponse getEmailMethodResponse =
+                            methodResponses.getMain(GetEmailMethodResponse.class);
+                    final ObjectsState objectsState = cache.getObjectsState();
+                    final TypedState<Email> emailState = getEmailMethodResponse.getTypedState();
+                    if (objectsState.emailState == null
+                            || !objectsState.emailState.equals(emailState.getState())) {
+                        LOGGER.debug("Discarding body values. Email state has changed");
+                        return Futures.immediateFuture(Status.UNCHANGED);
+                    }
+                    getService(PluginService.class)
+                            .executeEmailCacheStagePlugins(getEmailMethodResponse.getList());
+                    recordCacheWrite(
+                            "addThreadsAndEmail",
+                            "Email",
+                            CacheWrites.length(getEmailMethodResponse.getList()),
+                            () ->
+                                    cache.addThreadsAndEmail(
+                                            TypedState.of(objectsState.threadState),
+                                            new Thread[0],
+                                            emailState,
+                                            getEmailMethodResponse.getList()));
+                    reapplyPendingMutations(getEmailMethodResponse.getList());
+                    return Futures.immediateFuture(Status.UPDATED);
+                },
+                ioExecutorService);
+    }
+
     private ListenableFuture<Status> query(
             @Nonnull final EmailQuery query,
             final Boolean calculateTotal,
             @Nonnull final String afterEmailId,
-            final QueryStateWrapper queryStateWrapper) {
+            final QueryStateWrapper queryStateWrapper,
+            @Nonnull final Session session,
+            final Priority priority,
+            final SyncCycle cycle) {
         Preconditions.checkNotNull(query, "Query can not be null");
         Preconditions.checkNotNull(afterEmailId, "afterEmailId can not be null");
         Preconditions.checkNotNull(
@@ -156,10 +448,11 @@ public class QueryService extends AbstractMuaService {
             throw new InconsistentQueryStateException(
                     "upToId from QueryState needs to match the supplied afterEmailId");
         }
-        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall(priority);
         final ListenableFuture<Status> queryRefreshFuture;
         if (queryStateWrapper.canCalculateChanges) {
-            queryRefreshFuture = refreshQuery(query, calculateTotal, queryStateWrapper, multiCall);
+            queryRefreshFuture =
+                    refreshQuery(query, calculateTotal, queryStateWrapper, multiCall, cycle);
         } else {
             LOGGER.debug("Skipping queryChanges because canCalculateChanges was false");
             queryRefreshFuture = null;
@@ -171,7 +464,7 @@ public class QueryService extends AbstractMuaService {
                                 .accountId(accountId)
                                 .query(query)
                                 .anchor(afterEmailId)
-                                .limit(getQueryPageSize())
+                                .limit(getQueryPageSize(session))
                                 .build());
         final ListenableFuture<MethodResponses> queryResponsesFuture =
                 queryCall.getMethodResponses();
@@ -205,18 +498,51 @@ public class QueryService extends AbstractMuaService {
                             //  2) store new items
                             ensureExecuted(queryRefreshFuture);
                             addQueryResult(query, afterEmailId, queryResult);
-                            return fetchMissing(query.asHash());
+                            return fetchMissing(query.asHash(), priority, cycle);
                         },
                         ioExecutorService);
+        final long start = System.nanoTime();
+        cycle.onRoundTrip();
         multiCall.execute();
+        registerPageSizeCallback(queryResponsesFuture, start);
         return result;
     }
 
+    private void registerPageSizeCallback(
+            final ListenableFuture<MethodResponses> queryResponsesFuture, final long start) {
+        final AdaptiveQueryPageSize adaptiveQueryPageSize = getAdaptiveQueryPageSize();
+        if (adaptiveQueryPageSize == null) {
+            return;
+        }
+        Futures.addCallback(
+                queryResponsesFuture,
+                new FutureCallback<MethodResponses>() {
+                    @Override
+                    public void onSuccess(@Nullable MethodResponses methodResponses) {
+                        final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+                        final QueryEmailMethodResponse queryResponse =
+                                Preconditions.checkNotNull(methodResponses)
+                                        .getMain(QueryEmailMethodResponse.class);
+                        final String[] ids = queryResponse.getIds();
+                        adaptiveQueryPageSize.onPageReceived(
+                                ids == null ? 0 : ids.length, duration);
+                    }
+
+                    @Override
+                    public void onFailure(@Nonnull Throwable throwable) {}
+                },
+                MoreExecutors.directExecutor());
+    }
+
     private void addQueryResult(
             final EmailQuery query, String afterEmailId, final QueryResult queryResult)
             throws CacheWriteException {
         try {
-            cache.addQueryResult(query.asHash(), afterEmailId, queryResult);
+            recordCacheWrite(
+                    "addQueryResult",
+                    "Query",
+                    CacheWrites.length(queryResult.items),
+                    () -> cache.addQueryResult(query.asHash(), afterEmailId, queryResult));
         } catch (final CorruptCacheException e) {
             LOGGER.info("Invalidating query result cache after cache corruption", e);
             cache.invalidateQueryResult(query.asHash());
@@ -227,10 +553,12 @@ public class QueryService extends AbstractMuaService {
     private ListenableFuture<Status> refreshQuery(
             @Nonnull final EmailQuery query,
             final Boolean calculateTotal,
-            @Nonnull final QueryStateWrapper queryStateWrapper) {
+            @Nonnull final QueryStateWrapper queryStateWrapper,
+            final SyncCycle cycle) {
         final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
         ListenableFuture<Status> future =
-                refreshQuery(query, calculateTotal, queryStateWrapper, multiCall);
+                refreshQuery(query, calculateTotal, queryStateWrapper, multiCall, cycle);
+        cycle.onRoundTrip();
         multiCall.execute();
         return future;
     }
@@ -239,7 +567,8 @@ public class QueryService extends AbstractMuaService {
             @Nonnull final EmailQuery query,
             @Nullable final Boolean calculateTotal,
             @Nonnull final QueryStateWrapper queryStateWrapper,
-            final JmapClient.MultiCall multiCall) {
+            final JmapClient.MultiCall multiCall,
+            final SyncCycle cycle) {
         Preconditions.checkNotNull(
                 queryStateWrapper.queryState,
                 "QueryState can not be null when attempting to refresh query");
@@ -301,8 +630,16 @@ public class QueryService extends AbstractMuaService {
                     Status queryUpdateStatus = Status.of(queryUpdate);
 
                     if (queryUpdate.hasChanges()) {
-                        cache.updateQueryResults(
-                                query.asHash(), queryUpdate, getThreadIdsResponse.getTypedState());
+                        recordCacheWrite(
+                                "updateQueryResults",
+                                "Query",
+                                CacheWrites.length(queryUpdate.getRemoved())
+                                        + queryUpdate.getAdded().size(),
+                                () ->
+                                        cache.updateQueryResults(
+                                                query.asHash(),
+                                                queryUpdate,
+                                                getThreadIdsResponse.getTypedState()));
                     }
 
                     final List<ListenableFuture<Status>> list = new ArrayList<>();
@@ -310,7 +647,7 @@ public class QueryService extends AbstractMuaService {
                     list.add(Futures.immediateFuture(queryUpdateStatus));
                     // it might be that a previous fetchMissing() has failed. so better safe than
                     // sorry
-                    list.add(fetchMissing(query.asHash()));
+                    list.add(fetchMissing(query.asHash(), cycle));
                     return transform(list);
                 },
                 ioExecutorService);
@@ -342,6 +679,10 @@ public class QueryService extends AbstractMuaService {
                                         "Invalidating query result cache after receiving {}"
                                                 + " response",
                                         methodError);
+                                if (methodError
+                                        == CannotCalculateChangesMethodErrorResponse.class) {
+                                    metrics.onCannotCalculateChanges("Query");
+                                }
                                 cache.invalidateQueryResult(query.asHash());
                             } else {
                                 LOGGER.info(
@@ -358,7 +699,8 @@ public class QueryService extends AbstractMuaService {
     private ListenableFuture<Status> initialQuery(
             @Nonnull final EmailQuery query,
             @Nullable final Boolean calculateTotal,
-            @Nonnull final QueryStateWrapper queryStateWrapper) {
+            @Nonnull final QueryStateWrapper queryStateWrapper,
+            final SyncCycle cycle) {
         return Futures.transformAsync(
                 jmapClient.getSession(),
                 session ->
@@ -367,7 +709,8 @@ public class QueryService extends AbstractMuaService {
                                 calculateTotal,
                                 queryStateWrapper,
                                 Preconditions.checkNotNull(
-                                        session, "Session object must not be null")),
+                                        session, "Session object must not be null"),
+                                cycle),
                 MoreExecutors.directExecutor());
     }
 
@@ -375,7 +718,8 @@ public class QueryService extends AbstractMuaService {
             @Nonnull final EmailQuery query,
             @Nullable final Boolean calculateTotal,
             @Nonnull final QueryStateWrapper queryStateWrapper,
-            @Nonnull Session session) {
+            @Nonnull Session session,
+            final SyncCycle cycle) {
 
         Preconditions.checkState(
                 !queryStateWrapper.canCalculateChanges || queryStateWrapper.upTo == null,
@@ -447,7 +791,10 @@ public class QueryService extends AbstractMuaService {
             getEmailResponsesFuture = null;
         }
 
+        final long start = System.nanoTime();
+        cycle.onRoundTrip();
         multiCall.execute();
+        registerPageSizeCallback(queryResponsesFuture, start);
         return Futures.transformAsync(
                 queryResultFuture,
                 queryResult -> {
@@ -468,11 +815,18 @@ public class QueryService extends AbstractMuaService {
                                 getEmailResponsesFuture.get().getMain(GetEmailMethodResponse.class);
                         getService(PluginService.class)
                                 .executeEmailCacheStagePlugins(getEmailResponse.getList());
-                        cache.setThreadsAndEmails(
-                                getThreadsResponse.getTypedState(),
-                                getThreadsResponse.getList(),
-                                getEmailResponse.getTypedState(),
-                                getEmailResponse.getList());
+                        recordCacheWrite(
+                                "setThreadsAndEmails",
+                                "Thread,Email",
+                                CacheWrites.length(getThreadsResponse.getList())
+                                        + CacheWrites.length(getEmailResponse.getList()),
+                                () ->
+                                        cache.setThreadsAndEmails(
+                                                getThreadsResponse.getTypedState(),
+                                                getThreadsResponse.getList(),
+                                                getEmailResponse.getTypedState(),
+                                                getEmailResponse.getList()));
+                        reapplyPendingMutations(getEmailResponse.getList());
                     }
 
                     if (queryResult.position != 0) {
@@ -482,23 +836,33 @@ public class QueryService extends AbstractMuaService {
                                         + " in response to initial query. We expected 0");
                     }
 
-                    cache.setQueryResult(query.asHash(), queryResult);
+                    recordCacheWrite(
+                            "setQueryResult",
+                            "Query",
+                            CacheWrites.length(queryResult.items),
+                            () -> cache.setQueryResult(query.asHash(), queryResult));
 
+                    final ListenableFuture<Status> statusFuture;
                     if (getThreadsResponsesFuture != null && getEmailResponsesFuture != null) {
-                        return Futures.immediateFuture(Status.UPDATED);
+                        statusFuture = Futures.immediateFuture(Status.UPDATED);
                     } else {
                         List<ListenableFuture<Status>> list = new ArrayList<>();
                         list.add(Futures.immediateFuture(Status.UPDATED));
-                        list.add(fetchMissing(query.asHash()));
-                        return transform(list);
+                        list.add(fetchMissing(query.asHash(), cycle));
+                        statusFuture = transform(list);
                     }
+                    // warm up runs after missing threads have been fetched to avoid state
+                    // conflicts but is not part of the returned status
+                    statusFuture.addListener(
+                            () -> warmUp(query, queryResult), MoreExecutors.directExecutor());
+                    return statusFuture;
                 },
                 ioExecutorService);
     }
 
     private Long calculateQueryPageSize(
             final QueryStateWrapper queryStateWrapper, final Session session) {
-        final Long configuredQueryPageSize = getQueryPageSize();
+        final Long configuredQueryPageSize = getQueryPageSize(session);
         if (queryStateWrapper.upTo != null) {
             final long currentNumberOfItemsInCache = queryStateWrapper.upTo.position + 1;
             if (configuredQueryPageSize == null
@@ -526,24 +890,35 @@ public class QueryService extends AbstractMuaService {
         }
     }
 
-    private ListenableFuture<Status> fetchMissing(@Nonnull final String queryString) {
+    private ListenableFuture<Status> fetchMissing(
+            @Nonnull final String queryString, final SyncCycle cycle) {
+        return fetchMissing(queryString, Priority.NORMAL, cycle);
+    }
+
+    private ListenableFuture<Status> fetchMissing(
+            @Nonnull final String queryString, final Priority priority, final SyncCycle cycle) {
         Preconditions.checkNotNull(queryString, "QueryString can not be null");
         try {
-            return fetchMissing(cache.getMissing(queryString));
+            final Missing missing = cache.getMissing(queryString);
+            if (missing.threadIds != null && missing.threadIds.size() > 0) {
+                metrics.onMissingThreadsFetched(missing.threadIds.size());
+            }
+            return fetchThreads(missing, priority, cycle);
         } catch (CacheReadException e) {
             return Futures.immediateFailedFuture(e);
         }
     }
 
-    private ListenableFuture<Status> fetchMissing(final Missing missing) {
+    private ListenableFuture<Status> fetchThreads(
+            final Missing missing, final Priority priority, final SyncCycle cycle) {
         Preconditions.checkNotNull(missing, "Missing can not be null");
         Preconditions.checkNotNull(
                 missing.threadIds, "Missing.ThreadIds can not be null; pass empty list instead");
         if (missing.threadIds.size() == 0) {
             return Futures.immediateFuture(Status.UNCHANGED);
         }
-        LOGGER.info("fetching " + missing.threadIds.size() + " missing threads");
-        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        LOGGER.info("fetching {} threads", missing.threadIds.size());
+        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall(priority);
         final ListenableFuture<Status> updateThreadsFuture =
                 getService(ThreadService.class).updateThreads(missing.threadState, multiCall);
         final ListenableFuture<Status> updateEmailsFuture =
@@ -569,6 +944,7 @@ public class QueryService extends AbstractMuaService {
                                         .properties(Email.Properties.LTTRS_DEFAULT)
                                         .build())
                         .getMethodResponses();
+        cycle.onRoundTrip();
         multiCall.execute();
         return Futures.transformAsync(
                 getThreadsResponsesFuture,
@@ -589,11 +965,18 @@ public class QueryService extends AbstractMuaService {
                             getEmailsResponsesFuture.get().getMain(GetEmailMethodResponse.class);
                     getService(PluginService.class)
                             .executeEmailCacheStagePlugins(getEmailMethodResponse.getList());
-                    cache.addThreadsAndEmail(
-                            getThreadMethodResponse.getTypedState(),
-                            getThreadMethodResponse.getList(),
-                            getEmailMethodResponse.getTypedState(),
-                            getEmailMethodResponse.getList());
+                    recordCacheWrite(
+                            "addThreadsAndEmail",
+                            "Thread,Email",
+                            CacheWrites.length(getThreadMethodResponse.getList())
+                                    + CacheWrites.length(getEmailMethodResponse.getList()),
+                            () ->
+                                    cache.addThreadsAndEmail(
+                                            getThreadMethodResponse.getTypedState(),
+                                            getThreadMethodResponse.getList(),
+                                            getEmailMethodResponse.getTypedState(),
+                                            getEmailMethodResponse.getList()));
+                    reapplyPendingMutations(getEmailMethodResponse.getList());
 
                     return Futures.immediateFuture(Status.UPDATED);
                 },
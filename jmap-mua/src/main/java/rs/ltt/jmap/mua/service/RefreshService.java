@@ -22,8 +22,10 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.List;
 import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.Priority;
 import rs.ltt.jmap.mua.Status;
 import rs.ltt.jmap.mua.cache.ObjectsState;
+import rs.ltt.jmap.mua.jfr.SyncCycle;
 
 public class RefreshService extends AbstractMuaService {
 
@@ -37,10 +39,12 @@ public class RefreshService extends AbstractMuaService {
     }
 
     public ListenableFuture<Status> refresh(ObjectsState objectsState) {
-        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall();
+        final SyncCycle cycle = SyncCycle.begin("refresh", null);
+        final JmapClient.MultiCall multiCall = jmapClient.newMultiCall(Priority.BACKGROUND);
         List<ListenableFuture<Status>> futuresList = refresh(objectsState, multiCall);
+        cycle.onRoundTrip();
         multiCall.execute();
-        return transform(futuresList);
+        return cycle.end(recordRefresh(transform(futuresList)));
     }
 
     public List<ListenableFuture<Status>> refresh(
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.Priority;
+import rs.ltt.jmap.client.event.OnStateChangeListener;
+import rs.ltt.jmap.client.event.PushService;
+import rs.ltt.jmap.common.entity.*;
+import rs.ltt.jmap.common.entity.Thread;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mua.Status;
+import rs.ltt.jmap.mua.cache.ObjectsState;
+
+/**
+ * Keeps the cache up to date by listening to push notifications. Bursts of StateChanges are
+ * collected for the duration of the debounce window and result in a single refresh. Only types
+ * whose state differs from the cached state are refreshed. If emails, threads or mailboxes changed
+ * and there are active queries those queries are refreshed instead (a query refresh brings emails,
+ * threads and mailboxes up to date as well).
+ */
+public class SyncService extends AbstractMuaService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncService.class);
+
+    private static final int MAX_SYNC_ROUNDS = 10;
+
+    private static final List<Class<? extends AbstractIdentifiableEntity>> TYPES =
+            ImmutableList.of(Mailbox.class, Email.class, Thread.class, Identity.class);
+
+    private final OnStateChangeListener onStateChangeListener = this::onStateChange;
+    private final Map<Class<? extends AbstractIdentifiableEntity>, String> pendingChanges =
+            new HashMap<>();
+    private final Set<EmailQuery> activeQueries = new LinkedHashSet<>();
+    private ListenableFuture<PushService> pushServiceFuture;
+    private ScheduledFuture<?> scheduledSync;
+    private ListenableFuture<Status> currentSync;
+
+    public SyncService(final MuaSession muaSession) {
+        super(muaSession);
+    }
+
+    /**
+     * Subscribes to push notifications. Calling this multiple times has no effect.
+     *
+     * @return The PushService that has been subscribed to
+     */
+    public ListenableFuture<PushService> start() {
+        synchronized (this.pendingChanges) {
+            if (this.pushServiceFuture == null) {
+                LOGGER.info("Starting push driven sync");
+                this.pushServiceFuture =
+                        jmapClient.monitorEvents(this.onStateChangeListener, TYPES);
+            }
+            return this.pushServiceFuture;
+        }
+    }
+
+    public void stop() {
+        final ListenableFuture<PushService> pushServiceFuture;
+        synchronized (this.pendingChanges) {
+            pushServiceFuture = this.pushServiceFuture;
+            this.pushServiceFuture = null;
+            this.pendingChanges.clear();
+            if (this.scheduledSync != null) {
+                this.scheduledSync.cancel(false);
+                this.scheduledSync = null;
+            }
+        }
+        if (pushServiceFuture == null) {
+            return;
+        }
+        LOGGER.info("Stopping push driven sync");
+        Futures.addCallback(
+                pushServiceFuture,
+                new FutureCallback<PushService>() {
+                    @Override
+                    public void onSuccess(final PushService pushService) {
+                        pushService.removeOnStateChangeListener(onStateChangeListener);
+                    }
+
+                    @Override
+                    public void onFailure(@Nonnull final Throwable throwable) {}
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    public void addActiveQuery(@Nonnull final EmailQuery query) {
+        Preconditions.checkNotNull(query, "Query can not be null");
+        synchronized (this.activeQueries) {
+            this.activeQueries.add(query);
+        }
+    }
+
+    public void removeActiveQuery(@Nonnull final EmailQuery query) {
+        synchronized (this.activeQueries) {
+            this.activeQueries.remove(query);
+        }
+    }
+
+    private boolean onStateChange(final StateChange stateChange) {
+        final Map<String, Map<Class<? extends AbstractIdentifiableEntity>, String>> changed =
+                stateChange.getChanged();
+        final Map<Class<? extends AbstractIdentifiableEntity>, String> accountChanges =
+                changed == null ? null : changed.get(accountId);
+        if (accountChanges == null || accountChanges.isEmpty()) {
+            return false;
+        }
+        LOGGER.debug("Received state change {}", accountChanges);
+        synchronized (this.pendingChanges) {
+            if (this.pushServiceFuture == null) {
+                return false;
+            }
+            this.pendingChanges.putAll(accountChanges);
+            if (this.scheduledSync == null) {
+                final Duration debounce = getSyncDebounce();
+                this.scheduledSync =
+                        jmapClient
+                                .getTransport()
+                                .getScheduledExecutorService()
+                                .schedule(
+                                        this::syncPendingChanges,
+                                        debounce.toMillis(),
+                                        TimeUnit.MILLISECONDS);
+            }
+        }
+        return true;
+    }
+
+    private void syncPendingChanges() {
+        final Map<Class<? extends AbstractIdentifiableEntity>, String> changes;
+        final ListenableFuture<Status> sync;
+        synchronized (this.pendingChanges) {
+            changes = ImmutableMap.copyOf(this.pendingChanges);
+            this.pendingChanges.clear();
+            this.scheduledSync = null;
+            final ListenableFuture<Status> previous = this.currentSync;
+            if (previous == null || previous.isDone()) {
+                sync = sync(changes, 1);
+            } else {
+                // never run two syncs at the same time; they would both fetch the same changes
+                sync =
+                        Futures.transformAsync(
+                                Futures.catching(
+                                        previous,
+                                        Exception.class,
+                                        e -> Status.UNCHANGED,
+                                        MoreExecutors.directExecutor()),
+                                status -> sync(changes, 1),
+                                MoreExecutors.directExecutor());
+            }
+            this.currentSync = sync;
+        }
+        Futures.addCallback(
+                sync,
+                new FutureCallback<Status>() {
+                    @Override
+                    public void onSuccess(final Status status) {
+                        LOGGER.debug("Push driven sync finished with {}", status);
+                    }
+
+                    @Override
+                    public void onFailure(@Nonnull final Throwable throwable) {
+                        LOGGER.info("Push driven sync failed", throwable);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Status> sync(
+            final Map<Class<? extends AbstractIdentifiableEntity>, String> changes,
+            final int round) {
+        return Futures.transformAsync(
+                ioExecutorService.submit(
+                        () -> new CachedStates(cache.getObjectsState(), cache.getIdentityState())),
+                cachedStates -> {
+                    final Set<Class<? extends AbstractIdentifiableEntity>> outdated =
+                            Preconditions.checkNotNull(cachedStates).outdated(changes);
+                    if (outdated.isEmpty()) {
+                        return Futures.immediateFuture(Status.UNCHANGED);
+                    }
+                    LOGGER.info("Refreshing {} after state change", outdated);
+                    final ListenableFuture<Status> status =
+                            recordRefresh(refresh(outdated, cachedStates.objectsState));
+                    return Futures.transformAsync(
+                            status,
+                            s -> {
+                                if (s == Status.HAS_MORE && round < MAX_SYNC_ROUNDS) {
+                                    return sync(changes, round + 1);
+                                }
+                                return Futures.immediateFuture(s);
+                            },
+                            MoreExecutors.directExecutor());
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Status> refresh(
+            final Set<Class<? extends AbstractIdentifiableEntity>> outdated,
+            final ObjectsState objectsState) {
+        final ImmutableList.Builder<ListenableFuture<Status>> futures = ImmutableList.builder();
+        if (outdated.contains(Identity.class)) {
+            futures.add(getService(IdentityService.class).refreshIdentities());
+        }
+        final boolean objectsOutdated =
+                outdated.contains(Mailbox.class)
+                        || outdated.contains(Email.class)
+                        || outdated.contains(Thread.class);
+        final List<EmailQuery> queries;
+        synchronized (this.activeQueries) {
+            queries = ImmutableList.copyOf(this.activeQueries);
+        }
+        if (objectsOutdated && queries.size() > 0) {
+            futures.add(refreshQueries(queries.iterator(), ImmutableList.builder()));
+        } else if (objectsOutdated) {
+            final JmapClient.MultiCall multiCall = jmapClient.newMultiCall(Priority.BACKGROUND);
+            if (outdated.contains(Mailbox.class)) {
+                futures.add(
+                        getService(MailboxService.class)
+                                .updateMailboxes(objectsState.mailboxState, multiCall));
+            }
+            // like in RefreshService emails are updated before threads
+            if (outdated.contains(Email.class)) {
+                futures.add(
+                        getService(EmailService.class)
+                                .updateEmails(objectsState.emailState, multiCall));
+            }
+            if (outdated.contains(Thread.class)) {
+                futures.add(
+                        getService(ThreadService.class)
+                                .updateThreads(objectsState.threadState, multiCall));
+            }
+            multiCall.execute();
+        }
+        return transform(futures.build());
+    }
+
+    /** Refreshes one query after another. Parallel refreshes would fetch the same changes. */
+    private ListenableFuture<Status> refreshQueries(
+            final Iterator<EmailQuery> queries,
+            final ImmutableList.Builder<ListenableFuture<Status>> refreshed) {
+        if (!queries.hasNext()) {
+            return transform(refreshed.build());
+        }
+        final ListenableFuture<Status> refresh =
+                getService(QueryService.class).query(queries.next(), null);
+        refreshed.add(refresh);
+        return Futures.transformAsync(
+                refresh,
+                status -> refreshQueries(queries, refreshed),
+                MoreExecutors.directExecutor());
+    }
+
+    private static class CachedStates {
+        private final ObjectsState objectsState;
+        private final String identityState;
+
+        private CachedStates(final ObjectsState objectsState, final String identityState) {
+            this.objectsState = objectsState;
+            this.identityState = identityState;
+        }
+
+        private Set<Class<? extends AbstractIdentifiableEntity>> outdated(
+                final Map<Class<? extends AbstractIdentifiableEntity>, String> changes) {
+            final Set<Class<? extends AbstractIdentifiableEntity>> outdated = new HashSet<>();
+            for (final Map.Entry<Class<? extends AbstractIdentifiableEntity>, String> change :
+                    changes.entrySet()) {
+                final Class<? extends AbstractIdentifiableEntity> type = change.getKey();
+                final String cached;
+                if (type == Mailbox.class) {
+                    cached = objectsState.mailboxState;
+                } else if (type == Email.class) {
+                    cached = objectsState.emailState;
+                } else if (type == Thread.class) {
+                    cached = objectsState.threadState;
+                } else if (type == Identity.class) {
+                    cached = identityState;
+                } else {
+                    // not something we cache
+                    continue;
+                }
+                // nothing cached means nothing to refresh. Types we have cached already in the
+                // pushed state (for example after our own modifications) are skipped as well
+                if (cached != null && !cached.equals(change.getValue())) {
+                    outdated.add(type);
+                }
+            }
+            return outdated;
+        }
+    }
+}
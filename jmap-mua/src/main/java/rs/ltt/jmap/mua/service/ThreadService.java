@@ -27,6 +27,7 @@ import rs.ltt.jmap.common.method.response.thread.ChangesThreadMethodResponse;
 import rs.ltt.jmap.common.method.response.thread.GetThreadMethodResponse;
 import rs.ltt.jmap.mua.Status;
 import rs.ltt.jmap.mua.cache.Update;
+import rs.ltt.jmap.mua.jfr.CacheWrites;
 import rs.ltt.jmap.mua.util.UpdateUtil;
 
 public class ThreadService extends AbstractMuaService {
@@ -43,7 +44,8 @@ public class ThreadService extends AbstractMuaService {
         LOGGER.info("Refreshing threads since state {}", state);
         final UpdateUtil.MethodResponsesFuture methodResponsesFuture =
                 UpdateUtil.threads(multiCall, accountId, state);
-        registerCacheInvalidationCallback(methodResponsesFuture, this::invalidateCache);
+        registerCacheInvalidationCallback(
+                Thread.class, methodResponsesFuture, this::invalidateCache);
         return methodResponsesFuture.addCallback(
                 () -> {
                     final ChangesThreadMethodResponse changesResponse =
@@ -55,7 +57,11 @@ public class ThreadService extends AbstractMuaService {
                     final Update<Thread> update =
                             Update.of(changesResponse, createdResponse, updatedResponse);
                     if (update.hasChanges()) {
-                        cache.updateThreads(update);
+                        recordCacheWrite(
+                                "updateThreads",
+                                "Thread",
+                                CacheWrites.count(update),
+                                () -> cache.updateThreads(update));
                     }
                     return Futures.immediateFuture(Status.of(update));
                 },
@@ -0,0 +1,3 @@
+# The JDK Flight Recorder events in rs.ltt.jmap.mua.jfr extend jdk.jfr.Event which does not exist
+# on Android. The classes are never loaded there (see FlightRecorderEvents.AVAILABLE).
+-dontwarn jdk.jfr.**
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.mua.service.AdaptiveQueryPageSize;
+
+public class AdaptiveQueryPageSizeTest {
+
+    @Test
+    public void growOnFastLink() {
+        final AdaptiveQueryPageSize pageSize =
+                AdaptiveQueryPageSize.builder()
+                        .initial(20)
+                        .minimum(10)
+                        .maximum(100)
+                        .targetLatency(Duration.ofMillis(500))
+                        .build();
+        pageSize.onPageReceived(20, Duration.ofMillis(50));
+        Assertions.assertEquals(40, pageSize.getPageSize(null));
+        pageSize.onPageReceived(40, Duration.ofMillis(50));
+        Assertions.assertEquals(80, pageSize.getPageSize(null));
+        pageSize.onPageReceived(80, Duration.ofMillis(50));
+        Assertions.assertEquals(100, pageSize.getPageSize(null));
+    }
+
+    @Test
+    public void shrinkOnSlowLink() {
+        final AdaptiveQueryPageSize pageSize =
+                AdaptiveQueryPageSize.builder()
+                        .initial(80)
+                        .minimum(10)
+                        .maximum(100)
+                        .targetLatency(Duration.ofMillis(500))
+                        .build();
+        pageSize.onPageReceived(80, Duration.ofSeconds(4));
+        Assertions.assertEquals(40, pageSize.getPageSize(null));
+        pageSize.onPageReceived(40, Duration.ofSeconds(4));
+        Assertions.assertEquals(20, pageSize.getPageSize(null));
+        pageSize.onPageReceived(20, Duration.ofSeconds(4));
+        Assertions.assertEquals(10, pageSize.getPageSize(null));
+    }
+
+    @Test
+    public void respectMaxObjectsInGet() {
+        final AdaptiveQueryPageSize pageSize =
+                AdaptiveQueryPageSize.builder().initial(50).maximum(100).build();
+        Assertions.assertEquals(30, pageSize.getPageSize(30L));
+        Assertions.assertEquals(50, pageSize.getPageSize(4096L));
+    }
+
+    @Test
+    public void ignoreEmptyPages() {
+        final AdaptiveQueryPageSize pageSize = AdaptiveQueryPageSize.builder().initial(50).build();
+        pageSize.onPageReceived(0, Duration.ofSeconds(10));
+        Assertions.assertEquals(50, pageSize.getPageSize(null));
+    }
+}
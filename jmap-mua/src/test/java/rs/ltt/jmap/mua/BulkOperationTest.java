@@ -0,0 +1,197 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Mailbox;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+public class BulkOperationTest {
+
+    private static List<CachedEmail> getAllEmails(final MyInMemoryCache cache) {
+        final List<CachedEmail> emails = new ArrayList<>();
+        for (final String threadId : cache.getThreadIds()) {
+            emails.addAll(cache.getEmails(threadId));
+        }
+        return emails;
+    }
+
+    @Test
+    public void setKeywordInChunks() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(16);
+        mailServer.setMaxObjectsInSet(4);
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        try (final Mua mua =
+                Mua.builder()
+                        .cache(cache)
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build()) {
+            mua.query(EmailQuery.unfiltered()).get();
+
+            final List<CachedEmail> emails = getAllEmails(cache);
+            Assertions.assertTrue(emails.size() > 4);
+
+            final List<Integer> progress = new ArrayList<>();
+            Assertions.assertTrue(
+                    mua.setKeyword(
+                                    emails,
+                                    Keyword.FLAGGED,
+                                    (processed, total) -> {
+                                        Assertions.assertEquals(emails.size(), total);
+                                        progress.add(processed);
+                                    })
+                            .get());
+
+            Assertions.assertEquals((emails.size() + 3) / 4, progress.size());
+            Assertions.assertEquals(emails.size(), (int) progress.get(progress.size() - 1));
+
+            for (final CachedEmail email : getAllEmails(cache)) {
+                Assertions.assertTrue(email.getKeywords().containsKey(Keyword.FLAGGED));
+            }
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void archiveInChunks() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(16);
+        mailServer.setMaxObjectsInSet(4);
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        try (final Mua mua =
+                Mua.builder()
+                        .cache(cache)
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build()) {
+            mua.query(EmailQuery.unfiltered()).get();
+
+            Assertions.assertNull(cache.getMailbox(Role.ARCHIVE));
+
+            final List<CachedEmail> emails = getAllEmails(cache);
+
+            Assertions.assertTrue(mua.archive(emails, (processed, total) -> {}).get());
+
+            final Mailbox inbox = cache.getMailbox(Role.INBOX);
+            final Mailbox archive = cache.getMailbox(Role.ARCHIVE);
+            Assertions.assertNotNull(archive);
+
+            for (final CachedEmail email : getAllEmails(cache)) {
+                Assertions.assertFalse(email.getMailboxIds().containsKey(inbox.getId()));
+                Assertions.assertTrue(email.getMailboxIds().containsKey(archive.getId()));
+            }
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void markAllAsRead() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(16);
+        mailServer.setMaxObjectsInSet(4);
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        try (final Mua mua =
+                Mua.builder()
+                        .cache(cache)
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build()) {
+            mua.query(EmailQuery.unfiltered()).get();
+
+            final Mailbox inbox = cache.getMailbox(Role.INBOX);
+            final long unread =
+                    getAllEmails(cache).stream()
+                            .filter(e -> !e.getKeywords().containsKey(Keyword.SEEN))
+                            .count();
+            Assertions.assertTrue(unread > 4);
+
+            final List<Integer> progress = new ArrayList<>();
+            Assertions.assertTrue(
+                    mua.markAllAsRead(inbox, (processed, total) -> progress.add(processed)).get());
+            Assertions.assertEquals((unread + 3) / 4, progress.size());
+            Assertions.assertEquals(unread, (long) progress.get(progress.size() - 1));
+
+            for (final CachedEmail email : getAllEmails(cache)) {
+                Assertions.assertTrue(email.getKeywords().containsKey(Keyword.SEEN));
+            }
+
+            Assertions.assertFalse(mua.markAllAsRead(inbox, null).get());
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void archiveQueryAndMoveAll()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(16);
+        mailServer.setMaxObjectsInSet(4);
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        try (final Mua mua =
+                Mua.builder()
+                        .cache(cache)
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build()) {
+            mua.query(EmailQuery.unfiltered()).get();
+
+            Assertions.assertTrue(mua.archive(EmailQuery.unfiltered(true), null).get());
+
+            final Mailbox inbox = cache.getMailbox(Role.INBOX);
+            final Mailbox archive = cache.getMailbox(Role.ARCHIVE);
+            Assertions.assertNotNull(archive);
+
+            for (final CachedEmail email : getAllEmails(cache)) {
+                Assertions.assertEquals(
+                        Collections.singleton(archive.getId()), email.getMailboxIds().keySet());
+            }
+
+            Assertions.assertTrue(mua.moveAll(archive, inbox, null).get());
+
+            for (final CachedEmail email : getAllEmails(cache)) {
+                Assertions.assertEquals(
+                        Collections.singleton(inbox.getId()), email.getMailboxIds().keySet());
+            }
+        }
+        server.shutdown();
+    }
+}
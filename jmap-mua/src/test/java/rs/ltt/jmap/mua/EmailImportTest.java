@@ -0,0 +1,288 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rs.ltt.jmap.client.Transport;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.Role;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.email.ImportEmailMethodCall;
+import rs.ltt.jmap.common.method.response.email.ImportEmailMethodResponse;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.cache.InMemoryCache;
+import rs.ltt.jmap.mua.imports.FileImportCheckpoint;
+import rs.ltt.jmap.mua.imports.ImportMapping;
+import rs.ltt.jmap.mua.imports.ImportResult;
+import rs.ltt.jmap.mua.imports.MaildirSource;
+import rs.ltt.jmap.mua.imports.MboxSource;
+import rs.ltt.jmap.mua.util.MailboxUtil;
+
+public class EmailImportTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmailImportTest.class);
+
+    @TempDir Path tempDir;
+
+    @Test
+    public void importMboxAndResume() throws Exception {
+        final Path mbox = tempDir.resolve("Archive.mbox");
+        Files.write(
+                mbox,
+                ("From alice@example.com Wed Jan  3 01:05:34 1996\n"
+                                + "Subject: First\n"
+                                + "Status: RO\n"
+                                + "\n"
+                                + "Hello\n"
+                                + ">From the body\n"
+                                + "\n"
+                                + "From bob@example.com Thu Jan  4 12:00:00 1996\n"
+                                + "Subject: Second\n"
+                                + "X-Status: F\n"
+                                + "\n"
+                                + "World\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        final Path checkpointFile = tempDir.resolve("checkpoint");
+        final MockWebServer server = new MockWebServer();
+        final ImportMailServer mailServer = new ImportMailServer();
+        server.setDispatcher(mailServer);
+        final Mua mua = mua(server, mailServer).build();
+        final String inbox = mailServer.getInboxId();
+
+        try (final MboxSource source = MboxSource.of(mbox);
+                final FileImportCheckpoint checkpoint = FileImportCheckpoint.open(checkpointFile)) {
+            final ImportResult result =
+                    mua.importEmails(source, ImportMapping.into(inbox), checkpoint)
+                            .get(30, TimeUnit.SECONDS);
+            Assertions.assertEquals(2, result.getImported());
+            Assertions.assertEquals(0, result.getSkipped());
+        }
+        final Email first = mailServer.getImported("First");
+        Assertions.assertEquals(ImmutableMap.of(Keyword.SEEN, true), first.getKeywords());
+        Assertions.assertEquals(ImmutableMap.of(inbox, true), first.getMailboxIds());
+        Assertions.assertEquals("1996-01-03T01:05:34Z", first.getReceivedAt().toString());
+        Assertions.assertEquals(
+                "Subject: First\nStatus: RO\n\nHello\nFrom the body\n",
+                new String(mailServer.getBlob(first.getBlobId()), StandardCharsets.UTF_8));
+        Assertions.assertEquals(
+                ImmutableMap.of(Keyword.FLAGGED, true),
+                mailServer.getImported("Second").getKeywords());
+
+        try (final MboxSource source = MboxSource.of(mbox);
+                final FileImportCheckpoint checkpoint = FileImportCheckpoint.open(checkpointFile)) {
+            final ImportResult result =
+                    mua.importEmails(source, ImportMapping.into(inbox), checkpoint)
+                            .get(30, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, result.getImported());
+            Assertions.assertEquals(2, result.getSkipped());
+        }
+        Assertions.assertEquals(2, mailServer.getImportedEmails().size());
+        server.shutdown();
+    }
+
+    @Test
+    public void reportUnansweredImports() throws Exception {
+        final Path maildir = tempDir.resolve("Maildir");
+        writeMessage(maildir.resolve("cur"), "1600000000.1.host:2,S", "Lost");
+        final MockWebServer server = new MockWebServer();
+        final ImportMailServer mailServer = new ImportMailServer();
+        mailServer.omitResults = true;
+        server.setDispatcher(mailServer);
+        final Mua mua = mua(server, mailServer).build();
+
+        try (final MaildirSource source = MaildirSource.of(maildir)) {
+            final ImportResult result =
+                    mua.importEmails(source, ImportMapping.into(mailServer.getInboxId()), null)
+                            .get(30, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, result.getImported());
+            Assertions.assertEquals(1, result.getFailed().size());
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void importMaildirByFolder() throws Exception {
+        final Path maildir = tempDir.resolve("Maildir");
+        writeMessage(maildir.resolve("cur"), "1600000000.1.host:2,SR", "Read");
+        writeMessage(maildir.resolve("new"), "1600000001.2.host", "Unread");
+        writeMessage(maildir.resolve(".Archive").resolve("cur"), "1600000002.3.host:2,S", "Old");
+        final MockWebServer server = new MockWebServer();
+        final ImportMailServer mailServer = new ImportMailServer();
+        server.setDispatcher(mailServer);
+        final Mua mua = mua(server, mailServer).build();
+        final String inbox = mailServer.getInboxId();
+
+        try (final MaildirSource source = MaildirSource.of(maildir)) {
+            final ImportResult result =
+                    mua.importEmails(
+                                    source,
+                                    ImportMapping.byFolder(
+                                            ImmutableMap.of(MaildirSource.INBOX, inbox), null),
+                                    null)
+                            .get(30, TimeUnit.SECONDS);
+            Assertions.assertEquals(2, result.getImported());
+            // Archive has not been mapped to a mailbox
+            Assertions.assertEquals(1, result.getSkipped());
+        }
+        final Email read = mailServer.getImported("Read");
+        Assertions.assertEquals(
+                ImmutableMap.of(Keyword.SEEN, true, Keyword.ANSWERED, true), read.getKeywords());
+        Assertions.assertEquals("2020-09-13T12:26:40Z", read.getReceivedAt().toString());
+        Assertions.assertEquals(ImmutableMap.of(), mailServer.getImported("Unread").getKeywords());
+        server.shutdown();
+    }
+
+    /** Run with {@code -Dbenchmark=true}. Enable SLF4J logging to see the throughput. */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void importBenchmark() throws Exception {
+        final int count = 1000;
+        final Path mbox = tempDir.resolve("benchmark.mbox");
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            content.append("From sender@example.com Wed Jan  3 01:05:34 1996\n")
+                    .append("Subject: Message ")
+                    .append(i)
+                    .append("\n\nBody of message ")
+                    .append(i)
+                    .append("\n\n");
+        }
+        Files.write(mbox, content.toString().getBytes(StandardCharsets.UTF_8));
+        final MockWebServer server = new MockWebServer();
+        final ImportMailServer mailServer = new ImportMailServer();
+        mailServer.setMaxObjectsInSet(100);
+        mailServer.setMaxConcurrentUpload(16L);
+        server.setDispatcher(mailServer);
+        // OkHttp would otherwise limit the parallel uploads to 5
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(16);
+        final Mua mua =
+                mua(server, mailServer)
+                        .transport(
+                                Transport.builder()
+                                        .httpClient(
+                                                new OkHttpClient.Builder()
+                                                        .dispatcher(dispatcher)
+                                                        .build())
+                                        .build())
+                        .build();
+
+        final long start = System.nanoTime();
+        try (final MboxSource source = MboxSource.of(mbox)) {
+            final ImportResult result =
+                    mua.importEmails(source, ImportMapping.into(mailServer.getInboxId()), null)
+                            .get(120, TimeUnit.SECONDS);
+            Assertions.assertEquals(count, result.getImported());
+        }
+        final long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        LOGGER.info(
+                "Imported {} emails in {}ms ({} emails/s)", count, millis, count * 1000L / millis);
+        Assertions.assertEquals(count, mailServer.getImportedEmails().size());
+        // at most maxObjectsInSet emails per Email/import
+        Assertions.assertEquals(count / 100, mailServer.getImportCalls());
+        server.shutdown();
+    }
+
+    private static void writeMessage(final Path directory, final String name, final String subject)
+            throws IOException {
+        Files.createDirectories(directory);
+        Files.write(
+                directory.resolve(name),
+                String.format("Subject: %s\n\nBody\n", subject).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Mua.Builder mua(final MockWebServer server, final MockMailServer mailServer) {
+        return Mua.builder()
+                .cache(new InMemoryCache())
+                .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .username(mailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mailServer.getAccountId());
+    }
+
+    private static class ImportMailServer extends MockMailServer {
+
+        private final Collection<String> preexisting;
+        private int importCalls = 0;
+        private volatile boolean omitResults = false;
+
+        private ImportMailServer() {
+            super(2);
+            this.preexisting = ImmutableList.copyOf(this.emails.keySet());
+        }
+
+        @Override
+        protected MethodResponse[] execute(
+                final ImportEmailMethodCall methodCall,
+                final ListMultimap<String, Response.Invocation> previousResponses) {
+            importCalls++;
+            final MethodResponse[] responses = super.execute(methodCall, previousResponses);
+            if (omitResults) {
+                return new MethodResponse[] {
+                    ImportEmailMethodResponse.builder().accountId(getAccountId()).build()
+                };
+            }
+            return responses;
+        }
+
+        private synchronized String getInboxId() {
+            return MailboxUtil.find(this.mailboxes.values(), Role.INBOX).getId();
+        }
+
+        private synchronized Collection<Email> getImportedEmails() {
+            return this.emails.values().stream()
+                    .filter(email -> !preexisting.contains(email.getId()))
+                    .collect(Collectors.toList());
+        }
+
+        private Email getImported(final String subject) {
+            return getImportedEmails().stream()
+                    .filter(email -> subject.equals(email.getSubject()))
+                    .findFirst()
+                    .orElseThrow(() -> new AssertionError("No email with subject " + subject));
+        }
+
+        private byte[] getBlob(final String blobId) {
+            return this.inMemoryAttachments.get(blobId);
+        }
+
+        private synchronized int getImportCalls() {
+            return importCalls;
+        }
+    }
+}
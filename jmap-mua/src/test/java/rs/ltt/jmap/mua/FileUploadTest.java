@@ -17,20 +17,27 @@
 package rs.ltt.jmap.mua;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharSource;
 import com.google.common.net.MediaType;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
 import org.junit.jupiter.api.Assertions;
@@ -42,6 +49,7 @@ import rs.ltt.jmap.common.entity.Upload;
 import rs.ltt.jmap.mock.server.JmapDispatcher;
 import rs.ltt.jmap.mock.server.MockMailServer;
 import rs.ltt.jmap.mua.cache.InMemoryCache;
+import rs.ltt.jmap.mua.cache.InMemoryUploadCache;
 import rs.ltt.jmap.mua.util.AttachmentUtil;
 
 public class FileUploadTest {
@@ -76,6 +84,237 @@ public class FileUploadTest {
         }
     }
 
+    @Test
+    public void uploadCacheSkipsKnownContent() throws Exception {
+        final Path textFileLocation = tempDir.resolve("test.txt");
+        Files.write(textFileLocation, "hello world".getBytes(StandardCharsets.UTF_8));
+
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        server.setDispatcher(mailServer);
+        final InMemoryUploadCache uploadCache = new InMemoryUploadCache();
+
+        final Mua mua =
+                Mua.builder()
+                        .cache(new InMemoryCache())
+                        .uploadCache(uploadCache)
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build();
+
+        // streams are hashed while uploading
+        final OutputStreamUpload outputStreamUpload =
+                OutputStreamUpload.of(MediaType.PLAIN_TEXT_UTF_8, 11);
+        final ListenableFuture<Upload> future = mua.upload(outputStreamUpload, null);
+        try (final OutputStream outputStream = outputStreamUpload.getOutputStream()) {
+            outputStream.write("hello world".getBytes(StandardCharsets.UTF_8));
+        }
+        final Upload streamed = future.get();
+        final int requests = server.getRequestCount();
+
+        try (final FileUpload fileUpload = FileUpload.of(textFileLocation)) {
+            final Upload cached = mua.upload(fileUpload, null).get();
+            Assertions.assertEquals(streamed.getBlobId(), cached.getBlobId());
+        }
+        Assertions.assertEquals(requests, server.getRequestCount());
+        Assertions.assertEquals(1, mua.getMetrics().getUploadCacheHits());
+
+        uploadCache.invalidate(mailServer.getAccountId(), ImmutableList.of(streamed.getBlobId()));
+        try (final FileUpload fileUpload = FileUpload.of(textFileLocation)) {
+            mua.upload(fileUpload, null).get();
+        }
+        Assertions.assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void cachedAttachmentKeepsMediaType() throws Exception {
+        final Path file = tempDir.resolve("page.txt");
+        Files.write(file, "<p>hello world</p>".getBytes(StandardCharsets.UTF_8));
+
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        server.setDispatcher(mailServer);
+
+        final Mua mua =
+                Mua.builder()
+                        .cache(new InMemoryCache())
+                        .uploadCache(new InMemoryUploadCache())
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build();
+
+        try (final FileUpload fileUpload = FileUpload.of(file)) {
+            final EmailBodyPart text =
+                    mua.uploadAttachments(
+                                    ImmutableList.of(
+                                            new TypedUpload(
+                                                    fileUpload, MediaType.PLAIN_TEXT_UTF_8)),
+                                    null)
+                            .get()
+                            .get(0);
+            final EmailBodyPart html =
+                    mua.uploadAttachments(
+                                    ImmutableList.of(
+                                            new TypedUpload(fileUpload, MediaType.HTML_UTF_8)),
+                                    null)
+                            .get()
+                            .get(0);
+            Assertions.assertEquals(text.getBlobId(), html.getBlobId());
+            Assertions.assertEquals("text/plain", text.getType());
+            Assertions.assertEquals("text/html", html.getType());
+        }
+        Assertions.assertEquals(1, mua.getMetrics().getUploadCacheHits());
+    }
+
+    @Test
+    public void uploadAttachments() throws Exception {
+        final ImmutableList.Builder<FileUpload> builder = ImmutableList.builder();
+        for (int i = 0; i < 5; ++i) {
+            final Path file = tempDir.resolve(String.format("file%d.txt", i));
+            Files.write(file, new byte[(i + 1) * 64 * 1024]);
+            builder.add(FileUpload.of(file));
+        }
+        final List<FileUpload> fileUploads = builder.build();
+
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        server.setDispatcher(mailServer);
+
+        final Mua mua =
+                Mua.builder()
+                        .cache(new InMemoryCache())
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build();
+        final List<Integer> progress = new CopyOnWriteArrayList<>();
+
+        final List<EmailBodyPart> attachments =
+                mua.uploadAttachments(fileUploads, progress::add).get();
+        for (final FileUpload fileUpload : fileUploads) {
+            fileUpload.close();
+        }
+
+        Assertions.assertEquals(5, attachments.size());
+        for (int i = 0; i < 5; ++i) {
+            final EmailBodyPart attachment = attachments.get(i);
+            Assertions.assertEquals(String.format("file%d.txt", i), attachment.getName());
+            Assertions.assertEquals((i + 1) * 64 * 1024L, attachment.getSize());
+            Assertions.assertNotNull(attachment.getBlobId());
+            Assertions.assertEquals("attachment", attachment.getDisposition());
+        }
+        Assertions.assertEquals(100, progress.get(progress.size() - 1));
+        Assertions.assertEquals(Ordering.natural().sortedCopy(progress), progress);
+    }
+
+    @Test
+    public void uploadAttachmentsRespectsMaxConcurrentUpload() throws Exception {
+        final ImmutableList.Builder<FileUpload> builder = ImmutableList.builder();
+        for (int i = 0; i < 6; ++i) {
+            final Path file = tempDir.resolve(String.format("file%d.txt", i));
+            Files.write(file, String.format("file %d", i).getBytes(StandardCharsets.UTF_8));
+            builder.add(FileUpload.of(file));
+        }
+        final List<FileUpload> fileUploads = builder.build();
+
+        final MockWebServer server = new MockWebServer();
+        final AtomicInteger uploading = new AtomicInteger();
+        final AtomicInteger maxUploading = new AtomicInteger();
+        final MockMailServer mailServer =
+                new MockMailServer(2) {
+                    @Override
+                    protected MockResponse dispatchUploadRequest(final RecordedRequest request) {
+                        maxUploading.accumulateAndGet(uploading.incrementAndGet(), Math::max);
+                        try {
+                            Thread.sleep(100);
+                            return super.dispatchUploadRequest(request);
+                        } catch (final InterruptedException e) {
+                            throw new AssertionError(e);
+                        } finally {
+                            uploading.decrementAndGet();
+                        }
+                    }
+                };
+        mailServer.setMaxConcurrentUpload(2L);
+        server.setDispatcher(mailServer);
+
+        final Mua mua =
+                Mua.builder()
+                        .cache(new InMemoryCache())
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build();
+        final List<EmailBodyPart> attachments = mua.uploadAttachments(fileUploads, null).get();
+        for (final FileUpload fileUpload : fileUploads) {
+            fileUpload.close();
+        }
+
+        Assertions.assertEquals(6, attachments.size());
+        Assertions.assertEquals(2, maxUploading.get());
+    }
+
+    @Test
+    public void uploadAttachmentsChecksLimitsFirst() throws Exception {
+        final Path file = tempDir.resolve("test.txt");
+        Files.write(file, "hello world".getBytes(StandardCharsets.UTF_8));
+
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        server.setDispatcher(mailServer);
+
+        final Mua mua =
+                Mua.builder()
+                        .cache(new InMemoryCache())
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .build();
+        final Uploadable tooLarge =
+                new Uploadable() {
+                    @Override
+                    public InputStream getInputStream() {
+                        throw new AssertionError("Upload must not start");
+                    }
+
+                    @Override
+                    public MediaType getMediaType() {
+                        return MediaType.OCTET_STREAM;
+                    }
+
+                    @Override
+                    public long getContentLength() {
+                        return 120 * 1024 * 1024L;
+                    }
+                };
+
+        try (final FileUpload fileUpload = FileUpload.of(file)) {
+            final ExecutionException ee =
+                    Assertions.assertThrows(
+                            ExecutionException.class,
+                            () ->
+                                    mua.uploadAttachments(
+                                                    ImmutableList.of(fileUpload, tooLarge), null)
+                                            .get());
+            MatcherAssert.assertThat(
+                    ee.getCause(), CoreMatchers.instanceOf(MaxUploadSizeExceededException.class));
+        }
+        // only the session has been fetched
+        final int requests = server.getRequestCount();
+        for (int i = 0; i < requests; ++i) {
+            MatcherAssert.assertThat(
+                    server.takeRequest().getPath(),
+                    CoreMatchers.not(CoreMatchers.containsString("upload")));
+        }
+    }
+
     @Test
     public void testLegacyDetectDirectory() {
         Assertions.assertThrows(
@@ -234,4 +473,35 @@ public class FileUploadTest {
                                                 imageAttachment, zipAttachment, textAttachment))
                                 .get());
     }
+
+    private static class TypedUpload implements FileChannelUploadable {
+
+        private final FileUpload fileUpload;
+        private final MediaType mediaType;
+
+        private TypedUpload(final FileUpload fileUpload, final MediaType mediaType) {
+            this.fileUpload = fileUpload;
+            this.mediaType = mediaType;
+        }
+
+        @Override
+        public FileChannel getFileChannel() {
+            return fileUpload.getFileChannel();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return fileUpload.getInputStream();
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        @Override
+        public long getContentLength() {
+            return fileUpload.getContentLength();
+        }
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+public class FlightRecorderTest {
+
+    @Test
+    public void queryIsRecorded() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(8);
+        server.setDispatcher(mailServer);
+        final Path file = Files.createTempFile("jmap", ".jfr");
+        try (final Recording recording = new Recording();
+                final Mua mua =
+                        Mua.builder()
+                                .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                                .username(mailServer.getUsername())
+                                .password(JmapDispatcher.PASSWORD)
+                                .accountId(mailServer.getAccountId())
+                                .queryPageSize(4)
+                                .build()) {
+            recording.enable("rs.ltt.jmap.Request");
+            recording.enable("rs.ltt.jmap.CacheWrite");
+            recording.enable("rs.ltt.jmap.SyncCycle");
+            recording.start();
+            mua.query(EmailQuery.unfiltered(true)).get();
+
+            // request events are committed by listeners that run after get() returned
+            final long deadline = System.currentTimeMillis() + 5000;
+            List<RecordedEvent> events;
+            do {
+                Assertions.assertTrue(System.currentTimeMillis() < deadline, "No request event");
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } while (count(events, "rs.ltt.jmap.Request") == 0);
+
+            final RecordedEvent cycle = find(events, "rs.ltt.jmap.SyncCycle");
+            Assertions.assertEquals("query", cycle.getString("service"));
+            Assertions.assertEquals("initial", cycle.getString("kind"));
+            Assertions.assertEquals("UPDATED", cycle.getString("status"));
+            Assertions.assertEquals(1, cycle.getInt("roundTrips"));
+
+            final RecordedEvent request = find(events, "rs.ltt.jmap.Request");
+            Assertions.assertEquals("http", request.getString("transport"));
+            Assertions.assertTrue(request.getLong("responseSize") > 0);
+
+            Assertions.assertTrue(count(events, "rs.ltt.jmap.CacheWrite") > 0);
+        } finally {
+            Files.delete(file);
+        }
+        server.shutdown();
+    }
+
+    private static long count(final List<RecordedEvent> events, final String name) {
+        return events.stream().filter(e -> name.equals(e.getEventType().getName())).count();
+    }
+
+    private static RecordedEvent find(final List<RecordedEvent> events, final String name) {
+        return events.stream()
+                .filter(e -> name.equals(e.getEventType().getName()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No " + name + " event"));
+    }
+}
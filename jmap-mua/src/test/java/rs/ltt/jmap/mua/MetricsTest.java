@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.Transport;
+import rs.ltt.jmap.client.metrics.Histogram;
+import rs.ltt.jmap.client.metrics.HistogramMetricsListener;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+public class MetricsTest {
+
+    @Test
+    public void requestPhasesAreRecorded()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        server.setDispatcher(mailServer);
+        final HistogramMetricsListener metrics = new HistogramMetricsListener();
+        try (final JmapClient jmapClient =
+                JmapClient.builder()
+                        .credentials(mailServer.getUsername(), JmapDispatcher.PASSWORD)
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .transport(Transport.builder().metricsListener(metrics).build())
+                        .build()) {
+            jmapClient.call(new EchoMethodCall("jmap-mua")).get();
+            jmapClient.call(new EchoMethodCall("jmap-mua")).get();
+        }
+        // listeners run after waiting threads have been released
+        await(() -> count(metrics, "method.Core/echo") == 2);
+        Assertions.assertEquals(1, count(metrics, "session.fetch"));
+        for (final String name :
+                new String[] {
+                    "request.wait",
+                    "request.server",
+                    "request.parse",
+                    "request.bytes.out",
+                    "request.bytes.in"
+                }) {
+            Assertions.assertEquals(2, count(metrics, name), name);
+        }
+        Assertions.assertTrue(metrics.getHistogram("request.bytes.in").getMax() > 0);
+        server.shutdown();
+    }
+
+    private static long count(final HistogramMetricsListener metrics, final String name) {
+        final Histogram histogram = metrics.getHistogram(name);
+        return histogram == null ? 0 : histogram.getCount();
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(
+                    System.currentTimeMillis() < deadline, "Condition not met in time");
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.cache.CacheStatistics;
+import rs.ltt.jmap.mua.service.MuaMetrics;
+
+public class MuaMetricsTest {
+
+    @Test
+    public void queryCacheHits() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(16);
+        mailServer.setReportCanCalculateQueryChanges(true);
+        server.setDispatcher(mailServer);
+        final EmailQuery emailQuery = EmailQuery.unfiltered(true);
+        try (final Mua mua =
+                Mua.builder()
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mailServer.getAccountId())
+                        .queryPageSize(5)
+                        .build()) {
+            final MuaMetrics metrics = mua.getMetrics();
+            Assertions.assertNull(metrics.getTimeSinceLastRefresh());
+
+            mua.query(emailQuery).get();
+            Assertions.assertEquals(1, metrics.getInitialQueries());
+            Assertions.assertEquals(0, metrics.getQueryCacheHits());
+
+            mua.query(emailQuery).get();
+            Assertions.assertEquals(1, metrics.getInitialQueries());
+            Assertions.assertEquals(1, metrics.getQueryCacheHits());
+            Assertions.assertNotNull(metrics.getTimeSinceLastRefresh());
+            Assertions.assertTrue(metrics.getCannotCalculateChanges().isEmpty());
+
+            final CacheStatistics statistics = metrics.getCacheStatistics();
+            Assertions.assertEquals(5, statistics.getItems("QueryResult"));
+            Assertions.assertEquals(5, statistics.getItems("Thread"));
+            Assertions.assertTrue(statistics.getItems("Email") > 0);
+        }
+        server.shutdown();
+    }
+}
@@ -16,11 +16,13 @@
 
 package rs.ltt.jmap.mua;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.JsonParseException;
 import java.io.IOException;
 import java.net.SocketException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -33,6 +35,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import rs.ltt.jmap.client.MethodResponses;
 import rs.ltt.jmap.client.api.WebSocketClosedException;
+import rs.ltt.jmap.client.api.WebSocketJmapApiClient;
 import rs.ltt.jmap.client.event.OnStateChangeListener;
 import rs.ltt.jmap.client.event.PushService;
 import rs.ltt.jmap.client.event.WebSocketPushService;
@@ -291,4 +294,73 @@ public class MuaWebSocketTest {
             pushService.setPingInterval(Duration.ofSeconds(10));
         }
     }
+
+    @Test
+    public void pipelinedRequests() throws ExecutionException, InterruptedException, IOException {
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        mailServer.setMaxConcurrentRequests(4L);
+        server.setDispatcher(mailServer);
+        try (final Mua mua =
+                Mua.builder()
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .cache(cache)
+                        .useWebSocket(true)
+                        .accountId(mailServer.getAccountId())
+                        .build()) {
+            final List<ListenableFuture<MethodResponses>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; ++i) {
+                futures.add(mua.getJmapClient().call(new EchoMethodCall("jmap-mua-" + i)));
+            }
+            final List<MethodResponses> responses = Futures.allAsList(futures).get();
+            for (int i = 0; i < responses.size(); ++i) {
+                Assertions.assertEquals(
+                        "jmap-mua-" + i,
+                        responses.get(i).getMain(EchoMethodResponse.class).getLibraryName());
+            }
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void maxConcurrentRequests()
+            throws ExecutionException, InterruptedException, IOException {
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        mailServer.setMaxConcurrentRequests(2L);
+        server.setDispatcher(mailServer);
+        try (final Mua mua =
+                Mua.builder()
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .username(mailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .cache(cache)
+                        .useWebSocket(true)
+                        .accountId(mailServer.getAccountId())
+                        .build()) {
+            awaitRoundTrip(mua);
+            // the slot of the round trip is released after the waiting thread has been woken up
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (mua.getJmapClient().getAdmissionController().getRunning() > 0) {
+                Assertions.assertTrue(System.currentTimeMillis() < deadline);
+                java.lang.Thread.sleep(50);
+            }
+            final WebSocketJmapApiClient apiClient =
+                    (WebSocketJmapApiClient) mua.getJmapClient().monitorEvents().get();
+            Assertions.assertEquals(2, apiClient.getMaxConcurrentRequests());
+            mailServer.setFailureTrigger(JmapDispatcher.FailureTrigger.IGNORE);
+            for (int i = 0; i < 5; ++i) {
+                mua.getJmapClient().call(new EchoMethodCall("jmap-mua"));
+            }
+            Assertions.assertEquals(2, apiClient.getInFlightRequestCount());
+            // requests beyond the limit wait in the admission controller of the JmapClient
+            Assertions.assertEquals(
+                    3, mua.getJmapClient().getAdmissionController().getQueueDepth());
+        }
+        server.shutdown();
+    }
 }
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import com.google.common.collect.ListMultimap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.email.SetEmailMethodCall;
+import rs.ltt.jmap.common.method.error.InvalidArgumentsMethodErrorResponse;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+import rs.ltt.jmap.mua.cache.InMemoryMutationJournal;
+
+public class MutationJournalTest {
+
+    @Test
+    public void coalesceAndFlush() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final InMemoryMutationJournal journal = new InMemoryMutationJournal();
+        try (final Mua mua = newMua(server, mailServer, cache, journal)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            final String emailId = cache.getEmailIds().iterator().next();
+
+            Assertions.assertTrue(mua.setKeyword(getEmail(cache, emailId), Keyword.FLAGGED).get());
+            Assertions.assertTrue(mua.setKeyword(getEmail(cache, emailId), Keyword.ANSWERED).get());
+            Assertions.assertTrue(
+                    mua.removeKeyword(getEmail(cache, emailId), Keyword.FLAGGED).get());
+
+            final CachedEmail optimistic = getEmail(cache, emailId).get(0);
+            Assertions.assertTrue(optimistic.getKeywords().containsKey(Keyword.ANSWERED));
+            Assertions.assertFalse(optimistic.getKeywords().containsKey(Keyword.FLAGGED));
+            Assertions.assertEquals(0, mailServer.setEmailCalls.get());
+            Assertions.assertEquals(1, journal.getPending().size());
+
+            Assertions.assertTrue(mua.flushMutations().get());
+
+            Assertions.assertEquals(1, mailServer.setEmailCalls.get());
+            Assertions.assertTrue(journal.getPending().isEmpty());
+            final Email email = mailServer.getEmail(emailId);
+            Assertions.assertTrue(email.getKeywords().containsKey(Keyword.ANSWERED));
+            Assertions.assertFalse(email.getKeywords().containsKey(Keyword.FLAGGED));
+
+            Assertions.assertFalse(mua.flushMutations().get());
+            Assertions.assertEquals(1, mailServer.setEmailCalls.get());
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void retryAfterStateMismatch()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final InMemoryMutationJournal journal = new InMemoryMutationJournal();
+        try (final Mua mua = newMua(server, mailServer, cache, journal)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            final String emailId = cache.getEmailIds().iterator().next();
+
+            Assertions.assertTrue(mua.setKeyword(getEmail(cache, emailId), Keyword.FLAGGED).get());
+
+            mailServer.generateEmailOnTop();
+
+            Assertions.assertTrue(mua.flushMutations().get());
+            Assertions.assertEquals(2, mailServer.setEmailCalls.get());
+            Assertions.assertTrue(journal.getPending().isEmpty());
+            Assertions.assertTrue(
+                    mailServer.getEmail(emailId).getKeywords().containsKey(Keyword.FLAGGED));
+            Assertions.assertTrue(
+                    getEmail(cache, emailId).get(0).getKeywords().containsKey(Keyword.FLAGGED));
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void retainWhileOffline() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final InMemoryMutationJournal journal = new InMemoryMutationJournal();
+        try (final Mua mua = newMua(server, mailServer, cache, journal)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            final String emailId = cache.getEmailIds().iterator().next();
+
+            mailServer.offline = true;
+
+            Assertions.assertTrue(mua.setKeyword(getEmail(cache, emailId), Keyword.FLAGGED).get());
+            Assertions.assertTrue(
+                    getEmail(cache, emailId).get(0).getKeywords().containsKey(Keyword.FLAGGED));
+
+            Assertions.assertThrows(ExecutionException.class, () -> mua.flushMutations().get());
+            Assertions.assertEquals(1, journal.getPending().size());
+
+            mailServer.offline = false;
+
+            Assertions.assertTrue(mua.flushMutations().get());
+            Assertions.assertTrue(journal.getPending().isEmpty());
+            Assertions.assertTrue(
+                    mailServer.getEmail(emailId).getKeywords().containsKey(Keyword.FLAGGED));
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void flushInChunks() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        mailServer.setMaxObjectsInSet(2);
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final InMemoryMutationJournal journal = new InMemoryMutationJournal();
+        try (final Mua mua = newMua(server, mailServer, cache, journal)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            for (final String emailId : cache.getEmailIds()) {
+                Assertions.assertTrue(
+                        mua.setKeyword(getEmail(cache, emailId), Keyword.FLAGGED).get());
+            }
+            Assertions.assertEquals(3, journal.getPending().size());
+
+            Assertions.assertTrue(mua.flushMutations().get());
+
+            Assertions.assertEquals(2, mailServer.setEmailCalls.get());
+            Assertions.assertTrue(journal.getPending().isEmpty());
+            for (final String emailId : cache.getEmailIds()) {
+                Assertions.assertTrue(
+                        mailServer.getEmail(emailId).getKeywords().containsKey(Keyword.FLAGGED));
+            }
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void dropRejectedMutations()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final InMemoryMutationJournal journal = new InMemoryMutationJournal();
+        try (final Mua mua = newMua(server, mailServer, cache, journal)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            final String emailId = cache.getEmailIds().iterator().next();
+            Assertions.assertTrue(mua.setKeyword(getEmail(cache, emailId), Keyword.FLAGGED).get());
+
+            mailServer.reject = true;
+
+            Assertions.assertThrows(ExecutionException.class, () -> mua.flushMutations().get());
+            Assertions.assertTrue(journal.getPending().isEmpty());
+            // the optimistic modification has been removed from the cache
+            Assertions.assertTrue(cache.getEmailIds().isEmpty());
+
+            Assertions.assertFalse(mua.flushMutations().get());
+            Assertions.assertEquals(1, mailServer.setEmailCalls.get());
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void bulkChunksBypassJournal()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        mailServer.setMaxObjectsInSet(1);
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        final InMemoryMutationJournal journal = new InMemoryMutationJournal();
+        try (final Mua mua = newMua(server, mailServer, cache, journal)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            final List<CachedEmail> emails = new ArrayList<>();
+            for (final String emailId : cache.getEmailIds()) {
+                emails.addAll(getEmail(cache, emailId));
+            }
+
+            Assertions.assertTrue(mua.setKeyword(emails, Keyword.FLAGGED, null).get());
+            // only the first chunk takes the regular path
+            Assertions.assertTrue(journal.getPending().size() <= 1);
+
+            mua.flushMutations().get();
+            Assertions.assertEquals(3, mailServer.setEmailCalls.get());
+            for (final CachedEmail email : emails) {
+                Assertions.assertTrue(
+                        mailServer
+                                .getEmail(email.getId())
+                                .getKeywords()
+                                .containsKey(Keyword.FLAGGED));
+            }
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void bypassJournalWithoutPatchSupport()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache =
+                new MyInMemoryCache() {
+                    @Override
+                    public boolean supportsPatches() {
+                        return false;
+                    }
+                };
+        final InMemoryMutationJournal journal = new InMemoryMutationJournal();
+        try (final Mua mua = newMua(server, mailServer, cache, journal)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            final String emailId = cache.getEmailIds().iterator().next();
+
+            Assertions.assertTrue(mua.setKeyword(getEmail(cache, emailId), Keyword.FLAGGED).get());
+            Assertions.assertEquals(1, mailServer.setEmailCalls.get());
+            Assertions.assertTrue(journal.getPending().isEmpty());
+            Assertions.assertTrue(
+                    mailServer.getEmail(emailId).getKeywords().containsKey(Keyword.FLAGGED));
+            Assertions.assertFalse(cache.getEmailIds().isEmpty());
+        }
+        server.shutdown();
+    }
+
+    private static Mua newMua(
+            final MockWebServer server,
+            final MockMailServer mailServer,
+            final MyInMemoryCache cache,
+            final InMemoryMutationJournal journal) {
+        return Mua.builder()
+                .cache(cache)
+                .mutationJournal(journal)
+                .mutationFlushDelay(null)
+                .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .username(mailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mailServer.getAccountId())
+                .build();
+    }
+
+    private static List<CachedEmail> getEmail(final MyInMemoryCache cache, final String emailId) {
+        for (final String threadId : cache.getThreadIds()) {
+            for (final CachedEmail email : cache.getEmails(threadId)) {
+                if (email.getId().equals(emailId)) {
+                    return Collections.singletonList(email);
+                }
+            }
+        }
+        throw new IllegalStateException("Email not found in cache");
+    }
+
+    private static class CountingMailServer extends MockMailServer {
+
+        private final AtomicInteger setEmailCalls = new AtomicInteger();
+        private volatile boolean offline = false;
+        private volatile boolean reject = false;
+
+        private CountingMailServer() {
+            super(2);
+        }
+
+        @Override
+        public MockResponse dispatch(final RecordedRequest request) {
+            if (offline) {
+                return new MockResponse().setResponseCode(503);
+            }
+            return super.dispatch(request);
+        }
+
+        @Override
+        protected MethodResponse[] execute(
+                final SetEmailMethodCall methodCall,
+                final ListMultimap<String, Response.Invocation> previousResponses) {
+            setEmailCalls.incrementAndGet();
+            if (reject) {
+                return new MethodResponse[] {new InvalidArgumentsMethodErrorResponse()};
+            }
+            return super.execute(methodCall, previousResponses);
+        }
+
+        private Email getEmail(final String id) {
+            return emails.get(id);
+        }
+    }
+}
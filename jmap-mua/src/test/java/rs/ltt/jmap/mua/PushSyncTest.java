@@ -0,0 +1,178 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import com.google.common.collect.ListMultimap;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Keyword;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+import rs.ltt.jmap.common.method.call.email.ChangesEmailMethodCall;
+import rs.ltt.jmap.common.method.call.email.QueryChangesEmailMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.ChangesMailboxMethodCall;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+public class PushSyncTest {
+
+    @Test
+    public void debounceBurst() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        try (final Mua mua = newMua(server, mailServer, cache)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            mua.startSync().get();
+            awaitRoundTrip(mua);
+
+            mailServer.changesEmailCalls.set(0);
+            final List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 3; ++i) {
+                ids.add(mailServer.generateEmailOnTop().getId());
+            }
+
+            await(() -> cache.getEmailIds().containsAll(ids));
+            Assertions.assertEquals(1, mailServer.changesEmailCalls.get());
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void skipTypesThatAreUpToDate()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        try (final Mua mua = newMua(server, mailServer, cache)) {
+            mua.query(EmailQuery.unfiltered()).get();
+            mua.startSync().get();
+            awaitRoundTrip(mua);
+
+            mailServer.changesEmailCalls.set(0);
+            mailServer.changesMailboxCalls.set(0);
+            final String threadId = cache.getThreadIds().iterator().next();
+            // the Email/set is followed by an Email/changes that brings the email state up to date
+            Assertions.assertTrue(mua.setKeyword(cache.getEmails(threadId), Keyword.FLAGGED).get());
+            Assertions.assertEquals(1, mailServer.changesEmailCalls.get());
+
+            // the mock server reports mailboxes as changed as well; those are still outdated
+            await(() -> mailServer.changesMailboxCalls.get() > 0);
+            Assertions.assertEquals(1, mailServer.changesEmailCalls.get());
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void refreshActiveQuery() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final CountingMailServer mailServer = new CountingMailServer();
+        mailServer.setReportCanCalculateQueryChanges(true);
+        server.setDispatcher(mailServer);
+        final MyInMemoryCache cache = new MyInMemoryCache();
+        try (final Mua mua = newMua(server, mailServer, cache)) {
+            final EmailQuery query = EmailQuery.unfiltered(true);
+            mua.query(query).get();
+            mua.addActiveQuery(query);
+            mua.startSync().get();
+            awaitRoundTrip(mua);
+
+            final Email email = mailServer.generateEmailOnTop();
+
+            await(() -> mailServer.queryChangesEmailCalls.get() > 0);
+            await(() -> cache.getEmailIds().contains(email.getId()));
+        }
+        server.shutdown();
+    }
+
+    private static Mua newMua(
+            final MockWebServer server,
+            final MockMailServer mailServer,
+            final MyInMemoryCache cache) {
+        return Mua.builder()
+                .cache(cache)
+                .useWebSocket(true)
+                .syncDebounce(Duration.ofMillis(300))
+                .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                .username(mailServer.getUsername())
+                .password(JmapDispatcher.PASSWORD)
+                .accountId(mailServer.getAccountId())
+                .build();
+    }
+
+    private static void awaitRoundTrip(final Mua mua)
+            throws ExecutionException, InterruptedException {
+        mua.getJmapClient().call(new EchoMethodCall("jmap-mua")).get();
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(
+                    System.currentTimeMillis() < deadline, "Condition not met in time");
+            java.lang.Thread.sleep(50);
+        }
+    }
+
+    private static class CountingMailServer extends MockMailServer {
+
+        private final AtomicInteger changesEmailCalls = new AtomicInteger();
+        private final AtomicInteger changesMailboxCalls = new AtomicInteger();
+        private final AtomicInteger queryChangesEmailCalls = new AtomicInteger();
+
+        private CountingMailServer() {
+            super(2);
+        }
+
+        @Override
+        protected MethodResponse[] execute(
+                final ChangesEmailMethodCall methodCall,
+                final ListMultimap<String, Response.Invocation> previousResponses) {
+            changesEmailCalls.incrementAndGet();
+            return super.execute(methodCall, previousResponses);
+        }
+
+        @Override
+        protected MethodResponse[] execute(
+                final ChangesMailboxMethodCall methodCall,
+                final ListMultimap<String, Response.Invocation> previousResponses) {
+            changesMailboxCalls.incrementAndGet();
+            return super.execute(methodCall, previousResponses);
+        }
+
+        @Override
+        protected MethodResponse[] execute(
+                final QueryChangesEmailMethodCall methodCall,
+                final ListMultimap<String, Response.Invocation> previousResponses) {
+            queryChangesEmailCalls.incrementAndGet();
+            return super.execute(methodCall, previousResponses);
+        }
+    }
+}
@@ -16,19 +16,34 @@
 
 package rs.ltt.jmap.mua;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import okhttp3.mockwebserver.MockWebServer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.common.Response;
+import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Thread;
+import rs.ltt.jmap.common.entity.TypedState;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.common.method.MethodResponse;
+import rs.ltt.jmap.common.method.call.email.GetEmailMethodCall;
+import rs.ltt.jmap.common.method.response.email.GetEmailMethodResponse;
 import rs.ltt.jmap.mock.server.JmapDispatcher;
 import rs.ltt.jmap.mock.server.MockMailServer;
 import rs.ltt.jmap.mua.cache.InMemoryCache;
+import rs.ltt.jmap.mua.service.AdaptiveQueryPageSize;
+import rs.ltt.jmap.mua.service.PrefetchPolicy;
 import rs.ltt.jmap.mua.util.QueryResult;
 import rs.ltt.jmap.mua.util.QueryResultItem;
 
@@ -245,10 +260,156 @@ public class QueryTest {
         server.shutdown();
     }
 
+    @Test
+    public void queryAdaptivePageSize()
+            throws IOException, InterruptedException, ExecutionException {
+        final MockMailServer mockMailServer = new MockMailServer(128);
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(mockMailServer);
+
+        final MyInMemoryCache myInMemoryCache = new MyInMemoryCache();
+
+        final EmailQuery emailQuery = EmailQuery.unfiltered(true);
+
+        try (final Mua mua =
+                Mua.builder()
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .cache(myInMemoryCache)
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .adaptiveQueryPageSize(
+                                AdaptiveQueryPageSize.builder()
+                                        .initial(5)
+                                        .minimum(5)
+                                        .maximum(20)
+                                        .targetLatency(Duration.ofMinutes(1))
+                                        .build())
+                        .build()) {
+
+            mua.query(emailQuery).get();
+
+            Assertions.assertEquals(5, myInMemoryCache.getItems(emailQuery.asHash()).size());
+
+            final String lastEmailId =
+                    myInMemoryCache.getItems(emailQuery.asHash()).get(4).getEmailId();
+
+            mua.query(emailQuery, lastEmailId).get();
+
+            // the local mock server is fast. The second page has doubled in size
+            Assertions.assertEquals(15, myInMemoryCache.getItems(emailQuery.asHash()).size());
+        }
+
+        server.shutdown();
+    }
+
+    @Test
+    public void queryPrefetch() throws IOException, InterruptedException, ExecutionException {
+        final MockMailServer mockMailServer = new MockMailServer(128);
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(mockMailServer);
+
+        final MyInMemoryCache myInMemoryCache = new MyInMemoryCache();
+
+        final EmailQuery emailQuery = EmailQuery.unfiltered(true);
+
+        try (final Mua mua =
+                Mua.builder()
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .cache(myInMemoryCache)
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .queryPageSize(10)
+                        .prefetchPolicy(PrefetchPolicy.builder().distance(3).maxItems(20).build())
+                        .build()) {
+
+            mua.query(emailQuery).get();
+
+            Assertions.assertEquals(10, myInMemoryCache.getItems(emailQuery.asHash()).size());
+
+            // position 5 is too far away from the end of the query
+            Assertions.assertEquals(Status.UNCHANGED, mua.prefetch(emailQuery, 5).get());
+            Assertions.assertEquals(10, myInMemoryCache.getItems(emailQuery.asHash()).size());
+
+            Assertions.assertEquals(Status.UPDATED, mua.prefetch(emailQuery, 7).get());
+            Assertions.assertEquals(20, myInMemoryCache.getItems(emailQuery.asHash()).size());
+
+            // maxItems has been reached
+            Assertions.assertEquals(Status.UNCHANGED, mua.prefetch(emailQuery, 19).get());
+            Assertions.assertEquals(20, myInMemoryCache.getItems(emailQuery.asHash()).size());
+        }
+
+        server.shutdown();
+    }
+
+    @Test
+    public void queryWarmUp()
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        final MockMailServer mockMailServer = new TextOnlyMailServer(128);
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(mockMailServer);
+
+        final MyInMemoryCache myInMemoryCache = new MyInMemoryCache();
+
+        final EmailQuery emailQuery = EmailQuery.unfiltered(true);
+
+        try (final Mua mua =
+                Mua.builder()
+                        .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                        .cache(myInMemoryCache)
+                        .username(mockMailServer.getUsername())
+                        .password(JmapDispatcher.PASSWORD)
+                        .accountId(mockMailServer.getAccountId())
+                        .queryPageSize(10)
+                        .prefetchPolicy(PrefetchPolicy.builder().warmUpItems(3).build())
+                        .build()) {
+
+            mua.query(emailQuery).get();
+
+            final List<Email> warmedUp = myInMemoryCache.warmedUpEmails.get(30, TimeUnit.SECONDS);
+            Assertions.assertEquals(
+                    myInMemoryCache
+                                    .getEmailIdsWithoutBodyValues(Arrays.asList("T0", "T1", "T2"))
+                                    .size()
+                            + warmedUp.size(),
+                    myInMemoryCache.getEmailIds(Arrays.asList("T0", "T1", "T2")).size());
+            Assertions.assertEquals(
+                    ImmutableSet.of("T0", "T1", "T2"),
+                    warmedUp.stream().map(Email::getThreadId).collect(Collectors.toSet()));
+            Assertions.assertTrue(
+                    warmedUp.stream().noneMatch(email -> email.getBodyValues().isEmpty()));
+        }
+
+        server.shutdown();
+    }
+
     private static class MyInMemoryCache extends InMemoryCache {
 
         private final AtomicBoolean hadTotal = new AtomicBoolean(false);
 
+        private final SettableFuture<List<Email>> warmedUpEmails = SettableFuture.create();
+
+        @Override
+        public void addThreadsAndEmail(
+                TypedState<Thread> threadState,
+                Thread[] threads,
+                TypedState<Email> emailState,
+                Email[] emails) {
+            super.addThreadsAndEmail(threadState, threads, emailState, emails);
+            if (threads.length == 0) {
+                this.warmedUpEmails.set(Arrays.asList(emails));
+            }
+        }
+
+        public List<String> getEmailIds(final List<String> threadIds) {
+            synchronized (this.threads) {
+                return threadIds.stream()
+                        .flatMap(id -> this.threads.get(id).getEmailIds().stream())
+                        .collect(Collectors.toList());
+            }
+        }
+
         public List<String> getThreadIdsInQuery(final String queryHash) {
             return getItems(queryHash).stream()
                     .map(QueryResultItem::getThreadId)
@@ -266,4 +427,33 @@ public class QueryTest {
             super.setQueryResult(query, queryResult);
         }
     }
+
+    /** Only returns body values if all of them have been requested. */
+    private static class TextOnlyMailServer extends MockMailServer {
+
+        private TextOnlyMailServer(final int numThreads) {
+            super(numThreads);
+        }
+
+        @Override
+        protected MethodResponse[] execute(
+                final GetEmailMethodCall methodCall,
+                final ListMultimap<String, Response.Invocation> previousResponses) {
+            final MethodResponse[] methodResponses = super.execute(methodCall, previousResponses);
+            if (Boolean.TRUE.equals(methodCall.getFetchAllBodyValues())
+                    || !(methodResponses[0] instanceof GetEmailMethodResponse)) {
+                return methodResponses;
+            }
+            final GetEmailMethodResponse response = (GetEmailMethodResponse) methodResponses[0];
+            return new MethodResponse[] {
+                GetEmailMethodResponse.builder()
+                        .list(
+                                Arrays.stream(response.getList())
+                                        .map(email -> email.toBuilder().clearBodyValues().build())
+                                        .toArray(Email[]::new))
+                        .state(response.getState())
+                        .build()
+            };
+        }
+    }
 }
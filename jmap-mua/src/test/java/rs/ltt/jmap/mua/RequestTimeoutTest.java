@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.hamcrest.CoreMatchers;
+import org.hamcrest.MatcherAssert;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.api.RequestTimeoutException;
+import rs.ltt.jmap.client.api.WebSocketJmapApiClient;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+import rs.ltt.jmap.common.method.response.core.EchoMethodResponse;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+public class RequestTimeoutTest {
+
+    @Test
+    public void httpRequestTimesOut() throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final SlowMailServer mailServer = new SlowMailServer();
+        server.setDispatcher(mailServer);
+        try (final JmapClient jmapClient =
+                new JmapClient(
+                        mailServer.getUsername(),
+                        JmapDispatcher.PASSWORD,
+                        server.url(JmapDispatcher.WELL_KNOWN_PATH))) {
+            jmapClient.getSession().get();
+            mailServer.slow = true;
+            final ExecutionException exception =
+                    Assertions.assertThrows(
+                            ExecutionException.class,
+                            () ->
+                                    jmapClient
+                                            .call(
+                                                    new EchoMethodCall("jmap-mua"),
+                                                    Duration.ofMillis(500))
+                                            .get(5, TimeUnit.SECONDS));
+            MatcherAssert.assertThat(
+                    exception.getCause(), CoreMatchers.instanceOf(RequestTimeoutException.class));
+            // listeners run after waiting threads have been released
+            await(() -> jmapClient.getRequestTimeouts().equals(ImmutableMap.of("Core/echo", 1L)));
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void webSocketRequestIsReaped()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        server.setDispatcher(mailServer);
+        try (final JmapClient jmapClient =
+                new JmapClient(
+                        mailServer.getUsername(),
+                        JmapDispatcher.PASSWORD,
+                        server.url(JmapDispatcher.WELL_KNOWN_PATH))) {
+            jmapClient.setUseWebSocket(true);
+            awaitRoundTrip(jmapClient);
+            final WebSocketJmapApiClient apiClient =
+                    (WebSocketJmapApiClient) jmapClient.monitorEvents().get();
+
+            mailServer.setFailureTrigger(JmapDispatcher.FailureTrigger.DELAY);
+            final ExecutionException exception =
+                    Assertions.assertThrows(
+                            ExecutionException.class,
+                            () ->
+                                    jmapClient
+                                            .call(
+                                                    new EchoMethodCall("jmap-mua"),
+                                                    Duration.ofMillis(500))
+                                            .get(5, TimeUnit.SECONDS));
+            MatcherAssert.assertThat(
+                    exception.getCause(), CoreMatchers.instanceOf(RequestTimeoutException.class));
+            // the server is still processing the request
+            Assertions.assertEquals(1, apiClient.getInFlightRequestCount());
+            await(() -> apiClient.getInFlightRequestCount() == 0);
+
+            // the connection survives the timeout
+            mailServer.setFailureTrigger(JmapDispatcher.FailureTrigger.NONE);
+            awaitRoundTrip(jmapClient);
+            Assertions.assertEquals(
+                    ImmutableMap.of("Core/echo", 1L), jmapClient.getRequestTimeouts());
+        }
+        server.shutdown();
+    }
+
+    private static void awaitRoundTrip(final JmapClient jmapClient)
+            throws ExecutionException, InterruptedException {
+        Assertions.assertEquals(
+                "jmap-mua",
+                jmapClient
+                        .call(new EchoMethodCall("jmap-mua"))
+                        .get()
+                        .getMain(EchoMethodResponse.class)
+                        .getLibraryName());
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(
+                    System.currentTimeMillis() < deadline, "Condition not met in time");
+            Thread.sleep(50);
+        }
+    }
+
+    private static class SlowMailServer extends MockMailServer {
+
+        private volatile boolean slow = false;
+
+        private SlowMailServer() {
+            super(2);
+        }
+
+        @Override
+        public MockResponse dispatch(final RecordedRequest request) {
+            final MockResponse response = super.dispatch(request);
+            if (slow) {
+                return response.setHeadersDelay(3, TimeUnit.SECONDS);
+            }
+            return response;
+        }
+    }
+}
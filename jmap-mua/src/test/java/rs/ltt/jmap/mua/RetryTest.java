@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.hamcrest.CoreMatchers;
+import org.hamcrest.MatcherAssert;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.api.HttpStatusException;
+import rs.ltt.jmap.client.api.RetryPolicy;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+import rs.ltt.jmap.common.method.call.mailbox.GetMailboxMethodCall;
+import rs.ltt.jmap.common.method.response.mailbox.GetMailboxMethodResponse;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+public class RetryTest {
+
+    @Test
+    public void readOnlyRequestIsRetried()
+            throws IOException, ExecutionException, InterruptedException, TimeoutException {
+        final MockWebServer server = new MockWebServer();
+        final UnavailableMailServer mailServer = new UnavailableMailServer();
+        server.setDispatcher(mailServer);
+        final RetryPolicy retryPolicy =
+                new RetryPolicy.Builder().initialBackoff(Duration.ofMillis(10)).build();
+        try (final JmapClient jmapClient =
+                new JmapClient(
+                        mailServer.getUsername(),
+                        JmapDispatcher.PASSWORD,
+                        server.url(JmapDispatcher.WELL_KNOWN_PATH))) {
+            jmapClient.setRetryPolicy(retryPolicy);
+            mailServer.failures.set(2);
+            final GetMailboxMethodResponse response =
+                    jmapClient
+                            .call(
+                                    GetMailboxMethodCall.builder()
+                                            .accountId(mailServer.getAccountId())
+                                            .build())
+                            .get(5, TimeUnit.SECONDS)
+                            .getMain(GetMailboxMethodResponse.class);
+            Assertions.assertNotNull(response.getList());
+            Assertions.assertEquals(2, retryPolicy.getBudget().getRetries());
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void writeIsNotRetried() throws IOException {
+        final MockWebServer server = new MockWebServer();
+        final UnavailableMailServer mailServer = new UnavailableMailServer();
+        server.setDispatcher(mailServer);
+        final RetryPolicy retryPolicy =
+                new RetryPolicy.Builder().initialBackoff(Duration.ofMillis(10)).build();
+        try (final JmapClient jmapClient =
+                new JmapClient(
+                        mailServer.getUsername(),
+                        JmapDispatcher.PASSWORD,
+                        server.url(JmapDispatcher.WELL_KNOWN_PATH))) {
+            jmapClient.setRetryPolicy(retryPolicy);
+            mailServer.failures.set(1);
+            mailServer.retryAfter = "120";
+            final ExecutionException exception =
+                    Assertions.assertThrows(
+                            ExecutionException.class,
+                            () ->
+                                    jmapClient
+                                            .call(new EchoMethodCall("jmap-mua"))
+                                            .get(5, TimeUnit.SECONDS));
+            MatcherAssert.assertThat(
+                    exception.getCause(), CoreMatchers.instanceOf(HttpStatusException.class));
+            final HttpStatusException httpStatusException =
+                    (HttpStatusException) exception.getCause();
+            Assertions.assertEquals(503, httpStatusException.getCode());
+            Assertions.assertEquals(Duration.ofMinutes(2), httpStatusException.getRetryAfter());
+            Assertions.assertEquals(0, retryPolicy.getBudget().getRetries());
+        }
+        server.shutdown();
+    }
+
+    private static class UnavailableMailServer extends MockMailServer {
+
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private volatile String retryAfter = null;
+
+        private UnavailableMailServer() {
+            super(2);
+        }
+
+        @Override
+        public MockResponse dispatch(final RecordedRequest request) {
+            if ("POST".equals(request.getMethod())
+                    && "/jmap/".equals(request.getPath())
+                    && failures.getAndDecrement() > 0) {
+                final MockResponse response = new MockResponse().setResponseCode(503);
+                // OkHttp itself repeats requests that were answered with 'Retry-After: 0'
+                return retryAfter == null
+                        ? response
+                        : response.addHeader("Retry-After", retryAfter);
+            }
+            return super.dispatch(request);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package rs.ltt.jmap.mua;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import rs.ltt.jmap.client.JmapClient;
+import rs.ltt.jmap.client.Transport;
+import rs.ltt.jmap.common.method.call.core.EchoMethodCall;
+import rs.ltt.jmap.mock.server.JmapDispatcher;
+import rs.ltt.jmap.mock.server.MockMailServer;
+
+public class TransportTest {
+
+    @Test
+    public void clientsShareTransport()
+            throws IOException, ExecutionException, InterruptedException {
+        final MockWebServer server = new MockWebServer();
+        final MockMailServer mailServer = new MockMailServer(2);
+        server.setDispatcher(mailServer);
+        final AtomicInteger requests = new AtomicInteger();
+        final OkHttpClient okHttpClient =
+                new OkHttpClient.Builder()
+                        .addNetworkInterceptor(
+                                chain -> {
+                                    requests.incrementAndGet();
+                                    return chain.proceed(chain.request());
+                                })
+                        .build();
+        final ScheduledExecutorService scheduledExecutorService =
+                Executors.newSingleThreadScheduledExecutor();
+        final Transport transport =
+                Transport.builder()
+                        .httpClient(okHttpClient)
+                        .scheduledExecutorService(scheduledExecutorService)
+                        .build();
+        for (int i = 0; i < 2; ++i) {
+            try (final JmapClient jmapClient =
+                    JmapClient.builder()
+                            .credentials(mailServer.getUsername(), JmapDispatcher.PASSWORD)
+                            .sessionResource(server.url(JmapDispatcher.WELL_KNOWN_PATH))
+                            .transport(transport)
+                            .build()) {
+                Assertions.assertSame(transport, jmapClient.getTransport());
+                jmapClient.call(new EchoMethodCall("jmap-mua")).get();
+            }
+        }
+        // every request the server has seen went through the OkHttpClient of the transport
+        Assertions.assertEquals(server.getRequestCount(), requests.get());
+        Assertions.assertEquals(1, okHttpClient.connectionPool().connectionCount());
+        scheduledExecutorService.shutdown();
+        server.shutdown();
+    }
+}